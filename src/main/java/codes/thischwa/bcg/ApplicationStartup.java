@@ -1,8 +1,14 @@
 package codes.thischwa.bcg;
 
 import codes.thischwa.bcg.conf.BcgConf;
+import codes.thischwa.bcg.conf.CoordinationConf;
 import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.IoConf;
 import codes.thischwa.bcg.service.BirthdayCalGenerator;
+import codes.thischwa.bcg.service.CapabilityDiscovery;
+import codes.thischwa.bcg.service.LeaderElection;
+import codes.thischwa.bcg.service.Shard;
+import codes.thischwa.bcg.service.SyncResult;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
@@ -23,14 +29,31 @@ public class ApplicationStartup implements ApplicationListener<ApplicationReadyE
 
   private final BirthdayCalGenerator birthdayCalGenerator;
 
+  private final Shard shard;
+
+  private final LeaderElection leaderElection;
+
+  private final CoordinationConf coordinationConf;
+
+  private final CapabilityDiscovery capabilityDiscovery;
+
+  private final IoConf ioConf;
+
   private final Environment env;
 
   /** Initializes the application on startup. */
   public ApplicationStartup(
-      BcgConf config, DavConf davConf, BirthdayCalGenerator birthdayCalGenerator, Environment env) {
+      BcgConf config, DavConf davConf, BirthdayCalGenerator birthdayCalGenerator, Shard shard,
+      LeaderElection leaderElection, CoordinationConf coordinationConf,
+      CapabilityDiscovery capabilityDiscovery, IoConf ioConf, Environment env) {
     this.config = config;
     this.davConf = davConf;
     this.birthdayCalGenerator = birthdayCalGenerator;
+    this.shard = shard;
+    this.leaderElection = leaderElection;
+    this.coordinationConf = coordinationConf;
+    this.capabilityDiscovery = capabilityDiscovery;
+    this.ioConf = ioConf;
     this.env = env;
   }
 
@@ -44,12 +67,28 @@ public class ApplicationStartup implements ApplicationListener<ApplicationReadyE
     log.info("  * card-dav-url: {}", davConf.cardUrl());
     log.info("  * cal-dav-url: {}", davConf.calUrl());
     log.info("  * user: {}", davConf.user());
+    log.info("  * shard: {}", shard.isSharded() ? shard : "n/a");
+    log.info("  * coordination: {}", coordinationConf.mode().name().toLowerCase());
+    log.info("  * contact source: {}", switch (ioConf.contactSource()) {
+      case DAV -> "dav";
+      case DIRECTORY -> ioConf.getContactDirPath();
+      case EXPORT -> ioConf.getContactFilePath();
+    });
+    log.info("  * event sink: {}", ioConf.eventSink() == IoConf.SinkKind.DAV ? "dav"
+        : ioConf.getEventDirPath());
+    if (ioConf.usesDav()) {
+      log.info("  * sync plan: {}", capabilityDiscovery.getPlan());
+    }
 
     if (config.runOnStart()) {
-      try {
+      LeaderElection.Term term = leaderElection.tryLead();
+      if (term == null) {
+        return;
+      }
+      try (term) {
         log.info("Processing on start ...");
-        birthdayCalGenerator.processBirthdayEvents();
-        log.info("Processed on start successfully.");
+        SyncResult result = birthdayCalGenerator.processBirthdayEvents();
+        log.info("Processed on start {}.", result.isComplete() ? "successfully" : "partially");
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
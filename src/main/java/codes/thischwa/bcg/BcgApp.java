@@ -1,14 +1,21 @@
 package codes.thischwa.bcg;
 
+import codes.thischwa.bcg.conf.UpcomingConf;
 import codes.thischwa.bcg.service.BirthdayScheduler;
+import codes.thischwa.bcg.service.UpcomingBirthdays;
+import java.time.LocalDate;
+import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
 import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
+import org.springframework.lang.Nullable;
 
 /**
  * The main application class for the Birthday Calendar Generator (BCG) application.
@@ -18,7 +25,8 @@ import org.springframework.context.annotation.Profile;
  *
  * <p>The application runner bean provided in this class includes special functionality to stop the
  * application after a single invocation of the birthday calendar synchronization process, in case
- * the `run-once` argument is detected.
+ * the `run-once` argument is detected, and the query of the upcoming birthdays with the argument
+ * `upcoming`.
  */
 @ConfigurationPropertiesScan
 @SpringBootApplication
@@ -45,17 +53,69 @@ public class BcgApp {
   }
 
   /**
-   * Adds a command-line option to stop the application after calendar synchronization.
+   * Adds a command-line option to stop the application after calendar synchronization, and the
+   * option {@code --upcoming=<days>}, which prints the birthdays of today and the next days from
+   * the index of the last sync run and stops the application without any sync.
    */
   @Bean
-  public ApplicationRunner applicationRunner(BirthdayScheduler birthdayScheduler) {
+  public ApplicationRunner applicationRunner(ConfigurableApplicationContext context,
+                                             BirthdayScheduler birthdayScheduler,
+                                             UpcomingBirthdays upcomingBirthdays,
+                                             UpcomingConf upcomingConf) {
     return args -> {
+      if (args.containsOption("upcoming")) {
+        Integer days = parseUpcomingDays(args.getOptionValues("upcoming"),
+            upcomingConf.defaultDays());
+        if (days == null) {
+          System.err.printf("Usage: --upcoming[=<days>], the days must be between 0 and %d.%n",
+              UpcomingBirthdays.MAX_DAYS);
+          exit(context, 2);
+          return;
+        }
+        LocalDate today = LocalDate.now();
+        for (UpcomingBirthdays.UpcomingBirthday birthday : upcomingBirthdays.query(today, days)) {
+          System.out.printf("%s  %s (%d)%n", birthday.date(), birthday.contact().getFullName(),
+              birthday.getAge());
+        }
+        exit(context, 0);
+        return;
+      }
       if (args.containsOption("run-once")) {
         log.info("Argument '--run-once' detected. Starting calendar synchronization...");
         birthdayScheduler.process(); // Trigger calendar sync
         log.info("Calendar synchronization complete (run-once). Shutting down application.");
-        System.exit(0);
+        exit(context, 0);
       }
     };
   }
+
+  /**
+   * Parses the value of the option {@code --upcoming}. Without a value, the default days apply.
+   *
+   * @param values      the values of the option
+   * @param defaultDays the days if the option has no value
+   * @return the days, or null if they aren't a number between 0 and
+   *     {@value UpcomingBirthdays#MAX_DAYS}
+   */
+  @Nullable
+  static Integer parseUpcomingDays(List<String> values, int defaultDays) {
+    int days;
+    if (values.isEmpty() || values.get(0).isBlank()) {
+      days = defaultDays;
+    } else {
+      try {
+        days = Integer.parseInt(values.get(0).trim());
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return days < 0 || days > UpcomingBirthdays.MAX_DAYS ? null : days;
+  }
+
+  /**
+   * Closes the application context, so its beans are shut down, and exits with the exit code.
+   */
+  private static void exit(ConfigurableApplicationContext context, int exitCode) {
+    System.exit(SpringApplication.exit(context, () -> exitCode));
+  }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package codes.thischwa.bcg;
 
 import java.time.LocalDate;
+import java.time.MonthDay;
+import java.time.temporal.ChronoUnit;
 
 import org.springframework.lang.Nullable;
 
@@ -23,4 +25,24 @@ public record Contact(String firstName, String lastName, String displayName,
   public String getFullName() {
     return String.format("%s %s", firstName, lastName);
   }
+
+  /**
+   * Calculates the number of days from the specified day until the next birthday. A birthday on
+   * February 29 is on February 28 in other years.
+   *
+   * @param today the day to count from
+   * @return the number of days, 0 if the birthday is today, or {@link Integer#MAX_VALUE} if the
+   *     birthday is unknown
+   */
+  public int daysUntilBirthday(LocalDate today) {
+    if (birthday == null) {
+      return Integer.MAX_VALUE;
+    }
+    MonthDay monthDay = MonthDay.from(birthday);
+    LocalDate next = monthDay.atYear(today.getYear());
+    if (next.isBefore(today)) {
+      next = monthDay.atYear(today.getYear() + 1);
+    }
+    return (int) ChronoUnit.DAYS.between(today, next);
+  }
 }
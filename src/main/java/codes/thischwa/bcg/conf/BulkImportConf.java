@@ -0,0 +1,18 @@
+package codes.thischwa.bcg.conf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the initial import of the birthday events into a calendar without
+ * any of them. These properties are mapped from configuration sources with the prefix
+ * `bulk-import`.
+ *
+ * @param enabled     Whether the events are imported in bulk, if the calendar contains no birthday
+ *                    event, instead of being diffed and written by the write threads.
+ * @param concurrency The number of events which are uploaded concurrently by the import. The
+ *                    number of concurrent requests is still limited by the adaptive concurrency
+ *                    limit.
+ */
+@ConfigurationProperties(prefix = "bulk-import")
+public record BulkImportConf(boolean enabled, int concurrency) {
+}
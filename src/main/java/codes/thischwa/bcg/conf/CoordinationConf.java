@@ -0,0 +1,29 @@
+package codes.thischwa.bcg.conf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the coordination of multiple replicas, so only one of them syncs.
+ * These properties are mapped from configuration sources with the prefix `coordination`.
+ *
+ * @param mode                 The kind of lock the leader holds.
+ * @param lockName             The name of the lock resource in the calendar collection, or of the
+ *                             lock file in the state directory.
+ * @param lockTimeoutInSeconds The timeout of a WebDAV lock. If the leader doesn't refresh its
+ *                             lock within this time, another replica takes over.
+ */
+@ConfigurationProperties(prefix = "coordination")
+public record CoordinationConf(Mode mode, String lockName, int lockTimeoutInSeconds) {
+
+  /**
+   * The kinds of coordination.
+   */
+  public enum Mode {
+    /** No coordination, each instance syncs. */
+    NONE,
+    /** A WebDAV LOCK on a resource in the calendar collection. */
+    DAV,
+    /** A lock of a file in the state directory, for replicas sharing a file system. */
+    FILE
+  }
+}
@@ -1,6 +1,7 @@
 package codes.thischwa.bcg.conf;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.lang.Nullable;
 import org.springframework.web.util.UriComponentsBuilder;
 
 /**
@@ -13,11 +14,14 @@ import org.springframework.web.util.UriComponentsBuilder;
  * @param cardUrl        The URL for accessing address book services.
  * @param retryDelayInSeconds The delay in seconds for scheduled tasks or updates.
  * @param maxRetries The maximum number of trials for a specific operation.
+ * @param strategy   The manual override of the sync strategy, null or {@code auto} to pick it by
+ *                   the capabilities of the server.
+ * @param transport  The transport of the DAV requests, null for {@link Transport#SARDINE}.
  */
 @ConfigurationProperties(prefix = "dav")
 public record DavConf(
     String user, String password, String calUrl, String cardUrl, Integer retryDelayInSeconds,
-    Integer maxRetries) {
+    Integer maxRetries, @Nullable Strategy strategy, @Nullable Transport transport) {
 
   /**
    * Retrieves the base URL derived from the `cardUrl` property. It removes any path, query,
@@ -37,4 +41,65 @@ public record DavConf(
   public long getRetryDelayInMillis() {
     return retryDelayInSeconds * 1000;
   }
+
+  /**
+   * The transport of the DAV requests.
+   */
+  public enum Transport {
+    /** Sardine on the blocking Apache HttpClient, each request occupies a thread. */
+    SARDINE,
+    /**
+     * The non-blocking {@link java.net.http.HttpClient}, which multiplexes the requests over
+     * HTTP/2 connections if the server offers it.
+     */
+    ASYNC
+  }
+
+  /**
+   * The strategy of the sync, each part is either {@code auto} or forced to a specific way.
+   *
+   * @param calendarListing how the birthday events of the calendar are listed
+   * @param contactFetch    how the vCards are fetched
+   * @param eventWrite      how an outdated event is replaced
+   */
+  public record Strategy(@Nullable CalendarListing calendarListing,
+                         @Nullable ContactFetch contactFetch,
+                         @Nullable EventWrite eventWrite) {
+  }
+
+  /**
+   * How the birthday events of the calendar are listed.
+   */
+  public enum CalendarListing {
+    /** Picked by the capabilities of the server. */
+    AUTO,
+    /** A {@code calendar-query} REPORT, which returns the events of the category only. */
+    CALENDAR_QUERY,
+    /** A PROPFIND of all events, each fetched by GET and filtered by its category. */
+    PROPFIND
+  }
+
+  /**
+   * How the vCards are fetched, after the address book has been listed.
+   */
+  public enum ContactFetch {
+    /** Picked by the capabilities of the server. */
+    AUTO,
+    /** An {@code addressbook-multiget} REPORT for a batch of vCards. */
+    MULTIGET,
+    /** A GET for each vCard. */
+    GET
+  }
+
+  /**
+   * How an outdated event is replaced, if the new event has the same path.
+   */
+  public enum EventWrite {
+    /** Picked by the capabilities of the server. */
+    AUTO,
+    /** The new event is put over the outdated one. */
+    OVERWRITE,
+    /** The outdated event is deleted before the new event is put. */
+    DELETE_AND_PUT
+  }
 }
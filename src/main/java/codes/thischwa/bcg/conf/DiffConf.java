@@ -0,0 +1,15 @@
+package codes.thischwa.bcg.conf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the diff between the existing birthday events and the contacts.
+ * These properties are mapped from configuration sources with the prefix `diff`.
+ *
+ * @param spillThreshold The number of events, and of contacts, kept in memory by the diff. If
+ *                       more are read, they are spilled to sorted runs in the state directory and
+ *                       the diff merges the runs. 0 keeps all of them in memory.
+ */
+@ConfigurationProperties(prefix = "diff")
+public record DiffConf(int spillThreshold) {
+}
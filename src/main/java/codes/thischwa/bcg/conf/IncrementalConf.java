@@ -0,0 +1,23 @@
+package codes.thischwa.bcg.conf;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the incremental read of the address book. These properties are
+ * mapped from configuration sources with the prefix `incremental`.
+ *
+ * @param enabled                           Whether the vCards which are unchanged since the last
+ *                                          run are taken from the contact cache instead of being
+ *                                          fetched.
+ * @param fullReconciliationIntervalInHours The interval in which all vCards are fetched and
+ *                                          parsed regardless of the cache, 0 to do so on every
+ *                                          run.
+ */
+@ConfigurationProperties(prefix = "incremental")
+public record IncrementalConf(boolean enabled, int fullReconciliationIntervalInHours) {
+
+  public Duration getFullReconciliationInterval() {
+    return Duration.ofHours(fullReconciliationIntervalInHours);
+  }
+}
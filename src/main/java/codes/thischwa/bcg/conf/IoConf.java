@@ -0,0 +1,88 @@
+package codes.thischwa.bcg.conf;
+
+import java.nio.file.Path;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+
+/**
+ * Configuration properties for where the contacts are read from and the birthday events are
+ * written to. These properties are mapped from configuration sources with the prefix `io`.
+ *
+ * @param contactSource The kind of source of the contacts.
+ * @param contactDir    The directory of the vCard files, if the contacts are read from a
+ *                      directory.
+ * @param contactFile   The vCard file containing all contacts, if the contacts are read from the
+ *                      export of an address book.
+ * @param eventSink     The kind of target of the birthday events.
+ * @param eventDir      The directory of the iCalendar files, if the events are written to a
+ *                      directory.
+ */
+@ConfigurationProperties(prefix = "io")
+public record IoConf(SourceKind contactSource, @Nullable String contactDir,
+                     @Nullable String contactFile, SinkKind eventSink,
+                     @Nullable String eventDir) {
+
+  /**
+   * Returns the directory of the vCard files.
+   *
+   * @throws IllegalArgumentException if it isn't configured
+   */
+  public Path getContactDirPath() throws IllegalArgumentException {
+    return toPath("io.contact-dir", contactDir);
+  }
+
+  /**
+   * Returns the vCard file containing all contacts.
+   *
+   * @throws IllegalArgumentException if it isn't configured
+   */
+  public Path getContactFilePath() throws IllegalArgumentException {
+    return toPath("io.contact-file", contactFile);
+  }
+
+  /**
+   * Returns the directory of the iCalendar files.
+   *
+   * @throws IllegalArgumentException if it isn't configured
+   */
+  public Path getEventDirPath() throws IllegalArgumentException {
+    return toPath("io.event-dir", eventDir);
+  }
+
+  /**
+   * Checks whether the DAV server is used, as source or as target.
+   */
+  public boolean usesDav() {
+    return contactSource == SourceKind.DAV || eventSink == SinkKind.DAV;
+  }
+
+  private static Path toPath(String property, @Nullable String path) {
+    if (!StringUtils.hasText(path)) {
+      throw new IllegalArgumentException("The property " + property + " must be set.");
+    }
+    return Path.of(path);
+  }
+
+  /**
+   * The kinds of sources of the contacts.
+   */
+  public enum SourceKind {
+    /** The address book of the DAV server. */
+    DAV,
+    /** A directory of vCard files, one contact per file. */
+    DIRECTORY,
+    /** A single vCard file containing all contacts, e.g. the export of an address book. */
+    EXPORT
+  }
+
+  /**
+   * The kinds of targets of the birthday events.
+   */
+  public enum SinkKind {
+    /** The calendar of the DAV server. */
+    DAV,
+    /** A directory of iCalendar files, one event per file. */
+    DIRECTORY
+  }
+}
@@ -0,0 +1,26 @@
+package codes.thischwa.bcg.conf;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the adaptive concurrency limit of the requests to the DAV server.
+ * These properties are mapped from configuration sources with the prefix `limiter`.
+ *
+ * @param initialLimit            The number of concurrent requests allowed at start.
+ * @param minLimit                The lower bound of the concurrency limit.
+ * @param maxLimit                The upper bound of the concurrency limit.
+ * @param backoffRatio            The factor the limit is multiplied with on overload, between 0
+ *                                and 1.
+ * @param latencyTolerance        A request whose latency exceeds the smoothed latency by this
+ *                                factor is treated as a latency spike.
+ * @param maxRetryAfterInSeconds  The upper bound of a pause requested by a `Retry-After` header.
+ */
+@ConfigurationProperties(prefix = "limiter")
+public record LimiterConf(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                          double latencyTolerance, int maxRetryAfterInSeconds) {
+
+  public Duration getMaxRetryAfter() {
+    return Duration.ofSeconds(maxRetryAfterInSeconds);
+  }
+}
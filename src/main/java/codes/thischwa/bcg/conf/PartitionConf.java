@@ -0,0 +1,32 @@
+package codes.thischwa.bcg.conf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.lang.Nullable;
+
+/**
+ * Configuration properties for spreading the birthday events across several calendar collections.
+ * These properties are mapped from configuration sources with the prefix `partition`.
+ *
+ * @param scheme         How the events are assigned to the collections, null for
+ *                       {@link Scheme#NONE}.
+ * @param hashPartitions The number of collections of the scheme {@link Scheme#HASH}.
+ */
+@ConfigurationProperties(prefix = "partition")
+public record PartitionConf(@Nullable Scheme scheme, int hashPartitions) {
+
+  public Scheme getScheme() {
+    return scheme == null ? Scheme.NONE : scheme;
+  }
+
+  /**
+   * How the birthday events are assigned to the calendar collections.
+   */
+  public enum Scheme {
+    /** All events are written to the calendar collection of {@code dav.cal-url}. */
+    NONE,
+    /** One collection per month of the birthday. */
+    MONTH,
+    /** A fixed number of collections, picked by the hash of the identifier of the contact. */
+    HASH
+  }
+}
@@ -0,0 +1,18 @@
+package codes.thischwa.bcg.conf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the stages of a sync run. These properties are mapped from
+ * configuration sources with the prefix `pipeline`.
+ *
+ * @param queueCapacity The number of items a queue between two stages holds. A stage whose output
+ *                      queue is full waits, so a slow stage slows down the stages before it.
+ * @param fetchThreads  The number of threads fetching vCards and events from the DAV server.
+ * @param parseThreads  The number of threads parsing the fetched vCards and events.
+ * @param writeThreads  The number of threads writing the changes to the calendar.
+ */
+@ConfigurationProperties(prefix = "pipeline")
+public record PipelineConf(int queueCapacity, int fetchThreads, int parseThreads,
+                           int writeThreads) {
+}
@@ -0,0 +1,14 @@
+package codes.thischwa.bcg.conf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the in-process cache of the rendered birthday events. These
+ * properties are mapped from configuration sources with the prefix `render-cache`.
+ *
+ * @param maxSizeInKb The maximum size of the rendered events kept in the cache. The least
+ *                    recently used events are evicted first. 0 disables the cache.
+ */
+@ConfigurationProperties(prefix = "render-cache")
+public record RenderCacheConf(int maxSizeInKb) {
+}
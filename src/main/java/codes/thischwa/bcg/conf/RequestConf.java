@@ -0,0 +1,43 @@
+package codes.thischwa.bcg.conf;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the deadlines and the hedging of the requests to the DAV server.
+ * These properties are mapped from configuration sources with the prefix `request`.
+ *
+ * @param connectTimeoutInSeconds The maximum time to establish a connection.
+ * @param readTimeoutInSeconds    The maximum time of inactivity while a response is read, 0 for
+ *                                no limit. The JDK transport applies it to the streamed listings
+ *                                only.
+ * @param deadlineInSeconds       The maximum time of a request until its response has been read,
+ *                                0 for no limit. A streamed listing must only have been answered
+ *                                by then, its body is bounded by the read timeout and the deadline
+ *                                of a run in progress.
+ * @param hedging                 Whether a GET or REPORT of single resources which takes longer
+ *                                than the 95th percentile of its kind is sent a second time.
+ * @param hedgeMinDelayInMillis   The lower bound of the time before a request is hedged.
+ * @param hedgeBudgetPercent      The maximum number of hedges in percent of the requests.
+ */
+@ConfigurationProperties(prefix = "request")
+public record RequestConf(int connectTimeoutInSeconds, int readTimeoutInSeconds,
+                          int deadlineInSeconds, boolean hedging, int hedgeMinDelayInMillis,
+                          int hedgeBudgetPercent) {
+
+  public Duration getConnectTimeout() {
+    return Duration.ofSeconds(connectTimeoutInSeconds);
+  }
+
+  public Duration getReadTimeout() {
+    return Duration.ofSeconds(readTimeoutInSeconds);
+  }
+
+  public Duration getDeadline() {
+    return Duration.ofSeconds(deadlineInSeconds);
+  }
+
+  public Duration getHedgeMinDelay() {
+    return Duration.ofMillis(hedgeMinDelayInMillis);
+  }
+}
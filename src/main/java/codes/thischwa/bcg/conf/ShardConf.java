@@ -0,0 +1,14 @@
+package codes.thischwa.bcg.conf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the sharding of the contacts across multiple instances. These
+ * properties are mapped from configuration sources with the prefix `shard`.
+ *
+ * @param count The number of instances sharing the address book, 1 disables sharding.
+ * @param index The index of this instance, from 0 to count - 1.
+ */
+@ConfigurationProperties(prefix = "shard")
+public record ShardConf(int count, int index) {
+}
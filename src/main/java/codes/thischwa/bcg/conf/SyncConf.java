@@ -0,0 +1,43 @@
+package codes.thischwa.bcg.conf;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the sync runs. These properties are mapped from configuration
+ * sources with the prefix `sync`.
+ *
+ * @param stateDir                 The directory where the state of the sync runs, e.g. the work
+ *                                 journal, is kept.
+ * @param itemRetries              The number of times a failed change is retried at the end of a
+ *                                 run, before it's moved to the dead-letter list.
+ * @param itemRetryDelayInSeconds  The delay before the first retry, it's doubled for each further
+ *                                 retry.
+ * @param runBudgetInSeconds       The time budget of a run, 0 for no limit. The changes which
+ *                                 aren't started within the budget are carried over to the next
+ *                                 run.
+ * @param runDeadlineInSeconds     The hard deadline of a run, 0 for none. The requests still in
+ *                                 flight at the deadline are aborted and no further requests are
+ *                                 sent. It should exceed the budget.
+ */
+@ConfigurationProperties(prefix = "sync")
+public record SyncConf(String stateDir, int itemRetries, int itemRetryDelayInSeconds,
+                       int runBudgetInSeconds, int runDeadlineInSeconds) {
+
+  public Path getStateDirPath() {
+    return Path.of(stateDir);
+  }
+
+  public Duration getItemRetryDelay() {
+    return Duration.ofSeconds(itemRetryDelayInSeconds);
+  }
+
+  public Duration getRunBudget() {
+    return Duration.ofSeconds(runBudgetInSeconds);
+  }
+
+  public Duration getRunDeadline() {
+    return Duration.ofSeconds(runDeadlineInSeconds);
+  }
+}
@@ -0,0 +1,28 @@
+package codes.thischwa.bcg.conf;
+
+import io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingSpanExporter;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration of the export of the traces of the sync runs.
+ *
+ * <p>Spans are exported via OTLP if `management.otlp.tracing.endpoint` is set, see the Spring Boot
+ * documentation. Additionally, the spans can be written to the log as OTLP JSON lines with
+ * `tracing.log-spans: true`, which allows inspecting a single run without a collector.
+ */
+@Configuration(proxyBeanMethods = false)
+public class TracingConfig {
+
+  /**
+   * Creates an exporter that writes each span as an OTLP JSON line to the logger
+   * `io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingSpanExporter`.
+   */
+  @Bean
+  @ConditionalOnProperty(name = "tracing.log-spans", havingValue = "true")
+  SpanExporter otlpJsonLoggingSpanExporter() {
+    return OtlpJsonLoggingSpanExporter.create();
+  }
+}
@@ -0,0 +1,19 @@
+package codes.thischwa.bcg.conf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the HTTP endpoint of the upcoming birthdays. These properties are
+ * mapped from configuration sources with the prefix `upcoming`.
+ *
+ * @param httpAddress The address the endpoint is bound to.
+ * @param httpPort    The port of the endpoint, -1 disables it and 0 binds it to a free port.
+ * @param defaultDays The number of days of a query which doesn't specify them.
+ */
+@ConfigurationProperties(prefix = "upcoming")
+public record UpcomingConf(String httpAddress, int httpPort, int defaultDays) {
+
+  public boolean isHttpEnabled() {
+    return httpPort >= 0;
+  }
+}
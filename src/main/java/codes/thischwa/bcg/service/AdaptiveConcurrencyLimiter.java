@@ -0,0 +1,272 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.conf.LimiterConf;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the number of concurrent requests to the DAV server with an AIMD (additive increase,
+ * multiplicative decrease) algorithm.
+ *
+ * <p>Each successful request raises the limit by {@code 1/limit}, so it grows by about one per
+ * round of requests. An overload response (429, 503) or a latency spike multiplies the limit with
+ * the configured backoff ratio, at most once per smoothed latency. A {@code Retry-After} of the
+ * server pauses all requests until it has elapsed.
+ *
+ * <p>A slot is either waited for by the calling thread, see {@link #acquire()}, or without
+ * blocking a thread, see {@link #acquireAsync()}. The waiting requests of the latter are granted
+ * the free slots first, in the order in which they arrived.
+ *
+ * <p>The current limit is exposed as the gauge {@code bcg.dav.concurrency.limit}.
+ */
+@Component
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+  private static final int MIN_LATENCY_SAMPLES = 10;
+  private static final double LATENCY_SMOOTHING = 0.1;
+
+  private final LimiterConf conf;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final Counter overloadCounter;
+  private final Counter latencySpikeCounter;
+  private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+  private double limit;
+  private int inFlight;
+  private long pausedUntilNanos;
+  private double smoothedLatencyNanos;
+  private long latencySamples;
+  private long lastDecreaseNanos;
+  private long wakeUpNanos;
+
+  /**
+   * Creates a limiter and registers its metrics.
+   *
+   * @param conf          the configuration of the limiter
+   * @param meterRegistry the registry of the metrics
+   */
+  public AdaptiveConcurrencyLimiter(LimiterConf conf, MeterRegistry meterRegistry) {
+    this.conf = conf;
+    this.limit = Math.max(conf.minLimit(), Math.min(conf.maxLimit(), conf.initialLimit()));
+    this.lastDecreaseNanos = System.nanoTime();
+    Gauge.builder("bcg.dav.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+        .description("Current number of concurrent requests allowed to the DAV server")
+        .register(meterRegistry);
+    Gauge.builder("bcg.dav.concurrency.in-flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+        .description("Number of requests to the DAV server in progress")
+        .register(meterRegistry);
+    overloadCounter = Counter.builder("bcg.dav.concurrency.overloads")
+        .description("Number of overload responses (429, 503) of the DAV server")
+        .register(meterRegistry);
+    latencySpikeCounter = Counter.builder("bcg.dav.concurrency.latency-spikes")
+        .description("Number of requests whose latency exceeded the tolerated latency")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Waits until a request may be sent. Each successful call must be followed by exactly one call
+   * of {@link #onSuccess(long)}, {@link #onOverload(Duration)} or {@link #onFailure()}.
+   *
+   * @throws InterruptedIOException if the thread is interrupted while waiting
+   */
+  public void acquire() throws InterruptedIOException {
+    lock.lock();
+    try {
+      while (true) {
+        long pause = pausedUntilNanos - System.nanoTime();
+        if (pause > 0) {
+          changed.awaitNanos(pause);
+        } else if (inFlight < (int) limit && waiting.isEmpty()) {
+          inFlight++;
+          return;
+        } else {
+          changed.await();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a request slot.");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Requests a slot without blocking the calling thread. Like {@link #acquire()}, each slot
+   * granted must be released. A future which is cancelled before it's completed doesn't get a
+   * slot.
+   *
+   * @return the future which is completed when a request may be sent, by the thread which released
+   *     the slot or the one of the end of a pause
+   */
+  public CompletableFuture<Void> acquireAsync() {
+    CompletableFuture<Void> slot = new CompletableFuture<>();
+    lock.lock();
+    try {
+      waiting.add(slot);
+    } finally {
+      lock.unlock();
+    }
+    grantWaiting();
+    return slot;
+  }
+
+  /**
+   * Grants the free slots to the waiting requests. The futures are completed outside the lock,
+   * because their dependent stages run right away.
+   */
+  private void grantWaiting() {
+    List<CompletableFuture<Void>> granted = new ArrayList<>();
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+      long pause = pausedUntilNanos - now;
+      if (pause > 0) {
+        if (!waiting.isEmpty() && wakeUpNanos != pausedUntilNanos) {
+          wakeUpNanos = pausedUntilNanos;
+          CompletableFuture.delayedExecutor(pause, TimeUnit.NANOSECONDS)
+              .execute(this::grantWaiting);
+        }
+        return;
+      }
+      while (inFlight < (int) limit && !waiting.isEmpty()) {
+        CompletableFuture<Void> slot = waiting.poll();
+        if (!slot.isDone()) {
+          inFlight++;
+          granted.add(slot);
+        }
+      }
+      // the threads in acquire() wait while requests are queued here
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    for (CompletableFuture<Void> slot : granted) {
+      if (!slot.complete(null)) {
+        // cancelled in the meantime
+        onFailure();
+      }
+    }
+  }
+
+  /**
+   * Releases a slot after a request was answered without overload.
+   *
+   * @param latencyNanos the latency of the request in nanoseconds
+   */
+  public void onSuccess(long latencyNanos) {
+    lock.lock();
+    try {
+      inFlight--;
+      long now = System.nanoTime();
+      if (latencySamples >= MIN_LATENCY_SAMPLES
+          && latencyNanos > smoothedLatencyNanos * conf.latencyTolerance()) {
+        latencySpikeCounter.increment();
+        decrease(now, "latency spike");
+      } else {
+        limit = Math.min(conf.maxLimit(), limit + 1.0 / limit);
+      }
+      smoothedLatencyNanos = latencySamples == 0 ? latencyNanos
+          : smoothedLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - smoothedLatencyNanos);
+      latencySamples++;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    grantWaiting();
+  }
+
+  /**
+   * Releases a slot after the server responded with an overload status, decreases the limit and
+   * pauses all requests for the specified time.
+   *
+   * @param retryAfter the time the server asked to wait, or null if unknown
+   */
+  public void onOverload(@Nullable Duration retryAfter) {
+    lock.lock();
+    try {
+      inFlight--;
+      overloadCounter.increment();
+      long now = System.nanoTime();
+      decrease(now, "overload");
+      if (retryAfter != null && !retryAfter.isNegative()) {
+        Duration pause = retryAfter.compareTo(conf.getMaxRetryAfter()) > 0
+            ? conf.getMaxRetryAfter() : retryAfter;
+        pausedUntilNanos = Math.max(pausedUntilNanos, now + pause.toNanos());
+        log.info("DAV server is overloaded, pausing requests for {} ms.", pause.toMillis());
+      }
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    grantWaiting();
+  }
+
+  /**
+   * Releases a slot after a request failed without a response, e.g. because of a network error.
+   * The limit isn't changed.
+   */
+  public void onFailure() {
+    lock.lock();
+    try {
+      inFlight--;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    grantWaiting();
+  }
+
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void decrease(long now, String reason) {
+    // decrease at most once per round of requests, the requests in flight were sent with the old
+    // limit and would otherwise collapse it
+    if (now - lastDecreaseNanos < (long) smoothedLatencyNanos) {
+      return;
+    }
+    double old = limit;
+    limit = Math.max(conf.minLimit(), limit * conf.backoffRatio());
+    lastDecreaseNanos = now;
+    log.debug("Decreased concurrency limit from {} to {} due to {}.", (int) old, (int) limit,
+        reason);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("limit=%d, in-flight=%d, smoothed latency=%d ms", getLimit(),
+        getInFlight(), TimeUnit.NANOSECONDS.toMillis((long) smoothedLatencyNanos));
+  }
+}
@@ -0,0 +1,489 @@
+package codes.thischwa.bcg.service;
+
+import com.github.sardine.impl.SardineException;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * The non-blocking {@link DavTransport} on the {@link HttpClient} of the JDK. The client prefers
+ * HTTP/2: over TLS it's negotiated by ALPN, over plain HTTP by an upgrade. So the requests are
+ * multiplexed over a few connections if the server offers HTTP/2, otherwise HTTP/1.1 is spoken.
+ * A request of a single resource doesn't occupy a thread while it's in flight.
+ *
+ * <p>Like {@link BcgSardine}, each request passes the {@link AdaptiveConcurrencyLimiter}, whose
+ * slot is waited for without blocking a thread and is released as soon as the response headers
+ * have arrived. A request answered with 429 or 503 is repeated after the time the server
+ * requested with {@code Retry-After}, without blocking a thread while waiting. Each attempt is
+ * cancelled at its deadline, see {@link RequestDeadlines}. A streamed listing must only have been
+ * answered by then. The client has no read timeout, so its body is watched while it's read: it's
+ * aborted if a read waits longer than the read timeout or at the deadline of a run in progress.
+ * Each request including its retries is observed as {@value BcgSardine#OBSERVATION_NAME}. The
+ * wire-level metrics of {@link HttpWireMetrics} are recorded for the Apache HttpClient only.
+ *
+ * <p>The client delivers the responses by threads of the transport, which are shut down when it's
+ * closed. The client of Java 17 can't be closed itself, its selector thread ends once the
+ * transport is no longer referenced.
+ */
+@Slf4j
+final class AsyncDavTransport implements DavTransport {
+
+  private static final String XML_CONTENT_TYPE = "application/xml; charset=utf-8";
+
+  private final ExecutorService executor;
+  private final HttpClient client;
+  @Nullable
+  private final String authorization;
+  private final AdaptiveConcurrencyLimiter limiter;
+  private final RequestDeadlines deadlines;
+  private final ObservationRegistry observationRegistry;
+  private final int maxAttempts;
+  private final Duration defaultRetryAfter;
+
+  AsyncDavTransport(@Nullable String username, @Nullable String password,
+                    AdaptiveConcurrencyLimiter limiter, RequestDeadlines deadlines,
+                    ObservationRegistry observationRegistry, int maxAttempts,
+                    Duration defaultRetryAfter) {
+    this.executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "bcg-http");
+      thread.setDaemon(true);
+      return thread;
+    });
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .executor(executor)
+        .version(HttpClient.Version.HTTP_2)
+        .followRedirects(HttpClient.Redirect.NORMAL);
+    Duration connectTimeout = deadlines.getConf().getConnectTimeout();
+    if (!connectTimeout.isZero() && !connectTimeout.isNegative()) {
+      builder.connectTimeout(connectTimeout);
+    }
+    this.client = builder.build();
+    this.authorization = username == null ? null : "Basic " + Base64.getEncoder().encodeToString(
+        (username + ":" + (password == null ? "" : password)).getBytes(StandardCharsets.UTF_8));
+    this.limiter = limiter;
+    this.deadlines = deadlines;
+    this.observationRegistry = observationRegistry;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.defaultRetryAfter = defaultRetryAfter;
+  }
+
+  @Override
+  public int list(String url, Consumer<DavEntry> consumer) throws IOException {
+    HttpRequest request = request(url, "PROPFIND", BcgSardine.MINIMAL_PROPFIND)
+        .header("Depth", "1")
+        .build();
+    return stream(request, consumer);
+  }
+
+  @Override
+  public int calendarQuery(String url, String category, Consumer<DavEntry> consumer)
+      throws IOException {
+    HttpRequest request = request(url, "REPORT", BcgSardine.calendarQueryBody(category))
+        .header("Depth", "1")
+        .build();
+    return stream(request, consumer);
+  }
+
+  @Override
+  public CompletableFuture<List<DavEntry>> addressbookMultiget(String url, List<String> hrefs) {
+    HttpRequest request = request(url, "REPORT", BcgSardine.addressbookMultigetBody(hrefs))
+        .header("Depth", "0")
+        .build();
+    return send(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+      List<DavEntry> entries = new ArrayList<>(hrefs.size());
+      MultistatusParser.parse(new ByteArrayInputStream(checkStatus(response).body()),
+          entries::add);
+      return entries;
+    });
+  }
+
+  @Override
+  public CompletableFuture<byte[]> get(String url) {
+    return send(request(url).GET().build(), HttpResponse.BodyHandlers.ofByteArray())
+        .thenApply(response -> checkStatus(response).body());
+  }
+
+  @Override
+  public CompletableFuture<Void> put(String url, byte[] data, String contentType) {
+    HttpRequest request = request(url)
+        .header("Content-Type", contentType)
+        .PUT(HttpRequest.BodyPublishers.ofByteArray(data))
+        .build();
+    return send(request, HttpResponse.BodyHandlers.discarding())
+        .thenApply(response -> {
+          checkStatus(response);
+          return null;
+        });
+  }
+
+  @Override
+  public CompletableFuture<Void> create(String url, byte[] data, String contentType) {
+    HttpRequest request = request(url)
+        .header("Content-Type", contentType)
+        .header("If-None-Match", "*")
+        .PUT(HttpRequest.BodyPublishers.ofByteArray(data))
+        .build();
+    return send(request, HttpResponse.BodyHandlers.discarding())
+        .thenApply(response -> {
+          checkStatus(response);
+          return null;
+        });
+  }
+
+  @Override
+  public CompletableFuture<Void> delete(String url) {
+    return send(request(url).DELETE().build(), HttpResponse.BodyHandlers.discarding())
+        .thenApply(response -> {
+          checkStatus(response);
+          return null;
+        });
+  }
+
+  @Override
+  public boolean exists(String url) throws IOException {
+    HttpRequest request = request(url)
+        .method("HEAD", HttpRequest.BodyPublishers.noBody())
+        .build();
+    HttpResponse<Void> response =
+        DavTransport.await(send(request, HttpResponse.BodyHandlers.discarding()));
+    if (response.statusCode() == 404) {
+      return false;
+    }
+    checkStatus(response);
+    return true;
+  }
+
+  @Override
+  public void makeCalendar(String url, String displayName) throws IOException {
+    HttpRequest request =
+        request(url, "MKCALENDAR", BcgSardine.makeCalendarBody(displayName)).build();
+    DavTransport.await(send(request, HttpResponse.BodyHandlers.discarding())
+        .thenApply(response -> {
+          checkStatus(response);
+          return null;
+        }));
+  }
+
+  @Override
+  public DavCapabilities discover(String url) throws IOException {
+    HttpRequest options = request(url)
+        .method("OPTIONS", HttpRequest.BodyPublishers.noBody())
+        .build();
+    HttpResponse<Void> optionsResponse =
+        DavTransport.await(send(options, HttpResponse.BodyHandlers.discarding()));
+    Set<String> davClasses = new TreeSet<>();
+    Set<String> methods = new TreeSet<>();
+    if (optionsResponse.statusCode() / 100 == 2) {
+      optionsResponse.headers().allValues("DAV")
+          .forEach(value -> BcgSardine.addTokens(value, davClasses, false));
+      optionsResponse.headers().allValues("Allow")
+          .forEach(value -> BcgSardine.addTokens(value, methods, true));
+    }
+    HttpRequest propFind = request(url, "PROPFIND", BcgSardine.CAPABILITIES_PROPFIND)
+        .header("Depth", "0")
+        .build();
+    HttpResponse<byte[]> response =
+        DavTransport.await(send(propFind, HttpResponse.BodyHandlers.ofByteArray()));
+    return MultistatusParser.parseCapabilities(
+        new ByteArrayInputStream(checkStatus(response).body()), davClasses, methods);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private HttpRequest.Builder request(String url) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url));
+    if (authorization != null) {
+      builder.header("Authorization", authorization);
+    }
+    return builder;
+  }
+
+  private HttpRequest.Builder request(String url, String method, String xmlBody) {
+    return request(url)
+        .header("Content-Type", XML_CONTENT_TYPE)
+        .method(method, HttpRequest.BodyPublishers.ofString(xmlBody, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Sends a listing and passes its entries to the consumer while its body is streamed. The body is
+   * watched by a {@link WatchedBody}, which aborts it if it stalls.
+   */
+  private int stream(HttpRequest request, Consumer<DavEntry> consumer) throws IOException {
+    HttpResponse<InputStream> response =
+        DavTransport.await(send(request, HttpResponse.BodyHandlers.ofInputStream()));
+    WatchedBody body = new WatchedBody(response.body(), request);
+    try (InputStream in = body) {
+      checkStatus(response);
+      return MultistatusParser.parse(in, consumer);
+    } catch (CompletionException e) {
+      throw (SardineException) e.getCause();
+    } catch (IOException | RuntimeException e) {
+      // the parser wraps the failure of the aborted read
+      IOException abortedWith = body.abortedWith;
+      if (abortedWith != null) {
+        throw abortedWith;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Fails with a {@link SardineException} wrapped in a {@link CompletionException}, if the
+   * response has an error status.
+   */
+  private static <T> HttpResponse<T> checkStatus(HttpResponse<T> response) {
+    int statusCode = response.statusCode();
+    if (statusCode / 100 != 2) {
+      throw new CompletionException(
+          new SardineException("Unexpected response", statusCode, String.valueOf(statusCode)));
+    }
+    return response;
+  }
+
+  /**
+   * Sends a request, observed as {@value BcgSardine#OBSERVATION_NAME}, and repeats it if the
+   * server is overloaded.
+   */
+  private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request,
+                                                      HttpResponse.BodyHandler<T> bodyHandler) {
+    Observation observation = Observation.createNotStarted(BcgSardine.OBSERVATION_NAME,
+            observationRegistry)
+        .contextualName(request.method())
+        .lowCardinalityKeyValue("http.request.method", request.method())
+        .highCardinalityKeyValue("dav.href", request.uri().getPath())
+        .start();
+    request.bodyPublisher()
+        .filter(publisher -> publisher.contentLength() >= 0)
+        .ifPresent(publisher -> observation.highCardinalityKeyValue("http.request.body.size",
+            String.valueOf(publisher.contentLength())));
+    return attempt(request, bodyHandler, observation, 1).whenComplete((response, failure) -> {
+      if (failure != null) {
+        observation.error(failure instanceof CompletionException e && e.getCause() != null
+            ? e.getCause() : failure);
+      }
+      observation.stop();
+    });
+  }
+
+  /**
+   * Sends an attempt of a request, once the limiter has granted a slot. No thread waits for the
+   * slot, and the deadline of the attempt starts when it's sent.
+   */
+  private <T> CompletableFuture<HttpResponse<T>> attempt(HttpRequest request,
+                                                         HttpResponse.BodyHandler<T> bodyHandler,
+                                                         Observation observation, int attempt) {
+    return limiter.acquireAsync().thenCompose(ignored -> {
+      Duration timeout;
+      try {
+        timeout = deadlines.timeout(request.method(), request.uri());
+      } catch (IOException e) {
+        limiter.onFailure();
+        return CompletableFuture.failedFuture(e);
+      }
+      return exchange(request, bodyHandler, observation, attempt, timeout);
+    });
+  }
+
+  private <T> CompletableFuture<HttpResponse<T>> exchange(HttpRequest request,
+                                                          HttpResponse.BodyHandler<T> bodyHandler,
+                                                          Observation observation, int attempt,
+                                                          @Nullable Duration timeout) {
+    long start = System.nanoTime();
+    boolean[] released = {false};
+    CompletableFuture<HttpResponse<T>> response = client.sendAsync(request, responseInfo -> {
+      // the slot is released as soon as the headers have arrived, the body may still be streamed
+      released[0] = true;
+      int statusCode = responseInfo.statusCode();
+      observation.lowCardinalityKeyValue("http.response.status_code", String.valueOf(statusCode));
+      responseInfo.headers().firstValueAsLong("Content-Length").ifPresent(length ->
+          observation.highCardinalityKeyValue("http.response.body.size", String.valueOf(length)));
+      if (BcgSardine.isOverloaded(statusCode)) {
+        limiter.onOverload(retryAfter(responseInfo.headers()));
+        return HttpResponse.BodySubscribers.replacing(null);
+      }
+      limiter.onSuccess(System.nanoTime() - start);
+      return bodyHandler.apply(responseInfo);
+    });
+    // cancelling the future of the client aborts the exchange, including a stalled body
+    AtomicBoolean aborted = new AtomicBoolean();
+    ScheduledFuture<?> abort = timeout == null ? null : deadlines.schedule(() -> {
+      aborted.set(true);
+      response.cancel(true);
+    }, timeout);
+    return response
+        .handle((r, failure) -> {
+          if (abort != null) {
+            abort.cancel(false);
+          }
+          if (!released[0]) {
+            released[0] = true;
+            limiter.onFailure();
+          }
+          observation.highCardinalityKeyValue("dav.retry.count", String.valueOf(attempt - 1));
+          if (failure == null) {
+            return r;
+          }
+          if (aborted.get()) {
+            throw new CompletionException(
+                deadlines.exceeded(request.method(), request.uri(), timeout));
+          }
+          throw failure instanceof CompletionException e ? e : new CompletionException(failure);
+        })
+        .thenCompose(r -> {
+          if (!BcgSardine.isOverloaded(r.statusCode())) {
+            return CompletableFuture.completedFuture(r);
+          }
+          Duration retryAfter = retryAfter(r.headers());
+          if (attempt >= maxAttempts) {
+            return CompletableFuture.failedFuture(new BcgSardine.OverloadException(
+                r.statusCode(), String.valueOf(r.statusCode()), retryAfter));
+          }
+          log.debug("{} {} overloaded (attempt {}/{}), retrying after {} ms.", request.method(),
+              request.uri(), attempt, maxAttempts, retryAfter.toMillis());
+          // the limiter pauses the requests anyway, neither the delay nor the wait for the slot
+          // blocks a thread
+          return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(
+                  retryAfter.toMillis(), TimeUnit.MILLISECONDS))
+              .thenCompose(ignored -> attempt(request, bodyHandler, observation, attempt + 1));
+        });
+  }
+
+  private Duration retryAfter(HttpHeaders headers) {
+    Duration retryAfter = BcgSardine.parseRetryAfter(headers.firstValue("Retry-After")
+        .orElse(null));
+    return retryAfter == null ? defaultRetryAfter : retryAfter;
+  }
+
+  /**
+   * The body of a streamed listing, which is closed and so aborted if a read waits longer than the
+   * read timeout or if it hasn't been read by the deadline of a run in progress. Mirrors the socket
+   * timeout and the abort of {@link BcgSardine} for the client of the JDK, which has neither.
+   */
+  private final class WatchedBody extends FilterInputStream {
+
+    private final HttpRequest request;
+    private final long readTimeoutNanos;
+    @Nullable
+    private final Duration bodyTimeout;
+    @Nullable
+    private final ScheduledFuture<?> deadline;
+    @Nullable
+    private volatile ScheduledFuture<?> watchdog;
+    /**
+     * The start of the read in progress, 0 if none.
+     */
+    private volatile long readingSince;
+    @Nullable
+    private volatile IOException abortedWith;
+    private volatile boolean closed;
+
+    WatchedBody(InputStream in, HttpRequest request) {
+      super(in);
+      this.request = request;
+      this.readTimeoutNanos = deadlines.getConf().getReadTimeout().toNanos();
+      this.bodyTimeout = deadlines.bodyTimeout(request.method());
+      this.deadline = bodyTimeout == null ? null : deadlines.schedule(() -> abort(
+          deadlines.exceeded(request.method(), request.uri(), bodyTimeout)), bodyTimeout);
+      if (readTimeoutNanos > 0) {
+        watchdog = deadlines.schedule(this::checkRead, Duration.ofNanos(readTimeoutNanos));
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      readingSince = System.nanoTime();
+      try {
+        return super.read();
+      } finally {
+        readingSince = 0;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      readingSince = System.nanoTime();
+      try {
+        return super.read(b, off, len);
+      } finally {
+        readingSince = 0;
+      }
+    }
+
+    /**
+     * Aborts the body if the read in progress has waited for the read timeout, otherwise checks
+     * again when it would have.
+     */
+    private void checkRead() {
+      if (closed) {
+        return;
+      }
+      long since = readingSince;
+      long waited = since == 0 ? 0 : System.nanoTime() - since;
+      if (waited >= readTimeoutNanos) {
+        abort(new HttpTimeoutException(request.method() + " " + request.uri()
+            + " received no data within the read timeout ("
+            + deadlines.getConf().getReadTimeout() + ")."));
+      } else {
+        watchdog = deadlines.schedule(this::checkRead,
+            Duration.ofNanos(readTimeoutNanos - waited));
+      }
+    }
+
+    private void abort(IOException cause) {
+      synchronized (this) {
+        if (abortedWith != null) {
+          return;
+        }
+        abortedWith = cause;
+      }
+      try {
+        // unblocks a read in progress, which fails as the stream is closed
+        in.close();
+      } catch (IOException e) {
+        log.debug("Error while aborting the body of {} {}", request.method(), request.uri(), e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+      ScheduledFuture<?> current = watchdog;
+      if (current != null) {
+        current.cancel(false);
+      }
+      super.close();
+    }
+  }
+}
@@ -0,0 +1,678 @@
+package codes.thischwa.bcg.service;
+
+import com.github.sardine.impl.SardineException;
+import com.github.sardine.impl.SardineImpl;
+import com.github.sardine.impl.handler.LockResponseHandler;
+import com.github.sardine.impl.handler.VoidResponseHandler;
+import com.github.sardine.impl.handler.ValidatingResponseHandler;
+import com.github.sardine.impl.methods.HttpLock;
+import com.github.sardine.impl.methods.HttpPropFind;
+import com.github.sardine.impl.methods.HttpReport;
+import com.github.sardine.model.Exclusive;
+import com.github.sardine.model.Lockinfo;
+import com.github.sardine.model.Lockscope;
+import com.github.sardine.model.Locktype;
+import com.github.sardine.model.Write;
+import com.github.sardine.util.SardineUtil;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.springframework.lang.Nullable;
+
+/**
+ * Extension of {@link SardineImpl} with the DAV requests BCG needs beyond the {@link
+ * com.github.sardine.Sardine} API.
+ *
+ * <p>All requests pass the {@link AdaptiveConcurrencyLimiter}. A request answered with 429 or 503
+ * is repeated after the time the server requested with {@code Retry-After}. Each attempt is
+ * aborted at its deadline, see {@link RequestDeadlines}.
+ */
+@Slf4j
+public class BcgSardine extends SardineImpl {
+
+  static final ContentType XML_CONTENT_TYPE =
+      ContentType.create("application/xml", StandardCharsets.UTF_8);
+
+  static final String MINIMAL_PROPFIND = """
+      <?xml version="1.0" encoding="utf-8"?>
+      <D:propfind xmlns:D="DAV:">
+        <D:prop>
+          <D:getetag/>
+          <D:getcontenttype/>
+          <D:getlastmodified/>
+          <D:resourcetype/>
+        </D:prop>
+      </D:propfind>
+      """;
+
+  /**
+   * A {@code calendar-query} which selects the events of a category and requests only the
+   * properties of an event needed to index it. The category is inserted with {@link
+   * String#formatted(Object...)}.
+   */
+  private static final String CATEGORY_CALENDAR_QUERY = """
+      <?xml version="1.0" encoding="utf-8"?>
+      <C:calendar-query xmlns:D="DAV:" xmlns:C="urn:ietf:params:xml:ns:caldav">
+        <D:prop>
+          <D:getetag/>
+          <C:calendar-data>
+            <C:comp name="VCALENDAR">
+              <C:comp name="VEVENT">
+                <C:prop name="UID"/>
+                <C:prop name="DTSTART"/>
+                <C:prop name="SUMMARY"/>
+                <C:prop name="DESCRIPTION"/>
+                <C:prop name="CATEGORIES"/>
+              </C:comp>
+            </C:comp>
+          </C:calendar-data>
+        </D:prop>
+        <C:filter>
+          <C:comp-filter name="VCALENDAR">
+            <C:comp-filter name="VEVENT">
+              <C:prop-filter name="CATEGORIES">
+                <C:text-match collation="i;ascii-casemap">%s</C:text-match>
+              </C:prop-filter>
+            </C:comp-filter>
+          </C:comp-filter>
+        </C:filter>
+      </C:calendar-query>
+      """;
+
+  /**
+   * An {@code addressbook-multiget} which requests only the properties of a vCard needed to read
+   * the contact. The hrefs are inserted with {@link String#formatted(Object...)}.
+   */
+  private static final String ADDRESSBOOK_MULTIGET = """
+      <?xml version="1.0" encoding="utf-8"?>
+      <C:addressbook-multiget xmlns:D="DAV:" xmlns:C="urn:ietf:params:xml:ns:carddav">
+        <D:prop>
+          <D:getetag/>
+          <C:address-data>
+            <C:prop name="VERSION"/>
+            <C:prop name="UID"/>
+            <C:prop name="N"/>
+            <C:prop name="FN"/>
+            <C:prop name="BDAY"/>
+          </C:address-data>
+        </D:prop>
+      %s</C:addressbook-multiget>
+      """;
+
+  /**
+   * A {@code MKCALENDAR} body, which sets the display name of the new calendar collection and
+   * restricts it to events. The display name is inserted with {@link String#formatted(Object...)}.
+   */
+  private static final String MKCALENDAR = """
+      <?xml version="1.0" encoding="utf-8"?>
+      <C:mkcalendar xmlns:D="DAV:" xmlns:C="urn:ietf:params:xml:ns:caldav">
+        <D:set>
+          <D:prop>
+            <D:displayname>%s</D:displayname>
+            <C:supported-calendar-component-set>
+              <C:comp name="VEVENT"/>
+            </C:supported-calendar-component-set>
+          </D:prop>
+        </D:set>
+      </C:mkcalendar>
+      """;
+
+  static final String CAPABILITIES_PROPFIND = """
+      <?xml version="1.0" encoding="utf-8"?>
+      <D:propfind xmlns:D="DAV:" xmlns:CS="http://calendarserver.org/ns/">
+        <D:prop>
+          <D:supported-report-set/>
+          <D:sync-token/>
+          <CS:getctag/>
+        </D:prop>
+      </D:propfind>
+      """;
+
+  /**
+   * The status codes with which a server rejects a REPORT it doesn't support.
+   */
+  private static final Set<Integer> UNSUPPORTED_REPORT_STATUS = Set.of(HttpStatus.SC_BAD_REQUEST,
+      HttpStatus.SC_FORBIDDEN, HttpStatus.SC_METHOD_NOT_ALLOWED,
+      HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE, HttpStatus.SC_NOT_IMPLEMENTED);
+
+  static final String OBSERVATION_NAME = "bcg.dav.request";
+
+  /**
+   * The maximum number of pooled connections to the DAV server. A streamed listing keeps its
+   * connection while the stages of the pipeline fetch the resources, so the default of 2 per
+   * route isn't enough. The number of concurrent requests is governed by the limiter anyway. The
+   * pool is sized by the builder, Sardine creates its own connection manager only without one.
+   */
+  static final int MAX_CONNECTIONS = 128;
+
+  private final AdaptiveConcurrencyLimiter limiter;
+  private final RequestDeadlines deadlines;
+  private final ObservationRegistry observationRegistry;
+  private final int maxAttempts;
+  private final Duration defaultRetryAfter;
+
+  BcgSardine(HttpClientBuilder builder, String username, String password,
+             AdaptiveConcurrencyLimiter limiter, RequestDeadlines deadlines,
+             ObservationRegistry observationRegistry, int maxAttempts,
+             Duration defaultRetryAfter) {
+    super(builder, username, password);
+    this.limiter = limiter;
+    this.deadlines = deadlines;
+    this.observationRegistry = observationRegistry;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.defaultRetryAfter = defaultRetryAfter;
+  }
+
+  /**
+   * Lists the members of a collection with a depth-1 PROPFIND, which requests only the properties
+   * {@code getetag}, {@code getcontenttype}, {@code getlastmodified} and {@code resourcetype}. The
+   * multistatus response is parsed while it is read, and each resource is passed to the consumer
+   * as soon as it has arrived.
+   *
+   * @param url      the URL of the collection
+   * @param consumer the consumer which receives each resource, including the collection itself
+   * @return the number of resources passed to the consumer
+   * @throws IOException if an I/O error occurs or the server responds with an error status
+   */
+  public int list(String url, Consumer<DavEntry> consumer) throws IOException {
+    HttpPropFind propFind = new HttpPropFind(url);
+    propFind.setDepth("1");
+    propFind.setEntity(new StringEntity(MINIMAL_PROPFIND, XML_CONTENT_TYPE));
+    return execute(propFind, new StreamingMultistatusHandler(consumer));
+  }
+
+  /**
+   * Queries the events of a calendar collection which have the specified category with a
+   * depth-1 {@code calendar-query} REPORT. The server returns only the properties UID, DTSTART,
+   * SUMMARY, DESCRIPTION and CATEGORIES of each event as {@link DavEntry#data()}, so the
+   * events needn't be fetched, and the events of other categories aren't transferred at all. The
+   * multistatus response is parsed while it is read.
+   *
+   * <p>The text match is a substring match, so the caller must check the categories of the
+   * returned events.
+   *
+   * @param url      the URL of the calendar collection
+   * @param category the category of the events
+   * @param consumer the consumer which receives each event
+   * @return the number of events passed to the consumer
+   * @throws IOException if an I/O error occurs or the server responds with an error status, e.g.
+   *                     403, 405 or 501 if it doesn't support the query
+   */
+  public int calendarQuery(String url, String category, Consumer<DavEntry> consumer)
+      throws IOException {
+    HttpReport report = new HttpReport(url);
+    report.setDepth("1");
+    report.setEntity(new StringEntity(calendarQueryBody(category), XML_CONTENT_TYPE));
+    return execute(report, new StreamingMultistatusHandler(consumer));
+  }
+
+  /**
+   * Returns the body of the {@code calendar-query} of the events of a category.
+   */
+  static String calendarQueryBody(String category) {
+    return CATEGORY_CALENDAR_QUERY.formatted(escapeXml(category));
+  }
+
+  /**
+   * Fetches a batch of vCards of an address book collection with an {@code addressbook-multiget}
+   * REPORT. The server returns only the properties VERSION, UID, N, FN and BDAY of each vCard as
+   * {@link DavEntry#data()}, a server which doesn't support partial address data returns the
+   * complete vCards. The multistatus response is parsed while it is read.
+   *
+   * @param url      the URL of the address book collection
+   * @param hrefs    the hrefs of the vCards
+   * @param consumer the consumer which receives each vCard, a vCard which doesn't exist anymore
+   *                 is passed without data
+   * @return the number of vCards passed to the consumer
+   * @throws IOException if an I/O error occurs or the server responds with an error status, e.g.
+   *                     403, 405 or 501 if it doesn't support the REPORT
+   */
+  public int addressbookMultiget(String url, List<String> hrefs, Consumer<DavEntry> consumer)
+      throws IOException {
+    HttpReport report = new HttpReport(url);
+    report.setEntity(new StringEntity(addressbookMultigetBody(hrefs), XML_CONTENT_TYPE));
+    return execute(report, new StreamingMultistatusHandler(consumer));
+  }
+
+  /**
+   * Returns the body of the {@code addressbook-multiget} of the specified vCards.
+   */
+  static String addressbookMultigetBody(List<String> hrefs) {
+    StringBuilder hrefElements = new StringBuilder();
+    for (String href : hrefs) {
+      hrefElements.append("  <D:href>").append(escapeXml(href)).append("</D:href>\n");
+    }
+    return ADDRESSBOOK_MULTIGET.formatted(hrefElements);
+  }
+
+  /**
+   * Checks whether a server rejected a REPORT with a status which signals that it doesn't support
+   * the REPORT, e.g. 403, 405 or 501.
+   */
+  static boolean isUnsupportedReport(int statusCode) {
+    return UNSUPPORTED_REPORT_STATUS.contains(statusCode);
+  }
+
+  /**
+   * Discovers the capabilities of a collection: the {@code DAV} and {@code Allow} headers of an
+   * OPTIONS request, and the {@code supported-report-set}, {@code getctag} and
+   * {@code sync-token} of a depth-0 PROPFIND. A server which doesn't answer the OPTIONS request
+   * successfully is assumed to advertise nothing.
+   *
+   * @param url the URL of the collection
+   * @return the capabilities of the collection
+   * @throws IOException if an I/O error occurs or the server responds to the PROPFIND with an error
+   *                     status
+   */
+  public DavCapabilities discover(String url) throws IOException {
+    Set<String> davClasses = new TreeSet<>();
+    Set<String> methods = new TreeSet<>();
+    execute(new HttpOptions(url), response -> {
+      if (response.getStatusLine().getStatusCode() / 100 == 2) {
+        for (Header header : response.getHeaders("DAV")) {
+          addTokens(header.getValue(), davClasses, false);
+        }
+        for (Header header : response.getHeaders(HttpHeaders.ALLOW)) {
+          addTokens(header.getValue(), methods, true);
+        }
+      }
+      EntityUtils.consumeQuietly(response.getEntity());
+      return null;
+    });
+    HttpPropFind propFind = new HttpPropFind(url);
+    propFind.setDepth("0");
+    propFind.setEntity(new StringEntity(CAPABILITIES_PROPFIND, XML_CONTENT_TYPE));
+    return execute(propFind, new ValidatingResponseHandler<DavCapabilities>() {
+      @Override
+      public DavCapabilities handleResponse(HttpResponse response) throws IOException {
+        validateResponse(response);
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+          return new DavCapabilities(davClasses, methods, Set.of(), false, false);
+        }
+        try (InputStream in = entity.getContent()) {
+          return MultistatusParser.parseCapabilities(in, davClasses, methods);
+        }
+      }
+    });
+  }
+
+  /**
+   * Adds the comma-separated tokens of a header value, e.g. of the {@code DAV} or the
+   * {@code Allow} header, to a set.
+   */
+  static void addTokens(String headerValue, Set<String> tokens, boolean upperCase) {
+    for (String value : headerValue.split(",")) {
+      String trimmed = value.trim();
+      if (!trimmed.isEmpty()) {
+        tokens.add(upperCase ? trimmed.toUpperCase(Locale.ROOT)
+            : trimmed.toLowerCase(Locale.ROOT));
+      }
+    }
+  }
+
+  private static String escapeXml(String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+
+  /**
+   * Creates a resource with a conditional PUT ({@code If-None-Match: *}), so an existing resource
+   * isn't overwritten. The content is sent with its length, because some servers reject chunked
+   * uploads.
+   *
+   * @param url         the URL of the resource
+   * @param data        the content
+   * @param contentType the content type
+   * @throws IOException if an I/O error occurs or the server responds with an error status, e.g.
+   *                     412 (Precondition Failed) if the resource exists
+   */
+  public void create(String url, byte[] data, String contentType) throws IOException {
+    HttpPut put = new HttpPut(url);
+    put.setHeader(HttpHeaders.CONTENT_TYPE, contentType);
+    put.setHeader(HttpHeaders.IF_NONE_MATCH, "*");
+    put.setEntity(new ByteArrayEntity(data));
+    execute(put, new VoidResponseHandler());
+  }
+
+  /**
+   * Creates a calendar collection with {@code MKCALENDAR}.
+   *
+   * @param url         the URL of the collection, ending with a slash
+   * @param displayName the display name of the collection
+   * @throws IOException if an I/O error occurs or the server responds with an error status, e.g.
+   *                     405 (Method Not Allowed) if the collection exists
+   */
+  public void makeCalendar(String url, String displayName) throws IOException {
+    HttpMkCalendar mkCalendar = new HttpMkCalendar(url);
+    mkCalendar.setEntity(new StringEntity(makeCalendarBody(displayName), XML_CONTENT_TYPE));
+    execute(mkCalendar, new VoidResponseHandler());
+  }
+
+  /**
+   * Returns the body of the {@code MKCALENDAR} of a collection with the specified display name.
+   */
+  static String makeCalendarBody(String displayName) {
+    return MKCALENDAR.formatted(escapeXml(displayName));
+  }
+
+  /**
+   * Takes an exclusive write lock on a resource, which expires after the specified timeout unless
+   * it's refreshed. If the resource doesn't exist, the server creates an empty one.
+   *
+   * @param url              the URL of the resource
+   * @param timeoutInSeconds the timeout of the lock
+   * @return the lock token
+   * @throws IOException if an I/O error occurs or the server responds with an error status, e.g.
+   *                     423 (Locked) if the resource is locked by someone else
+   */
+  public String lock(String url, int timeoutInSeconds) throws IOException {
+    HttpLock lock = new HttpLock(url);
+    lock.setDepth("0");
+    lock.setTimeout(timeoutInSeconds);
+    Lockscope scope = new Lockscope();
+    scope.setExclusive(new Exclusive());
+    Locktype type = new Locktype();
+    type.setWrite(new Write());
+    Lockinfo lockinfo = new Lockinfo();
+    lockinfo.setLockscope(scope);
+    lockinfo.setLocktype(type);
+    lock.setEntity(new StringEntity(SardineUtil.toXml(lockinfo), XML_CONTENT_TYPE));
+    return execute(lock, new LockResponseHandler());
+  }
+
+  /**
+   * Refreshes a lock, so its timeout starts again.
+   *
+   * @param url              the URL of the locked resource
+   * @param token            the lock token
+   * @param timeoutInSeconds the timeout of the lock
+   * @return the lock token
+   * @throws IOException if an I/O error occurs or the server responds with an error status, e.g.
+   *                     412 (Precondition Failed) if the lock has expired
+   */
+  public String refreshLock(String url, String token, int timeoutInSeconds) throws IOException {
+    HttpLock lock = new HttpLock(url);
+    lock.setTimeout(timeoutInSeconds);
+    lock.setHeader(HttpHeaders.IF, "(<" + token + ">)");
+    return execute(lock, new LockResponseHandler());
+  }
+
+  /**
+   * Executes each request within a slot of the {@link AdaptiveConcurrencyLimiter}. The slot is
+   * released as soon as the response headers have arrived, so a streamed response body doesn't
+   * block other requests. Overloaded responses are retried up to the maximum number of attempts.
+   * An attempt which hasn't finished at its deadline is aborted and fails with an
+   * {@link java.net.http.HttpTimeoutException}. A streamed multistatus response must only have
+   * arrived by then, its body is covered by the read timeout and the deadline of a run in
+   * progress. If there is no response handler, the response is returned to the caller and its
+   * body is covered only by the read timeout.
+   *
+   * <p>Each request including its retries is observed as {@value #OBSERVATION_NAME}, which carries
+   * the href, the status, the number of bytes sent and received and the retry count.
+   */
+  @Override
+  protected <T> T execute(HttpClientContext context, HttpRequestBase request,
+                          @Nullable ResponseHandler<T> responseHandler) throws IOException {
+    Observation observation = Observation.createNotStarted(OBSERVATION_NAME, observationRegistry)
+        .contextualName(request.getMethod())
+        .lowCardinalityKeyValue("http.request.method", request.getMethod())
+        .highCardinalityKeyValue("dav.href", request.getURI().getPath())
+        .start();
+    if (request instanceof HttpEntityEnclosingRequestBase enclosing
+        && enclosing.getEntity() != null && enclosing.getEntity().getContentLength() >= 0) {
+      observation.highCardinalityKeyValue("http.request.body.size",
+          String.valueOf(enclosing.getEntity().getContentLength()));
+    }
+    int attempt = 1;
+    try (Observation.Scope ignored = observation.openScope()) {
+      for (; ; attempt++) {
+        // the deadline of an attempt starts once it has a slot, not while it waits for one
+        Slot slot = new Slot(observation);
+        AtomicBoolean aborted = new AtomicBoolean();
+        Runnable abortTask = () -> {
+          aborted.set(true);
+          request.abort();
+        };
+        AtomicReference<ScheduledFuture<?>> abort = new AtomicReference<>();
+        Duration timeout = null;
+        try {
+          timeout = deadlines.timeout(request.getMethod(), request.getURI());
+          if (timeout != null) {
+            abort.set(deadlines.schedule(abortTask, timeout));
+          }
+          if (responseHandler == null) {
+            T result = super.execute(context, request, null);
+            slot.responded((HttpResponse) result);
+            return result;
+          }
+          return super.execute(context, request, response -> {
+            slot.responded(response);
+            if (responseHandler instanceof StreamingMultistatusHandler) {
+              // the consumer of a streamed listing may push back, so only the headers are due
+              rescheduleAbort(abort, abortTask, request.getMethod());
+            }
+            return responseHandler.handleResponse(response);
+          });
+        } catch (OverloadException e) {
+          if (attempt >= maxAttempts || !isRepeatable(request)) {
+            throw e;
+          }
+          log.debug("{} {} overloaded (attempt {}/{}), retrying after {} ms.",
+              request.getMethod(), request.getURI(), attempt, maxAttempts,
+              e.getRetryAfter().toMillis());
+          request.reset();
+        } catch (IOException | RuntimeException e) {
+          // the parser of a streamed listing wraps the failure of the aborted read
+          if (aborted.get()) {
+            throw deadlines.exceeded(request.getMethod(), request.getURI(), timeout);
+          }
+          throw e;
+        } finally {
+          cancelAbort(abort);
+          slot.releaseIfPending();
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      observation.error(e);
+      throw e;
+    } finally {
+      observation.highCardinalityKeyValue("dav.retry.count", String.valueOf(attempt - 1));
+      observation.stop();
+    }
+  }
+
+  /**
+   * Replaces the abort at the deadline of a request, once the headers of its streamed response
+   * have arrived. The body must still have been read by the deadline of a run in progress.
+   */
+  private void rescheduleAbort(AtomicReference<ScheduledFuture<?>> abort, Runnable abortTask,
+                               String method) {
+    Duration bodyTimeout = deadlines.bodyTimeout(method);
+    ScheduledFuture<?> previous = abort.getAndSet(
+        bodyTimeout == null ? null : deadlines.schedule(abortTask, bodyTimeout));
+    if (previous != null) {
+      previous.cancel(false);
+    }
+  }
+
+  private static void cancelAbort(AtomicReference<ScheduledFuture<?>> abort) {
+    ScheduledFuture<?> future = abort.getAndSet(null);
+    if (future != null) {
+      future.cancel(false);
+    }
+  }
+
+  private static boolean isRepeatable(HttpRequestBase request) {
+    return !(request instanceof HttpEntityEnclosingRequestBase enclosing)
+        || enclosing.getEntity() == null
+        || enclosing.getEntity().isRepeatable();
+  }
+
+  static boolean isOverloaded(int statusCode) {
+    return statusCode == HttpStatus.SC_TOO_MANY_REQUESTS
+        || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE;
+  }
+
+  /**
+   * Parses the {@code Retry-After} header, which contains either a number of seconds or an HTTP
+   * date.
+   *
+   * @return the time to wait, or null if the header is missing or invalid
+   */
+  static @Nullable Duration parseRetryAfter(HttpResponse response) {
+    Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+    return header == null ? null : parseRetryAfter(header.getValue());
+  }
+
+  /**
+   * Parses the value of a {@code Retry-After} header, see {@link #parseRetryAfter(HttpResponse)}.
+   */
+  static @Nullable Duration parseRetryAfter(@Nullable String headerValue) {
+    if (headerValue == null) {
+      return null;
+    }
+    String value = headerValue.trim();
+    try {
+      return Duration.ofSeconds(Long.parseLong(value));
+    } catch (NumberFormatException e) {
+      Date date = DateUtils.parseDate(value);
+      if (date == null) {
+        return null;
+      }
+      Duration wait = Duration.between(Instant.now(), date.toInstant());
+      return wait.isNegative() ? Duration.ZERO : wait;
+    }
+  }
+
+  /**
+   * A slot of the limiter for a single attempt of a request.
+   */
+  private class Slot {
+
+    private final Observation observation;
+    private final long start;
+    private boolean released;
+
+    Slot(Observation observation) throws IOException {
+      this.observation = observation;
+      limiter.acquire();
+      start = System.nanoTime();
+    }
+
+    void responded(HttpResponse response) throws OverloadException {
+      int statusCode = response.getStatusLine().getStatusCode();
+      released = true;
+      observation.lowCardinalityKeyValue("http.response.status_code", String.valueOf(statusCode));
+      HttpEntity entity = response.getEntity();
+      if (entity != null && entity.getContentLength() >= 0) {
+        observation.highCardinalityKeyValue("http.response.body.size",
+            String.valueOf(entity.getContentLength()));
+      }
+      if (isOverloaded(statusCode)) {
+        Duration retryAfter = parseRetryAfter(response);
+        if (retryAfter == null) {
+          retryAfter = defaultRetryAfter;
+        }
+        limiter.onOverload(retryAfter);
+        EntityUtils.consumeQuietly(response.getEntity());
+        throw new OverloadException(statusCode,
+            response.getStatusLine().getReasonPhrase(), retryAfter);
+      }
+      limiter.onSuccess(System.nanoTime() - start);
+    }
+
+    void releaseIfPending() {
+      if (!released) {
+        released = true;
+        limiter.onFailure();
+      }
+    }
+  }
+
+  /**
+   * The {@code MKCALENDAR} request of CalDAV, which Sardine doesn't know.
+   */
+  static class HttpMkCalendar extends HttpEntityEnclosingRequestBase {
+
+    HttpMkCalendar(String url) {
+      setURI(URI.create(url));
+    }
+
+    @Override
+    public String getMethod() {
+      return "MKCALENDAR";
+    }
+  }
+
+  /**
+   * Signals that the server responded with an overload status.
+   */
+  static class OverloadException extends SardineException {
+
+    @Getter
+    private final Duration retryAfter;
+
+    OverloadException(int statusCode, String responsePhrase, Duration retryAfter) {
+      super("Server overloaded", statusCode, responsePhrase);
+      this.retryAfter = retryAfter;
+    }
+  }
+
+  /**
+   * Response handler which passes the resources of a multistatus response to a consumer while the
+   * response is read.
+   */
+  static class StreamingMultistatusHandler extends ValidatingResponseHandler<Integer> {
+
+    private final Consumer<DavEntry> consumer;
+
+    StreamingMultistatusHandler(Consumer<DavEntry> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public Integer handleResponse(HttpResponse response) throws IOException {
+      validateResponse(response);
+      HttpEntity entity = response.getEntity();
+      if (entity == null) {
+        return 0;
+      }
+      try (InputStream in = entity.getContent()) {
+        return MultistatusParser.parse(in, consumer);
+      }
+    }
+  }
+}
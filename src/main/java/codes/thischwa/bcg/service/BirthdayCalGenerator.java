@@ -1,9 +1,19 @@
 package codes.thischwa.bcg.service;
 
 import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.IoConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /** Service responsible for generating and uploading birthday calendars. */
@@ -11,37 +21,197 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class BirthdayCalGenerator {
 
-  private final CalHandler calHandler;
-  private final CardHandler cardHandler;
+  private final ContactSource contactSource;
+  private final EventSink eventSink;
+  private final ObservationRegistry observationRegistry;
+  private final HttpWireMetrics wireMetrics;
+  private final SyncJournal journal;
+  private final SyncProfiler profiler;
+  private final UpcomingBirthdays upcomingBirthdays;
+  private final PipelineConf pipelineConf;
+  private final AtomicInteger backlog = new AtomicInteger();
 
   /**
    * Constructs an instance of BirthdayCalGenerator, which is responsible for managing and
-   * generating birthday calendars through various handlers and components.
+   * generating birthday calendars through various handlers and components. The source of the
+   * contacts and the target of the events are configured by {@link IoConf}.
    *
+   * @param ioConf      the configuration of the source of the contacts and the target of the
+   *                    events
    * @param calHandler  the handler responsible for calendar-related operations such as clearing and
-   *                    generating calendar files
+   *                    generating calendar files, the default target of the events
    * @param cardHandler the handler responsible for managing and reading card data (e.g., people
-   *                    with birthdays)
+   *                    with birthdays), the default source of the contacts
+   * @param renderer    the renderer of the birthday events, if they're written to a directory
+   * @param shard       the shard of this instance
+   * @param pipelineConf the configuration of the stages, if a directory is read or written, and
+   *                    of the stages reading the contacts of a resumed run
+   * @param observationRegistry the registry used to observe (trace) the sync runs
+   * @param wireMetrics the wire-level metrics, whose slowest resources are reported after each run
+   * @param journal     the journal of the changes, to resume an interrupted run
+   * @param profiler    the profiler recording the runs with the flight recorder, if enabled
+   * @param meterRegistry the registry of the metric of the backlog
+   * @param upcomingBirthdays the index of the upcoming birthdays, updated with the contacts of
+   *                    each run
    */
-  public BirthdayCalGenerator(CalHandler calHandler, CardHandler cardHandler) {
-    this.calHandler = calHandler;
-    this.cardHandler = cardHandler;
+  @Autowired
+  public BirthdayCalGenerator(IoConf ioConf, CalHandler calHandler, CardHandler cardHandler,
+                              BirthdayEventRenderer renderer, Shard shard,
+                              PipelineConf pipelineConf, ObservationRegistry observationRegistry,
+                              HttpWireMetrics wireMetrics, SyncJournal journal,
+                              SyncProfiler profiler, MeterRegistry meterRegistry,
+                              UpcomingBirthdays upcomingBirthdays) {
+    this(switch (ioConf.contactSource()) {
+          case DAV -> cardHandler;
+          case DIRECTORY -> new DirectoryContactSource(ioConf.getContactDirPath(), shard,
+              pipelineConf, observationRegistry);
+          case EXPORT -> new VCardExportContactSource(ioConf.getContactFilePath(), shard,
+              pipelineConf, observationRegistry);
+        }, switch (ioConf.eventSink()) {
+          case DAV -> calHandler;
+          case DIRECTORY -> new DirectoryEventSink(ioConf.getEventDirPath(), renderer, shard,
+              pipelineConf, observationRegistry);
+        }, pipelineConf, observationRegistry, wireMetrics, journal, profiler, meterRegistry,
+        upcomingBirthdays);
+  }
+
+  BirthdayCalGenerator(ContactSource contactSource, EventSink eventSink,
+                       PipelineConf pipelineConf, ObservationRegistry observationRegistry,
+                       HttpWireMetrics wireMetrics, SyncJournal journal, SyncProfiler profiler,
+                       MeterRegistry meterRegistry, UpcomingBirthdays upcomingBirthdays) {
+    this.contactSource = contactSource;
+    this.eventSink = eventSink;
+    this.observationRegistry = observationRegistry;
+    this.wireMetrics = wireMetrics;
+    this.journal = journal;
+    this.profiler = profiler;
+    this.upcomingBirthdays = upcomingBirthdays;
+    this.pipelineConf = pipelineConf;
+    Gauge.builder("bcg.sync.backlog", backlog, AtomicInteger::get)
+        .description("Number of changes left by the last run for the next one: the carried over "
+            + "and the dead-lettered ones")
+        .register(meterRegistry);
   }
 
   /**
    * Processes and synchronizes birthday events.
    *
-   * <p>This method retrieves a list of people with birthdays from the card handler and syncs these
-   * details with the calendar using the calendar handler. It ensures that all birthday events
+   * <p>This method retrieves a list of people with birthdays from the {@link ContactSource} and
+   * syncs these details with the {@link EventSink}, by default the address book and the calendar
+   * of the DAV server. It ensures that all birthday events
    * in the calendar reflect any changes in the underlying data source, such as additions,
-   * updates, or deletions of birthdays.
+   * updates, or deletions of birthdays. The contacts are read while the calendar is indexed, each
+   * by a pipeline of list, fetch and parse stages. The contacts read replace the index of the
+   * {@link UpcomingBirthdays}.
+   *
+   * <p>If the previous run was interrupted and the address book is unchanged since, the remaining
+   * changes of its journal are applied instead, without indexing the calendar again. The contacts
+   * are read only if the index of the {@link UpcomingBirthdays} wasn't updated with the unchanged
+   * address book, e.g. because the run was interrupted before it was.
    *
+   * <p>A change of the calendar which fails doesn't abort the run. It's retried at the end of
+   * the run and moved to the dead-letter list if it still fails, so the run may succeed only
+   * partially. If the time budget of the run is exhausted, the changes not started yet are carried
+   * over to the next run. The changes are written in the order of the next birthday, so the
+   * upcoming birthdays are written first. The number of changes left is reported as the metric
+   * {@code bcg.sync.backlog}.
+   *
+   * <p>The run is observed as {@code bcg.sync}, the root span of the trace of a run. Its key
+   * {@code bcg.sync.outcome} is either {@code complete} or {@code partial}. It's also recorded as
+   * the flight recorder event {@code bcg.SyncRun}, see {@link SyncFlightEvents}.
+   *
+   * @return the result of the run
    * @throws IOException if an I/O error occurs during synchronization operations.
    */
-  public void processBirthdayEvents() throws IOException {
-    log.info("Syncing birthday events ...");
-    List<Contact> people = cardHandler.readContactsWithBirthday();
-    calHandler.syncEventsWithBirthdayChanges(people);
-    log.info("Synced birthday events successfully.");
+  public SyncResult processBirthdayEvents() throws IOException {
+    Observation observation = Observation.createNotStarted("bcg.sync", observationRegistry)
+        .contextualName("processBirthdayEvents");
+    return observation.observeChecked(() -> {
+      log.info("Syncing birthday events ...");
+      SyncResult result;
+      try (SyncProfiler.Session ignored = profiler.start()) {
+        result = sync();
+        backlog.set(result.getBacklog());
+      } finally {
+        wireMetrics.reportSlowestResources();
+      }
+      observation.lowCardinalityKeyValue("bcg.sync.outcome",
+          result.isComplete() ? "complete" : "partial");
+      if (result.isComplete()) {
+        log.info("Synced birthday events successfully: {}", result);
+      } else {
+        log.warn("Synced birthday events partially: {}. The failed and the carried over changes "
+            + "are applied by the next run.", result);
+      }
+      return result;
+    });
+  }
+
+  private SyncResult sync() throws IOException {
+    SyncFlightEvents.SyncRun runEvent = new SyncFlightEvents.SyncRun();
+    runEvent.begin();
+    runEvent.outcome = "failed";
+    try {
+      SyncResult result = resumeInterruptedRun().orElse(null);
+      runEvent.resumed = result != null;
+      if (result == null) {
+        SourceFingerprint fingerprint = new SourceFingerprint();
+        result = eventSink.syncEventsWithBirthdayChanges(pipeline -> {
+          Supplier<List<Contact>> contacts =
+              contactSource.readContactsWithBirthday(pipeline, fingerprint);
+          return () -> {
+            List<Contact> read = contacts.get();
+            upcomingBirthdays.update(read, fingerprint.value());
+            return read;
+          };
+        }, fingerprint::value);
+      }
+      runEvent.outcome = result.isComplete() ? "complete" : "partial";
+      runEvent.applied = result.applied();
+      runEvent.recovered = result.recovered();
+      runEvent.deadLettered = result.deadLettered();
+      runEvent.carriedOver = result.carriedOver();
+      runEvent.unchanged = result.unchanged();
+      return result;
+    } finally {
+      runEvent.commit();
+    }
+  }
+
+  private Optional<SyncResult> resumeInterruptedRun() throws IOException {
+    if (!eventSink.isJournaled()) {
+      return Optional.empty();
+    }
+    Optional<SyncJournal.Checkpoint> pending = journal.loadPending();
+    if (pending.isEmpty()) {
+      return Optional.empty();
+    }
+    SyncJournal.Checkpoint checkpoint = pending.get();
+    try {
+      String fingerprint = contactSource.fingerprintContacts();
+      if (fingerprint == null || !fingerprint.equals(checkpoint.getSourceFingerprint())) {
+        log.info("The contacts have changed since the interrupted run, its journal is discarded.");
+        checkpoint.close();
+        journal.discard();
+        return Optional.empty();
+      }
+      if (!fingerprint.equals(upcomingBirthdays.getSourceFingerprint())) {
+        updateUpcomingBirthdays();
+      }
+    } catch (IOException | RuntimeException e) {
+      checkpoint.close();
+      throw e;
+    }
+    return Optional.of(eventSink.resume(checkpoint));
+  }
+
+  private void updateUpcomingBirthdays() throws IOException {
+    log.debug("The upcoming birthdays are outdated, the contacts are read to update them.");
+    SourceFingerprint fingerprint = new SourceFingerprint();
+    Pipeline pipeline = new Pipeline("bcg-read", pipelineConf.queueCapacity());
+    Supplier<List<Contact>> contacts = contactSource.readContactsWithBirthday(pipeline,
+        fingerprint);
+    pipeline.run();
+    upcomingBirthdays.update(contacts.get(), fingerprint.value());
   }
 }
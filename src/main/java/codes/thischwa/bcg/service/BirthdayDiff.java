@@ -0,0 +1,126 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * Computes the {@link ChangeSet} between the existing birthday events and the contacts. Both sides
+ * are sorted by identifier, so the creates, updates and deletes are found in a single merge pass
+ * without hashing any events.
+ */
+@Slf4j
+public final class BirthdayDiff {
+
+  static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private BirthdayDiff() {
+  }
+
+  /**
+   * Computes the changes. An event is outdated if its birthday or its content hash differs from
+   * the contact's one. If there are several events for a contact, the surplus ones are deleted.
+   *
+   * @param existing      the index of the existing events
+   * @param contacts      the contacts with a birthday
+   * @param contentHasher computes the content hash of the event of a contact
+   * @return the changes
+   * @throws IllegalArgumentException if a contact has no identifier or no birthday
+   */
+  public static ChangeSet diff(EventIndex existing, List<Contact> contacts,
+                               ToLongFunction<Contact> contentHasher) {
+    int contactCount = contacts.size();
+    String[] identifiers = new String[contactCount];
+    for (int i = 0; i < contactCount; i++) {
+      Contact contact = contacts.get(i);
+      if (contact.identifier() == null || contact.birthday() == null) {
+        throw new IllegalArgumentException(
+            "Contact identifier and birthday must not be null: " + contact.getFullName());
+      }
+      identifiers[i] = contact.identifier();
+    }
+    int[] order = EventIndex.sortedOrder(identifiers, contactCount);
+
+    List<Contact> creates = new ArrayList<>();
+    List<ChangeSet.Update> updates = new ArrayList<>();
+    List<String> deletes = new ArrayList<>();
+    int unchanged = 0;
+    int eventCount = existing.size();
+    int e = 0;
+    int c = 0;
+    while (e < eventCount || c < contactCount) {
+      if (c > 0 && c < contactCount
+          && identifiers[order[c]].equals(identifiers[order[c - 1]])) {
+        log.warn("Ignored contact with duplicate identifier: {}", identifiers[order[c]]);
+        c++;
+        continue;
+      }
+      int cmp = e >= eventCount ? 1
+          : c >= contactCount ? -1
+          : existing.getIdentifier(e).compareTo(identifiers[order[c]]);
+      if (cmp < 0) {
+        deletes.add(existing.getPath(e++));
+      } else if (cmp > 0) {
+        creates.add(contacts.get(order[c++]));
+      } else {
+        Contact contact = contacts.get(order[c++]);
+        if (existing.getEpochDay(e) != toEpochDay(contact.birthday())
+            || existing.getContentHash(e) != contentHasher.applyAsLong(contact)) {
+          updates.add(new ChangeSet.Update(contact, existing.getPath(e)));
+        } else {
+          unchanged++;
+        }
+        String identifier = existing.getIdentifier(e++);
+        while (e < eventCount && existing.getIdentifier(e).equals(identifier)) {
+          deletes.add(existing.getPath(e++));
+        }
+      }
+    }
+    return new ChangeSet(creates, updates, deletes, unchanged);
+  }
+
+  /**
+   * Converts a date to an epoch day, {@link Integer#MIN_VALUE} stands for no date.
+   */
+  public static int toEpochDay(@Nullable LocalDate date) {
+    return date == null ? Integer.MIN_VALUE : Math.toIntExact(date.toEpochDay());
+  }
+
+  /**
+   * Computes a 64-bit FNV-1a hash of the user visible content of a birthday event. It's calculated
+   * from the generated event of a contact as well as from a parsed remote event, so a change of
+   * the contact's name or of the event settings leads to an update.
+   *
+   * @param epochDay    the birthday as epoch day
+   * @param summary     the summary of the event
+   * @param description the description of the event
+   * @return the hash
+   */
+  public static long contentHash(int epochDay, @Nullable String summary,
+                                 @Nullable String description) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE) {
+      hash = (hash ^ ((epochDay >>> shift) & 0xff)) * FNV_PRIME;
+    }
+    hash = hash(hash, summary);
+    return hash(hash, description);
+  }
+
+  static long hash(long hash, @Nullable String value) {
+    if (value == null) {
+      return (hash ^ 0xff) * FNV_PRIME;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      hash = (hash ^ (ch & 0xff)) * FNV_PRIME;
+      hash = (hash ^ (ch >>> 8)) * FNV_PRIME;
+    }
+    // separator, so "ab" + "c" differs from "a" + "bc"
+    return (hash ^ 0xfe) * FNV_PRIME;
+  }
+}
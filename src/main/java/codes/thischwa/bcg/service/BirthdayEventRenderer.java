@@ -0,0 +1,263 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.BcgConf;
+import codes.thischwa.bcg.conf.EventConf;
+import codes.thischwa.bcg.conf.RenderCacheConf;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Recur;
+import net.fortuna.ical4j.model.component.VAlarm;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.parameter.Value;
+import net.fortuna.ical4j.model.property.Action;
+import net.fortuna.ical4j.model.property.CalScale;
+import net.fortuna.ical4j.model.property.Categories;
+import net.fortuna.ical4j.model.property.Description;
+import net.fortuna.ical4j.model.property.ProdId;
+import net.fortuna.ical4j.model.property.RRule;
+import net.fortuna.ical4j.model.property.Status;
+import net.fortuna.ical4j.model.property.Summary;
+import net.fortuna.ical4j.model.property.Transp;
+import net.fortuna.ical4j.model.property.Trigger;
+import net.fortuna.ical4j.model.property.Uid;
+import net.fortuna.ical4j.model.property.Version;
+import net.fortuna.ical4j.transform.recurrence.Frequency;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Renders the birthday event of a contact, for each {@link EventSink}.
+ *
+ * <p>The rendered events are kept in a cache bounded by {@link RenderCacheConf#maxSizeInKb()},
+ * the least recently used ones are evicted first. The cache is keyed by the contact only: the
+ * configuration the events are rendered with is fixed for the lifetime of the renderer. The
+ * {@code DTSTAMP} of an event is the time it's written, so it isn't cached, but stamped each time
+ * the content is taken.
+ */
+@Component
+class BirthdayEventRenderer {
+
+  private final BcgConf conf;
+  private final EventConf eventConf;
+  private final long maxCacheBytes;
+  private final LinkedHashMap<Contact, RenderedEvent> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private long cacheBytes;
+  private final Counter hitCounter;
+  private final Counter missCounter;
+
+  /**
+   * Creates the renderer.
+   *
+   * @param conf            the configuration containing the product and the calendar category
+   * @param eventConf       the configuration of the summary, the description and the alarm
+   * @param renderCacheConf the configuration of the cache of the rendered events
+   * @param meterRegistry   the registry of the metrics
+   */
+  BirthdayEventRenderer(BcgConf conf, EventConf eventConf, RenderCacheConf renderCacheConf,
+                        MeterRegistry meterRegistry) {
+    this.conf = conf;
+    this.eventConf = eventConf;
+    this.maxCacheBytes = renderCacheConf.maxSizeInKb() * 1024L;
+    hitCounter = Counter.builder("bcg.render.cache.requests").tag("result", "hit")
+        .description("Number of rendered events taken from the cache")
+        .register(meterRegistry);
+    missCounter = Counter.builder("bcg.render.cache.requests").tag("result", "miss")
+        .description("Number of events which had to be rendered")
+        .register(meterRegistry);
+    Gauge.builder("bcg.render.cache.size", this, BirthdayEventRenderer::getCacheBytes)
+        .description("Size of the rendered events in the cache")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Returns the category of the birthday events.
+   */
+  String getCategory() {
+    return conf.calendarCategory();
+  }
+
+  /**
+   * Computes the content hash of the birthday event of a contact, see
+   * {@link BirthdayDiff#contentHash(int, String, String)}.
+   */
+  long contentHash(Contact contact) {
+    return BirthdayDiff.contentHash(BirthdayDiff.toEpochDay(contact.birthday()),
+        eventConf.generateSummary(contact), eventConf.generateDescription(contact));
+  }
+
+  /**
+   * Returns the rendered calendar containing the birthday event of a contact, from the cache if
+   * the contact was rendered before.
+   *
+   * @param contact the contact, which must have a birthday
+   * @return the rendered event
+   */
+  RenderedEvent renderEvent(Contact contact) {
+    synchronized (cache) {
+      RenderedEvent cached = cache.get(contact);
+      if (cached != null) {
+        hitCounter.increment();
+        return cached;
+      }
+    }
+    missCounter.increment();
+    RenderedEvent rendered = RenderedEvent.of(render(contact).toString(), contentHash(contact));
+    if (maxCacheBytes > 0) {
+      synchronized (cache) {
+        RenderedEvent previous = cache.put(contact, rendered);
+        cacheBytes += rendered.size();
+        if (previous != null) {
+          cacheBytes -= previous.size();
+        }
+        Iterator<RenderedEvent> eldest = cache.values().iterator();
+        while (cacheBytes > maxCacheBytes && eldest.hasNext()) {
+          cacheBytes -= eldest.next().size();
+          eldest.remove();
+        }
+      }
+    }
+    return rendered;
+  }
+
+  /**
+   * Returns the size of the rendered events in the cache, in bytes.
+   */
+  long getCacheBytes() {
+    synchronized (cache) {
+      return cacheBytes;
+    }
+  }
+
+  /**
+   * Renders the calendar containing the birthday event of a contact.
+   *
+   * @param contact the contact, which must have a birthday
+   * @return the calendar
+   */
+  Calendar render(Contact contact) {
+    Version version = new Version();
+    version.setValue(Version.VALUE_2_0);
+    Calendar calendar = new Calendar();
+    calendar.add(new ProdId(conf.getProdId()));
+    calendar.add(version);
+    calendar.add(new CalScale(CalScale.VALUE_GREGORIAN)); //
+
+    VEvent birthdayEvent = buildBirthdayEvent(contact);
+    calendar.add(birthdayEvent);
+    return calendar;
+  }
+
+  private Summary buildSummary(Contact contact) {
+    String summary = eventConf.generateSummary(contact);
+    return new Summary(summary);
+  }
+
+  /**
+   * Builds a VEvent instance for a specified person's birthday. The event is annually repeated.
+   *
+   * @param contact the Person object containing the birthday and other related information
+   * @return the constructed VEvent representing the person's birthday
+   */
+  private VEvent buildBirthdayEvent(Contact contact) {
+    assert contact.birthday() != null;
+    Summary summary = buildSummary(contact);
+    String description = eventConf.generateDescription(contact);
+
+    // Create the birthday event as an all-day event
+    LocalDate birthday = contact.birthday();
+    VEvent birthdayEvent = new VEvent(birthday, birthday.plusDays(1), summary.getValue());
+
+    // add the UID
+    birthdayEvent.add(new Uid(contact.identifier()));
+
+    // add the repetition rule
+    birthdayEvent.add(new RRule<>(new Recur.Builder<LocalDate>().frequency(Frequency.YEARLY).build()));
+
+    if (eventConf.getAlarmDuration() != null) {
+      // build and add an alarm
+      VAlarm alarm = new VAlarm();
+
+      // create a trigger with VALUE=DURATION explicitly
+      Trigger trigger = new Trigger(eventConf.getAlarmDuration());
+      trigger.add(Value.DURATION);
+      alarm.add(trigger);
+      alarm.add(new Action(Action.VALUE_DISPLAY));
+      alarm.add(new Description(description));
+      alarm.add(summary);
+      birthdayEvent.add(alarm);
+    }
+
+    // add other properties
+    birthdayEvent.add(new Categories(conf.calendarCategory()));
+    birthdayEvent.add(new Transp(Transp.VALUE_TRANSPARENT));
+    birthdayEvent.add(new Description(description));
+    birthdayEvent.add(new Status(Status.VALUE_CONFIRMED));
+    return birthdayEvent;
+  }
+
+  /**
+   * A rendered calendar containing the birthday event of a contact, split at its {@code DTSTAMP}
+   * line, which is inserted when the content is taken.
+   *
+   * @param head        the calendar up to the {@code DTSTAMP} line in UTF-8
+   * @param tail        the calendar after the {@code DTSTAMP} line in UTF-8, null if it has none
+   * @param contentHash the content hash of the event, see {@link #contentHash(Contact)}
+   */
+  record RenderedEvent(byte[] head, @Nullable byte[] tail, long contentHash) {
+
+    private static final String DTSTAMP_LINE = "\r\nDTSTAMP:";
+    private static final DateTimeFormatter DTSTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    static RenderedEvent of(String calendar, long contentHash) {
+      int start = calendar.indexOf(DTSTAMP_LINE);
+      int end = start < 0 ? -1 : calendar.indexOf("\r\n", start + 2);
+      if (end < 0) {
+        return new RenderedEvent(calendar.getBytes(StandardCharsets.UTF_8), null, contentHash);
+      }
+      return new RenderedEvent(calendar.substring(0, start + 2).getBytes(StandardCharsets.UTF_8),
+          calendar.substring(end + 2).getBytes(StandardCharsets.UTF_8), contentHash);
+    }
+
+    /**
+     * Returns the calendar in UTF-8, stamped with the current time.
+     */
+    byte[] content() {
+      return content(Instant.now());
+    }
+
+    /**
+     * Returns the calendar in UTF-8, stamped with the specified time.
+     */
+    byte[] content(Instant stamp) {
+      if (tail == null) {
+        return head;
+      }
+      byte[] line = ("DTSTAMP:" + DTSTAMP_FORMAT.format(stamp) + "\r\n")
+          .getBytes(StandardCharsets.UTF_8);
+      byte[] content = Arrays.copyOf(head, head.length + line.length + tail.length);
+      System.arraycopy(line, 0, content, head.length, line.length);
+      System.arraycopy(tail, 0, content, head.length + line.length, tail.length);
+      return content;
+    }
+
+    /**
+     * Returns the number of bytes the event takes in the cache.
+     */
+    int size() {
+      return head.length + (tail == null ? 0 : tail.length);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import org.springframework.stereotype.Service;
 public class BirthdayScheduler {
 
   private final BirthdayCalGenerator birthdayCalGenerator;
+  private final LeaderElection leaderElection;
 
   /**
    * Constructs an instance of the BirthdayScheduler, responsible for scheduling and triggering the
@@ -28,23 +29,32 @@ public class BirthdayScheduler {
    *
    * @param birthdayCalGenerator the generator responsible for processing and generating the
    *     birthday calendar
+   * @param leaderElection the election of the replica which syncs
    */
-  public BirthdayScheduler(BirthdayCalGenerator birthdayCalGenerator) {
+  public BirthdayScheduler(BirthdayCalGenerator birthdayCalGenerator,
+                           LeaderElection leaderElection) {
     this.birthdayCalGenerator = birthdayCalGenerator;
+    this.leaderElection = leaderElection;
   }
 
   /**
    * Scheduled method that triggers the processing of the birthday calendar.
    *
    * <p>This method is executed based on the cron expression defined in the configuration property
-   * `bcg.cron`.
+   * `bcg.cron`. If the replicas are coordinated, only the leader processes.
    *
    * @throws IOException if an I/O error occurs during the processing of the birthday calendar.
    */
   @Scheduled(cron = "${bcg.cron}")
   public void process() throws IOException {
-    log.info("Processing birthday calendar ...");
-    birthdayCalGenerator.processBirthdayEvents();
-    log.info("Processed birthday successfully.");
+    LeaderElection.Term term = leaderElection.tryLead();
+    if (term == null) {
+      return;
+    }
+    try (term) {
+      log.info("Processing birthday calendar ...");
+      SyncResult result = birthdayCalGenerator.processBirthdayEvents();
+      log.info("Processed birthday {}.", result.isComplete() ? "successfully" : "partially");
+    }
   }
 }
@@ -2,36 +2,34 @@ package codes.thischwa.bcg.service;
 
 import codes.thischwa.bcg.Contact;
 import codes.thischwa.bcg.conf.BcgConf;
+import codes.thischwa.bcg.conf.BulkImportConf;
 import codes.thischwa.bcg.conf.DavConf;
-import codes.thischwa.bcg.conf.EventConf;
+import codes.thischwa.bcg.conf.DiffConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.SyncConf;
 import com.github.sardine.Sardine;
+import com.github.sardine.impl.SardineException;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
-import net.fortuna.ical4j.model.Calendar;
-import net.fortuna.ical4j.model.Recur;
-import net.fortuna.ical4j.model.component.VAlarm;
 import net.fortuna.ical4j.model.component.VEvent;
-import net.fortuna.ical4j.model.parameter.Value;
-import net.fortuna.ical4j.model.property.Action;
-import net.fortuna.ical4j.model.property.CalScale;
-import net.fortuna.ical4j.model.property.Categories;
-import net.fortuna.ical4j.model.property.Description;
-import net.fortuna.ical4j.model.property.ProdId;
-import net.fortuna.ical4j.model.property.RRule;
-import net.fortuna.ical4j.model.property.Status;
-import net.fortuna.ical4j.model.property.Summary;
-import net.fortuna.ical4j.model.property.Transp;
-import net.fortuna.ical4j.model.property.Trigger;
-import net.fortuna.ical4j.model.property.Uid;
-import net.fortuna.ical4j.model.property.Version;
-import net.fortuna.ical4j.transform.recurrence.Frequency;
+import org.apache.http.HttpStatus;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
 /**
@@ -42,169 +40,742 @@ import org.springframework.stereotype.Service;
  */
 @Service
 @Slf4j
-public class CalHandler {
+public class CalHandler implements EventSink {
 
   public static final String CALENDAR_CONTENT_TYPE = "text/calendar";
+
   private final BcgConf conf;
-  private final EventConf eventConf;
   private final DavConf davConf;
   private final SardineInitializer sardineInitializer;
+  private final ObservationRegistry observationRegistry;
+  private final SyncJournal journal;
+  private final SyncConf syncConf;
+  private final Shard shard;
+  private final PipelineConf pipelineConf;
+  private final CapabilityDiscovery capabilityDiscovery;
+  private final RequestDeadlines deadlines;
+  private final BirthdayEventRenderer renderer;
+  private final BulkImportConf bulkImportConf;
+  private final DiffConf diffConf;
+  private final CalendarPartitions partitions;
 
   /**
    * Constructor for the CalHandler class.
    *
    * @param conf               The configuration object containing settings for the BCG system.
-   * @param eventConf          The configuration object for defining event-related settings.
    * @param davConf            The configuration object containing WebDAV user and password
    *                           details.
    * @param sardineInitializer The initializer for {@link Sardine}.
+   * @param observationRegistry The registry used to observe (trace) the sync of the events.
+   * @param journal            The journal of the changes, to resume an interrupted run.
+   * @param syncConf           The configuration of the retries of failed changes.
+   * @param shard              The shard of this instance, only its events are synced.
+   * @param pipelineConf       The configuration of the stages reading the calendar and writing
+   *                           the changes.
+   * @param capabilityDiscovery The discovery of the plan, which tells how the calendar is listed
+   *                           and how outdated events are replaced.
+   * @param deadlines          The deadlines of the requests, which carry the deadline of a run.
+   * @param renderer           The renderer of the birthday events.
+   * @param bulkImportConf     The configuration of the import into a calendar without birthday
+   *                           events.
+   * @param diffConf           The configuration of the spilling of the diff.
+   * @param partitions         The calendar collections the events are spread across.
    */
-  CalHandler(BcgConf conf, EventConf eventConf, DavConf davConf,
-             SardineInitializer sardineInitializer) {
+  CalHandler(BcgConf conf, DavConf davConf,
+             SardineInitializer sardineInitializer, ObservationRegistry observationRegistry,
+             SyncJournal journal, SyncConf syncConf, Shard shard, PipelineConf pipelineConf,
+             CapabilityDiscovery capabilityDiscovery, RequestDeadlines deadlines,
+             BirthdayEventRenderer renderer, BulkImportConf bulkImportConf, DiffConf diffConf,
+             CalendarPartitions partitions) {
     this.conf = conf;
-    this.eventConf = eventConf;
     this.davConf = davConf;
     this.sardineInitializer = sardineInitializer;
+    this.observationRegistry = observationRegistry;
+    this.journal = journal;
+    this.syncConf = syncConf;
+    this.shard = shard;
+    this.pipelineConf = pipelineConf;
+    this.capabilityDiscovery = capabilityDiscovery;
+    this.deadlines = deadlines;
+    this.renderer = renderer;
+    this.bulkImportConf = bulkImportConf;
+    this.diffConf = diffConf;
+    this.partitions = partitions;
+  }
+
+  SyncResult syncEventsWithBirthdayChanges(List<Contact> contacts) throws IOException {
+    return syncEventsWithBirthdayChanges(contacts, null);
+  }
+
+  /**
+   * Syncs the birthday events with the contacts, see
+   * {@link #syncEventsWithBirthdayChanges(Function, Supplier)}.
+   *
+   * @param contacts          the contacts with birthday
+   * @param sourceFingerprint the fingerprint of the address book the contacts were read from, if
+   *                          null the run isn't journaled
+   * @return the result of the run
+   */
+  SyncResult syncEventsWithBirthdayChanges(List<Contact> contacts,
+                                           @Nullable String sourceFingerprint) throws IOException {
+    return syncEventsWithBirthdayChanges(pipeline -> () -> contacts, () -> sourceFingerprint);
+  }
+
+  /**
+   * Syncs the birthday events with the contacts. The contacts are read by the stages the contact
+   * reader adds to the pipeline of the run, so they're read while the calendar is indexed. The
+   * diff waits for both, then the changes are written by parallel threads. The planned changes
+   * are journaled, so an interrupted run can be resumed by
+   * {@link #resume(SyncJournal.Checkpoint)}.
+   *
+   * <p>If the calendar contains no birthday event, e.g. on the first run or after it was wiped,
+   * the events are imported in bulk without diff.
+   *
+   * <p>A failing change doesn't abort the run, it's retried after the rest of the changes. If it
+   * still fails, it's moved to the dead-letter list, which is retried first by the next run.
+   *
+   * @param contactReader     adds the reading of the contacts with birthday to the pipeline and
+   *                          supplies them after the pipeline has run
+   * @param sourceFingerprint supplies the fingerprint of the address book the contacts were read
+   *                          from after the pipeline has run, if it's null the run isn't
+   *                          journaled
+   * @return the result of the run
+   */
+  @Override
+  public SyncResult syncEventsWithBirthdayChanges(
+      Function<Pipeline, Supplier<List<Contact>>> contactReader,
+      Supplier<String> sourceFingerprint) throws IOException {
+    Observation observation = Observation.createNotStarted("bcg.cal.sync", observationRegistry)
+        .contextualName("syncEventsWithBirthdayChanges");
+    return observation.observeChecked(
+        () -> syncEventsWithBirthdayChanges(contactReader, sourceFingerprint, observation));
+  }
+
+  /**
+   * Resumes an interrupted run with the remaining changes of its journal. Neither the contacts
+   * are read nor the calendar is indexed.
+   *
+   * @param checkpoint the checkpoint of the interrupted run
+   * @return the result of the resumed run
+   */
+  @Override
+  public SyncResult resume(SyncJournal.Checkpoint checkpoint) throws IOException {
+    Observation observation = Observation.createNotStarted("bcg.cal.sync", observationRegistry)
+        .contextualName("resume")
+        .highCardinalityKeyValue("bcg.events.remaining",
+            String.valueOf(checkpoint.getRemaining()));
+    return observation.observeChecked(() -> {
+      checkAccess();
+      DavTransport transport = sardineInitializer.getTransport();
+      RunBudget budget = RunBudget.start(syncConf.getRunBudget(), syncConf.getRunDeadline());
+      try (RequestDeadlines.Run ignored = deadlines.startRun(budget)) {
+        RetryQueue retryQueue =
+            new RetryQueue(syncConf.itemRetries(), syncConf.getItemRetryDelay());
+        DeadLetters deadLetters = new DeadLetters();
+        retryDeadLetters(transport, retryQueue, deadLetters, budget);
+        log.info("Resuming the interrupted sync with {} remaining changes.",
+            checkpoint.getRemaining());
+        return applyChanges(transport, checkpoint, retryQueue, deadLetters, budget, observation,
+            false);
+      }
+    });
+  }
+
+  /**
+   * The changes of the calendar are journaled, see {@link SyncJournal}.
+   */
+  @Override
+  public boolean isJournaled() {
+    return true;
   }
 
-  void syncEventsWithBirthdayChanges(List<Contact> contacts) throws IOException {
+  private void checkAccess() {
     if (!sardineInitializer.canAccessBaseUrl()) {
       log.error("Access to {} timed out after {} trails.", davConf.getBaseUrl(), davConf.maxRetries());
       throw new IllegalArgumentException("Access to " + davConf.getBaseUrl() + " timed out.");
     }
-    Sardine sardine = sardineInitializer.getSardine();
-    log.info("Syncing birthday events of {} contacts.", contacts.size());
-
-    Map<VEvent, URL> allBirthdayEvents = CalUtil.collectBirthdayEvents(sardine, davConf.calUrl());
-    Map<String, VEvent> existingEvents = new HashMap<>();
-    Map<String, Contact> existingContacts = new HashMap<>();
-    Map<String, URL> existingEventUris = new HashMap<>();
-
-    for (VEvent event : allBirthdayEvents.keySet()) {
-      String uuid = CalUtil.extractContactsUUIDFromEvent(event);
-      existingEvents.put(uuid, event);
-      String eventId = CalUtil.extractEventId(allBirthdayEvents.get(event));
-      existingEventUris.put(eventId, allBirthdayEvents.get(event));
-    }
-
-    // delete birthday events from contacts whose doesn't exist
-    contacts.forEach(contact -> existingContacts.put(contact.identifier(), contact));
-    existingEvents.keySet().forEach((eventUuid) -> {
-      if (!existingContacts.containsKey(eventUuid)) {
-        URL eventUri = existingEventUris.get(eventUuid);
-        try {
-          sardine.delete(davConf.getBaseUrl() + eventUri.getPath());
-          log.debug("Deleted outdated event: {}", eventUri.getPath());
-        } catch (IOException e) {
-          log.error("Failed to delete outdated event: {}", eventUri.getPath(), e);
-        }
-      }
-    });
+  }
 
-    List<Contact> changedPeople = new ArrayList<>();
-    // collect contacts whose birthday has changed
-    for (Contact contact : contacts) {
-      VEvent existingEvent = existingEvents.get(contact.identifier());
+  private SyncResult syncEventsWithBirthdayChanges(
+      Function<Pipeline, Supplier<List<Contact>>> contactReader,
+      Supplier<String> sourceFingerprint, Observation observation) throws IOException {
+    RunBudget budget = RunBudget.start(syncConf.getRunBudget(), syncConf.getRunDeadline());
+    // the requests still in flight at the deadline of the run are aborted
+    try (RequestDeadlines.Run ignored = deadlines.startRun(budget)) {
+      return syncEventsWithBirthdayChanges(contactReader, sourceFingerprint, budget, observation);
+    }
+  }
+
+  private SyncResult syncEventsWithBirthdayChanges(
+      Function<Pipeline, Supplier<List<Contact>>> contactReader,
+      Supplier<String> sourceFingerprint, RunBudget budget, Observation observation)
+      throws IOException {
+    checkAccess();
+    DavTransport transport = sardineInitializer.getTransport();
+    RetryQueue retryQueue = new RetryQueue(syncConf.itemRetries(), syncConf.getItemRetryDelay());
+    DeadLetters deadLetters = new DeadLetters();
+    // the dead letters are applied before the calendar is indexed, so the diff reflects them
+    retryDeadLetters(transport, retryQueue, deadLetters, budget);
 
-      if (existingEvent == null || !CalUtil.isBirthdayEquals(existingEvent, contact)) {
-        changedPeople.add(contact);
-        log.debug("Found new or updated event found for: {}", contact.getFullName());
+    SyncFlightEvents.SyncPhase readPhase = new SyncFlightEvents.SyncPhase("read");
+    readPhase.begin();
+    // with partitioning, the calendar of dav.cal-url is indexed too, so its events are moved
+    List<String> collectionUrls = new ArrayList<>(partitions.getCollectionUrls());
+    if (partitions.isPartitioned()) {
+      collectionUrls.add(davConf.calUrl());
+    }
+    ChangeSet changes;
+    try (PartitionedDiff diff = new PartitionedDiff(collectionUrls, partitions, diffConf,
+        shard.resolveStateDir(syncConf.getStateDirPath()), renderer::contentHash)) {
+      Pipeline pipeline = new Pipeline("bcg-read", pipelineConf.queueCapacity());
+      Supplier<List<Contact>> contactSupplier = contactReader.apply(pipeline);
+      List<PartitionedDiff.CollectionDiff> collections = diff.getCollections();
+      for (int i = 0; i < collections.size(); i++) {
+        PartitionedDiff.CollectionDiff collection = collections.get(i);
+        indexBirthdayEvents(pipeline, transport, collections.size() == 1 ? "cal" : "cal-" + i,
+            collection.getUrl(), collection::addEvent);
+      }
+      pipeline.run();
+      List<Contact> contacts = contactSupplier.get();
+      int eventCount = diff.getEventCount();
+      readPhase.items = contacts.size() + eventCount;
+      readPhase.commit();
+      log.info("Syncing birthday events of {} contacts.", contacts.size());
+      observation.highCardinalityKeyValue("bcg.contacts", String.valueOf(contacts.size()));
+      // the index is the probe for a calendar without birthday events: the calendar-query of an
+      // empty calendar is a single request answered by an empty multistatus, nothing is fetched
+      // or parsed, and it's read concurrently with the contacts
+      if (bulkImportConf.enabled() && eventCount == 0 && !contacts.isEmpty()) {
+        return importInBulk(transport, contacts, sourceFingerprint.get(), retryQueue, deadLetters,
+            budget, observation);
       }
+
+      SyncFlightEvents.SyncPhase diffPhase = new SyncFlightEvents.SyncPhase("diff");
+      diffPhase.begin();
+      changes = diff.diff(contacts, pipelineConf, observationRegistry);
+      diffPhase.items = changes.size();
+      diffPhase.commit();
     }
-    if (changedPeople.isEmpty()) {
-      log.info("No birthday events to update found. Sync stopped.");
-      return;
+    log.info("Birthday events: {}", changes);
+    observation
+        .highCardinalityKeyValue("bcg.events.created", String.valueOf(changes.creates().size()))
+        .highCardinalityKeyValue("bcg.events.updated", String.valueOf(changes.updates().size()))
+        .highCardinalityKeyValue("bcg.events.deleted", String.valueOf(changes.deletes().size()));
+    if (changes.creates().isEmpty() && changes.updates().isEmpty()) {
+      log.info("No birthday events to update found.");
     }
+    return applyChanges(transport, journal.begin(sourceFingerprint.get(), changes), retryQueue,
+        deadLetters, budget, observation, false);
+  }
 
-    // process changed or missing birthday event
-    for (Contact contact : changedPeople) {
-      Calendar personCal = buildBirthdayCalendar(contact);
-      String uuid = contact.identifier();
-      if (uuid == null) {
-        throw new IllegalArgumentException("Contact identifier must not be null.");
+  /**
+   * Imports the events of all contacts into a calendar without birthday events. The index of the
+   * calendar is empty, so the diff is skipped and all contacts are created. The creates are
+   * journaled like the changes of a diff, so an interrupted import is resumed.
+   */
+  private SyncResult importInBulk(DavTransport transport, List<Contact> contacts,
+                                  @Nullable String sourceFingerprint, RetryQueue retryQueue,
+                                  DeadLetters deadLetters, RunBudget budget,
+                                  Observation observation) throws IOException {
+    Map<String, Contact> creates = new LinkedHashMap<>();
+    for (Contact contact : contacts) {
+      if (contact.identifier() == null || contact.birthday() == null) {
+        throw new IllegalArgumentException(
+            "Contact identifier and birthday must not be null: " + contact.getFullName());
       }
-      if (existingEventUris.containsKey(uuid)) {
-        URL eventUri = existingEventUris.get(uuid);
-        sardine.delete(davConf.getBaseUrl() + eventUri.getPath());
-        log.debug("Deleted outdated event before add: {}", eventUri.getPath());
+      if (creates.putIfAbsent(contact.identifier(), contact) != null) {
+        log.warn("Ignored contact with duplicate identifier: {}", contact.identifier());
       }
-      uploadSingleEvent(sardine, personCal, contact);
-      log.info("Added or updated event for: {}", contact.getFullName());
     }
+    ChangeSet changes = new ChangeSet(new ArrayList<>(creates.values()), List.of(), List.of(), 0);
+    log.info("The calendar contains no birthday events, the events of {} contacts are imported "
+        + "in bulk.", creates.size());
+    observation
+        .highCardinalityKeyValue("bcg.events.created", String.valueOf(creates.size()))
+        .highCardinalityKeyValue("bcg.events.updated", "0")
+        .highCardinalityKeyValue("bcg.events.deleted", "0")
+        .highCardinalityKeyValue("bcg.events.bulk-import", "true");
+    return applyChanges(transport, journal.begin(sourceFingerprint, changes), retryQueue,
+        deadLetters, budget, observation, true);
   }
 
-  private Calendar buildBirthdayCalendar(Contact contact) {
-    Version version = new Version();
-    version.setValue(Version.VALUE_2_0);
-    Calendar calendar = new Calendar();
-    calendar.add(new ProdId(conf.getProdId()));
-    calendar.add(version);
-    calendar.add(new CalScale(CalScale.VALUE_GREGORIAN)); //
+  /**
+   * Adds the indexing of the birthday events to a pipeline: the events of the calendar category
+   * are queried, fetched if the query didn't return their data, and parsed by their own stages.
+   * If sharded, only the events of the own shard are indexed. Events of other categories are left
+   * alone. The collection of a partition which doesn't exist yet has no events.
+   *
+   * @param stagePrefix the prefix of the names of the stages
+   * @param calUrl      the URL of the calendar collection
+   * @param index       receives the index entries of the events, by a single thread
+   */
+  private void indexBirthdayEvents(Pipeline pipeline, DavTransport transport, String stagePrefix,
+                                   String calUrl, Pipeline.Sink<IndexEntry> index) {
+    Observation observation = Observation.createNotStarted("bcg.cal.index", observationRegistry)
+        .contextualName("indexBirthdayEvents")
+        .start();
+    String baseUrl = NetUtil.getBaseUrl(calUrl);
+    pipeline.<DavEntry>source(stagePrefix + "-list", observation, emitter -> {
+          try {
+            // the response is streamed, each event is processed as soon as its entry has arrived
+            listBirthdayEvents(transport, calUrl, davEntry -> {
+              if (shard.ownsPath(davEntry.href().getPath())) {
+                emitter.accept(davEntry);
+              }
+            });
+            partitions.markExisting(calUrl);
+          } catch (SardineException e) {
+            if (e.getStatusCode() != HttpStatus.SC_NOT_FOUND || calUrl.equals(davConf.calUrl())) {
+              throw e;
+            }
+            log.debug("The calendar collection doesn't exist yet: {}", calUrl);
+          }
+        })
+        .map(stagePrefix + "-fetch", pipelineConf.fetchThreads(), davEntry -> {
+          String path = davEntry.href().getPath();
+          String calendarData = davEntry.data();
+          if (calendarData != null) {
+            return CompletableFuture.completedFuture(
+                new EventContent(path, calendarData.getBytes(StandardCharsets.UTF_8)));
+          }
+          return transport.get(baseUrl + path).thenApply(content -> new EventContent(path, content));
+        })
+        // the fetch stage only issues the requests, the parse stage waits for their responses
+        .map(stagePrefix + "-parse", pipelineConf.parseThreads(),
+            eventContent -> {
+              EventContent fetched = DavTransport.await(eventContent);
+              return indexEntry(fetched.path(), fetched.content(), conf.calendarCategory());
+            })
+        .sink(stagePrefix + "-index", new Pipeline.Sink<>() {
+          @Override
+          public void accept(IndexEntry entry) throws IOException {
+            index.accept(entry);
+          }
+
+          @Override
+          public void complete() {
+            observation.stop();
+          }
 
-    VEvent birthdayEvent = buildBirthdayEvent(contact);
-    calendar.add(birthdayEvent);
-    return calendar;
+          @Override
+          public void fail(Throwable cause) {
+            observation.error(cause);
+            observation.stop();
+          }
+        });
   }
 
-  private Summary buildSummary(Contact contact) {
-    String summary = eventConf.generateSummary(contact);
-    return new Summary(summary);
+  /**
+   * Lists the events of the calendar category with a {@code calendar-query} REPORT, so the events
+   * of other categories aren't transferred. If the plan says the server doesn't support the query
+   * or the server rejects it, all events of the calendar are listed and filtered by their category
+   * when they're parsed.
+   */
+  private void listBirthdayEvents(DavTransport transport, String calUrl, Consumer<DavEntry> consumer)
+      throws IOException {
+    if (capabilityDiscovery.getPlan().calendarListing()
+        == DavConf.CalendarListing.CALENDAR_QUERY) {
+      try {
+        transport.calendarQuery(calUrl, conf.calendarCategory(), consumer);
+        return;
+      } catch (SardineException e) {
+        if (!BcgSardine.isUnsupportedReport(e.getStatusCode())) {
+          throw e;
+        }
+        log.info("The server doesn't support the calendar-query (status {}), all events of the "
+            + "calendar are fetched and filtered by their category.", e.getStatusCode());
+      }
+    }
+    transport.list(calUrl, davEntry -> {
+      if (!davEntry.directory() && davEntry.hasContentType(CALENDAR_CONTENT_TYPE)) {
+        consumer.accept(davEntry);
+      }
+    });
   }
 
   /**
-   * Builds a VEvent instance for a specified person's birthday. The event is annually repeated.
+   * Parses an event into the data required by the {@link EventIndex}.
    *
-   * @param contact the Person object containing the birthday and other related information
-   * @return the constructed VEvent representing the person's birthday
+   * @param path     the path of the event
+   * @param content  the iCalendar content of the event
+   * @param category the category of the birthday events
+   * @return the entry, or null if it isn't a birthday event
    */
-  private VEvent buildBirthdayEvent(Contact contact) {
-    assert contact.birthday() != null;
-    Summary summary = buildSummary(contact);
-    String description = eventConf.generateDescription(contact);
+  static @Nullable IndexEntry indexEntry(String path, byte[] content, String category) {
+    VEvent event = CalUtil.parseEvent(new ByteArrayInputStream(content), path);
+    // the text-match of the query matches substrings, so the category is checked in any case
+    if (event == null || !CalUtil.hasCategory(event, category)) {
+      return null;
+    }
+    int epochDay = CalUtil.extractEpochDay(event);
+    return new IndexEntry(CalUtil.extractContactsUUIDFromEvent(event), path, epochDay,
+        CalUtil.contentHash(event, epochDay));
+  }
 
-    // Create the birthday event as an all-day event
-    LocalDate birthday = contact.birthday();
-    VEvent birthdayEvent = new VEvent(birthday, birthday.plusDays(1), summary.getValue());
+  /**
+   * Queues the dead letters of the previous runs, so they're applied before the changes of this
+   * run.
+   */
+  private void retryDeadLetters(DavTransport transport, RetryQueue retryQueue,
+                                DeadLetters deadLetters, RunBudget budget) throws IOException {
+    ChangeSet previous = journal.loadDeadLetters();
+    if (!previous.isEmpty()) {
+      log.info("Retrying the dead letters of the previous run: {}", previous);
+      SyncFlightEvents.SyncPhase phase = new SyncFlightEvents.SyncPhase("dead-letters");
+      phase.begin();
+      applyChanges(transport, SyncJournal.Checkpoint.untracked(previous), retryQueue, deadLetters,
+          budget);
+      phase.items = previous.size();
+      phase.commit();
+    }
+  }
 
-    // add the UID
-    birthdayEvent.add(new Uid(contact.identifier()));
+  /**
+   * Applies the unfinished changes of the checkpoint, retries the failed changes of the run and
+   * saves the dead-letter list. The journal is discarded when all items have finished, otherwise
+   * its remaining items are carried over to the next run.
+   */
+  private SyncResult applyChanges(DavTransport transport, SyncJournal.Checkpoint checkpoint,
+                                  RetryQueue retryQueue, DeadLetters deadLetters,
+                                  RunBudget budget, Observation observation, boolean bulk)
+      throws IOException {
+    SyncFlightEvents.SyncPhase phase = new SyncFlightEvents.SyncPhase("write");
+    phase.begin();
+    phase.items = checkpoint.getRemaining();
+    try (checkpoint) {
+      if (bulk) {
+        importInBulk(transport, checkpoint, retryQueue, deadLetters, budget);
+      } else {
+        applyChanges(transport, checkpoint, retryQueue, deadLetters, budget);
+      }
+      retryQueue.retryFailed(budget);
+    }
+    phase.commit();
+    journal.saveDeadLetters(deadLetters.toChangeSet());
+    if (checkpoint.getRemaining() == 0) {
+      journal.discard();
+    }
+    SyncResult result = retryQueue.getResult(checkpoint.getChanges().unchanged());
+    if (result.carriedOver() > 0) {
+      log.warn("The budget of the run ({}) is exhausted, {} changes are carried over to the next "
+          + "run.", budget, result.carriedOver());
+    }
+    observation
+        .highCardinalityKeyValue("bcg.events.failed", String.valueOf(result.deadLettered()))
+        .highCardinalityKeyValue("bcg.events.carried-over", String.valueOf(result.carriedOver()));
+    return result;
+  }
 
-    // add the repetition rule
-    birthdayEvent.add(new RRule<>(new Recur.Builder<LocalDate>().frequency(Frequency.YEARLY).build()));
+  /**
+   * Applies the unfinished changes of the checkpoint by parallel threads. The deletes are applied
+   * first, because an update may upload its event to the path of a deleted duplicate. The uploads
+   * are ordered by the next birthday, so the upcoming birthdays are written first. An outdated
+   * event at the path of the new one is overwritten if the plan allows it, otherwise it's deleted
+   * first. Each finished item is marked, a failed item is queued for retry. Once the budget of the
+   * run is exhausted, the remaining items are carried over instead of being applied.
+   */
+  private void applyChanges(DavTransport transport, SyncJournal.Checkpoint checkpoint,
+                            RetryQueue retryQueue, DeadLetters deadLetters, RunBudget budget)
+      throws IOException {
+    ChangeSet changes = checkpoint.getChanges();
+    // delete the birthday events of contacts which don't exist anymore
+    applyInParallel("delete", emitter -> {
+      int item = 0;
+      for (String eventPath : changes.deletes()) {
+        int index = item++;
+        if (!checkpoint.isDone(index)) {
+          emitter.accept(withinBudget(budget, () -> retryQueue.apply(
+              "delete outdated event " + eventPath, () -> {
+                deleteEvent(transport, eventPath);
+                log.debug("Deleted outdated event: {}", eventPath);
+              }, () -> checkpoint.markDone(index), () -> {
+                deadLetters.addDelete(eventPath);
+                checkpoint.markDone(index);
+              }), () -> carryOver(checkpoint, index, retryQueue,
+              () -> deadLetters.addDelete(eventPath))));
+        }
+      }
+    });
+
+    // process changed or missing birthday event, the next birthdays first
+    applyInParallel("upload", emitter -> {
+      boolean overwrite =
+          capabilityDiscovery.getPlan().eventWrite() == DavConf.EventWrite.OVERWRITE;
+      LocalDate today = LocalDate.now();
+      PriorityQueue<Upload> uploads = new PriorityQueue<>(
+          Comparator.comparingInt(Upload::daysUntilBirthday).thenComparingInt(Upload::index));
+      int item = changes.deletes().size();
+      for (ChangeSet.Update update : changes.updates()) {
+        int index = item++;
+        if (!checkpoint.isDone(index)) {
+          uploads.add(new Upload(index, update.contact().daysUntilBirthday(today),
+              update.contact(), update));
+        }
+      }
+      for (Contact contact : changes.creates()) {
+        int index = item++;
+        if (!checkpoint.isDone(index)) {
+          uploads.add(new Upload(index, contact.daysUntilBirthday(today), contact, null));
+        }
+      }
+      for (Upload upload = uploads.poll(); upload != null; upload = uploads.poll()) {
+        int index = upload.index();
+        Contact contact = upload.contact();
+        ChangeSet.Update update = upload.update();
+        if (update != null) {
+          emitter.accept(withinBudget(budget, () -> retryQueue.apply(
+              "update event for " + contact.getFullName(), () -> {
+                if (!overwrite || !update.existingPath().equals(eventPath(contact))) {
+                  deleteEvent(transport, update.existingPath());
+                  log.debug("Deleted outdated event before add: {}", update.existingPath());
+                }
+                uploadSingleEvent(transport, renderer.renderEvent(contact).content(), contact);
+                log.info("Updated event for: {}", contact.getFullName());
+              }, () -> checkpoint.markDone(index), () -> {
+                deadLetters.addUpdate(update);
+                checkpoint.markDone(index);
+              }), () -> carryOver(checkpoint, index, retryQueue,
+              () -> deadLetters.addUpdate(update))));
+        } else {
+          emitter.accept(withinBudget(budget, () -> retryQueue.apply(
+              "add event for " + contact.getFullName(), () -> {
+                uploadSingleEvent(transport, renderer.renderEvent(contact).content(), contact);
+                log.info("Added event for: {}", contact.getFullName());
+              }, () -> checkpoint.markDone(index), () -> {
+                deadLetters.addCreate(contact);
+                checkpoint.markDone(index);
+              }), () -> carryOver(checkpoint, index, retryQueue,
+              () -> deadLetters.addCreate(contact))));
+        }
+      }
+    });
+  }
+
+  /**
+   * Creates the events of the checkpoint, which has only creates. The events are rendered and
+   * uploaded by {@link BulkImportConf#concurrency()} threads with a conditional PUT, the next
+   * birthdays first. An event which exists already, e.g. because it was written
+   * concurrently, isn't overwritten. Failed uploads are retried and the budget of the run is
+   * respected like by the regular writes. The progress is logged after each tenth of the events.
+   */
+  private void importInBulk(DavTransport transport, SyncJournal.Checkpoint checkpoint,
+                            RetryQueue retryQueue, DeadLetters deadLetters, RunBudget budget)
+      throws IOException {
+    List<Contact> creates = checkpoint.getChanges().creates();
+    LocalDate today = LocalDate.now();
+    List<Upload> uploads = new ArrayList<>(creates.size());
+    for (int index = 0; index < creates.size(); index++) {
+      if (!checkpoint.isDone(index)) {
+        Contact contact = creates.get(index);
+        uploads.add(new Upload(index, contact.daysUntilBirthday(today), contact, null));
+      }
+    }
+    uploads.sort(
+        Comparator.comparingInt(Upload::daysUntilBirthday).thenComparingInt(Upload::index));
+    int total = uploads.size();
+    int step = Math.max(1, total / 10);
+    long startNanos = System.nanoTime();
+    AtomicInteger imported = new AtomicInteger();
+    Runnable progress = () -> {
+      int count = imported.incrementAndGet();
+      if (count % step == 0 || count == total) {
+        double seconds = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+        log.info("Bulk import: {} of {} events written ({} per second).", count, total,
+            Math.round(count / seconds));
+      }
+    };
+    Pipeline pipeline = new Pipeline("bcg-bulk", pipelineConf.queueCapacity());
+    pipeline.<Upload>source("bulk-plan", observationRegistry.getCurrentObservation(),
+            emitter -> uploads.forEach(emitter))
+        .forEach("bulk-upload", bulkImportConf.concurrency(), upload -> {
+          int index = upload.index();
+          Contact contact = upload.contact();
+          withinBudget(budget, () -> {
+            byte[] content = renderer.renderEvent(contact).content();
+            retryQueue.apply("add event for " + contact.getFullName(),
+                () -> createEvent(transport, contact, content), () -> {
+                  checkpoint.markDone(index);
+                  progress.run();
+                }, () -> {
+                  deadLetters.addCreate(contact);
+                  checkpoint.markDone(index);
+                });
+          }, () -> carryOver(checkpoint, index, retryQueue,
+              () -> deadLetters.addCreate(contact))).run();
+        });
+    pipeline.run();
+  }
 
-    if (eventConf.getAlarmDuration() != null) {
-      // build and add an alarm
-      VAlarm alarm = new VAlarm();
+  /**
+   * Returns a task which applies the change if the budget of the run isn't exhausted when the
+   * task starts, otherwise it carries the change over.
+   */
+  private static Runnable withinBudget(RunBudget budget, Runnable change, Runnable carryOver) {
+    return () -> {
+      if (budget.isExhausted()) {
+        carryOver.run();
+      } else {
+        change.run();
+      }
+    };
+  }
 
-      // create a trigger with VALUE=DURATION explicitly
-      Trigger trigger = new Trigger(eventConf.getAlarmDuration());
-      trigger.add(Value.DURATION);
-      alarm.add(trigger);
-      alarm.add(new Action(Action.VALUE_DISPLAY));
-      alarm.add(new Description(description));
-      alarm.add(summary);
-      birthdayEvent.add(alarm);
+  /**
+   * Carries an item over to the next run. An item of the journal stays unfinished, so it's
+   * resumed. Without journal, e.g. for the dead letters of the previous run, the item is kept in
+   * the dead-letter list.
+   */
+  private static void carryOver(SyncJournal.Checkpoint checkpoint, int index,
+                                RetryQueue retryQueue, Runnable keepAsDeadLetter) {
+    retryQueue.countCarriedOver(1);
+    if (!checkpoint.isTracked()) {
+      keepAsDeadLetter.run();
+      checkpoint.markDone(index);
     }
+  }
 
-    // add other properties
-    birthdayEvent.add(new Categories(conf.calendarCategory()));
-    birthdayEvent.add(new Transp(Transp.VALUE_TRANSPARENT));
-    birthdayEvent.add(new Description(description));
-    birthdayEvent.add(new Status(Status.VALUE_CONFIRMED));
-    return birthdayEvent;
+  /**
+   * Applies the changes emitted by the source by {@link PipelineConf#writeThreads()} threads. The
+   * source waits while the queue of the writers is full.
+   */
+  private void applyInParallel(String stage, Pipeline.Source<Runnable> changes)
+      throws IOException {
+    Pipeline pipeline = new Pipeline("bcg-write", pipelineConf.queueCapacity());
+    pipeline.source(stage + "-plan", observationRegistry.getCurrentObservation(), changes)
+        .forEach(stage, pipelineConf.writeThreads(), Runnable::run);
+    pipeline.run();
+  }
+
+  /**
+   * Deletes an event. An event which doesn't exist anymore is ignored, because it may have been
+   * deleted by an interrupted run whose mark got lost.
+   */
+  private void deleteEvent(DavTransport transport, String eventPath) throws IOException {
+    SyncFlightEvents.EventWrite event = new SyncFlightEvents.EventWrite();
+    event.begin();
+    event.operation = "delete";
+    event.href = eventPath;
+    event.outcome = SyncFlightEvents.OUTCOME_FAILED;
+    try {
+      DavTransport.await(transport.delete(eventUrl(eventPath)));
+      event.outcome = SyncFlightEvents.OUTCOME_OK;
+    } catch (SardineException e) {
+      if (e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+        throw e;
+      }
+      event.outcome = "not-found";
+      log.debug("Event to delete doesn't exist anymore: {}", eventPath);
+    } finally {
+      event.commit();
+    }
   }
 
-  private void uploadSingleEvent(Sardine sardine, Calendar calendar, Contact contact) throws IOException {
-    String eventContent = calendar.toString();
-    String eventUrl = davConf.calUrl() + contact.identifier() + ".ics";
+  /**
+   * Returns the path of the birthday event of a contact.
+   */
+  private String eventPath(Contact contact) {
+    return partitions.getEventPath(contact);
+  }
+
+  /**
+   * Resolves the path of an event, like the hrefs of the listings, against the base URL of the
+   * calendar server.
+   */
+  private String eventUrl(String eventPath) {
+    return NetUtil.getBaseUrl(davConf.calUrl()) + eventPath;
+  }
+
+  private void uploadSingleEvent(DavTransport transport, byte[] bytes, Contact contact) throws IOException {
+    String collectionUrl = partitions.getCollectionUrl(contact);
+    partitions.ensureCollection(transport, collectionUrl);
+    String eventPath = eventPath(contact);
+    String eventUrl = eventUrl(eventPath);
     // Use byte[] upload to ensure Content-Length is set (some servers reject chunked) and send a minimal Content-Type
-    byte[] bytes = eventContent.getBytes(StandardCharsets.UTF_8);
+    SyncFlightEvents.EventWrite event = new SyncFlightEvents.EventWrite();
+    event.begin();
+    event.operation = "put";
+    event.href = eventPath;
+    event.bytes = bytes.length;
+    event.outcome = SyncFlightEvents.OUTCOME_FAILED;
     try {
-      sardine.put(eventUrl, bytes, CALENDAR_CONTENT_TYPE);
-      log.debug("Uploaded birthday event for '{}': {}\n{}", contact.getFullName(), eventUrl, eventContent);
+      DavTransport.await(transport.put(eventUrl, bytes, CALENDAR_CONTENT_TYPE));
+      event.outcome = SyncFlightEvents.OUTCOME_OK;
+      log.debug("Uploaded birthday event for '{}': {}", contact.getFullName(), eventUrl);
     } catch (IOException e) {
-      log.error("Failed to upload birthday event for '{}': {}\n{}", contact.getFullName(), eventUrl, eventContent, e);
+      log.debug("Failed to upload birthday event for '{}': {}\n{}", contact.getFullName(), eventUrl,
+          new String(bytes, StandardCharsets.UTF_8), e);
+      forgetMissingCollection(e, collectionUrl);
       throw e;
+    } finally {
+      event.commit();
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Creates the event of a contact with a conditional PUT. An event which exists already is left
+   * alone, the next run diffs it.
+   */
+  private void createEvent(DavTransport transport, Contact contact, byte[] content)
+      throws IOException {
+    String collectionUrl = partitions.getCollectionUrl(contact);
+    partitions.ensureCollection(transport, collectionUrl);
+    String eventPath = eventPath(contact);
+    String eventUrl = eventUrl(eventPath);
+    SyncFlightEvents.EventWrite event = new SyncFlightEvents.EventWrite();
+    event.begin();
+    event.operation = "create";
+    event.href = eventPath;
+    event.bytes = content.length;
+    event.outcome = SyncFlightEvents.OUTCOME_FAILED;
+    try {
+      DavTransport.await(transport.create(eventUrl, content, CALENDAR_CONTENT_TYPE));
+      event.outcome = SyncFlightEvents.OUTCOME_OK;
+      log.debug("Created birthday event for '{}': {}", contact.getFullName(), eventUrl);
+    } catch (SardineException e) {
+      if (e.getStatusCode() != HttpStatus.SC_PRECONDITION_FAILED) {
+        forgetMissingCollection(e, collectionUrl);
+        throw e;
+      }
+      event.outcome = "exists";
+      log.debug("Birthday event to create exists already: {}", eventUrl);
+    } finally {
+      event.commit();
+    }
+  }
+
+  /**
+   * Forgets the collection of a failed write, if the server says that it doesn't exist, so the
+   * retry creates it again.
+   */
+  private void forgetMissingCollection(IOException e, String collectionUrl) {
+    if (e instanceof SardineException sardineException
+        && (sardineException.getStatusCode() == HttpStatus.SC_NOT_FOUND
+        || sardineException.getStatusCode() == HttpStatus.SC_CONFLICT)) {
+      partitions.forget(collectionUrl);
+    }
+  }
+
+  /**
+   * The content of a fetched event.
+   */
+  private record EventContent(String path, byte[] content) {
+  }
+
+  /**
+   * The data of an event required by the {@link EventIndex}.
+   */
+  record IndexEntry(String identifier, String path, int epochDay, long contentHash) {
+  }
+
+  /**
+   * An upload of a birthday event, ordered by the days until the birthday.
+   *
+   * @param index             the number of the item in the checkpoint
+   * @param daysUntilBirthday the days until the next birthday of the contact
+   * @param contact           the contact
+   * @param update            the update, or null if the event is created
+   */
+  private record Upload(int index, int daysUntilBirthday, Contact contact,
+                        @Nullable ChangeSet.Update update) {
+  }
+}
@@ -1,16 +1,11 @@
 package codes.thischwa.bcg.service;
 
-import codes.thischwa.bcg.Contact;
-import com.github.sardine.DavResource;
-import com.github.sardine.Sardine;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
 import java.net.URL;
+import java.time.DateTimeException;
 import java.time.LocalDate;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.time.temporal.Temporal;
 import java.util.NoSuchElementException;
 import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.data.ParserException;
@@ -18,11 +13,9 @@ import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.component.CalendarComponent;
 import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Categories;
 import net.fortuna.ical4j.model.property.DtStart;
 import net.fortuna.ical4j.model.property.Uid;
-
-import static codes.thischwa.bcg.service.CalHandler.CALENDAR_CONTENT_TYPE;
-
 import org.springframework.lang.Nullable;
 
 /**
@@ -59,7 +52,16 @@ public class CalUtil {
    * @throws NullPointerException if the provided eventUri is null
    */
   public static String extractEventId(URL inputUrl) {
-    String path = inputUrl.getPath();
+    return extractEventId(inputUrl.getPath());
+  }
+
+  /**
+   * Extracts the event ID from the path of an event: its file name without extension.
+   *
+   * @param path the path of the event
+   * @return the extracted event ID as a string
+   */
+  public static String extractEventId(String path) {
     String fileName = path.substring(path.lastIndexOf('/') + 1);
     if (fileName.contains("."))
       fileName = fileName.substring(0, fileName.lastIndexOf('.'));
@@ -67,51 +69,80 @@ public class CalUtil {
   }
 
   /**
-   * Checks if the specified event corresponds to the contact's birthday.
+   * Extracts the start date of the specified event as epoch day.
    *
-   * @param bdEvent the VEvent object to be checked
-   * @param contact the Contact object whose birthday is to be compared against the event
-   * @return true if the event date matches the contact's birthday, false otherwise
+   * @param event the VEvent object whose start date is to be extracted
+   * @return the start date as epoch day, or {@link Integer#MIN_VALUE} if the event has no start
+   *     date which can be converted to a local date
    */
-  public static boolean isBirthdayEquals(VEvent bdEvent, Contact contact) {
-    LocalDate personBirthday = contact.birthday();
-    DtStart<LocalDate> dtStart = bdEvent.getDateTimeStart();
-    LocalDate eventBirthday = dtStart.getDate();
-    return personBirthday.equals(eventBirthday);
+  public static int extractEpochDay(VEvent event) {
+    DtStart<Temporal> dtStart = event.getDateTimeStart();
+    if (dtStart == null) {
+      return Integer.MIN_VALUE;
+    }
+    try {
+      return BirthdayDiff.toEpochDay(LocalDate.from(dtStart.getDate()));
+    } catch (DateTimeException e) {
+      return Integer.MIN_VALUE;
+    }
   }
 
-  public static Map<VEvent, URL> collectBirthdayEvents(Sardine sardine, String calUrl)
-      throws IOException {
-    Map<VEvent, URL> events = new HashMap<>();
-    List<DavResource> davResources = sardine.list(calUrl);
-    davResources = davResources.stream().filter(e -> !e.isDirectory()).toList();
-    for (DavResource davResource : davResources) {
-      if (davResource.getContentType().contains(CALENDAR_CONTENT_TYPE)) {
-        URL eventUrl = new URL(NetUtil.getBaseUrl(calUrl) + davResource.getHref().getPath());
-        VEvent event = convert(sardine, eventUrl);
-        events.put(event, eventUrl);
+  /**
+   * Checks whether the specified event has the category, ignoring the case, e.g. whether it has
+   * been generated by BCG.
+   *
+   * @param event    the event
+   * @param category the category, see {@link codes.thischwa.bcg.conf.BcgConf#calendarCategory()}
+   * @return true if one of the categories of the event equals the category
+   */
+  public static boolean hasCategory(VEvent event, String category) {
+    for (Categories categories : event.<Categories>getProperties(Property.CATEGORIES)) {
+      for (String text : categories.getCategories().getTexts()) {
+        if (text.trim().equalsIgnoreCase(category)) {
+          return true;
+        }
       }
     }
-    return events;
+    return false;
   }
 
-  public static @Nullable VEvent convert(Sardine sardine, URL eventUrl)
+  /**
+   * Computes the content hash of an event, see {@link BirthdayDiff#contentHash(int, String,
+   * String)}.
+   *
+   * @param event    the event
+   * @param epochDay the start of the event as epoch day, see {@link #extractEpochDay(VEvent)}
+   * @return the content hash
+   */
+  public static long contentHash(VEvent event, int epochDay) {
+    return BirthdayDiff.contentHash(epochDay,
+        event.getProperty(Property.SUMMARY).map(Property::getValue).orElse(null),
+        event.getProperty(Property.DESCRIPTION).map(Property::getValue).orElse(null));
+  }
+
+  /**
+   * Parses the iCalendar content of an event resource, which must contain exactly one component.
+   *
+   * @param inputStream the iCalendar content
+   * @param source      the URL or path of the resource, used for the error message
+   * @return the event, or null if the component isn't an event
+   * @throws IllegalArgumentException if the content can't be parsed or doesn't contain exactly
+   *                                  one component
+   */
+  public static @Nullable VEvent parseEvent(InputStream inputStream, String source)
       throws IllegalArgumentException {
-    try (InputStream inputStream = sardine.get(eventUrl.toString())) {
-      if (inputStream != null) {
-        // Parse the iCalendar content
-        CalendarBuilder builder = new CalendarBuilder();
-        Calendar calendar = builder.build(inputStream);
-        if (calendar.getComponents().size() != 1) {
-          throw new IllegalArgumentException(
-              "Unexpected number of calendar components: " + calendar.getComponents().size() +
-                  " for URL: " + eventUrl + " (expected: 1)");
-        }
+    try {
+      CalendarBuilder builder = new CalendarBuilder();
+      Calendar calendar = builder.build(inputStream);
+      if (calendar.getComponents().size() != 1) {
+        throw new IllegalArgumentException(
+            "Unexpected number of calendar components: " + calendar.getComponents().size() +
+                " for URL: " + source + " (expected: 1)");
+      }
 
-        CalendarComponent component = calendar.getComponents().get(0);
-        if (component instanceof VEvent) {
-          return (VEvent) component;
-        }
+      CalendarComponent component = calendar.getComponents().get(0);
+      if (component instanceof VEvent) {
+        return (VEvent) component;
       }
     } catch (ParserException | IOException e) {
       throw new IllegalArgumentException(e);
@@ -0,0 +1,167 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.BcgConf;
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.PartitionConf;
+import com.github.sardine.impl.SardineException;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * The calendar collections the birthday events are spread across, see {@link PartitionConf}. The
+ * collections are siblings of the calendar collection of {@code dav.cal-url}, whose name gets the
+ * key of the partition as suffix, e.g. {@code birthdays-03/} for the birthdays in March. Without
+ * partitioning, all events are written to the calendar collection of {@code dav.cal-url}.
+ *
+ * <p>A collection is created with {@code MKCALENDAR} before the first event is written to it. The
+ * collections known to exist are remembered, so they're checked only once.
+ */
+@Component
+@Slf4j
+class CalendarPartitions {
+
+  private final PartitionConf.Scheme scheme;
+  private final String calUrl;
+  private final String category;
+  private final List<String> collectionUrls;
+  private final Set<String> existing = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates the partitions.
+   *
+   * @param conf    the configuration of the partitioning
+   * @param davConf the configuration containing the URL of the calendar collection
+   * @param bcgConf the configuration containing the category, used in the display names of the
+   *                created collections
+   * @throws IllegalArgumentException if the number of hash partitions isn't positive
+   */
+  CalendarPartitions(PartitionConf conf, DavConf davConf, BcgConf bcgConf) {
+    this.scheme = conf.getScheme();
+    this.calUrl = davConf.calUrl();
+    this.category = bcgConf.calendarCategory();
+    int count = switch (scheme) {
+      case NONE -> 1;
+      case MONTH -> 12;
+      case HASH -> conf.hashPartitions();
+    };
+    if (count < 1) {
+      throw new IllegalArgumentException("The number of hash partitions must be positive: "
+          + count);
+    }
+    List<String> urls = new ArrayList<>(count);
+    if (scheme == PartitionConf.Scheme.NONE) {
+      urls.add(calUrl);
+    } else {
+      String base = calUrl.endsWith("/") ? calUrl.substring(0, calUrl.length() - 1) : calUrl;
+      for (int i = 0; i < count; i++) {
+        urls.add(base + "-" + key(i) + "/");
+      }
+    }
+    this.collectionUrls = List.copyOf(urls);
+  }
+
+  /**
+   * Checks whether the events are spread across several collections.
+   */
+  boolean isPartitioned() {
+    return scheme != PartitionConf.Scheme.NONE;
+  }
+
+  /**
+   * Returns the URLs of the calendar collections of the partitions, each ending with a slash.
+   */
+  List<String> getCollectionUrls() {
+    return collectionUrls;
+  }
+
+  /**
+   * Returns the URL of the calendar collection the birthday event of a contact belongs to.
+   *
+   * @param contact the contact, which must have a birthday and an identifier
+   * @return the URL of the collection
+   * @throws IllegalArgumentException if the contact has no identifier or no birthday
+   */
+  String getCollectionUrl(Contact contact) {
+    if (contact.identifier() == null || contact.birthday() == null) {
+      throw new IllegalArgumentException(
+          "Contact identifier and birthday must not be null: " + contact.getFullName());
+    }
+    return switch (scheme) {
+      case NONE -> calUrl;
+      case MONTH -> collectionUrls.get(contact.birthday().getMonthValue() - 1);
+      case HASH -> collectionUrls.get((int) Long.remainderUnsigned(
+          BirthdayDiff.hash(BirthdayDiff.FNV_OFFSET_BASIS, contact.identifier()),
+          collectionUrls.size()));
+    };
+  }
+
+  /**
+   * Returns the path of the birthday event of a contact, relative to the base URL of the server,
+   * like the hrefs of the listings.
+   */
+  String getEventPath(Contact contact) {
+    return EventIndex.eventPath(URI.create(getCollectionUrl(contact)).getPath(),
+        contact.identifier());
+  }
+
+  /**
+   * Makes sure that the calendar collection of a partition exists, it's created if it doesn't.
+   * Without partitioning, the calendar collection of {@code dav.cal-url} must exist anyway.
+   *
+   * @param transport the transport of the requests
+   * @param url       the URL of the collection
+   * @throws IOException if the collection can't be checked or created
+   */
+  void ensureCollection(DavTransport transport, String url) throws IOException {
+    if (!isPartitioned() || existing.contains(url)) {
+      return;
+    }
+    synchronized (this) {
+      if (existing.contains(url) || transport.exists(url)) {
+        existing.add(url);
+        return;
+      }
+      // the key of the partition follows the last dash of the URL
+      String displayName = category + " " + url.substring(url.lastIndexOf('-') + 1,
+          url.length() - 1);
+      try {
+        transport.makeCalendar(url, displayName);
+        log.info("Created the calendar collection: {}", url);
+      } catch (SardineException e) {
+        // the collection was created concurrently, e.g. by another shard
+        if (e.getStatusCode() != HttpStatus.SC_METHOD_NOT_ALLOWED) {
+          throw e;
+        }
+      }
+      existing.add(url);
+    }
+  }
+
+  /**
+   * Remembers that a collection exists, e.g. because it was listed.
+   */
+  void markExisting(String url) {
+    existing.add(url);
+  }
+
+  /**
+   * Forgets that a collection exists, e.g. because a write into it failed with 404 or 409, so it's
+   * checked again before the next write.
+   */
+  void forget(String url) {
+    existing.remove(url);
+  }
+
+  private String key(int index) {
+    return scheme == PartitionConf.Scheme.MONTH ? String.format("%02d", index + 1)
+        : String.valueOf(index);
+  }
+}
@@ -0,0 +1,114 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.conf.DavConf;
+import java.io.IOException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Discovers the capabilities of the calendar and the address book collection once and picks the
+ * cheapest {@link SyncPlan} the server supports:
+ *
+ * <ul>
+ *   <li>the birthday events are listed with a {@code calendar-query} REPORT, which returns only
+ *   the events of the category, otherwise all events are listed by PROPFIND and fetched,
+ *   <li>the vCards are fetched in batches with an {@code addressbook-multiget} REPORT, otherwise
+ *   each by GET,
+ *   <li>an outdated event of a CalDAV calendar is overwritten by a single PUT, otherwise it's
+ *   deleted before the new event is put.
+ * </ul>
+ *
+ * <p>Each part can be forced by {@link DavConf#strategy()}. If all parts are forced, the server
+ * isn't probed at all. If the discovery fails, e.g. because the server isn't reachable, the plan
+ * of the unknown server is used for the run and the discovery is repeated by the next run.
+ */
+@Component
+@Slf4j
+public class CapabilityDiscovery {
+
+  private final DavConf davConf;
+  private final SardineInitializer sardineInitializer;
+  @Nullable
+  private SyncPlan plan;
+
+  /**
+   * Creates the discovery.
+   *
+   * @param davConf            the configuration of the collections and the manual override
+   * @param sardineInitializer the initializer of the client probing the server
+   */
+  public CapabilityDiscovery(DavConf davConf, SardineInitializer sardineInitializer) {
+    this.davConf = davConf;
+    this.sardineInitializer = sardineInitializer;
+  }
+
+  /**
+   * Returns the plan of the sync, the server is probed by the first call.
+   */
+  public synchronized SyncPlan getPlan() {
+    if (plan != null) {
+      return plan;
+    }
+    DavConf.Strategy strategy = davConf.strategy();
+    if (isForced(strategy)) {
+      plan = plan(null, null, strategy);
+      return plan;
+    }
+    try {
+      DavTransport transport = sardineInitializer.getTransport();
+      DavCapabilities calendar = transport.discover(davConf.calUrl());
+      DavCapabilities addressBook = transport.discover(davConf.cardUrl());
+      log.info("Capabilities of the calendar: {}", calendar);
+      log.info("Capabilities of the address book: {}", addressBook);
+      plan = plan(calendar, addressBook, strategy);
+      return plan;
+    } catch (IOException | IllegalArgumentException e) {
+      log.warn("Couldn't discover the capabilities of the dav server: {}", e.getMessage());
+      return plan(null, null, strategy);
+    }
+  }
+
+  /**
+   * Picks the plan for the capabilities of the collections. Unknown capabilities result in the
+   * plan which works with any server: the calendar is queried, because an unsupported query falls
+   * back to the listing, the vCards are fetched each and outdated events are deleted before they
+   * are put.
+   *
+   * @param calendar    the capabilities of the calendar collection, null if unknown
+   * @param addressBook the capabilities of the address book collection, null if unknown
+   * @param strategy    the manual override, may be null
+   * @return the plan
+   */
+  static SyncPlan plan(@Nullable DavCapabilities calendar, @Nullable DavCapabilities addressBook,
+                       @Nullable DavConf.Strategy strategy) {
+    DavConf.CalendarListing calendarListing = strategy == null ? null : strategy.calendarListing();
+    if (calendarListing == null || calendarListing == DavConf.CalendarListing.AUTO) {
+      calendarListing = calendar == null || calendar.supportsReport(DavCapabilities.CALENDAR_QUERY)
+          ? DavConf.CalendarListing.CALENDAR_QUERY : DavConf.CalendarListing.PROPFIND;
+    }
+    DavConf.ContactFetch contactFetch = strategy == null ? null : strategy.contactFetch();
+    if (contactFetch == null || contactFetch == DavConf.ContactFetch.AUTO) {
+      contactFetch = addressBook != null
+          && addressBook.supportsReport(DavCapabilities.ADDRESSBOOK_MULTIGET)
+          ? DavConf.ContactFetch.MULTIGET : DavConf.ContactFetch.GET;
+    }
+    DavConf.EventWrite eventWrite = strategy == null ? null : strategy.eventWrite();
+    if (eventWrite == null || eventWrite == DavConf.EventWrite.AUTO) {
+      // a CalDAV server replaces a calendar object resource by a PUT to its URL (RFC 4791)
+      eventWrite = calendar != null && calendar.davClasses().contains("calendar-access")
+          ? DavConf.EventWrite.OVERWRITE : DavConf.EventWrite.DELETE_AND_PUT;
+    }
+    return new SyncPlan(calendarListing, contactFetch, eventWrite);
+  }
+
+  private static boolean isForced(@Nullable DavConf.Strategy strategy) {
+    return strategy != null
+        && strategy.calendarListing() != null
+        && strategy.calendarListing() != DavConf.CalendarListing.AUTO
+        && strategy.contactFetch() != null
+        && strategy.contactFetch() != DavConf.ContactFetch.AUTO
+        && strategy.eventWrite() != null
+        && strategy.eventWrite() != DavConf.EventWrite.AUTO;
+  }
+}
@@ -2,15 +2,27 @@ package codes.thischwa.bcg.service;
 
 import codes.thischwa.bcg.Contact;
 import codes.thischwa.bcg.conf.DavConf;
-import com.github.sardine.DavResource;
+import codes.thischwa.bcg.conf.PipelineConf;
 import com.github.sardine.Sardine;
+import com.github.sardine.impl.SardineException;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
 import net.fortuna.ical4j.model.PropertyList;
 import net.fortuna.ical4j.vcard.VCard;
@@ -19,7 +31,7 @@ import net.fortuna.ical4j.vcard.property.BDay;
 import net.fortuna.ical4j.vcard.property.Fn;
 import net.fortuna.ical4j.vcard.property.N;
 
-import org.apache.commons.io.IOUtils;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
 /**
@@ -28,10 +40,20 @@ import org.springframework.stereotype.Component;
  */
 @Slf4j
 @Component
-public class CardHandler {
+public class CardHandler implements ContactSource {
+
+  /**
+   * The number of vCards fetched by an {@code addressbook-multiget} REPORT.
+   */
+  static final int MULTIGET_BATCH_SIZE = 50;
 
   private final DavConf davConf;
   private final SardineInitializer sardineInitializer;
+  private final ObservationRegistry observationRegistry;
+  private final Shard shard;
+  private final PipelineConf pipelineConf;
+  private final CapabilityDiscovery capabilityDiscovery;
+  private final ContactCache contactCache;
 
   /**
    * Constructs a new CardHandler instance to manage operations related to DAV address book
@@ -41,50 +63,363 @@ public class CardHandler {
    *                           for DAV integration, such as user, password, and the address book
    *                           URL.
    * @param sardineInitializer The initializer for {@link Sardine}.
+   * @param observationRegistry The registry used to observe (trace) the reading of the contacts.
+   * @param shard              The shard of this instance, only its contacts are read.
+   * @param pipelineConf       The configuration of the stages reading the contacts.
+   * @param capabilityDiscovery The discovery of the plan, which tells how the vCards are fetched.
+   * @param contactCache       The cache of the contacts, which tells the vCards unchanged since
+   *                           the last read.
    */
-  public CardHandler(DavConf davConf, SardineInitializer sardineInitializer) {
+  public CardHandler(DavConf davConf, SardineInitializer sardineInitializer,
+                     ObservationRegistry observationRegistry, Shard shard,
+                     PipelineConf pipelineConf, CapabilityDiscovery capabilityDiscovery,
+                     ContactCache contactCache) {
     this.sardineInitializer = sardineInitializer;
     this.davConf = davConf;
+    this.observationRegistry = observationRegistry;
+    this.shard = shard;
+    this.pipelineConf = pipelineConf;
+    this.capabilityDiscovery = capabilityDiscovery;
+    this.contactCache = contactCache;
   }
 
   List<Contact> readContactsWithBirthday() throws IllegalArgumentException {
+    return readContactsWithBirthday(new SourceFingerprint());
+  }
+
+  /**
+   * Reads the contacts with birthday and builds the fingerprint of the address book on the fly.
+   * If sharded, only the vCards of the own shard are read.
+   *
+   * @param fingerprint the fingerprint to which each vCard is added
+   * @return the contacts with birthday
+   */
+  List<Contact> readContactsWithBirthday(SourceFingerprint fingerprint)
+      throws IllegalArgumentException {
+    Pipeline pipeline = new Pipeline("bcg-card", pipelineConf.queueCapacity());
+    Supplier<List<Contact>> contacts = readContactsWithBirthday(pipeline, fingerprint);
+    try {
+      pipeline.run();
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+    return contacts.get();
+  }
+
+  /**
+   * Adds the reading of the contacts with birthday to a pipeline: the address book is listed,
+   * the vCards are fetched and parsed by their own stages. If the server supports it, the vCards
+   * are fetched in batches of {@value #MULTIGET_BATCH_SIZE} by an {@code addressbook-multiget}
+   * REPORT, otherwise each by GET, see {@link SyncPlan#contactFetch()}. The fingerprint of the
+   * address book is built on the fly. If sharded, only the vCards of the own shard are read.
+   *
+   * <p>If the incremental read is enabled, the vCards which are unchanged since the last read
+   * aren't fetched and the fetched ones whose revision is unchanged aren't parsed, their contacts
+   * are taken from the {@link ContactCache}.
+   *
+   * @param pipeline    the pipeline, the contacts are read when it's run
+   * @param fingerprint the fingerprint to which each vCard is added
+   * @return supplies the contacts with birthday, the read ones in the order of the listing
+   *     followed by the cached ones, after the pipeline has run
+   */
+  @Override
+  public Supplier<List<Contact>> readContactsWithBirthday(Pipeline pipeline,
+                                                          SourceFingerprint fingerprint)
+      throws IllegalArgumentException {
+    checkAccess();
+    DavTransport transport = sardineInitializer.getTransport();
+    Observation observation = Observation.createNotStarted("bcg.card.read", observationRegistry)
+        .contextualName("readContactsWithBirthday")
+        .start();
+    boolean multiget =
+        capabilityDiscovery.getPlan().contactFetch() == DavConf.ContactFetch.MULTIGET;
+    int batchSize = multiget ? MULTIGET_BATCH_SIZE : 1;
+    AtomicBoolean multigetUnsupported = new AtomicBoolean(!multiget);
+    AtomicInteger vcardCount = new AtomicInteger();
+    ContactCache.Read cacheRead = contactCache.beginRead();
+    List<ContactCache.Entry> unchanged = new ArrayList<>();
+    List<Contact> contacts = new ArrayList<>();
+    pipeline.<List<DavEntry>>source("card-list", observation, emitter -> {
+          // the listing is streamed, each batch is fetched as soon as its entries have arrived
+          List<DavEntry> batch = new ArrayList<>(batchSize);
+          transport.list(davConf.cardUrl(), davEntry -> {
+            if (isOwnContact(davEntry)) {
+              vcardCount.incrementAndGet();
+              fingerprint.add(davEntry.href().getPath(), davEntry.etag());
+              ContactCache.Entry cached = cacheRead.unchanged(davEntry);
+              if (cached != null) {
+                unchanged.add(cached);
+                return;
+              }
+              batch.add(davEntry);
+              if (batch.size() == batchSize) {
+                emitter.accept(List.copyOf(batch));
+                batch.clear();
+              }
+            }
+          });
+          if (!batch.isEmpty()) {
+            emitter.accept(List.copyOf(batch));
+          }
+        })
+        .map("card-fetch", pipelineConf.fetchThreads(),
+            batch -> fetchVCards(transport, batch, multigetUnsupported))
+        // the fetch stage only issues the requests, the parse stage waits for their responses
+        .map("card-parse", pipelineConf.parseThreads(),
+            vCards -> parseContacts(DavTransport.await(vCards), cacheRead))
+        .sink("card-collect", new Pipeline.Sink<>() {
+          @Override
+          public void accept(List<ContactCache.Entry> batch) {
+            collect(batch);
+          }
+
+          @Override
+          public void complete() {
+            collect(unchanged);
+            cacheRead.complete();
+            if (!unchanged.isEmpty()) {
+              log.info("Contacts unchanged since the last read, not fetched: {}",
+                  unchanged.size());
+            }
+            observation.highCardinalityKeyValue("bcg.contacts.skipped",
+                String.valueOf(unchanged.size()));
+            if (shard.isSharded()) {
+              log.info("Contacts found in shard {}: {}, with birthday: {}", shard,
+                  vcardCount.get(), contacts.size());
+            } else {
+              log.info("Contacts found: {}, with birthday: {}", vcardCount.get(),
+                  contacts.size());
+            }
+            observation.highCardinalityKeyValue("bcg.contacts.found",
+                String.valueOf(vcardCount.get()));
+            observation.highCardinalityKeyValue("bcg.contacts.with-birthday",
+                String.valueOf(contacts.size()));
+            observation.stop();
+          }
+
+          @Override
+          public void fail(Throwable cause) {
+            observation.error(cause);
+            observation.stop();
+          }
+
+          private void collect(List<ContactCache.Entry> entries) {
+            for (ContactCache.Entry entry : entries) {
+              cacheRead.record(entry);
+              if (entry.contact() != null) {
+                contacts.add(entry.contact());
+              }
+            }
+          }
+        });
+    return () -> contacts;
+  }
+
+  /**
+   * Computes the fingerprint of the address book from the hrefs and ETags of the vCards of the
+   * own shard. Only the collection is listed, the vCards aren't read.
+   *
+   * @return the fingerprint, or null if the server doesn't provide ETags
+   */
+  @Override
+  @Nullable
+  public String fingerprintContacts() throws IllegalArgumentException {
+    checkAccess();
+    SourceFingerprint fingerprint = new SourceFingerprint();
+    try {
+      sardineInitializer.getTransport().list(davConf.cardUrl(), davEntry -> {
+        if (isOwnContact(davEntry)) {
+          fingerprint.add(davEntry.href().getPath(), davEntry.etag());
+        }
+      });
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+    return fingerprint.value();
+  }
+
+  private boolean isOwnContact(DavEntry davEntry) {
+    return !davEntry.directory() && shard.ownsPath(davEntry.href().getPath());
+  }
+
+  private void checkAccess() {
     if (!sardineInitializer.canAccessBaseUrl()) {
       log.error("Access to {} timed out after {} trails.", davConf.getBaseUrl(),
           davConf.maxRetries());
       throw new IllegalArgumentException("Access to " + davConf.getBaseUrl() + " timed out.");
     }
-    Sardine sardine = sardineInitializer.getSardine();
-    List<Contact> contacts = new ArrayList<>();
-    try {
-      List<DavResource> vcardResources = sardine.list(davConf.cardUrl())
-          .stream()
-          .filter(item -> !item.isDirectory())
-          .toList();
-      log.info("Contacts found: {}", vcardResources.size());
-
-      for (DavResource davResource : vcardResources) {
-        log.info("Processing contact: {}",
-            (davResource.getDisplayName() == null ||
-                davResource.getDisplayName().isEmpty()) ?
-                davResource.toString() :
-                davResource.getDisplayName());
-        URI href = new URI(davConf.getBaseUrl() + davResource.getHref().toString());
-        try (InputStream vCardStream = sardine.get(href.toString())) {
-          byte[] vcfContent = IOUtils.toByteArray(vCardStream);
-          VCardBuilder cardBuilder =
-              new VCardBuilder(new ByteArrayInputStream(vcfContent));
-          VCard card = cardBuilder.build();
-          String identifier = CalUtil.extractEventId(href.toURL());
-          Contact contact = CardUtil.convert(card, identifier);
-          contacts.add(contact);
-        } catch (IllegalArgumentException e) {
-          log.warn("Error while processing contact {}: {}", davResource.getDisplayName(),
-              e.getMessage());
-        }
+  }
+
+  /**
+   * Fetches a batch of vCards in the order of the batch, by an {@code addressbook-multiget} REPORT
+   * unless the server doesn't support it. In this case all further vCards of the run are fetched
+   * each by GET. A vCard the REPORT didn't return is fetched by GET, too.
+   */
+  private CompletableFuture<List<VCardContent>> fetchVCards(DavTransport transport,
+                                                            List<DavEntry> batch,
+                                                            AtomicBoolean multigetUnsupported) {
+    if (multigetUnsupported.get()) {
+      return fetchVCardsEach(transport, batch);
+    }
+    return fetchVCardsByMultiget(transport, batch).exceptionallyCompose(failure -> {
+      Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+          ? failure.getCause() : failure;
+      if (!(cause instanceof SardineException e)
+          || !BcgSardine.isUnsupportedReport(e.getStatusCode())) {
+        return CompletableFuture.failedFuture(cause);
       }
-      return contacts;
+      if (!multigetUnsupported.getAndSet(true)) {
+        log.info("The server doesn't support the addressbook-multiget (status {}), the vCards "
+            + "are fetched each.", e.getStatusCode());
+      }
+      return fetchVCardsEach(transport, batch);
+    });
+  }
+
+  private CompletableFuture<List<VCardContent>> fetchVCardsByMultiget(DavTransport transport,
+                                                                      List<DavEntry> batch) {
+    log.info("Processing {} contacts from: {}", batch.size(), batch.get(0).href());
+    SyncFlightEvents.ContactFetch event = new SyncFlightEvents.ContactFetch();
+    event.begin();
+    event.href = URI.create(davConf.cardUrl()).getPath();
+    event.count = batch.size();
+    event.outcome = SyncFlightEvents.OUTCOME_FAILED;
+    return transport.addressbookMultiget(davConf.cardUrl(),
+            batch.stream().map(davEntry -> davEntry.href().toString()).toList())
+        .whenComplete((entries, failure) -> {
+          if (failure == null) {
+            event.bytes = entries.stream().filter(davEntry -> davEntry.data() != null)
+                .mapToLong(davEntry -> davEntry.data().getBytes(StandardCharsets.UTF_8).length)
+                .sum();
+            event.outcome = SyncFlightEvents.OUTCOME_OK;
+          }
+          event.commit();
+        })
+        .thenCompose(entries -> {
+          Map<String, byte[]> received = new HashMap<>();
+          for (DavEntry davEntry : entries) {
+            if (davEntry.data() != null) {
+              received.put(davEntry.href().getPath(),
+                  davEntry.data().getBytes(StandardCharsets.UTF_8));
+            }
+          }
+          List<CompletableFuture<VCardContent>> contents = new ArrayList<>(batch.size());
+          for (DavEntry davEntry : batch) {
+            byte[] content = received.get(davEntry.href().getPath());
+            contents.add(content == null ? fetchVCard(transport, davEntry)
+                : CompletableFuture.completedFuture(new VCardContent(toUrl(davEntry), content,
+                    davEntry.lastModified())));
+          }
+          return allOf(contents);
+        });
+  }
+
+  private CompletableFuture<List<VCardContent>> fetchVCardsEach(DavTransport transport,
+                                                                List<DavEntry> batch) {
+    List<CompletableFuture<VCardContent>> contents = new ArrayList<>(batch.size());
+    for (DavEntry davEntry : batch) {
+      contents.add(fetchVCard(transport, davEntry));
+    }
+    return allOf(contents);
+  }
+
+  private static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(ignored -> futures.stream().map(CompletableFuture::join).toList());
+  }
+
+  private URI toUrl(DavEntry davEntry) {
+    return URI.create(davConf.getBaseUrl() + davEntry.href().toString());
+  }
+
+  private CompletableFuture<VCardContent> fetchVCard(DavTransport transport, DavEntry davEntry) {
+    log.info("Processing contact: {}", davEntry.href());
+    URI href = toUrl(davEntry);
+    SyncFlightEvents.ContactFetch event = new SyncFlightEvents.ContactFetch();
+    event.begin();
+    event.href = davEntry.href().getPath();
+    event.count = 1;
+    event.outcome = SyncFlightEvents.OUTCOME_FAILED;
+    return transport.get(href.toString()).handle((content, failure) -> {
+      if (failure == null) {
+        event.bytes = content.length;
+        event.outcome = SyncFlightEvents.OUTCOME_OK;
+      }
+      event.commit();
+      if (failure != null) {
+        throw failure instanceof CompletionException e ? e : new CompletionException(failure);
+      }
+      return new VCardContent(href, content, davEntry.lastModified());
+    });
+  }
+
+  /**
+   * Parses the fetched vCards, unless their revision is the cached one.
+   *
+   * @return the vCards to cache, with the parsed contacts
+   */
+  private List<ContactCache.Entry> parseContacts(List<VCardContent> vCardContents,
+                                                 ContactCache.Read cacheRead) {
+    List<ContactCache.Entry> entries = new ArrayList<>(vCardContents.size());
+    for (VCardContent vCardContent : vCardContents) {
+      String path = vCardContent.href().getPath();
+      String revision = ContactCache.revision(vCardContent.content());
+      ContactCache.Entry cached = cacheRead.sameRevision(path, revision);
+      Contact contact = cached != null ? cached.contact()
+          : parseContact(path, vCardContent.content());
+      entries.add(new ContactCache.Entry(path, vCardContent.lastModified(), revision, contact));
+    }
+    return entries;
+  }
+
+  /**
+   * Parses a vCard into a contact, identified by the file name of the vCard.
+   *
+   * @param path    the path of the vCard
+   * @param content the content of the vCard
+   * @return the contact, or null if the vCard has no birthday or name
+   */
+  @Nullable
+  static Contact parseContact(String path, byte[] content) {
+    return parseContact(path, content, card -> CalUtil.extractEventId(path));
+  }
+
+  /**
+   * Parses a vCard into a contact. The parse is recorded as the flight recorder event
+   * {@code bcg.ContactParse}.
+   *
+   * @param href       the href or the location of the vCard, used for the event and the log
+   * @param content    the content of the vCard
+   * @param identifier determines the identifier of the contact from the parsed vCard
+   * @return the contact, or null if the vCard has no birthday or name
+   */
+  @Nullable
+  static Contact parseContact(String href, byte[] content, Function<VCard, String> identifier) {
+    SyncFlightEvents.ContactParse event = new SyncFlightEvents.ContactParse();
+    event.begin();
+    event.href = href;
+    event.bytes = content.length;
+    event.outcome = SyncFlightEvents.OUTCOME_FAILED;
+    try {
+      VCardBuilder cardBuilder = new VCardBuilder(new ByteArrayInputStream(content));
+      VCard card = cardBuilder.build();
+      Contact contact = CardUtil.convert(card, identifier.apply(card));
+      event.outcome = SyncFlightEvents.OUTCOME_OK;
+      return contact;
+    } catch (IllegalArgumentException e) {
+      event.outcome = "invalid";
+      log.warn("Error while processing contact {}: {}", href, e.getMessage());
+      return null;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
+    } finally {
+      event.commit();
     }
   }
+
+  /**
+   * The content of a fetched vCard and the modification time of its listing.
+   */
+  private record VCardContent(URI href, byte[] content, @Nullable Instant lastModified) {
+  }
 }
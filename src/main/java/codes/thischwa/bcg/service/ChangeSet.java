@@ -0,0 +1,43 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import java.util.List;
+
+/**
+ * The changes required to bring the birthday calendar in line with the contacts.
+ *
+ * @param creates   The contacts whose birthday event is missing.
+ * @param updates   The contacts whose birthday event is outdated.
+ * @param deletes   The paths of the events whose contact doesn't exist anymore, relative to the
+ *                  base URL of the server.
+ * @param unchanged The number of events which are up to date.
+ */
+public record ChangeSet(List<Contact> creates, List<Update> updates, List<String> deletes,
+                        int unchanged) {
+
+  public boolean isEmpty() {
+    return creates.isEmpty() && updates.isEmpty() && deletes.isEmpty();
+  }
+
+  /**
+   * Returns the number of changes, the unchanged events aren't counted.
+   */
+  public int size() {
+    return creates.size() + updates.size() + deletes.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d to create, %d to update, %d to delete, %d unchanged",
+        creates.size(), updates.size(), deletes.size(), unchanged);
+  }
+
+  /**
+   * An outdated birthday event.
+   *
+   * @param contact      The contact the event belongs to.
+   * @param existingPath The path of the existing event, relative to the base URL of the server.
+   */
+  public record Update(Contact contact, String existingPath) {
+  }
+}
@@ -0,0 +1,321 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.IncrementalConf;
+import codes.thischwa.bcg.conf.SyncConf;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * The contacts parsed from the vCards of the last successful read of the address book, keyed by
+ * the path of the vCard, with the {@code getlastmodified} of the resource and the {@code REV} of
+ * the vCard. It allows an incremental read on servers which regenerate the ETags on every
+ * listing.
+ *
+ * <p>A vCard is skipped, if its modification time is the cached one and lies before the
+ * high-water mark, the latest modification time of the last read. The modification time has a
+ * resolution of seconds, so a vCard modified in the second of the high-water mark is fetched
+ * again. A fetched vCard isn't parsed again, if its {@code REV} is the cached one. In the
+ * configured interval all vCards are fetched and parsed, which reconciles the cache with changes
+ * the modification times didn't reveal.
+ *
+ * <p>The cache is kept in the state directory and is replaced after each successful read.
+ */
+@Component
+@Slf4j
+public class ContactCache {
+
+  static final String CACHE_FILE = "contact-cache";
+
+  private static final String HEADER = "# bcg contact cache v1";
+
+  private final IncrementalConf conf;
+  private final Path stateDir;
+  private final String cardUrl;
+  private final Clock clock;
+  private volatile State state;
+
+  /**
+   * Creates the cache and loads the contacts of the last read from the state directory.
+   *
+   * @param conf     the configuration of the incremental read
+   * @param syncConf the configuration containing the state directory
+   * @param davConf  the configuration containing the URL of the address book
+   * @param shard    the shard of this instance, each shard has its own cache
+   */
+  @Autowired
+  public ContactCache(IncrementalConf conf, SyncConf syncConf, DavConf davConf, Shard shard) {
+    this(conf, shard.resolveStateDir(syncConf.getStateDirPath()), davConf.cardUrl(),
+        Clock.systemUTC());
+  }
+
+  ContactCache(IncrementalConf conf, Path stateDir, String cardUrl, Clock clock) {
+    this.conf = conf;
+    this.stateDir = stateDir;
+    this.cardUrl = cardUrl;
+    this.clock = clock;
+    this.state = conf.enabled() ? load() : State.EMPTY;
+  }
+
+  /**
+   * Starts a read of the address book. All vCards are read, if the incremental read is disabled,
+   * there's no cache yet or a full reconciliation is due.
+   */
+  Read beginRead() {
+    State current = state;
+    Instant now = clock.instant();
+    boolean full = !conf.enabled() || current.fullReadAt() == null
+        || !now.isBefore(current.fullReadAt().plus(conf.getFullReconciliationInterval()));
+    if (conf.enabled() && full) {
+      log.info("All vCards are read to reconcile the contact cache.");
+    }
+    return new Read(current, full, now);
+  }
+
+  private State load() {
+    Path cacheFile = stateDir.resolve(CACHE_FILE);
+    if (!Files.exists(cacheFile)) {
+      return State.EMPTY;
+    }
+    try (BufferedReader in = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+      if (!HEADER.equals(in.readLine())) {
+        throw new IllegalArgumentException("Unknown cache format.");
+      }
+      String cachedCardUrl = null;
+      Instant highWaterMark = null;
+      Instant fullReadAt = null;
+      Map<String, Entry> entries = new HashMap<>();
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = SyncJournal.splitLine(line);
+        switch (fields[0]) {
+          case "card" -> cachedCardUrl = fields[1];
+          case "hwm" -> highWaterMark = toInstant(fields[1]);
+          case "full" -> fullReadAt = toInstant(fields[1]);
+          case "E" -> entries.put(fields[1], new Entry(fields[1], toInstant(fields[2]),
+              fields[3], SyncJournal.toContact(fields, 4)));
+          case "N" -> entries.put(fields[1], new Entry(fields[1], toInstant(fields[2]),
+              fields[3], null));
+          default -> throw new IllegalArgumentException("Unknown cache item: " + fields[0]);
+        }
+      }
+      if (!cardUrl.equals(cachedCardUrl)) {
+        log.info("Ignored the contact cache of another address book: {}", cachedCardUrl);
+        return State.EMPTY;
+      }
+      log.debug("Loaded the contact cache of {} vCards.", entries.size());
+      return new State(entries, highWaterMark, fullReadAt);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Ignored the unreadable contact cache: {}", e.getMessage());
+      return State.EMPTY;
+    }
+  }
+
+  private void save(State newState) {
+    Path tmpFile = stateDir.resolve(CACHE_FILE + ".tmp");
+    try {
+      Files.createDirectories(stateDir);
+      try (BufferedWriter out = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+        out.write(HEADER);
+        out.newLine();
+        SyncJournal.writeLine(out, "card", cardUrl);
+        SyncJournal.writeLine(out, "hwm", toMillis(newState.highWaterMark()));
+        SyncJournal.writeLine(out, "full", toMillis(newState.fullReadAt()));
+        for (Entry entry : newState.entries().values()) {
+          String[] head = {entry.path(), toMillis(entry.lastModified()), entry.revision()};
+          if (entry.contact() == null) {
+            SyncJournal.writeLine(out, "N", head);
+          } else {
+            String[] contactFields = SyncJournal.contactFields(entry.contact());
+            String[] fields = new String[head.length + contactFields.length];
+            System.arraycopy(head, 0, fields, 0, head.length);
+            System.arraycopy(contactFields, 0, fields, head.length, contactFields.length);
+            SyncJournal.writeLine(out, "E", fields);
+          }
+        }
+      }
+      try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(tmpFile, stateDir.resolve(CACHE_FILE), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Couldn't write the contact cache to {}: {}", stateDir, e.getMessage());
+    }
+  }
+
+  @Nullable
+  private static Instant toInstant(@Nullable String millis) {
+    return millis == null ? null : Instant.ofEpochMilli(Long.parseLong(millis));
+  }
+
+  @Nullable
+  private static String toMillis(@Nullable Instant instant) {
+    return instant == null ? null : String.valueOf(instant.toEpochMilli());
+  }
+
+  /**
+   * Scans a vCard for the value of its {@code REV} property, without parsing it.
+   *
+   * @return the revision, or null if the vCard has none
+   */
+  @Nullable
+  static String revision(byte[] content) {
+    int lineStart = 0;
+    while (lineStart < content.length) {
+      int lineEnd = lineStart;
+      while (lineEnd < content.length && content[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      int end = lineEnd > lineStart && content[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+      if (end - lineStart > 4 && isRevName(content, lineStart)) {
+        for (int i = lineStart + 3; i < end; i++) {
+          if (content[i] == ':') {
+            return new String(content, i + 1, end - i - 1, StandardCharsets.UTF_8).trim();
+          }
+        }
+      }
+      lineStart = lineEnd + 1;
+    }
+    return null;
+  }
+
+  private static boolean isRevName(byte[] content, int index) {
+    return (content[index] | 0x20) == 'r' && (content[index + 1] | 0x20) == 'e'
+        && (content[index + 2] | 0x20) == 'v'
+        && (content[index + 3] == ':' || content[index + 3] == ';');
+  }
+
+  /**
+   * A cached vCard.
+   *
+   * @param path         the path of the vCard
+   * @param lastModified the modification time of the resource, if the server provided it
+   * @param revision     the {@code REV} of the vCard, if it has one
+   * @param contact      the contact parsed from the vCard, null if it has no birthday or name
+   */
+  record Entry(String path, @Nullable Instant lastModified, @Nullable String revision,
+               @Nullable Contact contact) {
+  }
+
+  /**
+   * The content of the cache.
+   *
+   * @param entries       the cached vCards by their path
+   * @param highWaterMark the latest modification time of the vCards of the last read
+   * @param fullReadAt    the time of the last read of all vCards
+   */
+  private record State(Map<String, Entry> entries, @Nullable Instant highWaterMark,
+                       @Nullable Instant fullReadAt) {
+
+    static final State EMPTY = new State(Map.of(), null, null);
+  }
+
+  /**
+   * A read of the address book. The vCards of the listing are checked against the cache and the
+   * read ones are recorded. The cache is replaced by the recorded vCards, if the read completes.
+   * The checks are thread-safe, the vCards must be recorded by a single thread.
+   */
+  final class Read {
+
+    private final State previous;
+    private final boolean full;
+    private final Instant startedAt;
+    private final Map<String, Entry> entries = new HashMap<>();
+    @Nullable
+    private Instant highWaterMark;
+
+    private Read(State previous, boolean full, Instant startedAt) {
+      this.previous = previous;
+      this.full = full;
+      this.startedAt = startedAt;
+    }
+
+    /**
+     * Checks whether all vCards are read.
+     */
+    boolean isFull() {
+      return full;
+    }
+
+    /**
+     * Returns the cached vCard of a listed resource, if it's unchanged since the last read, so it
+     * needn't be fetched. Each listed resource must be passed, its modification time raises the
+     * high-water mark.
+     *
+     * @param davEntry the listed resource
+     * @return the cached vCard, or null if it must be fetched
+     */
+    @Nullable
+    synchronized Entry unchanged(DavEntry davEntry) {
+      Instant lastModified = davEntry.lastModified();
+      if (lastModified != null
+          && (highWaterMark == null || lastModified.isAfter(highWaterMark))) {
+        highWaterMark = lastModified;
+      }
+      if (full || lastModified == null || previous.highWaterMark() == null
+          || !lastModified.isBefore(previous.highWaterMark())) {
+        return null;
+      }
+      Entry cached = previous.entries().get(davEntry.href().getPath());
+      return cached != null && lastModified.equals(cached.lastModified()) ? cached : null;
+    }
+
+    /**
+     * Returns the cached vCard of a fetched one, if its revision is the cached one, so it needn't
+     * be parsed.
+     *
+     * @param path     the path of the vCard
+     * @param revision the {@code REV} of the fetched vCard
+     * @return the cached vCard, or null if it must be parsed
+     */
+    @Nullable
+    Entry sameRevision(String path, @Nullable String revision) {
+      if (full || revision == null) {
+        return null;
+      }
+      Entry cached = previous.entries().get(path);
+      return cached != null && revision.equals(cached.revision()) ? cached : null;
+    }
+
+    /**
+     * Records a vCard of the listing.
+     */
+    void record(Entry entry) {
+      entries.put(entry.path(), entry);
+    }
+
+    /**
+     * Replaces the cache with the recorded vCards, if the incremental read is enabled.
+     */
+    void complete() {
+      if (!conf.enabled()) {
+        return;
+      }
+      Instant fullReadAt = full ? startedAt : previous.fullReadAt();
+      Instant mark;
+      synchronized (this) {
+        mark = highWaterMark;
+      }
+      State newState = new State(Map.copyOf(entries), mark, fullReadAt);
+      state = newState;
+      save(newState);
+    }
+  }
+}
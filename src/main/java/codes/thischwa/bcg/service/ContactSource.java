@@ -0,0 +1,36 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import java.util.List;
+import java.util.function.Supplier;
+import org.springframework.lang.Nullable;
+
+/**
+ * The source the contacts with birthday are read from. The default is the DAV address book read
+ * by the {@link CardHandler}, the {@link DirectoryContactSource} reads a directory of vCard files.
+ */
+interface ContactSource {
+
+  /**
+   * Adds the reading of the contacts with birthday to a pipeline and builds the fingerprint of the
+   * source on the fly. If sharded, only the contacts of the own shard are read.
+   *
+   * @param pipeline    the pipeline, the contacts are read when it's run
+   * @param fingerprint the fingerprint to which each resource of the source is added
+   * @return supplies the contacts with birthday, after the pipeline has run
+   * @throws IllegalArgumentException if the source can't be accessed
+   */
+  Supplier<List<Contact>> readContactsWithBirthday(Pipeline pipeline,
+                                                   SourceFingerprint fingerprint)
+      throws IllegalArgumentException;
+
+  /**
+   * Computes the fingerprint of the source without reading the contacts, see
+   * {@link SourceFingerprint}.
+   *
+   * @return the fingerprint, or null if changes of the source can't be detected
+   * @throws IllegalArgumentException if the source can't be accessed
+   */
+  @Nullable
+  String fingerprintContacts() throws IllegalArgumentException;
+}
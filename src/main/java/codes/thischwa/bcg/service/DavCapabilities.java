@@ -0,0 +1,61 @@
+package codes.thischwa.bcg.service;
+
+import java.util.Set;
+
+/**
+ * The capabilities of a DAV collection as advertised by the server: the compliance classes of the
+ * {@code DAV} header and the methods of the {@code Allow} header of an OPTIONS response, the
+ * reports of the {@code supported-report-set} and the change tracking properties of a depth-0
+ * PROPFIND.
+ *
+ * @param davClasses The compliance classes in lower case, e.g. {@code calendar-access}.
+ * @param methods    The allowed methods in upper case, empty if the server doesn't tell.
+ * @param reports    The local names of the supported reports, empty if the server doesn't provide
+ *                   the {@code supported-report-set}.
+ * @param ctag       Whether the collection provides a {@code getctag}.
+ * @param syncToken  Whether the collection provides a {@code sync-token}.
+ */
+public record DavCapabilities(Set<String> davClasses, Set<String> methods, Set<String> reports,
+                              boolean ctag, boolean syncToken) {
+
+  static final String CALENDAR_QUERY = "calendar-query";
+  static final String ADDRESSBOOK_MULTIGET = "addressbook-multiget";
+  static final String SYNC_COLLECTION = "sync-collection";
+
+  /**
+   * Checks whether the collection supports a report. If the server doesn't provide the
+   * {@code supported-report-set}, the reports required by its compliance class are assumed:
+   * {@code calendar-access} requires {@code calendar-query} and {@code calendar-multiget}
+   * (RFC 4791), {@code addressbook} requires {@code addressbook-query} and
+   * {@code addressbook-multiget} (RFC 6352).
+   *
+   * @param report the local name of the report, e.g. {@value #CALENDAR_QUERY}
+   * @return true if the report is supported
+   */
+  public boolean supportsReport(String report) {
+    if (!methods.isEmpty() && !methods.contains("REPORT")) {
+      return false;
+    }
+    if (!reports.isEmpty()) {
+      return reports.contains(report);
+    }
+    return switch (report) {
+      case CALENDAR_QUERY, "calendar-multiget" -> davClasses.contains("calendar-access");
+      case "addressbook-query", ADDRESSBOOK_MULTIGET -> davClasses.contains("addressbook");
+      default -> false;
+    };
+  }
+
+  /**
+   * Checks whether the collection supports the {@code sync-collection} report (RFC 6578).
+   */
+  public boolean supportsSyncCollection() {
+    return syncToken || supportsReport(SYNC_COLLECTION);
+  }
+
+  @Override
+  public String toString() {
+    return "dav=" + davClasses + ", reports=" + reports + ", ctag=" + ctag + ", sync-collection="
+        + supportsSyncCollection();
+  }
+}
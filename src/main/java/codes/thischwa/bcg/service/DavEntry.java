@@ -0,0 +1,43 @@
+package codes.thischwa.bcg.service;
+
+import java.net.URI;
+import java.time.Instant;
+import org.springframework.lang.Nullable;
+
+/**
+ * Represents a single resource of a multistatus response, reduced to the properties BCG needs to
+ * decide whether a resource has to be fetched.
+ *
+ * @param href         The href of the resource as returned by the server.
+ * @param etag         The entity tag of the resource, if provided.
+ * @param contentType  The content type of the resource, if provided.
+ * @param directory    Whether the resource is a collection.
+ * @param data         The calendar or address data of the resource, if it was requested by a
+ *                     REPORT like {@code calendar-query} or {@code addressbook-multiget}, so the
+ *                     resource needn't be fetched.
+ * @param lastModified The time of the last modification of the resource by the clock of the
+ *                     server, if provided.
+ */
+public record DavEntry(URI href, @Nullable String etag, @Nullable String contentType,
+                       boolean directory, @Nullable String data, @Nullable Instant lastModified) {
+
+  public DavEntry(URI href, @Nullable String etag, @Nullable String contentType,
+                  boolean directory) {
+    this(href, etag, contentType, directory, null, null);
+  }
+
+  public DavEntry(URI href, @Nullable String etag, @Nullable String contentType,
+                  boolean directory, @Nullable String data) {
+    this(href, etag, contentType, directory, data, null);
+  }
+
+  /**
+   * Checks if the content type of this entry contains the specified type.
+   *
+   * @param type the content type to look for, e.g. {@code text/calendar}
+   * @return true if the content type is known and contains the specified type, false otherwise
+   */
+  public boolean hasContentType(String type) {
+    return contentType != null && contentType.contains(type);
+  }
+}
@@ -0,0 +1,79 @@
+package codes.thischwa.bcg.service;
+
+import com.github.sardine.impl.SardineException;
+import java.io.IOException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpStatus;
+import org.springframework.lang.Nullable;
+
+/**
+ * A {@link LeaderLock} backed by an exclusive WebDAV lock with timeout. If the holder doesn't
+ * refresh the lock in time, e.g. because it has crashed, the lock expires and another replica can
+ * acquire it.
+ */
+@Slf4j
+final class DavLeaderLock implements LeaderLock {
+
+  private final BcgSardine sardine;
+  private final String url;
+  private final int timeoutInSeconds;
+  @Nullable
+  private String token;
+
+  /**
+   * Creates the lock.
+   *
+   * @param sardine          the {@link BcgSardine} used to access the server
+   * @param url              the URL of the lock resource
+   * @param timeoutInSeconds the timeout of the lock
+   */
+  DavLeaderLock(BcgSardine sardine, String url, int timeoutInSeconds) {
+    this.sardine = sardine;
+    this.url = url;
+    this.timeoutInSeconds = timeoutInSeconds;
+  }
+
+  @Override
+  public synchronized boolean acquire() throws IOException {
+    if (token != null) {
+      try {
+        token = sardine.refreshLock(url, token, timeoutInSeconds);
+        return true;
+      } catch (SardineException e) {
+        if (!isLockLost(e.getStatusCode())) {
+          throw e;
+        }
+        log.warn("The lock {} has expired (status {}).", url, e.getStatusCode());
+        token = null;
+      }
+    }
+    try {
+      token = sardine.lock(url, timeoutInSeconds);
+      return true;
+    } catch (SardineException e) {
+      if (e.getStatusCode() == HttpStatus.SC_LOCKED) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public synchronized void release() {
+    if (token == null) {
+      return;
+    }
+    try {
+      sardine.unlock(url, token);
+    } catch (IOException e) {
+      log.warn("Couldn't release the lock {}, it expires after its timeout: {}", url,
+          e.getMessage());
+    }
+    token = null;
+  }
+
+  private static boolean isLockLost(int status) {
+    return status == HttpStatus.SC_PRECONDITION_FAILED || status == HttpStatus.SC_LOCKED
+        || status == HttpStatus.SC_CONFLICT || status == HttpStatus.SC_NOT_FOUND;
+  }
+}
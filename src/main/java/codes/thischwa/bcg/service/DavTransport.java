@@ -0,0 +1,165 @@
+package codes.thischwa.bcg.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * The DAV requests BCG issues against the address book and the calendar. The listings are
+ * streamed to a consumer and return when the response has been read. The requests of single
+ * resources return a future, so a transport which doesn't block can keep many requests in flight
+ * without a thread each.
+ *
+ * <p>A request answered with an error status fails with a
+ * {@link com.github.sardine.impl.SardineException}, which carries the status code.
+ *
+ * @see SardineTransport
+ * @see AsyncDavTransport
+ */
+public interface DavTransport extends AutoCloseable {
+
+  /**
+   * Lists the members of a collection with a depth-1 PROPFIND of the properties
+   * {@code getetag}, {@code getcontenttype}, {@code getlastmodified} and {@code resourcetype}, see
+   * {@link BcgSardine#list(String, Consumer)}.
+   *
+   * @param url      the URL of the collection
+   * @param consumer the consumer which receives each resource, including the collection itself
+   * @return the number of resources passed to the consumer
+   * @throws IOException if an I/O error occurs or the server responds with an error status
+   */
+  int list(String url, Consumer<DavEntry> consumer) throws IOException;
+
+  /**
+   * Queries the events of a calendar collection which have the specified category, see
+   * {@link BcgSardine#calendarQuery(String, String, Consumer)}.
+   *
+   * @param url      the URL of the calendar collection
+   * @param category the category of the events
+   * @param consumer the consumer which receives each event
+   * @return the number of events passed to the consumer
+   * @throws IOException if an I/O error occurs or the server responds with an error status
+   */
+  int calendarQuery(String url, String category, Consumer<DavEntry> consumer) throws IOException;
+
+  /**
+   * Fetches a batch of vCards with an {@code addressbook-multiget} REPORT, see
+   * {@link BcgSardine#addressbookMultiget(String, List, Consumer)}.
+   *
+   * @param url   the URL of the address book collection
+   * @param hrefs the hrefs of the vCards
+   * @return the future of the vCards, a vCard which doesn't exist anymore has no data
+   */
+  CompletableFuture<List<DavEntry>> addressbookMultiget(String url, List<String> hrefs);
+
+  /**
+   * Fetches the content of a resource.
+   *
+   * @param url the URL of the resource
+   * @return the future of the content
+   */
+  CompletableFuture<byte[]> get(String url);
+
+  /**
+   * Stores a resource. The content length is always sent, because some servers reject chunked
+   * uploads.
+   *
+   * @param url         the URL of the resource
+   * @param data        the content
+   * @param contentType the content type
+   * @return the future completed when the resource is stored
+   */
+  CompletableFuture<Void> put(String url, byte[] data, String contentType);
+
+  /**
+   * Creates a resource with a conditional PUT ({@code If-None-Match: *}), so an existing resource
+   * isn't overwritten, e.g. one written concurrently by someone else. The content length is always
+   * sent.
+   *
+   * @param url         the URL of the resource
+   * @param data        the content
+   * @param contentType the content type
+   * @return the future completed when the resource is created, it fails with the status 412
+   *     (Precondition Failed) if the resource exists
+   */
+  CompletableFuture<Void> create(String url, byte[] data, String contentType);
+
+  /**
+   * Deletes a resource.
+   *
+   * @param url the URL of the resource
+   * @return the future completed when the resource is deleted
+   */
+  CompletableFuture<Void> delete(String url);
+
+  /**
+   * Checks whether a resource exists.
+   *
+   * @param url the URL of the resource
+   * @return true if the resource exists
+   * @throws IOException if an I/O error occurs or the server responds with an error status other
+   *                     than 404
+   */
+  boolean exists(String url) throws IOException;
+
+  /**
+   * Creates a calendar collection, see {@link BcgSardine#makeCalendar(String, String)}.
+   *
+   * @param url         the URL of the collection, ending with a slash
+   * @param displayName the display name of the collection
+   * @throws IOException if an I/O error occurs or the server responds with an error status, e.g.
+   *                     405 (Method Not Allowed) if the collection exists
+   */
+  void makeCalendar(String url, String displayName) throws IOException;
+
+  /**
+   * Discovers the capabilities of a collection, see {@link BcgSardine#discover(String)}.
+   *
+   * @param url the URL of the collection
+   * @return the capabilities of the collection
+   * @throws IOException if an I/O error occurs or the server responds to the PROPFIND with an error
+   *                     status
+   */
+  DavCapabilities discover(String url) throws IOException;
+
+  /**
+   * Releases the resources the transport owns, e.g. its threads. The requests still in flight may
+   * fail. By default, the transport owns nothing.
+   */
+  @Override
+  default void close() {
+  }
+
+  /**
+   * Waits for a request of a transport and unwraps its failure.
+   *
+   * @param future the future of the request
+   * @return the result of the request
+   * @throws IOException if the request failed with an {@link IOException} or the thread was
+   *                     interrupted while waiting, a {@link RuntimeException} is rethrown as is
+   */
+  static <T> T await(CompletableFuture<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw new InterruptedIOException("Interrupted while waiting for a DAV request.");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException ioException) {
+        throw ioException;
+      }
+      if (cause instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      if (cause instanceof Error error) {
+        throw error;
+      }
+      throw new IOException(cause);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes which failed permanently in a run, or which were carried over without journal. A
+ * change of the dead-letter list of the previous run, which is also part of the changes of this
+ * run, is only kept once.
+ *
+ * <p>Changes can be added by multiple threads concurrently.
+ */
+final class DeadLetters {
+
+  private final Set<String> deletes = new LinkedHashSet<>();
+  private final Map<String, ChangeSet.Update> updates = new LinkedHashMap<>();
+  private final Map<String, Contact> creates = new LinkedHashMap<>();
+
+  synchronized void addDelete(String eventPath) {
+    deletes.add(eventPath);
+  }
+
+  synchronized void addUpdate(ChangeSet.Update update) {
+    updates.putIfAbsent(update.contact().identifier(), update);
+  }
+
+  synchronized void addCreate(Contact contact) {
+    creates.putIfAbsent(contact.identifier(), contact);
+  }
+
+  /**
+   * Returns the dead letters as changes, to be saved to the journal.
+   */
+  synchronized ChangeSet toChangeSet() {
+    return new ChangeSet(new ArrayList<>(creates.values()), new ArrayList<>(updates.values()),
+        new ArrayList<>(deletes), 0);
+  }
+}
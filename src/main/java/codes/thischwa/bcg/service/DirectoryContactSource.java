@@ -0,0 +1,149 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.PipelineConf;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * A {@link ContactSource} which reads a directory of vCard files, e.g. the export of an address
+ * book. Each file with the extension {@code .vcf} contains one contact, which is identified by the
+ * file name. The files are read and parsed in parallel by the stages of the pipeline, so the
+ * throughput of the parsing can be measured without a DAV server.
+ *
+ * <p>The fingerprint is built from the file names, sizes and modification times.
+ */
+@Slf4j
+final class DirectoryContactSource implements ContactSource {
+
+  private static final String VCARD_GLOB = "*.vcf";
+
+  private final Path dir;
+  private final Shard shard;
+  private final PipelineConf pipelineConf;
+  private final ObservationRegistry observationRegistry;
+
+  /**
+   * Creates a source of the vCard files of a directory.
+   *
+   * @param dir                 the directory of the vCard files
+   * @param shard               the shard of this instance, only its contacts are read
+   * @param pipelineConf        the configuration of the stages reading the contacts
+   * @param observationRegistry the registry used to observe the reading of the contacts
+   */
+  DirectoryContactSource(Path dir, Shard shard, PipelineConf pipelineConf,
+                         ObservationRegistry observationRegistry) {
+    this.dir = dir;
+    this.shard = shard;
+    this.pipelineConf = pipelineConf;
+    this.observationRegistry = observationRegistry;
+  }
+
+  @Override
+  public Supplier<List<Contact>> readContactsWithBirthday(Pipeline pipeline,
+                                                          SourceFingerprint fingerprint)
+      throws IllegalArgumentException {
+    checkAccess();
+    Observation observation = Observation.createNotStarted("bcg.card.read", observationRegistry)
+        .contextualName("readContactsWithBirthday")
+        .start();
+    AtomicInteger vcardCount = new AtomicInteger();
+    List<Contact> contacts = new ArrayList<>();
+    pipeline.<Path>source("card-list", observation, emitter -> listVCards(file -> {
+          vcardCount.incrementAndGet();
+          fingerprint.add(file.fileName(), file.version());
+          emitter.accept(file.path());
+        }))
+        .map("card-read", pipelineConf.fetchThreads(), path -> new VCardFile(path,
+            Files.readAllBytes(path)))
+        .map("card-parse", pipelineConf.parseThreads(),
+            vCardFile -> CardHandler.parseContact(vCardFile.path().toString(), vCardFile.content()))
+        .sink("card-collect", new Pipeline.Sink<>() {
+          @Override
+          public void accept(Contact contact) {
+            contacts.add(contact);
+          }
+
+          @Override
+          public void complete() {
+            log.info("Contacts found in {}: {}, with birthday: {}", dir, vcardCount.get(),
+                contacts.size());
+            observation.highCardinalityKeyValue("bcg.contacts.found",
+                String.valueOf(vcardCount.get()));
+            observation.highCardinalityKeyValue("bcg.contacts.with-birthday",
+                String.valueOf(contacts.size()));
+            observation.stop();
+          }
+
+          @Override
+          public void fail(Throwable cause) {
+            observation.error(cause);
+            observation.stop();
+          }
+        });
+    return () -> contacts;
+  }
+
+  @Override
+  @Nullable
+  public String fingerprintContacts() throws IllegalArgumentException {
+    checkAccess();
+    SourceFingerprint fingerprint = new SourceFingerprint();
+    try {
+      listVCards(file -> fingerprint.add(file.fileName(), file.version()));
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+    return fingerprint.value();
+  }
+
+  private void checkAccess() {
+    if (!Files.isDirectory(dir)) {
+      throw new IllegalArgumentException("The contact directory doesn't exist: " + dir);
+    }
+  }
+
+  /**
+   * Lists the vCard files of the own shard.
+   */
+  private void listVCards(Consumer<ListedFile> consumer) throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, VCARD_GLOB)) {
+      for (Path path : stream) {
+        String fileName = path.getFileName().toString();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (attributes.isRegularFile() && shard.ownsPath(fileName)) {
+          consumer.accept(new ListedFile(path, fileName,
+              attributes.size() + "-" + attributes.lastModifiedTime().toMillis()));
+        }
+      }
+    }
+  }
+
+  /**
+   * A listed vCard file.
+   *
+   * @param path     the path of the file
+   * @param fileName the name of the file
+   * @param version  the version of the file, which takes the role of an ETag
+   */
+  private record ListedFile(Path path, String fileName, String version) {
+  }
+
+  /**
+   * The content of a read vCard file.
+   */
+  private record VCardFile(Path path, byte[] content) {
+  }
+}
@@ -0,0 +1,172 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.PipelineConf;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * An {@link EventSink} which writes the birthday events to a directory of iCalendar files, one
+ * event per file named by the identifier of its contact. The existing files are indexed like the
+ * events of a calendar collection, so only the outdated ones are rewritten and the ones whose
+ * contact doesn't exist anymore are deleted. Files of other categories are left alone.
+ *
+ * <p>The files are read, parsed and written in parallel by the stages of the pipelines, so the
+ * throughput of the rendering can be measured without a DAV server. Each file is replaced
+ * atomically, so the changes aren't journaled: a run which was interrupted is completed by the
+ * diff of the next one.
+ */
+@Slf4j
+final class DirectoryEventSink implements EventSink {
+
+  private static final String EVENT_GLOB = "*.ics";
+
+  private final Path dir;
+  private final BirthdayEventRenderer renderer;
+  private final Shard shard;
+  private final PipelineConf pipelineConf;
+  private final ObservationRegistry observationRegistry;
+
+  /**
+   * Creates a sink writing the iCalendar files to a directory.
+   *
+   * @param dir                 the directory of the iCalendar files, it's created if missing
+   * @param renderer            the renderer of the birthday events
+   * @param shard               the shard of this instance, only its events are synced
+   * @param pipelineConf        the configuration of the stages reading and writing the events
+   * @param observationRegistry the registry used to observe the sync of the events
+   */
+  DirectoryEventSink(Path dir, BirthdayEventRenderer renderer, Shard shard,
+                     PipelineConf pipelineConf, ObservationRegistry observationRegistry) {
+    this.dir = dir;
+    this.renderer = renderer;
+    this.shard = shard;
+    this.pipelineConf = pipelineConf;
+    this.observationRegistry = observationRegistry;
+  }
+
+  @Override
+  public SyncResult syncEventsWithBirthdayChanges(
+      Function<Pipeline, Supplier<List<Contact>>> contactReader,
+      Supplier<String> sourceFingerprint) throws IOException {
+    Observation observation = Observation.createNotStarted("bcg.cal.sync", observationRegistry)
+        .contextualName("writeEventFiles");
+    return observation.observeChecked(() -> sync(contactReader, observation));
+  }
+
+  @Override
+  public boolean isJournaled() {
+    return false;
+  }
+
+  @Override
+  public SyncResult resume(SyncJournal.Checkpoint checkpoint) {
+    throw new UnsupportedOperationException("The changes of the event files aren't journaled.");
+  }
+
+  private SyncResult sync(Function<Pipeline, Supplier<List<Contact>>> contactReader,
+                          Observation observation) throws IOException {
+    Files.createDirectories(dir);
+    Pipeline pipeline = new Pipeline("bcg-read", pipelineConf.queueCapacity());
+    Supplier<List<Contact>> contactSupplier = contactReader.apply(pipeline);
+    // the paths of the index are the file names
+    EventIndex.Builder builder = EventIndex.builder("");
+    pipeline.<Path>source("cal-list", observation, emitter -> {
+          try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, EVENT_GLOB)) {
+            for (Path path : stream) {
+              if (Files.isRegularFile(path) && shard.ownsPath(path.getFileName().toString())) {
+                emitter.accept(path);
+              }
+            }
+          }
+        })
+        .map("cal-read", pipelineConf.fetchThreads(),
+            path -> new EventFile(path.getFileName().toString(), Files.readAllBytes(path)))
+        .map("cal-parse", pipelineConf.parseThreads(), eventFile ->
+            CalHandler.indexEntry(eventFile.fileName(), eventFile.content(),
+                renderer.getCategory()))
+        .sink("cal-index", entry ->
+            builder.add(entry.identifier(), entry.path(), entry.epochDay(), entry.contentHash()));
+    pipeline.run();
+    List<Contact> contacts = contactSupplier.get();
+    EventIndex existingEvents = builder.build();
+
+    ChangeSet changes = BirthdayDiff.diff(existingEvents, contacts, renderer::contentHash);
+    log.info("Birthday events in {}: {}", dir, changes);
+    observation
+        .highCardinalityKeyValue("bcg.events.created", String.valueOf(changes.creates().size()))
+        .highCardinalityKeyValue("bcg.events.updated", String.valueOf(changes.updates().size()))
+        .highCardinalityKeyValue("bcg.events.deleted", String.valueOf(changes.deletes().size()));
+
+    AtomicInteger applied = new AtomicInteger();
+    // the deletes first, an update may write the file of a surplus event
+    applyInParallel("delete", emitter -> changes.deletes().forEach(
+        path -> emitter.accept(new FileChange(null, path))), applied);
+    applyInParallel("write", emitter -> {
+      for (ChangeSet.Update update : changes.updates()) {
+        emitter.accept(new FileChange(update.contact(), update.existingPath()));
+      }
+      for (Contact contact : changes.creates()) {
+        emitter.accept(new FileChange(contact, null));
+      }
+    }, applied);
+    return new SyncResult(applied.get(), 0, 0, changes.unchanged(), 0);
+  }
+
+  private void applyInParallel(String stage, Pipeline.Source<FileChange> changes,
+                               AtomicInteger applied) throws IOException {
+    Pipeline pipeline = new Pipeline("bcg-write", pipelineConf.queueCapacity());
+    pipeline.source(stage + "-plan", observationRegistry.getCurrentObservation(), changes)
+        .forEach(stage, pipelineConf.writeThreads(), change -> {
+          apply(change);
+          applied.incrementAndGet();
+        });
+    pipeline.run();
+  }
+
+  private void apply(FileChange change) throws IOException {
+    Contact contact = change.contact();
+    if (contact == null) {
+      Files.deleteIfExists(dir.resolve(change.existingPath()));
+      log.debug("Deleted outdated event file: {}", change.existingPath());
+      return;
+    }
+    String fileName = EventIndex.eventPath("", contact.identifier());
+    byte[] content = renderer.renderEvent(contact).content();
+    Path tmpFile = dir.resolve(fileName + ".tmp");
+    Files.write(tmpFile, content);
+    Files.move(tmpFile, dir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    if (change.existingPath() != null && !change.existingPath().equals(fileName)) {
+      Files.deleteIfExists(dir.resolve(change.existingPath()));
+    }
+    log.debug("Wrote event file for '{}': {}", contact.getFullName(), fileName);
+  }
+
+  /**
+   * The content of a read event file.
+   */
+  private record EventFile(String fileName, byte[] content) {
+  }
+
+  /**
+   * A change of the event files.
+   *
+   * @param contact      the contact whose event file is written, or null if the file is deleted
+   * @param existingPath the existing event file, which is replaced or deleted, null if the event
+   *                     is created
+   */
+  private record FileChange(@Nullable Contact contact, @Nullable String existingPath) {
+  }
+}
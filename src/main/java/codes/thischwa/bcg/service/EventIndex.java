@@ -0,0 +1,193 @@
+package codes.thischwa.bcg.service;
+
+import java.util.Arrays;
+import org.springframework.lang.Nullable;
+
+/**
+ * Compact, immutable index of the birthday events of a calendar collection, sorted by the
+ * identifier of the contact. Only the data required to compare an event with its contact is kept:
+ * the birthday as epoch day and a hash of the content. The events themselves aren't retained.
+ *
+ * <p>The path of an event is only stored if it differs from the path BCG would use for the
+ * identifier, which is the case for events not uploaded by BCG.
+ */
+public final class EventIndex {
+
+  private static final String EVENT_EXTENSION = ".ics";
+
+  private final String collectionPath;
+  private final String[] identifiers;
+  private final String[] paths;
+  private final int[] epochDays;
+  private final long[] contentHashes;
+
+  private EventIndex(String collectionPath, String[] identifiers, String[] paths, int[] epochDays,
+                     long[] contentHashes) {
+    this.collectionPath = collectionPath;
+    this.identifiers = identifiers;
+    this.paths = paths;
+    this.epochDays = epochDays;
+    this.contentHashes = contentHashes;
+  }
+
+  /**
+   * Creates a builder for an index of the specified collection.
+   *
+   * @param collectionPath the path of the calendar collection, ending with a slash
+   */
+  public static Builder builder(String collectionPath) {
+    return new Builder(collectionPath);
+  }
+
+  public int size() {
+    return identifiers.length;
+  }
+
+  public String getIdentifier(int index) {
+    return identifiers[index];
+  }
+
+  public int getEpochDay(int index) {
+    return epochDays[index];
+  }
+
+  public long getContentHash(int index) {
+    return contentHashes[index];
+  }
+
+  /**
+   * Returns the path of the event at the specified position, relative to the base URL of the
+   * server.
+   */
+  public String getPath(int index) {
+    String path = paths[index];
+    return path != null ? path : eventPath(collectionPath, identifiers[index]);
+  }
+
+  static String eventPath(String collectionPath, String identifier) {
+    return collectionPath + identifier + EVENT_EXTENSION;
+  }
+
+  /**
+   * Builder of an {@link EventIndex}. Entries may be added in any order.
+   */
+  public static final class Builder {
+
+    private final String collectionPath;
+    private String[] identifiers = new String[16];
+    private String[] paths = new String[16];
+    private int[] epochDays = new int[16];
+    private long[] contentHashes = new long[16];
+    private int size;
+
+    private Builder(String collectionPath) {
+      this.collectionPath = collectionPath;
+    }
+
+    /**
+     * Adds an event.
+     *
+     * @param identifier  the identifier of the contact the event belongs to
+     * @param path        the path of the event relative to the base URL of the server
+     * @param epochDay    the birthday as epoch day
+     * @param contentHash the hash of the content, see {@link BirthdayDiff#contentHash}
+     * @return this builder
+     */
+    public Builder add(String identifier, String path, int epochDay, long contentHash) {
+      if (size == identifiers.length) {
+        int capacity = size * 2;
+        identifiers = Arrays.copyOf(identifiers, capacity);
+        paths = Arrays.copyOf(paths, capacity);
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        contentHashes = Arrays.copyOf(contentHashes, capacity);
+      }
+      identifiers[size] = identifier;
+      paths[size] = path.equals(eventPath(collectionPath, identifier)) ? null : path;
+      epochDays[size] = epochDay;
+      contentHashes[size] = contentHash;
+      size++;
+      return this;
+    }
+
+    /**
+     * Sorts the added events by identifier and builds the index. Events with the same identifier
+     * keep the order in which they were added.
+     */
+    public EventIndex build() {
+      int[] order = sortedOrder(identifiers, size);
+      String[] sortedIdentifiers = new String[size];
+      String[] sortedPaths = new String[size];
+      int[] sortedEpochDays = new int[size];
+      long[] sortedContentHashes = new long[size];
+      for (int i = 0; i < size; i++) {
+        int from = order[i];
+        sortedIdentifiers[i] = identifiers[from];
+        sortedPaths[i] = paths[from];
+        sortedEpochDays[i] = epochDays[from];
+        sortedContentHashes[i] = contentHashes[from];
+      }
+      return new EventIndex(collectionPath, sortedIdentifiers, sortedPaths, sortedEpochDays,
+          sortedContentHashes);
+    }
+  }
+
+  /**
+   * Computes the positions of the keys in ascending order with a stable bottom-up merge sort, so
+   * no boxed indices are required.
+   */
+  static int[] sortedOrder(String[] keys, int size) {
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    int[] buffer = new int[size];
+    for (int width = 1; width < size; width *= 2) {
+      for (int low = 0; low < size - width; low += 2 * width) {
+        int mid = low + width;
+        int high = Math.min(low + 2 * width, size);
+        if (keys[order[mid - 1]].compareTo(keys[order[mid]]) <= 0) {
+          continue;
+        }
+        System.arraycopy(order, low, buffer, low, high - low);
+        int left = low;
+        int right = mid;
+        for (int k = low; k < high; k++) {
+          if (right >= high
+              || (left < mid && keys[buffer[left]].compareTo(keys[buffer[right]]) <= 0)) {
+            order[k] = buffer[left++];
+          } else {
+            order[k] = buffer[right++];
+          }
+        }
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Searches the position of the first event with the specified identifier.
+   *
+   * @return the position, or a negative value if there is no such event
+   */
+  public int indexOf(@Nullable String identifier) {
+    if (identifier == null) {
+      return -1;
+    }
+    int low = 0;
+    int high = identifiers.length - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = identifiers[mid].compareTo(identifier);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else {
+        if (cmp == 0) {
+          found = mid;
+        }
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+}
@@ -0,0 +1,45 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The target the birthday events are synced to. The default is the DAV calendar written by the
+ * {@link CalHandler}, the {@link DirectoryEventSink} writes a directory of iCalendar files.
+ */
+interface EventSink {
+
+  /**
+   * Syncs the birthday events with the contacts. The contacts are read by the stages the contact
+   * reader adds to the pipeline of the run, so they're read while the existing events are indexed.
+   *
+   * @param contactReader     adds the reading of the contacts with birthday to the pipeline and
+   *                          supplies them after the pipeline has run
+   * @param sourceFingerprint supplies the fingerprint of the source the contacts were read from
+   *                          after the pipeline has run, if it's null the run isn't journaled
+   * @return the result of the run
+   * @throws IOException if the events can't be read or written
+   */
+  SyncResult syncEventsWithBirthdayChanges(
+      Function<Pipeline, Supplier<List<Contact>>> contactReader,
+      Supplier<String> sourceFingerprint) throws IOException;
+
+  /**
+   * Checks whether the changes are journaled, so an interrupted run can be resumed by
+   * {@link #resume(SyncJournal.Checkpoint)}.
+   */
+  boolean isJournaled();
+
+  /**
+   * Resumes an interrupted run with the remaining changes of its journal. Only called if the sink
+   * is journaled.
+   *
+   * @param checkpoint the checkpoint of the interrupted run
+   * @return the result of the resumed run
+   * @throws IOException if the events can't be written
+   */
+  SyncResult resume(SyncJournal.Checkpoint checkpoint) throws IOException;
+}
@@ -0,0 +1,70 @@
+package codes.thischwa.bcg.service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * A {@link LeaderLock} backed by an exclusive lock of a local file, a stand-in for the WebDAV
+ * lock if the replicas share a file system. The lock is released by the OS as soon as the process
+ * of the holder ends.
+ */
+@Slf4j
+final class FileLeaderLock implements LeaderLock {
+
+  private final Path file;
+  @Nullable
+  private FileChannel channel;
+  @Nullable
+  private FileLock lock;
+
+  FileLeaderLock(Path file) {
+    this.file = file;
+  }
+
+  @Override
+  public synchronized boolean acquire() throws IOException {
+    if (lock != null && lock.isValid()) {
+      return true;
+    }
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    try {
+      FileLock fileLock = fileChannel.tryLock();
+      if (fileLock != null) {
+        channel = fileChannel;
+        lock = fileLock;
+        return true;
+      }
+    } catch (OverlappingFileLockException e) {
+      // held by another lock of this JVM
+    }
+    fileChannel.close();
+    return false;
+  }
+
+  @Override
+  public synchronized void release() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      // closing the channel releases the lock
+      channel.close();
+    } catch (IOException e) {
+      log.warn("Couldn't release the lock {}: {}", file, e.getMessage());
+    }
+    channel = null;
+    lock = null;
+  }
+}
@@ -0,0 +1,180 @@
+package codes.thischwa.bcg.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.springframework.lang.Nullable;
+
+/**
+ * A {@link DavTransport} which hedges the idempotent requests of single resources, the GET of a
+ * resource and the {@code addressbook-multiget} REPORT: if a request hasn't been answered within
+ * the {@link RequestDeadlines#hedgeDelay(String) hedge delay}, the same request is sent a second
+ * time and the first response is taken. The response of the other one is discarded. The hedges
+ * are limited by the budget of the {@link RequestDeadlines}. The listings are streamed to a
+ * consumer and the writes aren't idempotent, so they're passed through.
+ *
+ * <p>The hedges are sent by threads of their own. A transport which blocks, e.g.
+ * {@link SardineTransport}, sends the original requests by a pool of threads, too, so the caller
+ * isn't blocked while the request may be hedged. Both pools are bounded, the one of the original
+ * requests by the number of fetch threads, the one of the hedges by the share of the hedge budget,
+ * further requests wait for a free thread. Closing the transport shuts both pools down and closes
+ * the delegate.
+ */
+final class HedgingTransport implements DavTransport {
+
+  private final DavTransport delegate;
+  private final RequestDeadlines deadlines;
+  @Nullable
+  private final ExecutorService requestExecutor;
+  private final ExecutorService hedgeExecutor;
+
+  /**
+   * Creates a hedging transport.
+   *
+   * @param delegate    the transport which sends the requests
+   * @param deadlines   the deadlines, which provide the hedge delay and the budget
+   * @param blocking    whether the delegate sends the requests by the calling thread
+   * @param parallelism the number of requests which are sent concurrently, e.g. the number of
+   *                    fetch threads
+   */
+  HedgingTransport(DavTransport delegate, RequestDeadlines deadlines, boolean blocking,
+                   int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1: " + parallelism);
+    }
+    this.delegate = delegate;
+    this.deadlines = deadlines;
+    this.requestExecutor = blocking ? newExecutor("bcg-request", parallelism) : null;
+    this.hedgeExecutor = newExecutor("bcg-hedge", (int) Math.max(1,
+        Math.ceil(parallelism * deadlines.getConf().hedgeBudgetPercent() / 100.0)));
+  }
+
+  @Override
+  public void close() {
+    if (requestExecutor != null) {
+      requestExecutor.shutdownNow();
+    }
+    hedgeExecutor.shutdownNow();
+    delegate.close();
+  }
+
+  private static ExecutorService newExecutor(String name, int threads) {
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public int list(String url, Consumer<DavEntry> consumer) throws IOException {
+    return delegate.list(url, consumer);
+  }
+
+  @Override
+  public int calendarQuery(String url, String category, Consumer<DavEntry> consumer)
+      throws IOException {
+    return delegate.calendarQuery(url, category, consumer);
+  }
+
+  @Override
+  public CompletableFuture<List<DavEntry>> addressbookMultiget(String url, List<String> hrefs) {
+    return hedge("REPORT", () -> delegate.addressbookMultiget(url, hrefs));
+  }
+
+  @Override
+  public CompletableFuture<byte[]> get(String url) {
+    return hedge("GET", () -> delegate.get(url));
+  }
+
+  @Override
+  public CompletableFuture<Void> put(String url, byte[] data, String contentType) {
+    return delegate.put(url, data, contentType);
+  }
+
+  @Override
+  public CompletableFuture<Void> create(String url, byte[] data, String contentType) {
+    return delegate.create(url, data, contentType);
+  }
+
+  @Override
+  public CompletableFuture<Void> delete(String url) {
+    return delegate.delete(url);
+  }
+
+  @Override
+  public boolean exists(String url) throws IOException {
+    return delegate.exists(url);
+  }
+
+  @Override
+  public void makeCalendar(String url, String displayName) throws IOException {
+    delegate.makeCalendar(url, displayName);
+  }
+
+  @Override
+  public DavCapabilities discover(String url) throws IOException {
+    return delegate.discover(url);
+  }
+
+  /**
+   * Sends a request and hedges it, if it hasn't been answered within the hedge delay. The result
+   * fails only if all requests sent have failed. Only the latencies of the original requests are
+   * recorded, they're the ones which tell the percentile.
+   */
+  private <T> CompletableFuture<T> hedge(String method, Supplier<CompletableFuture<T>> request) {
+    Duration delay = deadlines.hedgeDelay(method);
+    CompletableFuture<T> result = new CompletableFuture<>();
+    AtomicBoolean answered = new AtomicBoolean();
+    AtomicInteger pending = new AtomicInteger(1);
+    long start = System.nanoTime();
+    send(request, requestExecutor).whenComplete((value, failure) -> {
+      if (failure == null) {
+        deadlines.recordLatency(method, System.nanoTime() - start);
+        if (answered.compareAndSet(false, true)) {
+          result.complete(value);
+        }
+      } else if (pending.decrementAndGet() == 0) {
+        result.completeExceptionally(unwrap(failure));
+      }
+    });
+    if (delay != null) {
+      deadlines.schedule(() -> {
+        if (result.isDone() || !deadlines.tryHedge(method)) {
+          return;
+        }
+        pending.incrementAndGet();
+        send(request, hedgeExecutor).whenComplete((value, failure) -> {
+          if (failure == null) {
+            if (answered.compareAndSet(false, true)) {
+              deadlines.hedgeWon(method);
+              result.complete(value);
+            }
+          } else if (pending.decrementAndGet() == 0) {
+            result.completeExceptionally(unwrap(failure));
+          }
+        });
+      }, delay);
+    }
+    return result;
+  }
+
+  private static <T> CompletableFuture<T> send(Supplier<CompletableFuture<T>> request,
+                                               @Nullable ExecutorService executor) {
+    return executor != null ? CompletableFuture.supplyAsync(request, executor).thenCompose(f -> f)
+        : request.get();
+  }
+
+  private static Throwable unwrap(Throwable failure) {
+    return failure instanceof CompletionException && failure.getCause() != null
+        ? failure.getCause() : failure;
+  }
+}
@@ -0,0 +1,285 @@
+package codes.thischwa.bcg.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records wire-level metrics of the HTTP requests to the DAV server. It's registered as request
+ * and response interceptor of the HTTP client, so each request on the wire is recorded, including
+ * redirects and authentication challenges.
+ *
+ * <p>Per HTTP method and status class (e.g. 2xx) the following meters are recorded:
+ * <ul>
+ *   <li>{@code bcg.http.client.requests}: count and latency histogram up to the response headers
+ *   <li>{@code bcg.http.client.request.size}, {@code bcg.http.client.response.size}: the bytes of
+ *       the bodies
+ *   <li>{@code bcg.http.client.connections}: whether the connection was reused or new (per method)
+ *   <li>{@code bcg.http.client.redirects}: the number of redirects followed (per method)
+ * </ul>
+ *
+ * <p>Additionally, the slowest resources, measured until the response body was read completely,
+ * are collected and reported at the end of each run.
+ */
+@Component
+@Slf4j
+public class HttpWireMetrics implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+  static final int SLOWEST_RESOURCES_SIZE = 10;
+
+  private static final String ATTR_START = HttpWireMetrics.class.getName() + ".start";
+  private static final String ATTR_REQUEST = HttpWireMetrics.class.getName() + ".request";
+
+  private final MeterRegistry meterRegistry;
+  private final PriorityQueue<ResourceTiming> slowest =
+      new PriorityQueue<>(Comparator.comparingLong(ResourceTiming::nanos));
+
+  public HttpWireMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public void process(HttpRequest request, HttpContext context) {
+    context.setAttribute(ATTR_START, System.nanoTime());
+    context.setAttribute(ATTR_REQUEST, request);
+  }
+
+  @Override
+  public void process(HttpResponse response, HttpContext context) {
+    Object start = context.getAttribute(ATTR_START);
+    Object attribute = context.getAttribute(ATTR_REQUEST);
+    if (!(start instanceof Long startNanos) || !(attribute instanceof HttpRequest request)) {
+      return;
+    }
+    long latency = System.nanoTime() - startNanos;
+    String method = request.getRequestLine().getMethod();
+    String status = (response.getStatusLine().getStatusCode() / 100) + "xx";
+    Timer.builder("bcg.http.client.requests")
+        .description("Latency of the requests until the response headers arrived")
+        .tag("method", method)
+        .tag("status", status)
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(latency, TimeUnit.NANOSECONDS);
+    if (request instanceof HttpEntityEnclosingRequest enclosing
+        && enclosing.getEntity() != null && enclosing.getEntity().getContentLength() >= 0) {
+      bytesSummary("bcg.http.client.request.size", method, status)
+          .record(enclosing.getEntity().getContentLength());
+    }
+
+    String href = request.getRequestLine().getUri();
+    HttpEntity entity = response.getEntity();
+    if (entity == null) {
+      recordTiming(new ResourceTiming(method, href, status, latency, 0));
+      return;
+    }
+    DistributionSummary responseSize = bytesSummary("bcg.http.client.response.size", method,
+        status);
+    response.setEntity(new CountingEntity(entity, bytes -> {
+      responseSize.record(bytes);
+      recordTiming(new ResourceTiming(method, href, status, System.nanoTime() - startNanos,
+          bytes));
+    }));
+  }
+
+  /**
+   * Creates the request executor of the HTTP client, which records whether a request is sent over
+   * a reused or a new connection. The connection isn't available to the interceptors, because it's
+   * leased after the request interceptors and may be released before the response interceptors.
+   */
+  HttpRequestExecutor requestExecutor() {
+    return new HttpRequestExecutor() {
+      @Override
+      public HttpResponse execute(HttpRequest request, HttpClientConnection conn,
+                                  HttpContext context) throws IOException, HttpException {
+        // the counter of the connection doesn't include the current request yet
+        boolean reused = conn.getMetrics().getRequestCount() > 0;
+        Counter.builder("bcg.http.client.connections")
+            .description("Number of requests per kind of connection")
+            .tag("method", request.getRequestLine().getMethod())
+            .tag("reused", String.valueOf(reused))
+            .register(meterRegistry)
+            .increment();
+        return super.execute(request, conn, context);
+      }
+    };
+  }
+
+  /**
+   * Counts a redirect which is followed.
+   *
+   * @param method the HTTP method of the redirected request
+   */
+  void redirected(String method) {
+    Counter.builder("bcg.http.client.redirects")
+        .description("Number of redirects followed")
+        .tag("method", method)
+        .register(meterRegistry)
+        .increment();
+  }
+
+  /**
+   * Returns the slowest resources since the last report, the slowest first.
+   */
+  List<ResourceTiming> getSlowestResources() {
+    return drainSlowestResources(false);
+  }
+
+  /**
+   * Logs the slowest resources since the last report and starts a new collection. It's called at
+   * the end of each run.
+   */
+  public void reportSlowestResources() {
+    List<ResourceTiming> timings = drainSlowestResources(true);
+    if (timings.isEmpty()) {
+      return;
+    }
+    StringBuilder report = new StringBuilder("Slowest resources of the run:");
+    for (int i = 0; i < timings.size(); i++) {
+      report.append(System.lineSeparator()).append(String.format("%3d. ", i + 1))
+          .append(timings.get(i));
+    }
+    log.info(report.toString());
+  }
+
+  private List<ResourceTiming> drainSlowestResources(boolean clear) {
+    List<ResourceTiming> timings;
+    synchronized (slowest) {
+      timings = new ArrayList<>(slowest);
+      if (clear) {
+        slowest.clear();
+      }
+    }
+    timings.sort(Comparator.comparingLong(ResourceTiming::nanos).reversed());
+    return timings;
+  }
+
+  private void recordTiming(ResourceTiming timing) {
+    synchronized (slowest) {
+      if (slowest.size() < SLOWEST_RESOURCES_SIZE) {
+        slowest.add(timing);
+      } else if (slowest.peek().nanos() < timing.nanos()) {
+        slowest.poll();
+        slowest.add(timing);
+      }
+    }
+  }
+
+  private DistributionSummary bytesSummary(String name, String method, String status) {
+    return DistributionSummary.builder(name)
+        .description("Size of the bodies")
+        .baseUnit("bytes")
+        .tag("method", method)
+        .tag("status", status)
+        .register(meterRegistry);
+  }
+
+  /**
+   * The timing of a single resource, measured from sending the request until the response body
+   * was read completely.
+   *
+   * @param method the HTTP method
+   * @param href   the requested resource
+   * @param status the status class of the response
+   * @param nanos  the duration in nanoseconds
+   * @param bytes  the number of bytes of the response body
+   */
+  record ResourceTiming(String method, String href, String status, long nanos, long bytes) {
+
+    @Override
+    public String toString() {
+      return String.format("%s %s (%s): %d ms, %d bytes", method, href, status,
+          TimeUnit.NANOSECONDS.toMillis(nanos), bytes);
+    }
+  }
+
+  /**
+   * Entity that counts the bytes read from its content. The consumer is called once, as soon as
+   * the content has been read completely or closed.
+   */
+  static class CountingEntity extends HttpEntityWrapper {
+
+    private final LongConsumer onComplete;
+    private long count;
+    private boolean completed;
+
+    CountingEntity(HttpEntity wrappedEntity, LongConsumer onComplete) {
+      super(wrappedEntity);
+      this.onComplete = onComplete;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      return new FilterInputStream(super.getContent()) {
+        @Override
+        public int read() throws IOException {
+          int b = super.read();
+          if (b < 0) {
+            complete();
+          } else {
+            count++;
+          }
+          return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          int n = super.read(b, off, len);
+          if (n < 0) {
+            complete();
+          } else {
+            count += n;
+          }
+          return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            complete();
+          }
+        }
+      };
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+      try (InputStream in = getContent()) {
+        in.transferTo(outStream);
+      }
+    }
+
+    private void complete() {
+      if (!completed) {
+        completed = true;
+        onComplete.accept(count);
+      }
+    }
+  }
+}
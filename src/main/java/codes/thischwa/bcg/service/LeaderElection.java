@@ -0,0 +1,151 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.conf.CoordinationConf;
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.SyncConf;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Elects the replica which syncs, if multiple replicas run on the same schedule. Before each run,
+ * a replica tries to acquire or refresh the {@link LeaderLock}, only the holder syncs. While a
+ * run is in progress, the lock is refreshed periodically. After the run, the lock is kept, so the
+ * leader stays the same as long as it's alive. If it dies, its lock expires and another replica
+ * takes over with its next run.
+ *
+ * <p>If sharded, each shard has its own lock.
+ */
+@Component
+@Slf4j
+public class LeaderElection {
+
+  @Nullable
+  private final LeaderLock lock;
+  private final Duration refreshInterval;
+  @Nullable
+  private ScheduledExecutorService refresher;
+
+  /**
+   * Creates the leader election configured by {@link CoordinationConf}.
+   *
+   * @param coordinationConf   the configuration of the coordination
+   * @param davConf            the configuration containing the calendar collection
+   * @param syncConf           the configuration containing the state directory
+   * @param sardineInitializer the initializer for {@link BcgSardine}
+   * @param shard              the shard of this instance
+   */
+  @Autowired
+  public LeaderElection(CoordinationConf coordinationConf, DavConf davConf, SyncConf syncConf,
+                        SardineInitializer sardineInitializer, Shard shard) {
+    this(createLock(coordinationConf, davConf, syncConf, sardineInitializer, shard),
+        Duration.ofSeconds(Math.max(1, coordinationConf.lockTimeoutInSeconds() / 3)));
+  }
+
+  LeaderElection(@Nullable LeaderLock lock, Duration refreshInterval) {
+    this.lock = lock;
+    this.refreshInterval = refreshInterval;
+  }
+
+  private static @Nullable LeaderLock createLock(CoordinationConf conf, DavConf davConf,
+                                                 SyncConf syncConf,
+                                                 SardineInitializer sardineInitializer,
+                                                 Shard shard) {
+    String lockName = shard.isSharded()
+        ? conf.lockName() + "." + shard.getIndex() : conf.lockName();
+    return switch (conf.mode()) {
+      case NONE -> null;
+      case DAV -> new DavLeaderLock(sardineInitializer.getSardine(), davConf.calUrl() + lockName,
+          conf.lockTimeoutInSeconds());
+      case FILE -> new FileLeaderLock(syncConf.getStateDirPath().resolve(lockName));
+    };
+  }
+
+  /**
+   * Tries to become or stay the leader for a run. The lock is refreshed until the returned term is
+   * closed.
+   *
+   * @return the term of the run, or null if another replica is the leader or the lock is
+   *     unavailable
+   */
+  public @Nullable Term tryLead() {
+    if (lock == null) {
+      return new Term(null);
+    }
+    try {
+      if (!lock.acquire()) {
+        log.info("Another replica is the leader, the run is skipped.");
+        return null;
+      }
+    } catch (IOException e) {
+      log.warn("Couldn't acquire the leader lock, the run is skipped: {}", e.getMessage());
+      return null;
+    }
+    log.debug("This replica is the leader.");
+    long millis = refreshInterval.toMillis();
+    return new Term(getRefresher().scheduleAtFixedRate(this::refresh, millis, millis,
+        TimeUnit.MILLISECONDS));
+  }
+
+  private void refresh() {
+    try {
+      if (lock != null && !lock.acquire()) {
+        log.error("The leader lock was lost during the run, another replica may sync as well.");
+      }
+    } catch (IOException e) {
+      log.warn("Couldn't refresh the leader lock: {}", e.getMessage());
+    }
+  }
+
+  private synchronized ScheduledExecutorService getRefresher() {
+    if (refresher == null) {
+      refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bcg-leader-lock");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return refresher;
+  }
+
+  /**
+   * Releases the lock at shutdown, so another replica can take over immediately.
+   */
+  @PreDestroy
+  public synchronized void close() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+    if (lock != null) {
+      lock.release();
+    }
+  }
+
+  /**
+   * The term of the leader for a run. Closing it stops refreshing the lock, but keeps it.
+   */
+  public static final class Term implements AutoCloseable {
+
+    @Nullable
+    private final ScheduledFuture<?> refreshTask;
+
+    private Term(@Nullable ScheduledFuture<?> refreshTask) {
+      this.refreshTask = refreshTask;
+    }
+
+    @Override
+    public void close() {
+      if (refreshTask != null) {
+        refreshTask.cancel(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package codes.thischwa.bcg.service;
+
+import java.io.IOException;
+
+/**
+ * An exclusive lock which makes its holder the leader of the replicas.
+ */
+interface LeaderLock {
+
+  /**
+   * Acquires the lock, or refreshes it if it's already held.
+   *
+   * @return true if the lock is held, false if another replica holds it
+   * @throws IOException if the state of the lock can't be determined
+   */
+  boolean acquire() throws IOException;
+
+  /**
+   * Releases the lock if it's held, so another replica can take over immediately.
+   */
+  void release();
+}
@@ -0,0 +1,319 @@
+package codes.thischwa.bcg.service;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.springframework.lang.Nullable;
+
+/**
+ * Streaming parser for WebDAV multistatus responses.
+ *
+ * <p>The parser is based on StAX and emits each {@code response} element as a {@link DavEntry} as
+ * soon as it has been read completely. Only properties of a propstat with the status 200 are taken
+ * into account. The complete response is never held in memory.
+ *
+ * <p>Besides the DAV properties, the {@code calendar-data} of a {@code calendar-query} REPORT and
+ * the {@code address-data} of an {@code addressbook-multiget} REPORT are taken into account.
+ *
+ * <p>The capabilities of a collection are read from a depth-0 PROPFIND by
+ * {@link #parseCapabilities(InputStream, Set, Set)}.
+ */
+public class MultistatusParser {
+
+  static final String DAV_NAMESPACE = "DAV:";
+  static final String CALDAV_NAMESPACE = "urn:ietf:params:xml:ns:caldav";
+  static final String CARDDAV_NAMESPACE = "urn:ietf:params:xml:ns:carddav";
+
+  private static final XMLInputFactory FACTORY = createFactory();
+
+  private MultistatusParser() {
+  }
+
+  private static XMLInputFactory createFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+
+  /**
+   * Parses the multistatus response of the specified stream and passes each resource to the
+   * consumer.
+   *
+   * @param in       the stream of the multistatus response
+   * @param consumer the consumer which receives the resources in the order of the response
+   * @return the number of resources passed to the consumer
+   * @throws IllegalArgumentException if the response isn't a well-formed multistatus response
+   */
+  public static int parse(InputStream in, Consumer<DavEntry> consumer) {
+    int count = 0;
+    XMLStreamReader reader = null;
+    try {
+      reader = FACTORY.createXMLStreamReader(in);
+      ResponseState state = null;
+      PropstatState propstat = null;
+      StringBuilder text = new StringBuilder();
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          text.setLength(0);
+          if (!DAV_NAMESPACE.equals(reader.getNamespaceURI())) {
+            continue;
+          }
+          switch (reader.getLocalName()) {
+            case "response" -> state = new ResponseState();
+            case "propstat" -> propstat = new PropstatState();
+            case "collection" -> {
+              if (propstat != null) {
+                propstat.collection = true;
+              }
+            }
+            default -> {
+              // not of interest
+            }
+          }
+        } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+          text.append(reader.getText());
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (state == null) {
+            continue;
+          }
+          if (CALDAV_NAMESPACE.equals(reader.getNamespaceURI())
+              || CARDDAV_NAMESPACE.equals(reader.getNamespaceURI())) {
+            if (("calendar-data".equals(reader.getLocalName())
+                || "address-data".equals(reader.getLocalName())) && propstat != null) {
+              propstat.data = text.toString().trim();
+            }
+            text.setLength(0);
+            continue;
+          }
+          if (!DAV_NAMESPACE.equals(reader.getNamespaceURI())) {
+            continue;
+          }
+          String value = text.toString().trim();
+          switch (reader.getLocalName()) {
+            case "href" -> {
+              if (propstat == null) {
+                state.href = value;
+              }
+            }
+            case "getetag" -> {
+              if (propstat != null) {
+                propstat.etag = value;
+              }
+            }
+            case "getcontenttype" -> {
+              if (propstat != null) {
+                propstat.contentType = value;
+              }
+            }
+            case "getlastmodified" -> {
+              if (propstat != null) {
+                propstat.lastModified = parseHttpDate(value);
+              }
+            }
+            case "status" -> {
+              if (propstat != null) {
+                propstat.ok = isOk(value);
+              }
+            }
+            case "propstat" -> {
+              if (propstat != null && propstat.ok) {
+                state.apply(propstat);
+              }
+              propstat = null;
+            }
+            case "response" -> {
+              if (state.href != null) {
+                consumer.accept(state.toEntry());
+                count++;
+              }
+              state = null;
+            }
+            default -> {
+              // not of interest
+            }
+          }
+          text.setLength(0);
+        }
+      }
+      return count;
+    } catch (XMLStreamException e) {
+      throw new IllegalArgumentException("Unable to parse multistatus response.", e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses the response of a depth-0 PROPFIND of a collection for its capabilities: the reports of
+   * the {@code supported-report-set} and whether it provides a {@code getctag} and a
+   * {@code sync-token}. Only properties of a propstat with the status 200 are taken into account.
+   *
+   * @param in         the stream of the multistatus response
+   * @param davClasses the compliance classes of the {@code DAV} header of the collection
+   * @param methods    the methods of the {@code Allow} header of the collection
+   * @return the capabilities of the collection
+   * @throws IllegalArgumentException if the response isn't a well-formed multistatus response
+   */
+  public static DavCapabilities parseCapabilities(InputStream in, Set<String> davClasses,
+                                                  Set<String> methods) {
+    Set<String> reports = new TreeSet<>();
+    boolean ctag = false;
+    boolean syncToken = false;
+    XMLStreamReader reader = null;
+    try {
+      reader = FACTORY.createXMLStreamReader(in);
+      Set<String> propstatReports = new TreeSet<>();
+      boolean propstatCtag = false;
+      boolean propstatSyncToken = false;
+      boolean ok = false;
+      boolean inReport = false;
+      StringBuilder text = new StringBuilder();
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          text.setLength(0);
+          if (inReport) {
+            // the only child of a report element names the report
+            propstatReports.add(reader.getLocalName());
+          } else if (DAV_NAMESPACE.equals(reader.getNamespaceURI())) {
+            switch (reader.getLocalName()) {
+              case "propstat" -> {
+                propstatReports.clear();
+                propstatCtag = false;
+                propstatSyncToken = false;
+                ok = false;
+              }
+              case "report" -> inReport = true;
+              default -> {
+                // not of interest
+              }
+            }
+          }
+        } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+          text.append(reader.getText());
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          String value = text.toString().trim();
+          text.setLength(0);
+          if ("getctag".equals(reader.getLocalName())) {
+            propstatCtag = !value.isEmpty();
+          } else if (DAV_NAMESPACE.equals(reader.getNamespaceURI())) {
+            switch (reader.getLocalName()) {
+              case "report" -> inReport = false;
+              case "sync-token" -> propstatSyncToken = !value.isEmpty();
+              case "status" -> ok = isOk(value);
+              case "propstat" -> {
+                if (ok) {
+                  reports.addAll(propstatReports);
+                  ctag |= propstatCtag;
+                  syncToken |= propstatSyncToken;
+                }
+              }
+              default -> {
+                // not of interest
+              }
+            }
+          }
+        }
+      }
+      return new DavCapabilities(davClasses, methods, reports, ctag, syncToken);
+    } catch (XMLStreamException e) {
+      throw new IllegalArgumentException("Unable to parse multistatus response.", e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  private static boolean isOk(String statusLine) {
+    String[] parts = statusLine.split("\\s+");
+    return parts.length > 1 && "200".equals(parts[1]);
+  }
+
+  /**
+   * Parses an HTTP date like the value of {@code getlastmodified}, a malformed one is ignored.
+   */
+  @Nullable
+  static Instant parseHttpDate(String value) {
+    try {
+      return DateTimeFormatter.RFC_1123_DATE_TIME.parse(value.trim(), Instant::from);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  static URI toUri(String href) {
+    try {
+      return new URI(href);
+    } catch (URISyntaxException e) {
+      // some servers don't escape the href, let URI quote the illegal characters
+      try {
+        return new URI(null, null, href, null);
+      } catch (URISyntaxException ex) {
+        throw new IllegalArgumentException("Invalid href: " + href, ex);
+      }
+    }
+  }
+
+  private static class ResponseState {
+    @Nullable String href;
+    @Nullable String etag;
+    @Nullable String contentType;
+    @Nullable String data;
+    @Nullable Instant lastModified;
+    boolean collection;
+
+    void apply(PropstatState propstat) {
+      if (propstat.etag != null) {
+        etag = propstat.etag;
+      }
+      if (propstat.contentType != null) {
+        contentType = propstat.contentType;
+      }
+      if (propstat.data != null) {
+        data = propstat.data;
+      }
+      if (propstat.lastModified != null) {
+        lastModified = propstat.lastModified;
+      }
+      collection |= propstat.collection;
+    }
+
+    DavEntry toEntry() {
+      assert href != null;
+      return new DavEntry(toUri(href), etag, contentType, collection, data, lastModified);
+    }
+  }
+
+  private static class PropstatState {
+    @Nullable String etag;
+    @Nullable String contentType;
+    @Nullable String data;
+    @Nullable Instant lastModified;
+    boolean collection;
+    boolean ok;
+  }
+}
@@ -0,0 +1,205 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.DiffConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * The diff of the calendar collections the events are spread across, see
+ * {@link CalendarPartitions}. Each collection has its own index of birthday events. The contacts
+ * are assigned to the collections of their partitions, a contact whose event is in another
+ * collection gets a new event, and its old one is deleted.
+ */
+@Slf4j
+final class PartitionedDiff implements AutoCloseable {
+
+  private final CalendarPartitions partitions;
+  private final List<CollectionDiff> collections;
+
+  /**
+   * Creates the diff of the specified collections.
+   *
+   * @param collectionUrls the URLs of the calendar collections
+   * @param partitions     the partitions, which assign the contacts to the collections
+   * @param diffConf       the configuration of the spilling of the indexes
+   * @param spillDir       the directory in which the spilled runs are created
+   * @param contentHasher  computes the content hash of the event of a contact
+   */
+  PartitionedDiff(List<String> collectionUrls, CalendarPartitions partitions, DiffConf diffConf,
+                  Path spillDir, ToLongFunction<Contact> contentHasher) {
+    this.partitions = partitions;
+    this.collections = new ArrayList<>(collectionUrls.size());
+    try {
+      for (String url : collectionUrls) {
+        collections.add(new CollectionDiff(url, diffConf, spillDir, contentHasher));
+      }
+    } catch (RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the diffs of the collections, in the order of their URLs.
+   */
+  List<CollectionDiff> getCollections() {
+    return collections;
+  }
+
+  /**
+   * Returns the number of events indexed in all collections.
+   */
+  int getEventCount() {
+    int eventCount = 0;
+    for (CollectionDiff collection : collections) {
+      eventCount += collection.eventCount;
+    }
+    return eventCount;
+  }
+
+  /**
+   * Computes the changes of each collection in parallel and joins them.
+   *
+   * @param contacts            the contacts with birthday
+   * @param pipelineConf        the configuration of the stage computing the diffs
+   * @param observationRegistry the registry used to observe the stage
+   * @return the changes of all collections
+   */
+  ChangeSet diff(List<Contact> contacts, PipelineConf pipelineConf,
+                 ObservationRegistry observationRegistry) throws IOException {
+    if (collections.size() == 1) {
+      return collections.get(0).diff(contacts);
+    }
+    Map<String, Integer> collectionIndex = new HashMap<>();
+    List<List<Contact>> assigned = new ArrayList<>(collections.size());
+    for (int i = 0; i < collections.size(); i++) {
+      collectionIndex.put(collections.get(i).url, i);
+      assigned.add(new ArrayList<>());
+    }
+    // the partition may depend on the birthday, so duplicates are dropped across the partitions
+    Set<String> identifiers = new HashSet<>();
+    for (Contact contact : contacts) {
+      String url = partitions.getCollectionUrl(contact);
+      if (identifiers.add(contact.identifier())) {
+        assigned.get(collectionIndex.get(url)).add(contact);
+      } else {
+        log.warn("Ignored contact with duplicate identifier: {}", contact.identifier());
+      }
+    }
+    ChangeSet[] results = new ChangeSet[collections.size()];
+    Pipeline pipeline = new Pipeline("bcg-diff", pipelineConf.queueCapacity());
+    pipeline.<Integer>source("diff-plan", observationRegistry.getCurrentObservation(),
+            emitter -> {
+              for (int i = 0; i < collections.size(); i++) {
+                emitter.accept(i);
+              }
+            })
+        .forEach("diff", pipelineConf.parseThreads(),
+            i -> results[i] = collections.get(i).diff(assigned.get(i)));
+    pipeline.run();
+    List<Contact> creates = new ArrayList<>();
+    List<ChangeSet.Update> updates = new ArrayList<>();
+    List<String> deletes = new ArrayList<>();
+    int unchanged = 0;
+    for (ChangeSet result : results) {
+      creates.addAll(result.creates());
+      updates.addAll(result.updates());
+      deletes.addAll(result.deletes());
+      unchanged += result.unchanged();
+    }
+    return new ChangeSet(creates, updates, deletes, unchanged);
+  }
+
+  /**
+   * Deletes the spilled runs of all collections.
+   */
+  @Override
+  public void close() {
+    collections.forEach(CollectionDiff::close);
+  }
+
+  /**
+   * The diff of a calendar collection: the index of its birthday events, kept in memory or
+   * spilled to sorted runs, see {@link DiffConf}.
+   */
+  static final class CollectionDiff {
+
+    private final String url;
+    private final EventIndex.Builder indexBuilder;
+    private final ToLongFunction<Contact> contentHasher;
+    @Nullable
+    private final SpillingDiff spillingDiff;
+    private int eventCount;
+
+    private CollectionDiff(String url, DiffConf diffConf, Path spillDir,
+                           ToLongFunction<Contact> contentHasher) {
+      this.url = url;
+      this.contentHasher = contentHasher;
+      String collectionPath = URI.create(url).getPath();
+      indexBuilder = EventIndex.builder(collectionPath);
+      spillingDiff = diffConf.spillThreshold() > 0 ? new SpillingDiff(collectionPath, spillDir,
+          diffConf.spillThreshold(), contentHasher) : null;
+    }
+
+    /**
+     * Returns the URL of the collection.
+     */
+    String getUrl() {
+      return url;
+    }
+
+    /**
+     * Adds an event of the collection to the index, by a single thread.
+     */
+    void addEvent(CalHandler.IndexEntry entry) throws IOException {
+      eventCount++;
+      if (spillingDiff == null) {
+        indexBuilder.add(entry.identifier(), entry.path(), entry.epochDay(), entry.contentHash());
+      } else {
+        spillingDiff.addEvent(entry.identifier(), entry.path(), entry.epochDay(),
+            entry.contentHash());
+      }
+    }
+
+    /**
+     * Computes the changes of the collection.
+     *
+     * @param contacts the contacts whose events belong into the collection
+     */
+    ChangeSet diff(List<Contact> contacts) throws IOException {
+      if (spillingDiff == null) {
+        return BirthdayDiff.diff(indexBuilder.build(), contacts, contentHasher);
+      }
+      for (Contact contact : contacts) {
+        spillingDiff.addContact(contact);
+      }
+      return spillingDiff.diff();
+    }
+
+    /**
+     * Deletes the spilled runs.
+     */
+    void close() {
+      if (spillingDiff != null) {
+        try {
+          spillingDiff.close();
+        } catch (IOException e) {
+          log.warn("Couldn't delete the spilled runs of the diff: {}", e.getMessage());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,393 @@
+package codes.thischwa.bcg.service;
+
+import io.micrometer.observation.Observation;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * Runs the stages of a sync run concurrently, connected by bounded queues. A pipeline consists of
+ * branches, each starting with a source, e.g. the listing of a collection, followed by stages
+ * which map the items, e.g. fetch and parse, and ending with a sink, which receives the items in
+ * the order of the source. Each stage runs on its own threads, so network I/O and parsing overlap,
+ * and the branches run concurrently. A stage whose output queue is full waits until the next
+ * stage has caught up, which bounds the number of items in flight.
+ *
+ * <p>The source of a branch waits, too, if the items it has emitted, but the sink hasn't received
+ * yet, fill the queues and the threads of the stages. So a slow item which the other items of a
+ * parallel stage overtake can't make the sink buffer more than that many items for reordering.
+ *
+ * <p>The threads of a branch run in the scope of its parent observation, so the requests of the
+ * stages are part of the trace of the run.
+ *
+ * <p>If a stage fails, all stages are interrupted and {@link #run()} throws the failure.
+ */
+@Slf4j
+final class Pipeline {
+
+  private static final Item END = new Item(-1, null);
+
+  private final String name;
+  private final int queueCapacity;
+  private final List<Thread> threads = new ArrayList<>();
+  private final List<SinkWorker<?>> sinks = new ArrayList<>();
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+  private boolean started;
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param name          the name of the pipeline, used as prefix of the names of its threads
+   * @param queueCapacity the number of items each queue between two stages holds
+   */
+  Pipeline(String name, int queueCapacity) {
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("The queue capacity must be at least 1.");
+    }
+    this.name = name;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Adds a branch starting with the specified source.
+   *
+   * @param stage  the name of the stage
+   * @param parent the observation in whose scope the threads of the branch run, may be null
+   * @param source the source of the items
+   * @return the branch, to which the next stage is added
+   */
+  <T> Branch<T> source(String stage, @Nullable Observation parent, Source<T> source) {
+    BlockingQueue<Item> out = newQueue();
+    // each stage adds the items it can hold to the window
+    Semaphore window = new Semaphore(queueCapacity);
+    addThread(stage + "-0", parent, () -> {
+      long[] seq = {0};
+      source.produce(value -> {
+        acquireUninterruptibly(window);
+        putUninterruptibly(out, new Item(seq[0]++, value));
+      });
+      out.put(END);
+    });
+    return new Branch<>(parent, out, window);
+  }
+
+  /**
+   * Starts all stages and waits until they have finished.
+   *
+   * @throws IOException if a stage failed with an {@link IOException} or the thread was
+   *                     interrupted while waiting, a {@link RuntimeException} of a stage is
+   *                     rethrown as is
+   */
+  void run() throws IOException {
+    if (started) {
+      throw new IllegalArgumentException("The pipeline " + name + " has already been run.");
+    }
+    started = true;
+    threads.forEach(Thread::start);
+    boolean interrupted = false;
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+          fail(new InterruptedIOException("Interrupted while running the pipeline " + name + "."));
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    Throwable cause = failure.get();
+    if (cause == null) {
+      return;
+    }
+    sinks.forEach(sink -> sink.fail(cause));
+    if (cause instanceof IOException e) {
+      throw e;
+    }
+    if (cause instanceof RuntimeException e) {
+      throw e;
+    }
+    if (cause instanceof Error e) {
+      throw e;
+    }
+    throw new IOException(cause);
+  }
+
+  private void fail(Throwable cause) {
+    if (failure.compareAndSet(null, cause)) {
+      log.debug("The pipeline {} failed, its stages are interrupted: {}", name, cause.toString());
+      threads.forEach(Thread::interrupt);
+    }
+  }
+
+  private void addThread(String threadName, @Nullable Observation parent, Task task) {
+    if (started) {
+      throw new IllegalArgumentException("The pipeline " + name + " has already been run.");
+    }
+    Thread thread = new Thread(() -> {
+      try (Observation.Scope ignored = parent != null ? parent.openScope() : null) {
+        task.run();
+      } catch (Throwable e) {
+        // if a failure is already recorded, this is just the interruption caused by it
+        fail(e);
+      }
+    }, name + "-" + threadName);
+    thread.setDaemon(true);
+    threads.add(thread);
+  }
+
+  private BlockingQueue<Item> newQueue() {
+    return new ArrayBlockingQueue<>(queueCapacity);
+  }
+
+  /**
+   * Puts an item from within a callback, which can't throw an {@link InterruptedException}.
+   */
+  private static void putUninterruptibly(BlockingQueue<Item> queue, Item item) {
+    try {
+      queue.put(item);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for the next stage.");
+    }
+  }
+
+  /**
+   * Acquires a permit of the window of a branch from within a callback, which can't throw an
+   * {@link InterruptedException}.
+   */
+  private static void acquireUninterruptibly(Semaphore window) {
+    try {
+      window.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for the sink.");
+    }
+  }
+
+  /**
+   * A branch of the pipeline, to which the next stage is added. Each branch is continued by
+   * exactly one stage.
+   *
+   * @param <T> the type of the items of the branch
+   */
+  final class Branch<T> {
+
+    @Nullable
+    private final Observation parent;
+    private final BlockingQueue<Item> in;
+    private final Semaphore window;
+
+    private Branch(@Nullable Observation parent, BlockingQueue<Item> in, Semaphore window) {
+      this.parent = parent;
+      this.in = in;
+      this.window = window;
+    }
+
+    /**
+     * Adds a stage which maps each item on its own threads.
+     *
+     * @param stage       the name of the stage
+     * @param parallelism the number of threads of the stage
+     * @param mapper      maps an item, if it returns null, the item is dropped
+     * @return the branch of the mapped items
+     */
+    @SuppressWarnings("unchecked")
+    <O> Branch<O> map(String stage, int parallelism, Mapper<T, O> mapper) {
+      if (parallelism < 1) {
+        throw new IllegalArgumentException(
+            "The parallelism of the stage " + stage + " must be at least 1.");
+      }
+      BlockingQueue<Item> out = newQueue();
+      window.release(queueCapacity + parallelism);
+      AtomicInteger running = new AtomicInteger(parallelism);
+      for (int i = 0; i < parallelism; i++) {
+        addThread(stage + "-" + i, parent, () -> {
+          for (Item item = in.take(); item != END; item = in.take()) {
+            // a dropped item is passed on, so the sink knows the sequence number is done
+            Object value = item.value() == null ? null : mapper.apply((T) item.value());
+            out.put(new Item(item.seq(), value));
+          }
+          // the end marker is left for the other threads of the stage
+          in.put(END);
+          if (running.decrementAndGet() == 0) {
+            out.put(END);
+          }
+        });
+      }
+      return new Branch<>(parent, out, window);
+    }
+
+    /**
+     * Ends the branch with a stage which processes each item on its own threads, in no particular
+     * order.
+     *
+     * @param stage       the name of the stage
+     * @param parallelism the number of threads of the stage
+     * @param action      processes an item
+     */
+    void forEach(String stage, int parallelism, Action<T> action) {
+      Branch<Void> done = this.map(stage, parallelism, item -> {
+        action.accept(item);
+        return null;
+      });
+      // the order doesn't matter, so the items needn't wait for each other
+      addThread(stage + "-end", parent, () -> {
+        for (Item item = done.in.take(); item != END; item = done.in.take()) {
+          window.release();
+        }
+      });
+    }
+
+    /**
+     * Ends the branch with a sink, which receives the items in the order of the source.
+     *
+     * @param stage the name of the stage
+     * @param sink  the sink
+     */
+    @SuppressWarnings("unchecked")
+    void sink(String stage, Sink<T> sink) {
+      SinkWorker<T> worker = new SinkWorker<>(sink);
+      sinks.add(worker);
+      addThread(stage + "-0", parent, () -> {
+        // the items of a parallel stage may overtake each other, so they're reordered here, the
+        // window of the branch bounds the number of items which arrive early
+        Map<Long, Item> early = new HashMap<>();
+        long next = 0;
+        for (Item item = in.take(); item != END; item = in.take()) {
+          early.put(item.seq(), item);
+          for (Item ready = early.remove(next); ready != null; ready = early.remove(next)) {
+            if (ready.value() != null) {
+              sink.accept((T) ready.value());
+            }
+            window.release();
+            next++;
+          }
+        }
+        worker.complete();
+      });
+    }
+
+  }
+
+  /**
+   * The source of the items of a branch.
+   *
+   * @param <T> the type of the items
+   */
+  @FunctionalInterface
+  interface Source<T> {
+
+    /**
+     * Produces the items. The emitter blocks while the queue of the next stage is full.
+     *
+     * @param emitter receives the items
+     */
+    void produce(Consumer<T> emitter) throws IOException;
+  }
+
+  /**
+   * Maps the items of a stage.
+   *
+   * @param <T> the type of the items
+   * @param <O> the type of the mapped items
+   */
+  @FunctionalInterface
+  interface Mapper<T, O> {
+
+    @Nullable
+    O apply(T item) throws IOException;
+  }
+
+  /**
+   * Processes the items at the end of a branch.
+   *
+   * @param <T> the type of the items
+   */
+  @FunctionalInterface
+  interface Action<T> {
+    void accept(T item) throws IOException;
+  }
+
+  /**
+   * Receives the items at the end of a branch.
+   *
+   * @param <T> the type of the items
+   */
+  interface Sink<T> {
+
+    void accept(T item) throws IOException;
+
+    /**
+     * Called after the last item of the branch has been accepted.
+     */
+    default void complete() {
+    }
+
+    /**
+     * Called instead of {@link #complete()}, if the pipeline failed before the branch has
+     * finished.
+     *
+     * @param cause the failure of the pipeline
+     */
+    default void fail(Throwable cause) {
+    }
+  }
+
+  @FunctionalInterface
+  private interface Task {
+    void run() throws Exception;
+  }
+
+  /**
+   * An item of a queue, with its sequence number of the source. The value is null if the item was
+   * dropped by a stage.
+   */
+  private record Item(long seq, @Nullable Object value) {
+  }
+
+  /**
+   * Ensures that either {@link Sink#complete()} or {@link Sink#fail(Throwable)} is called.
+   */
+  private static final class SinkWorker<T> {
+
+    private final Sink<T> sink;
+    private boolean finished;
+
+    SinkWorker(Sink<T> sink) {
+      this.sink = sink;
+    }
+
+    void complete() {
+      if (finish()) {
+        sink.complete();
+      }
+    }
+
+    void fail(Throwable cause) {
+      if (finish()) {
+        sink.fail(cause);
+      }
+    }
+
+    private synchronized boolean finish() {
+      boolean first = !finished;
+      finished = true;
+      return first;
+    }
+  }
+}
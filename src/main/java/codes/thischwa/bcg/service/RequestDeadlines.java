@@ -0,0 +1,284 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.conf.RequestConf;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * The deadlines of the requests to the DAV server. Each request must have been answered within
+ * the deadline of {@link RequestConf#deadlineInSeconds()}, while a run is in progress also within
+ * the deadline of the run, otherwise it's aborted with an {@link HttpTimeoutException}. Once the
+ * deadline of the run has passed, no further requests are sent. The lock requests of the leader
+ * election aren't part of a run, so only their own deadline applies. A streamed listing is
+ * answered when its response headers have arrived, its consumer may push back, so it may be read
+ * beyond the deadline of the request, but not beyond the deadline of the run.
+ *
+ * <p>A GET or REPORT of single resources which misses the 95th percentile of the latencies of its
+ * kind is hedged: a second request is sent and the first response is taken, see
+ * {@link HedgingTransport}. The hedges are limited to {@link RequestConf#hedgeBudgetPercent()} of
+ * the requests.
+ *
+ * <p>The metrics are the counters {@code bcg.dav.deadline.exceeded} by scope (request, run),
+ * {@code bcg.dav.hedge.sent} and {@code bcg.dav.hedge.won} by method and
+ * {@code bcg.dav.hedge.rejected}, the hedges which weren't sent because the budget was exhausted.
+ */
+@Component
+@Slf4j
+public class RequestDeadlines {
+
+  private static final Set<String> LOCK_METHODS = Set.of("LOCK", "UNLOCK");
+
+  /**
+   * The number of latencies of each method the percentile is computed from.
+   */
+  static final int LATENCY_WINDOW = 256;
+
+  /**
+   * The number of latencies of a method required before its requests are hedged.
+   */
+  static final int MIN_LATENCY_SAMPLES = 20;
+
+  /**
+   * The maximum number of hedges which may be saved up while no request is slow.
+   */
+  private static final double MAX_HEDGE_TOKENS = 10;
+
+  @Getter
+  private final RequestConf conf;
+  private final MeterRegistry meterRegistry;
+  private final ScheduledExecutorService scheduler;
+  private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+  private final Counter requestDeadlineCounter;
+  private final Counter runDeadlineCounter;
+  private final Counter hedgeRejectedCounter;
+
+  private volatile RunBudget run = RunBudget.UNLIMITED;
+  private double hedgeTokens = MAX_HEDGE_TOKENS;
+
+  /**
+   * Creates the deadlines and registers their metrics.
+   *
+   * @param conf          the configuration of the requests
+   * @param meterRegistry the registry of the metrics
+   */
+  public RequestDeadlines(RequestConf conf, MeterRegistry meterRegistry) {
+    this.conf = conf;
+    this.meterRegistry = meterRegistry;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "bcg-deadline");
+      thread.setDaemon(true);
+      return thread;
+    });
+    requestDeadlineCounter = deadlineCounter("request");
+    runDeadlineCounter = deadlineCounter("run");
+    hedgeRejectedCounter = Counter.builder("bcg.dav.hedge.rejected")
+        .description("Number of hedged requests not sent because the hedge budget was exhausted")
+        .register(meterRegistry);
+  }
+
+  private Counter deadlineCounter(String scope) {
+    return Counter.builder("bcg.dav.deadline.exceeded")
+        .description("Number of requests aborted because their deadline was exceeded")
+        .tag("scope", scope)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Starts a run, the requests sent until it's closed must have been answered before the deadline
+   * of the run.
+   *
+   * @param budget the budget of the run, which carries its deadline
+   * @return the run, which must be closed when it has finished
+   */
+  Run startRun(RunBudget budget) {
+    run = budget;
+    return () -> run = RunBudget.UNLIMITED;
+  }
+
+  /**
+   * Returns the time a request may take: the deadline of a request, capped at the deadline of the
+   * current run.
+   *
+   * @param method the method of the request
+   * @param uri    the URI of the request
+   * @return the time the request may take, or null if it's unlimited
+   * @throws HttpTimeoutException if the deadline of the run has already passed
+   */
+  @Nullable
+  Duration timeout(String method, URI uri) throws HttpTimeoutException {
+    Duration timeout = conf.deadlineInSeconds() > 0 ? conf.getDeadline() : null;
+    RunBudget current = run;
+    if (LOCK_METHODS.contains(method) || !current.hasDeadline()) {
+      return timeout;
+    }
+    Duration remaining = current.getRemainingToDeadline();
+    if (remaining.isZero()) {
+      runDeadlineCounter.increment();
+      throw new HttpTimeoutException("The deadline of the run (" + current.getDeadline()
+          + ") has passed, " + method + " " + uri + " isn't sent.");
+    }
+    return timeout == null || remaining.compareTo(timeout) < 0 ? remaining : timeout;
+  }
+
+  /**
+   * Returns the time the body of a streamed listing may take to be read once its headers have
+   * arrived: the time remaining to the deadline of the current run.
+   *
+   * @param method the method of the request
+   * @return the time the body may take, or null if it's unlimited
+   */
+  @Nullable
+  Duration bodyTimeout(String method) {
+    RunBudget current = run;
+    if (LOCK_METHODS.contains(method) || !current.hasDeadline()) {
+      return null;
+    }
+    return current.getRemainingToDeadline();
+  }
+
+  /**
+   * Counts a request which was aborted at its deadline and returns the exception to fail it with.
+   *
+   * @param method  the method of the request
+   * @param uri     the URI of the request
+   * @param timeout the time the request was allowed to take
+   * @return the exception
+   */
+  HttpTimeoutException exceeded(String method, URI uri, Duration timeout) {
+    RunBudget current = run;
+    boolean ofRun = !LOCK_METHODS.contains(method) && current.isDeadlineExceeded();
+    (ofRun ? runDeadlineCounter : requestDeadlineCounter).increment();
+    log.debug("{} {} aborted after {} ms.", method, uri, timeout.toMillis());
+    return new HttpTimeoutException(method + " " + uri + " exceeded the deadline of the "
+        + (ofRun ? "run (" + current.getDeadline() + ")" : "request (" + timeout + ")") + ".");
+  }
+
+  /**
+   * Runs a task after a delay on the thread of the deadlines. The task must not block.
+   */
+  ScheduledFuture<?> schedule(Runnable task, Duration delay) {
+    return scheduler.schedule(task, delay.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records the latency of a successful request, which may be hedged.
+   *
+   * @param method       the method of the request
+   * @param latencyNanos the time until the response has been read
+   */
+  void recordLatency(String method, long latencyNanos) {
+    latencies.computeIfAbsent(method, m -> new LatencyWindow()).add(latencyNanos);
+  }
+
+  /**
+   * Returns the time after which a request is hedged: the 95th percentile of the latencies of its
+   * method, but at least {@link RequestConf#hedgeMinDelayInMillis()}. Each call adds to the budget
+   * of the hedges.
+   *
+   * @param method the method of the request
+   * @return the time after which the request is hedged, or null if hedging is off or there aren't
+   *     enough latencies of the method yet
+   */
+  @Nullable
+  Duration hedgeDelay(String method) {
+    if (!conf.hedging()) {
+      return null;
+    }
+    synchronized (this) {
+      hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + conf.hedgeBudgetPercent() / 100.0);
+    }
+    LatencyWindow window = latencies.get(method);
+    long p95 = window == null ? -1 : window.percentile(0.95);
+    if (p95 < 0) {
+      return null;
+    }
+    Duration delay = Duration.ofNanos(p95);
+    return delay.compareTo(conf.getHedgeMinDelay()) < 0 ? conf.getHedgeMinDelay() : delay;
+  }
+
+  /**
+   * Takes a hedge from the budget.
+   *
+   * @param method the method of the request to hedge
+   * @return true if the hedge may be sent
+   */
+  boolean tryHedge(String method) {
+    synchronized (this) {
+      if (hedgeTokens < 1) {
+        hedgeRejectedCounter.increment();
+        return false;
+      }
+      hedgeTokens--;
+    }
+    Counter.builder("bcg.dav.hedge.sent")
+        .description("Number of hedged requests sent")
+        .tag("method", method)
+        .register(meterRegistry)
+        .increment();
+    return true;
+  }
+
+  /**
+   * Counts a hedge which responded before the original request.
+   */
+  void hedgeWon(String method) {
+    Counter.builder("bcg.dav.hedge.won")
+        .description("Number of hedged requests which responded before the original request")
+        .tag("method", method)
+        .register(meterRegistry)
+        .increment();
+  }
+
+  /**
+   * A run in progress, see {@link #startRun(RunBudget)}.
+   */
+  @FunctionalInterface
+  interface Run extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /**
+   * The latest {@value RequestDeadlines#LATENCY_WINDOW} latencies of a method.
+   */
+  private static final class LatencyWindow {
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long count;
+
+    synchronized void add(long latencyNanos) {
+      latencies[(int) (count++ % LATENCY_WINDOW)] = latencyNanos;
+    }
+
+    /**
+     * Returns the percentile of the latencies, -1 if there are fewer than
+     * {@value RequestDeadlines#MIN_LATENCY_SAMPLES}.
+     */
+    long percentile(double percentile) {
+      long[] sorted;
+      synchronized (this) {
+        if (count < MIN_LATENCY_SAMPLES) {
+          return -1;
+        }
+        sorted = Arrays.copyOf(latencies, (int) Math.min(count, LATENCY_WINDOW));
+      }
+      Arrays.sort(sorted);
+      return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+  }
+}
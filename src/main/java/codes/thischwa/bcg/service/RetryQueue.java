@@ -0,0 +1,204 @@
+package codes.thischwa.bcg.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Applies the changes of a run, so that a failing change doesn't abort the run. A failed change is
+ * queued and retried with exponential backoff after the rest of the batch has finished. A change
+ * which still fails after all retries is handed over to its dead-letter callback. Only a failure
+ * with an {@link IOException} is retried, a change failing otherwise, e.g. with an
+ * {@link IllegalArgumentException} of an unparsable response, would fail again and is handed over
+ * at once.
+ *
+ * <p>Changes can be applied by multiple threads concurrently. The failed changes are retried by
+ * the thread calling {@link #retryFailed()} after all changes have been applied.
+ */
+@Slf4j
+final class RetryQueue {
+
+  private final int retries;
+  private final Duration initialDelay;
+  private final List<Item> failed = new ArrayList<>();
+  private int applied;
+  private int recovered;
+  private int deadLettered;
+  private int carriedOver;
+
+  /**
+   * Creates a queue.
+   *
+   * @param retries      the number of retries of a failed change
+   * @param initialDelay the delay before the first retry, it's doubled for each further retry
+   */
+  RetryQueue(int retries, Duration initialDelay) {
+    this.retries = retries;
+    this.initialDelay = initialDelay;
+  }
+
+  /**
+   * Applies a change. If it fails with an {@link IOException}, it's queued for retry, if it fails
+   * otherwise, it's dead-lettered.
+   *
+   * @param description  the description of the change used for logging, e.g. "delete /cal/x.ics"
+   * @param change       the change
+   * @param onApplied    called as soon as the change was applied
+   * @param onDeadLetter called if the change failed permanently
+   */
+  void apply(String description, Change change, Runnable onApplied, Runnable onDeadLetter) {
+    try {
+      change.apply();
+    } catch (IOException | RuntimeException e) {
+      Item item = new Item(description, change, onApplied, onDeadLetter);
+      if (isRetryable(e)) {
+        log.warn("Failed to {}, it will be retried: {}", description, e.getMessage());
+        queueFailed(item);
+      } else {
+        deadLetter(item, e);
+      }
+      return;
+    }
+    countApplied();
+    onApplied.run();
+  }
+
+  private synchronized void countApplied() {
+    applied++;
+  }
+
+  private synchronized void queueFailed(Item item) {
+    failed.add(item);
+  }
+
+  /**
+   * Retries the failed changes with backoff. The changes which still fail are handed over to
+   * their dead-letter callbacks.
+   *
+   * @throws InterruptedIOException if the thread was interrupted while waiting for a retry
+   */
+  void retryFailed() throws InterruptedIOException {
+    retryFailed(RunBudget.UNLIMITED);
+  }
+
+  /**
+   * Retries the failed changes with backoff, as long as the budget of the run lasts. The changes
+   * which still fail or which aren't retried because the budget doesn't last for the next delay
+   * are handed over to their dead-letter callbacks.
+   *
+   * @param budget the budget of the run
+   * @throws InterruptedIOException if the thread was interrupted while waiting for a retry
+   */
+  void retryFailed(RunBudget budget) throws InterruptedIOException {
+    List<Item> failed = takeFailed();
+    Duration delay = initialDelay;
+    for (int attempt = 1; attempt <= retries && !failed.isEmpty(); attempt++) {
+      if (delay.compareTo(budget.getRemaining()) >= 0) {
+        log.info("The budget of the run doesn't last for retrying {} failed changes.",
+            failed.size());
+        break;
+      }
+      log.info("Retrying {} failed changes in {} s (attempt {} of {}).", failed.size(),
+          delay.toSeconds(), attempt, retries);
+      sleep(delay);
+      delay = delay.multipliedBy(2);
+      for (Iterator<Item> it = failed.iterator(); it.hasNext(); ) {
+        Item item = it.next();
+        try {
+          item.change().apply();
+          countRecovered();
+          it.remove();
+          item.onApplied().run();
+        } catch (IOException | RuntimeException e) {
+          if (isRetryable(e)) {
+            log.debug("Retry to {} failed: {}", item.description(), e.getMessage());
+          } else {
+            it.remove();
+            deadLetter(item, e);
+          }
+        }
+      }
+    }
+    for (Item item : failed) {
+      log.error("Failed to {} after {} retries, it's moved to the dead-letter list.",
+          item.description(), retries);
+      countDeadLettered();
+      item.onDeadLetter().run();
+    }
+  }
+
+  /**
+   * Returns whether a failure may be transient, an {@link IOException}, which may be wrapped by
+   * the {@link CompletionException} of a request.
+   */
+  private static boolean isRetryable(Exception e) {
+    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    return cause instanceof IOException;
+  }
+
+  private void deadLetter(Item item, Exception e) {
+    log.error("Failed to {}, it isn't retried and is moved to the dead-letter list.",
+        item.description(), e);
+    countDeadLettered();
+    item.onDeadLetter().run();
+  }
+
+  private synchronized List<Item> takeFailed() {
+    List<Item> taken = new ArrayList<>(failed);
+    failed.clear();
+    return taken;
+  }
+
+  /**
+   * Returns the result of the changes applied so far.
+   *
+   * @param unchanged the number of events which were up to date
+   */
+  synchronized SyncResult getResult(int unchanged) {
+    return new SyncResult(applied, recovered, deadLettered, unchanged, carriedOver);
+  }
+
+  /**
+   * Counts the changes which weren't started because the budget of the run was exhausted.
+   *
+   * @param count the number of changes
+   */
+  synchronized void countCarriedOver(int count) {
+    carriedOver += count;
+  }
+
+  private synchronized void countRecovered() {
+    applied++;
+    recovered++;
+  }
+
+  private synchronized void countDeadLettered() {
+    deadLettered++;
+  }
+
+  private static void sleep(Duration delay) throws InterruptedIOException {
+    try {
+      Thread.sleep(delay.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a retry.");
+    }
+  }
+
+  /**
+   * A change of the calendar, e.g. the upload of an event.
+   */
+  @FunctionalInterface
+  interface Change {
+    void apply() throws IOException;
+  }
+
+  private record Item(String description, Change change, Runnable onApplied,
+                      Runnable onDeadLetter) {
+  }
+}
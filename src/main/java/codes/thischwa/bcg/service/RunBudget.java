@@ -0,0 +1,117 @@
+package codes.thischwa.bcg.service;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The time budget of a sync run, measured from the start of the run. When it's exhausted, no
+ * further changes are started, the remaining ones are carried over to the next run.
+ *
+ * <p>The deadline of a run is the hard limit: the requests still in flight at the deadline are
+ * aborted, see {@link RequestDeadlines}. It ends the budget, too.
+ */
+final class RunBudget {
+
+  static final RunBudget UNLIMITED = new RunBudget(Duration.ZERO, Duration.ZERO, 0, 0);
+
+  private final Duration budget;
+  private final Duration deadline;
+  private final long endNanos;
+  private final long deadlineNanos;
+
+  private RunBudget(Duration budget, Duration deadline, long endNanos, long deadlineNanos) {
+    this.budget = budget;
+    this.deadline = deadline;
+    this.endNanos = endNanos;
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * Starts the budget of a run without deadline.
+   *
+   * @param budget the budget, zero or negative for an unlimited run
+   * @return the started budget
+   */
+  static RunBudget start(Duration budget) {
+    return start(budget, Duration.ZERO);
+  }
+
+  /**
+   * Starts the budget of a run.
+   *
+   * @param budget   the budget, zero or negative for no budget
+   * @param deadline the deadline, zero or negative for no deadline
+   * @return the started budget
+   */
+  static RunBudget start(Duration budget, Duration deadline) {
+    boolean hasBudget = !budget.isZero() && !budget.isNegative();
+    boolean hasDeadline = !deadline.isZero() && !deadline.isNegative();
+    if (!hasBudget && !hasDeadline) {
+      return UNLIMITED;
+    }
+    long now = System.nanoTime();
+    long deadlineNanos = hasDeadline ? now + deadline.toNanos() : 0;
+    long endNanos;
+    if (!hasBudget) {
+      endNanos = deadlineNanos;
+    } else if (hasDeadline && deadline.compareTo(budget) < 0) {
+      endNanos = deadlineNanos;
+    } else {
+      endNanos = now + budget.toNanos();
+    }
+    return new RunBudget(hasBudget ? budget : Duration.ZERO,
+        hasDeadline ? deadline : Duration.ZERO, endNanos, deadlineNanos);
+  }
+
+  boolean isLimited() {
+    return this != UNLIMITED;
+  }
+
+  boolean isExhausted() {
+    return isLimited() && System.nanoTime() - endNanos >= 0;
+  }
+
+  /**
+   * Returns the time left, zero if the budget is exhausted and {@link ChronoUnit#FOREVER} if it's
+   * unlimited.
+   */
+  Duration getRemaining() {
+    return isLimited() ? Duration.ofNanos(Math.max(0, endNanos - System.nanoTime()))
+        : ChronoUnit.FOREVER.getDuration();
+  }
+
+  boolean hasDeadline() {
+    return !deadline.isZero();
+  }
+
+  /**
+   * Returns the deadline of the run, zero if it has none.
+   */
+  Duration getDeadline() {
+    return deadline;
+  }
+
+  boolean isDeadlineExceeded() {
+    return hasDeadline() && System.nanoTime() - deadlineNanos >= 0;
+  }
+
+  /**
+   * Returns the time left until the deadline, zero if it has passed and
+   * {@link ChronoUnit#FOREVER} if the run has no deadline.
+   */
+  Duration getRemainingToDeadline() {
+    return hasDeadline() ? Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()))
+        : ChronoUnit.FOREVER.getDuration();
+  }
+
+  @Override
+  public String toString() {
+    if (!isLimited()) {
+      return "unlimited";
+    }
+    if (!hasDeadline()) {
+      return budget.toString();
+    }
+    return budget.isZero() ? "deadline " + deadline : budget + ", deadline " + deadline;
+  }
+}
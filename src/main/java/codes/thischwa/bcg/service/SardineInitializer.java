@@ -1,80 +1,160 @@
 package codes.thischwa.bcg.service;
 
 import codes.thischwa.bcg.conf.DavConf;
-import com.github.sardine.Sardine;
-import com.github.sardine.impl.SardineImpl;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.RequestConf;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.time.Duration;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.ProtocolException;
 import org.apache.http.client.CircularRedirectException;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.protocol.HttpContext;
-import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 @Component
-@Scope("prototype")
 @Slf4j
 public class SardineInitializer {
 
   @Getter
-  private final Sardine sardine;
+  private final BcgSardine sardine;
+
+  /**
+   * The transport of the requests of the {@link CardHandler} and the {@link CalHandler}, see
+   * {@link DavConf#transport()}. It shares the limiter and the deadlines with the
+   * {@link #getSardine() sardine}. If enabled, its fetches are hedged.
+   */
+  @Getter
+  private final DavTransport transport;
 
   private final DavConf davConf;
 
-  public SardineInitializer(DavConf davConf) {
+  public SardineInitializer(DavConf davConf, AdaptiveConcurrencyLimiter limiter,
+                            ObservationRegistry observationRegistry, HttpWireMetrics wireMetrics,
+                            RequestDeadlines deadlines, PipelineConf pipelineConf) {
     this.davConf = davConf;
-    this.sardine = CustomFactory.begin(davConf.user(), davConf.password());
+    this.sardine = CustomFactory.begin(davConf, limiter, observationRegistry, wireMetrics,
+        deadlines);
+    boolean async = davConf.transport() == DavConf.Transport.ASYNC;
+    DavTransport davTransport = async
+        ? new AsyncDavTransport(davConf.user(), davConf.password(), limiter, deadlines,
+            observationRegistry, davConf.maxRetries(),
+            Duration.ofMillis(davConf.getRetryDelayInMillis()))
+        : new SardineTransport(sardine);
+    this.transport = deadlines.getConf().hedging()
+        ? new HedgingTransport(davTransport, deadlines, !async, pipelineConf.fetchThreads())
+        : davTransport;
   }
 
+  /**
+   * Closes the transport and the connections of the sardine at shutdown.
+   */
+  @PreDestroy
+  public void close() {
+    transport.close();
+    try {
+      sardine.shutdown();
+    } catch (IOException e) {
+      log.warn("Error while closing the connections to the DAV server: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Checks whether the DAV server is reachable, with up to {@link DavConf#maxRetries()} attempts.
+   * Each check is recorded as the flight recorder event {@code bcg.ConnectivityCheck}.
+   *
+   * @return true if the base URL of the server exists
+   */
   public boolean canAccessBaseUrl() {
-    for (int i = 0; i < davConf.maxRetries(); i++) {
-      try {
-        if (sardine.exists(davConf.getBaseUrl())) {
-          return true;
+    SyncFlightEvents.ConnectivityCheck event = new SyncFlightEvents.ConnectivityCheck();
+    event.begin();
+    event.url = davConf.getBaseUrl();
+    try {
+      for (int i = 0; i < davConf.maxRetries(); i++) {
+        event.attempts = i + 1;
+        try {
+          if (transport.exists(davConf.getBaseUrl())) {
+            event.reachable = true;
+            return true;
+          }
+        } catch (IOException e) {
+          log.warn("Error while checking access to {} (trails: {}/{}): {}", davConf.getBaseUrl(),
+              i + 1, davConf.maxRetries(), e.getMessage());
+        }
+        try {
+          Thread.sleep(davConf.getRetryDelayInMillis());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
         }
-      } catch (IOException e) {
-        log.warn("Error while checking access to {} (trails: {}/{}): {}", davConf.getBaseUrl(),
-            i + 1, davConf.maxRetries(), e.getMessage());
-      }
-      try {
-        Thread.sleep(davConf.getRetryDelayInMillis());
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-        return false;
       }
+      return false;
+    } finally {
+      event.commit();
     }
-    return false;
   }
 
   private static class CustomFactory {
-    static Sardine begin(String username, String password) {
+    static BcgSardine begin(DavConf davConf, AdaptiveConcurrencyLimiter limiter,
+                            ObservationRegistry observationRegistry, HttpWireMetrics wireMetrics,
+                            RequestDeadlines deadlines) {
       HttpClientBuilder builder = HttpClientBuilder.create();
 
+      // Without timeouts, a stalled connection would block its thread forever
+      RequestConf requestConf = deadlines.getConf();
+      builder.setDefaultRequestConfig(RequestConfig.custom()
+          .setConnectTimeout((int) requestConf.getConnectTimeout().toMillis())
+          .setSocketTimeout((int) requestConf.getReadTimeout().toMillis())
+          .build());
+
+      // The listings keep their connections while they're streamed, see MAX_CONNECTIONS
+      builder.setMaxConnTotal(BcgSardine.MAX_CONNECTIONS);
+      builder.setMaxConnPerRoute(BcgSardine.MAX_CONNECTIONS);
+
       // Set a custom redirect strategy with limited redirects
-      builder.setRedirectStrategy(new LimitedRedirectStrategy());
+      builder.setRedirectStrategy(new LimitedRedirectStrategy(wireMetrics));
+
+      // Record the wire-level metrics of each request
+      builder.addInterceptorLast((HttpRequestInterceptor) wireMetrics);
+      builder.addInterceptorFirst((HttpResponseInterceptor) wireMetrics);
+      builder.setRequestExecutor(wireMetrics.requestExecutor());
 
-      return new SardineImpl(builder, username, password);
+      return new BcgSardine(builder, davConf.user(), davConf.password(), limiter, deadlines,
+          observationRegistry, davConf.maxRetries(),
+          Duration.ofMillis(davConf.getRetryDelayInMillis()));
     }
 
     private static class LimitedRedirectStrategy extends DefaultRedirectStrategy {
       private static final int MAX_REDIRECTS = 3;
-      private final ThreadLocal<Integer> redirectCount = ThreadLocal.withInitial(() -> 0);
+      // the context is created per request, so the count doesn't leak into the next request
+      private static final String ATTR_REDIRECT_COUNT =
+          LimitedRedirectStrategy.class.getName() + ".count";
+
+      private final HttpWireMetrics wireMetrics;
+
+      LimitedRedirectStrategy(HttpWireMetrics wireMetrics) {
+        this.wireMetrics = wireMetrics;
+      }
 
       @Override
       public HttpUriRequest getRedirect(HttpRequest request, HttpResponse response, HttpContext context) throws ProtocolException {
-        int count = redirectCount.get();
+        int count = context.getAttribute(ATTR_REDIRECT_COUNT) instanceof Integer i ? i : 0;
         if (count >= MAX_REDIRECTS) {
-          redirectCount.set(0);
           throw new CircularRedirectException("Maximum redirects (" + MAX_REDIRECTS + ") exceeded");
         }
-        redirectCount.set(count + 1);
+        context.setAttribute(ATTR_REDIRECT_COUNT, count + 1);
+        wireMetrics.redirected(request.getRequestLine().getMethod());
         return super.getRedirect(request, response, context);
       }
     }
@@ -0,0 +1,102 @@
+package codes.thischwa.bcg.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * The {@link DavTransport} of {@link BcgSardine} on the blocking Apache HttpClient. Each request
+ * is executed by the calling thread, the returned futures are already completed.
+ */
+final class SardineTransport implements DavTransport {
+
+  private final BcgSardine sardine;
+
+  SardineTransport(BcgSardine sardine) {
+    this.sardine = sardine;
+  }
+
+  @Override
+  public int list(String url, Consumer<DavEntry> consumer) throws IOException {
+    return sardine.list(url, consumer);
+  }
+
+  @Override
+  public int calendarQuery(String url, String category, Consumer<DavEntry> consumer)
+      throws IOException {
+    return sardine.calendarQuery(url, category, consumer);
+  }
+
+  @Override
+  public CompletableFuture<List<DavEntry>> addressbookMultiget(String url, List<String> hrefs) {
+    return call(() -> {
+      List<DavEntry> entries = new ArrayList<>(hrefs.size());
+      sardine.addressbookMultiget(url, hrefs, entries::add);
+      return entries;
+    });
+  }
+
+  @Override
+  public CompletableFuture<byte[]> get(String url) {
+    return call(() -> {
+      try (InputStream in = sardine.get(url)) {
+        return in.readAllBytes();
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> put(String url, byte[] data, String contentType) {
+    return call(() -> {
+      sardine.put(url, data, contentType);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> create(String url, byte[] data, String contentType) {
+    return call(() -> {
+      sardine.create(url, data, contentType);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> delete(String url) {
+    return call(() -> {
+      sardine.delete(url);
+      return null;
+    });
+  }
+
+  @Override
+  public boolean exists(String url) throws IOException {
+    return sardine.exists(url);
+  }
+
+  @Override
+  public void makeCalendar(String url, String displayName) throws IOException {
+    sardine.makeCalendar(url, displayName);
+  }
+
+  @Override
+  public DavCapabilities discover(String url) throws IOException {
+    return sardine.discover(url);
+  }
+
+  private static <T> CompletableFuture<T> call(Request<T> request) {
+    try {
+      return CompletableFuture.completedFuture(request.execute());
+    } catch (IOException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Request<T> {
+    T execute() throws IOException;
+  }
+}
@@ -0,0 +1,102 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.conf.ShardConf;
+import java.nio.file.Path;
+import org.springframework.stereotype.Component;
+
+/**
+ * The shard of the contacts this instance is responsible for. The hash space of the contact
+ * identifiers is split into {@code count} contiguous ranges of equal size, each instance owns one
+ * of them.
+ *
+ * <p>The owner of a resource is determined by the identifier in its file name, which is the
+ * identifier of the contact for the events uploaded by BCG. So each resource of the calendar is
+ * owned by exactly one instance, and all instances can sync the same calendar at the same time.
+ */
+@Component
+public class Shard {
+
+  private final int count;
+  private final int index;
+
+  /**
+   * Creates the shard of this instance.
+   *
+   * @param shardConf the configuration of the shard
+   * @throws IllegalArgumentException if the count or the index is out of range
+   */
+  public Shard(ShardConf shardConf) throws IllegalArgumentException {
+    if (shardConf.count() < 1 || shardConf.index() < 0
+        || shardConf.index() >= shardConf.count()) {
+      throw new IllegalArgumentException(
+          "Invalid shard " + shardConf.index() + " of " + shardConf.count() + ".");
+    }
+    this.count = shardConf.count();
+    this.index = shardConf.index();
+  }
+
+  public boolean isSharded() {
+    return count > 1;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Resolves the state directory of this instance: each shard keeps its state in its own
+   * subdirectory.
+   *
+   * @param stateDir the state directory of the configuration
+   * @return the state directory of this instance
+   */
+  public Path resolveStateDir(Path stateDir) {
+    return isSharded() ? stateDir.resolve("shard-" + index + "-of-" + count) : stateDir;
+  }
+
+  /**
+   * Checks if this instance owns the specified identifier.
+   */
+  public boolean owns(String identifier) {
+    return count == 1 || shardOf(identifier, count) == index;
+  }
+
+  /**
+   * Checks if this instance owns the resource at the specified path, see
+   * {@link CalUtil#extractEventId(String)}.
+   */
+  public boolean ownsPath(String path) {
+    return count == 1 || owns(CalUtil.extractEventId(path));
+  }
+
+  /**
+   * Computes the shard of an identifier: the range of the hash space its hash falls into.
+   */
+  static int shardOf(String identifier, int count) {
+    long hash = mix(BirthdayDiff.hash(BirthdayDiff.FNV_OFFSET_BASIS, identifier));
+    // the upper 32 bits scaled to the count, can't overflow because count < 2^31
+    return (int) (((hash >>> 32) * count) >>> 32);
+  }
+
+  /**
+   * Spreads the bits of the hash, so the upper bits are uniformly distributed, see the finalizer
+   * of MurmurHash3.
+   */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return (index + 1) + " of " + count;
+  }
+}
@@ -0,0 +1,40 @@
+package codes.thischwa.bcg.service;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Order-independent fingerprint of the resources of a collection, built from their hrefs and
+ * ETags. If any resource has changed, was added or removed, the fingerprint changes. Resources can
+ * be added in any order, so the fingerprint can be built while a listing is streamed.
+ */
+public final class SourceFingerprint {
+
+  private long sum;
+  private long xor;
+  private int count;
+  private boolean complete = true;
+
+  /**
+   * Adds a resource.
+   *
+   * @param href the href of the resource
+   * @param etag the ETag of the resource, if null the fingerprint is incomplete
+   */
+  public void add(String href, @Nullable String etag) {
+    if (etag == null) {
+      complete = false;
+      return;
+    }
+    long hash = BirthdayDiff.hash(BirthdayDiff.hash(BirthdayDiff.FNV_OFFSET_BASIS, href), etag);
+    sum += hash;
+    xor ^= Long.rotateLeft(hash, 31) * 0x9e3779b97f4a7c15L;
+    count++;
+  }
+
+  /**
+   * Returns the fingerprint, or null if a resource had no ETag, so changes can't be detected.
+   */
+  public @Nullable String value() {
+    return complete ? String.format("%d-%016x-%016x", count, sum, xor) : null;
+  }
+}
@@ -0,0 +1,367 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * Computes the {@link ChangeSet} like {@link BirthdayDiff}, but with a bounded heap. The events
+ * and the contacts are buffered up to the spill threshold, then the buffer is sorted by
+ * identifier and written as a run to a temporary file. The changes are computed by a merge-join
+ * of both sides, each read as a sorted stream merged from its runs, so only the changes are kept
+ * in memory.
+ *
+ * <p>Entries with the same identifier keep the order in which they were added, so the result is
+ * the one of {@link BirthdayDiff}. The runs are deleted when the diff is closed. An instance
+ * isn't thread-safe.
+ */
+@Slf4j
+final class SpillingDiff implements Closeable {
+
+  /**
+   * The maximum number of runs merged at once, more runs are merged in several passes.
+   */
+  static final int MAX_MERGE_WIDTH = 64;
+
+  private static final Comparator<String[]> BY_IDENTIFIER = Comparator.comparing(row -> row[0]);
+
+  private final String collectionPath;
+  private final Path spillDir;
+  private final int spillThreshold;
+  private final ToLongFunction<Contact> contentHasher;
+  private final Side events = new Side("E");
+  private final Side contacts = new Side("C");
+  @Nullable
+  private Path runDir;
+  private int runCount;
+
+  /**
+   * Creates the diff.
+   *
+   * @param collectionPath the path of the calendar collection, ending with a slash
+   * @param spillDir       the directory in which the directory of the runs is created
+   * @param spillThreshold the number of entries of each side kept in memory, before they are
+   *                       spilled to a run
+   * @param contentHasher  computes the content hash of the event of a contact
+   */
+  SpillingDiff(String collectionPath, Path spillDir, int spillThreshold,
+               ToLongFunction<Contact> contentHasher) {
+    if (spillThreshold < 1) {
+      throw new IllegalArgumentException("The spill threshold must be positive: " + spillThreshold);
+    }
+    this.collectionPath = collectionPath;
+    this.spillDir = spillDir;
+    this.spillThreshold = spillThreshold;
+    this.contentHasher = contentHasher;
+  }
+
+  /**
+   * Adds an existing event, see {@link EventIndex.Builder#add(String, String, int, long)}.
+   */
+  void addEvent(String identifier, String path, int epochDay, long contentHash)
+      throws IOException {
+    String storedPath = path.equals(EventIndex.eventPath(collectionPath, identifier)) ? null : path;
+    events.add(new String[] {identifier, storedPath, String.valueOf(epochDay),
+        String.valueOf(contentHash)});
+  }
+
+  /**
+   * Adds a contact with birthday. The content hash of its event is computed right away.
+   *
+   * @throws IllegalArgumentException if the contact has no identifier or no birthday
+   */
+  void addContact(Contact contact) throws IOException {
+    if (contact.identifier() == null || contact.birthday() == null) {
+      throw new IllegalArgumentException(
+          "Contact identifier and birthday must not be null: " + contact.getFullName());
+    }
+    String[] contactFields = SyncJournal.contactFields(contact);
+    String[] row = Arrays.copyOf(contactFields, contactFields.length + 2);
+    row[contactFields.length] = String.valueOf(BirthdayDiff.toEpochDay(contact.birthday()));
+    row[contactFields.length + 1] = String.valueOf(contentHasher.applyAsLong(contact));
+    contacts.add(row);
+  }
+
+  /**
+   * Returns the number of added events.
+   */
+  int getEventCount() {
+    return events.count;
+  }
+
+  /**
+   * Returns the number of added contacts.
+   */
+  int getContactCount() {
+    return contacts.count;
+  }
+
+  /**
+   * Computes the changes of the added events and contacts, see
+   * {@link BirthdayDiff#diff(EventIndex, List, ToLongFunction)}.
+   */
+  ChangeSet diff() throws IOException {
+    List<Contact> creates = new ArrayList<>();
+    List<ChangeSet.Update> updates = new ArrayList<>();
+    List<String> deletes = new ArrayList<>();
+    int unchanged = 0;
+    try (Rows eventRows = events.open(); Rows contactRows = contacts.open()) {
+      String[] event = eventRows.next();
+      String[] contact = contactRows.next();
+      String previousIdentifier = null;
+      while (event != null || contact != null) {
+        if (contact != null && contact[0].equals(previousIdentifier)) {
+          log.warn("Ignored contact with duplicate identifier: {}", contact[0]);
+          contact = contactRows.next();
+          continue;
+        }
+        int cmp = event == null ? 1
+            : contact == null ? -1
+            : event[0].compareTo(contact[0]);
+        if (cmp < 0) {
+          deletes.add(eventPath(event));
+          event = eventRows.next();
+        } else if (cmp > 0) {
+          creates.add(SyncJournal.toContact(contact, 0));
+          previousIdentifier = contact[0];
+          contact = contactRows.next();
+        } else {
+          int hashIndex = contact.length - 1;
+          if (!event[2].equals(contact[hashIndex - 1]) || !event[3].equals(contact[hashIndex])) {
+            updates.add(new ChangeSet.Update(SyncJournal.toContact(contact, 0), eventPath(event)));
+          } else {
+            unchanged++;
+          }
+          previousIdentifier = contact[0];
+          contact = contactRows.next();
+          String identifier = event[0];
+          event = eventRows.next();
+          while (event != null && event[0].equals(identifier)) {
+            deletes.add(eventPath(event));
+            event = eventRows.next();
+          }
+        }
+      }
+    }
+    return new ChangeSet(creates, updates, deletes, unchanged);
+  }
+
+  private String eventPath(String[] event) {
+    return event[1] != null ? event[1] : EventIndex.eventPath(collectionPath, event[0]);
+  }
+
+  /**
+   * Deletes the runs.
+   */
+  @Override
+  public void close() throws IOException {
+    if (runDir == null) {
+      return;
+    }
+    try (var files = Files.list(runDir)) {
+      for (Path file : files.toList()) {
+        Files.deleteIfExists(file);
+      }
+    }
+    Files.deleteIfExists(runDir);
+    runDir = null;
+  }
+
+  private Path newRunFile() throws IOException {
+    if (runDir == null) {
+      Files.createDirectories(spillDir);
+      runDir = Files.createTempDirectory(spillDir, "diff-");
+      log.info("The diff exceeds {} entries, sorted runs are spilled to {}", spillThreshold,
+          runDir);
+    }
+    return runDir.resolve("run-" + runCount++);
+  }
+
+  /**
+   * The entries of one side of the diff: the buffer and the runs spilled so far.
+   */
+  private final class Side {
+
+    private final String type;
+    private final List<String[]> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private int count;
+
+    private Side(String type) {
+      this.type = type;
+    }
+
+    void add(String[] row) throws IOException {
+      buffer.add(row);
+      count++;
+      if (buffer.size() >= spillThreshold) {
+        spill();
+      }
+    }
+
+    private void spill() throws IOException {
+      // the sort is stable, so entries with the same identifier keep their order
+      buffer.sort(BY_IDENTIFIER);
+      Path run = newRunFile();
+      try (BufferedWriter out = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+        for (String[] row : buffer) {
+          SyncJournal.writeLine(out, type, row);
+        }
+      }
+      log.debug("Spilled a run of {} entries to {}", buffer.size(), run);
+      buffer.clear();
+      runs.add(run);
+    }
+
+    /**
+     * Opens the sorted stream of the entries. Without runs, the buffer is sorted in memory.
+     */
+    Rows open() throws IOException {
+      if (runs.isEmpty()) {
+        buffer.sort(BY_IDENTIFIER);
+        return new BufferRows(buffer);
+      }
+      if (!buffer.isEmpty()) {
+        spill();
+      }
+      while (runs.size() > MAX_MERGE_WIDTH) {
+        List<Path> merged = new ArrayList<>(runs.subList(0, MAX_MERGE_WIDTH));
+        runs.subList(0, MAX_MERGE_WIDTH).clear();
+        Path run = newRunFile();
+        try (Rows rows = new MergedRows(merged);
+             BufferedWriter out = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+          for (String[] row = rows.next(); row != null; row = rows.next()) {
+            SyncJournal.writeLine(out, type, row);
+          }
+        }
+        for (Path file : merged) {
+          Files.delete(file);
+        }
+        // the merged runs hold the earliest entries, so the new run goes first
+        runs.add(0, run);
+      }
+      return new MergedRows(runs);
+    }
+  }
+
+  /**
+   * A stream of entries sorted by identifier.
+   */
+  private interface Rows extends Closeable {
+
+    /**
+     * Returns the next entry, or null if there is none.
+     */
+    @Nullable
+    String[] next() throws IOException;
+  }
+
+  private static final class BufferRows implements Rows {
+
+    private final List<String[]> rows;
+    private int index;
+
+    private BufferRows(List<String[]> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public String[] next() {
+      return index < rows.size() ? rows.get(index++) : null;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * Merges sorted runs. On equal identifiers, the entry of the earlier run comes first.
+   */
+  private static final class MergedRows implements Rows {
+
+    private final List<RunCursor> cursors = new ArrayList<>();
+    private final PriorityQueue<RunCursor> queue = new PriorityQueue<>(
+        Comparator.comparing((RunCursor cursor) -> cursor.row[0])
+            .thenComparingInt(cursor -> cursor.order));
+
+    private MergedRows(List<Path> runs) throws IOException {
+      try {
+        for (Path run : runs) {
+          RunCursor cursor = new RunCursor(cursors.size(),
+              Files.newBufferedReader(run, StandardCharsets.UTF_8));
+          cursors.add(cursor);
+          if (cursor.advance()) {
+            queue.add(cursor);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public String[] next() throws IOException {
+      RunCursor cursor = queue.poll();
+      if (cursor == null) {
+        return null;
+      }
+      String[] row = cursor.row;
+      if (cursor.advance()) {
+        queue.add(cursor);
+      }
+      return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOException failure = null;
+      for (RunCursor cursor : cursors) {
+        try {
+          cursor.in.close();
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private static final class RunCursor {
+
+    private final int order;
+    private final BufferedReader in;
+    private String[] row;
+
+    private RunCursor(int order, BufferedReader in) {
+      this.order = order;
+      this.in = in;
+    }
+
+    boolean advance() throws IOException {
+      String line = in.readLine();
+      if (line == null) {
+        return false;
+      }
+      String[] fields = SyncJournal.splitLine(line);
+      row = Arrays.copyOfRange(fields, 1, fields.length);
+      return true;
+    }
+  }
+}
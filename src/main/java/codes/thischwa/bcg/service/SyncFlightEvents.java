@@ -0,0 +1,175 @@
+package codes.thischwa.bcg.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events of the sync path. They cost next to nothing as long as no
+ * recording is running, so they're always emitted. A recording of a run can be started with the
+ * command-line option {@code --profile}, see {@link SyncProfiler}.
+ *
+ * <p>The events are committed by the thread doing the work, so a recording correlates them with
+ * the GC, allocation and I/O events of the same thread and time.
+ */
+final class SyncFlightEvents {
+
+  private static final String CATEGORY = "BirthdayCalendarGenerator";
+
+  static final String OUTCOME_OK = "ok";
+  static final String OUTCOME_FAILED = "failed";
+
+  private SyncFlightEvents() {
+  }
+
+  /**
+   * A sync run with its counts. Its phases are recorded as {@link SyncPhase} events within the
+   * time span of the run.
+   */
+  @Name("bcg.SyncRun")
+  @Label("Sync Run")
+  @Category(CATEGORY)
+  @Description("A run syncing the birthday events with the contacts")
+  @StackTrace(false)
+  static final class SyncRun extends Event {
+
+    @Label("Resumed")
+    @Description("Whether the run resumed an interrupted run from its journal")
+    boolean resumed;
+
+    @Label("Outcome")
+    @Description("complete, partial or failed")
+    String outcome;
+
+    @Label("Applied")
+    int applied;
+
+    @Label("Recovered")
+    @Description("The changes applied only after a retry")
+    int recovered;
+
+    @Label("Dead-Lettered")
+    int deadLettered;
+
+    @Label("Carried Over")
+    @Description("The changes left for the next run because the time budget was exhausted")
+    int carriedOver;
+
+    @Label("Unchanged")
+    int unchanged;
+  }
+
+  /**
+   * A phase of a sync run, e.g. reading the collections, the diff or writing the changes.
+   */
+  @Name("bcg.SyncPhase")
+  @Label("Sync Phase")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class SyncPhase extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Items")
+    @Description("The number of items the phase has processed, e.g. contacts or changes")
+    int items;
+
+    SyncPhase(String phase) {
+      this.phase = phase;
+    }
+  }
+
+  /**
+   * The fetch of a vCard, or of a batch of vCards by an {@code addressbook-multiget} REPORT, whose
+   * href is the one of the address book.
+   */
+  @Name("bcg.ContactFetch")
+  @Label("Contact Fetch")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class ContactFetch extends Event {
+
+    @Label("Href")
+    String href;
+
+    @Label("vCards")
+    int count;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    String outcome;
+  }
+
+  /**
+   * The parse of a vCard. Its duration is the parse time.
+   */
+  @Name("bcg.ContactParse")
+  @Label("Contact Parse")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class ContactParse extends Event {
+
+    @Label("Href")
+    String href;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    @Description("ok, or invalid if the vCard was skipped, e.g. because it has no birthday")
+    String outcome;
+  }
+
+  /**
+   * The upload or delete of a birthday event.
+   */
+  @Name("bcg.EventWrite")
+  @Label("Event Write")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class EventWrite extends Event {
+
+    @Label("Operation")
+    @Description("put, create or delete")
+    String operation;
+
+    @Label("Href")
+    String href;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    @Description("ok, not-found if the event to delete didn't exist, or failed")
+    String outcome;
+  }
+
+  /**
+   * A check whether the DAV server is reachable, including its retries.
+   */
+  @Name("bcg.ConnectivityCheck")
+  @Label("Connectivity Check")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class ConnectivityCheck extends Event {
+
+    @Label("URL")
+    String url;
+
+    @Label("Attempts")
+    int attempts;
+
+    @Label("Reachable")
+    boolean reachable;
+  }
+}
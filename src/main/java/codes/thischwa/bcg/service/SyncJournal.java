@@ -0,0 +1,436 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.SyncConf;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Durable work journal of the sync runs. Before the changes of a run are applied, the planned
+ * {@link ChangeSet} is written to the state directory, and each item is marked as soon as it has
+ * finished. If a run is interrupted, the next run can resume with the remaining items without
+ * recomputing the diff, as long as the fingerprint of the contacts is unchanged.
+ *
+ * <p>The journal consists of two files: the plan, which is written atomically, and an append-only
+ * file with the positions of the finished items. The marks are passed to the OS immediately and
+ * forced to the disk periodically. A mark lost by a crash only leads to an item being repeated,
+ * which is harmless because PUT and DELETE are idempotent.
+ *
+ * <p>In the same format, the dead-letter list is kept: the changes which failed permanently in a
+ * run. They're retried first by the next run.
+ */
+@Component
+@Slf4j
+public class SyncJournal {
+
+  static final String PLAN_FILE = "journal.plan";
+  static final String DONE_FILE = "journal.done";
+  static final String DEAD_LETTER_FILE = "dead-letters";
+
+  private static final String HEADER = "# bcg sync journal v1";
+  private static final int FORCE_INTERVAL = 100;
+  private static final ChangeSet EMPTY = new ChangeSet(List.of(), List.of(), List.of(), 0);
+
+  private final Path stateDir;
+  private final DavConf davConf;
+
+  /**
+   * Creates the journal.
+   *
+   * @param syncConf the configuration containing the state directory
+   * @param davConf  the configuration of the collections, a journal of other collections is ignored
+   * @param shard    the shard of this instance, each shard has its own journal
+   */
+  public SyncJournal(SyncConf syncConf, DavConf davConf, Shard shard) {
+    this.stateDir = shard.resolveStateDir(syncConf.getStateDirPath());
+    this.davConf = davConf;
+  }
+
+  /**
+   * Loads the journal of an interrupted run.
+   *
+   * @return the checkpoint of the interrupted run, or empty if there is none or it's unreadable
+   */
+  public Optional<Checkpoint> loadPending() {
+    Path planFile = stateDir.resolve(PLAN_FILE);
+    if (!Files.exists(planFile)) {
+      return Optional.empty();
+    }
+    try {
+      Plan plan = readPlan(planFile);
+      if (plan.sourceFingerprint() == null) {
+        throw new IllegalArgumentException("Missing journal field: source");
+      }
+      if (!isOfCollections(plan)) {
+        log.info("Discarded the journal of an interrupted run with other collections.");
+        discard();
+        return Optional.empty();
+      }
+      BitSet done = readDone(stateDir.resolve(DONE_FILE));
+      return Optional.of(new Checkpoint(plan.sourceFingerprint(), plan.changes(), done,
+          openDoneChannel(false)));
+    } catch (IOException | RuntimeException e) {
+      log.warn("Discarded the unreadable journal of an interrupted run: {}", e.getMessage());
+      discard();
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Writes the plan of a new run. If there is nothing to do or the fingerprint of the contacts is
+   * unknown, or the journal can't be written, the run isn't journaled.
+   *
+   * @param sourceFingerprint the fingerprint of the contacts the changes are based on
+   * @param changes           the planned changes
+   * @return the checkpoint of the run
+   */
+  public Checkpoint begin(@Nullable String sourceFingerprint, ChangeSet changes) {
+    if (sourceFingerprint == null || changes.isEmpty()) {
+      return Checkpoint.untracked(changes);
+    }
+    try {
+      Files.createDirectories(stateDir);
+      Files.deleteIfExists(stateDir.resolve(DONE_FILE));
+      writePlan(PLAN_FILE, new Plan(sourceFingerprint, davConf.calUrl(), davConf.cardUrl(),
+          changes));
+      return new Checkpoint(sourceFingerprint, changes, new BitSet(), openDoneChannel(true));
+    } catch (IOException e) {
+      log.warn("Couldn't write the journal to {}, the run can't be resumed: {}", stateDir,
+          e.getMessage());
+      return Checkpoint.untracked(changes);
+    }
+  }
+
+  /**
+   * Deletes the journal.
+   */
+  public void discard() {
+    try {
+      Files.deleteIfExists(stateDir.resolve(PLAN_FILE));
+      Files.deleteIfExists(stateDir.resolve(DONE_FILE));
+    } catch (IOException e) {
+      log.warn("Couldn't delete the journal in {}: {}", stateDir, e.getMessage());
+    }
+  }
+
+  /**
+   * Loads the dead-letter list, the changes which failed permanently in the previous runs.
+   *
+   * @return the dead letters, empty if there are none or they're unreadable
+   */
+  public ChangeSet loadDeadLetters() {
+    Path deadLetterFile = stateDir.resolve(DEAD_LETTER_FILE);
+    if (!Files.exists(deadLetterFile)) {
+      return EMPTY;
+    }
+    try {
+      Plan plan = readPlan(deadLetterFile);
+      if (isOfCollections(plan)) {
+        return plan.changes();
+      }
+      log.info("Ignored the dead-letter list of other collections.");
+    } catch (IOException | RuntimeException e) {
+      log.warn("Ignored the unreadable dead-letter list: {}", e.getMessage());
+    }
+    return EMPTY;
+  }
+
+  /**
+   * Replaces the dead-letter list. If there are no dead letters, the list is deleted.
+   *
+   * @param deadLetters the changes which failed permanently
+   */
+  public void saveDeadLetters(ChangeSet deadLetters) {
+    try {
+      if (deadLetters.isEmpty()) {
+        Files.deleteIfExists(stateDir.resolve(DEAD_LETTER_FILE));
+        return;
+      }
+      Files.createDirectories(stateDir);
+      writePlan(DEAD_LETTER_FILE, new Plan(null, davConf.calUrl(), davConf.cardUrl(),
+          deadLetters));
+    } catch (IOException e) {
+      log.warn("Couldn't write the dead-letter list to {}: {}", stateDir, e.getMessage());
+    }
+  }
+
+  private boolean isOfCollections(Plan plan) {
+    return davConf.calUrl().equals(plan.calUrl()) && davConf.cardUrl().equals(plan.cardUrl());
+  }
+
+  private FileChannel openDoneChannel(boolean truncate) throws IOException {
+    return truncate
+        ? FileChannel.open(stateDir.resolve(DONE_FILE), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+        : FileChannel.open(stateDir.resolve(DONE_FILE), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private void writePlan(String fileName, Plan plan) throws IOException {
+    Path tmpFile = stateDir.resolve(fileName + ".tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+      out.write(HEADER);
+      out.newLine();
+      if (plan.sourceFingerprint() != null) {
+        writeLine(out, "source", plan.sourceFingerprint());
+      }
+      writeLine(out, "cal", plan.calUrl());
+      writeLine(out, "card", plan.cardUrl());
+      ChangeSet changes = plan.changes();
+      for (String path : changes.deletes()) {
+        writeLine(out, "D", path);
+      }
+      for (ChangeSet.Update update : changes.updates()) {
+        String[] contactFields = contactFields(update.contact());
+        String[] fields = new String[contactFields.length + 1];
+        fields[0] = update.existingPath();
+        System.arraycopy(contactFields, 0, fields, 1, contactFields.length);
+        writeLine(out, "U", fields);
+      }
+      for (Contact contact : changes.creates()) {
+        writeLine(out, "C", contactFields(contact));
+      }
+    }
+    try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+    Files.move(tmpFile, stateDir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static Plan readPlan(Path planFile) throws IOException {
+    try (BufferedReader in = Files.newBufferedReader(planFile, StandardCharsets.UTF_8)) {
+      if (!HEADER.equals(in.readLine())) {
+        throw new IllegalArgumentException("Unknown journal format.");
+      }
+      String sourceFingerprint = null;
+      String calUrl = null;
+      String cardUrl = null;
+      List<String> deletes = new ArrayList<>();
+      List<ChangeSet.Update> updates = new ArrayList<>();
+      List<Contact> creates = new ArrayList<>();
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = splitLine(line);
+        switch (fields[0]) {
+          case "source" -> sourceFingerprint = fields[1];
+          case "cal" -> calUrl = fields[1];
+          case "card" -> cardUrl = fields[1];
+          case "D" -> deletes.add(fields[1]);
+          case "U" -> updates.add(new ChangeSet.Update(toContact(fields, 2), fields[1]));
+          case "C" -> creates.add(toContact(fields, 1));
+          default -> throw new IllegalArgumentException("Unknown journal item: " + fields[0]);
+        }
+      }
+      if (calUrl == null || cardUrl == null) {
+        throw new IllegalArgumentException("Missing journal field: cal or card");
+      }
+      return new Plan(sourceFingerprint, calUrl, cardUrl,
+          new ChangeSet(creates, updates, deletes, 0));
+    }
+  }
+
+  private static BitSet readDone(Path doneFile) throws IOException {
+    BitSet done = new BitSet();
+    if (!Files.exists(doneFile)) {
+      return done;
+    }
+    String marks = Files.readString(doneFile, StandardCharsets.US_ASCII);
+    // only terminated marks count, a torn last line of a crash could be the prefix of another
+    // number, the item is repeated
+    int end = marks.lastIndexOf('\n');
+    for (String line : marks.substring(0, end + 1).split("\n")) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      try {
+        done.set(Integer.parseInt(line));
+      } catch (NumberFormatException e) {
+        log.debug("Ignored invalid journal mark: {}", line);
+      }
+    }
+    return done;
+  }
+
+  static String[] contactFields(Contact contact) {
+    LocalDate birthday = contact.birthday();
+    return new String[] {contact.identifier(), contact.firstName(), contact.lastName(),
+        contact.displayName(), birthday == null ? null : birthday.toString()};
+  }
+
+  static Contact toContact(String[] fields, int offset) {
+    String birthday = fields[offset + 4];
+    return new Contact(fields[offset + 1], fields[offset + 2], fields[offset + 3],
+        birthday == null ? null : LocalDate.parse(birthday), fields[offset]);
+  }
+
+  static void writeLine(BufferedWriter out, String type, String... values)
+      throws IOException {
+    StringBuilder line = new StringBuilder(type);
+    for (String value : values) {
+      line.append('\t').append(escape(value));
+    }
+    out.write(line.toString());
+    out.newLine();
+  }
+
+  /**
+   * Escapes a value, so it contains neither tabs nor line breaks. Null is written as {@code \0}.
+   */
+  static String escape(@Nullable String value) {
+    if (value == null) {
+      return "\\0";
+    }
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      switch (ch) {
+        case '\\' -> sb.append("\\\\");
+        case '\t' -> sb.append("\\t");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        default -> sb.append(ch);
+      }
+    }
+    return sb.toString();
+  }
+
+  static @Nullable String unescape(String value) {
+    if ("\\0".equals(value)) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      if (ch == '\\' && i + 1 < value.length()) {
+        char next = value.charAt(++i);
+        sb.append(switch (next) {
+          case 't' -> '\t';
+          case 'n' -> '\n';
+          case 'r' -> '\r';
+          default -> next;
+        });
+      } else {
+        sb.append(ch);
+      }
+    }
+    return sb.toString();
+  }
+
+  static String[] splitLine(String line) {
+    String[] fields = line.split("\t", -1);
+    for (int i = 1; i < fields.length; i++) {
+      fields[i] = unescape(fields[i]);
+    }
+    return fields;
+  }
+
+  private record Plan(@Nullable String sourceFingerprint, String calUrl, String cardUrl,
+                      ChangeSet changes) {
+  }
+
+  /**
+   * The progress of a run. The items of the change set are numbered in the order deletes,
+   * updates, creates.
+   */
+  public static final class Checkpoint implements AutoCloseable {
+
+    @Nullable
+    private final String sourceFingerprint;
+    private final ChangeSet changes;
+    private final BitSet done;
+    @Nullable
+    private final FileChannel doneChannel;
+    private int unforced;
+
+    private Checkpoint(@Nullable String sourceFingerprint, ChangeSet changes, BitSet done,
+                       @Nullable FileChannel doneChannel) {
+      this.sourceFingerprint = sourceFingerprint;
+      this.changes = changes;
+      this.done = done;
+      this.doneChannel = doneChannel;
+    }
+
+    static Checkpoint untracked(ChangeSet changes) {
+      return new Checkpoint(null, changes, new BitSet(), null);
+    }
+
+    public @Nullable String getSourceFingerprint() {
+      return sourceFingerprint;
+    }
+
+    public ChangeSet getChanges() {
+      return changes;
+    }
+
+    /**
+     * Returns the number of items which aren't finished yet.
+     */
+    public synchronized int getRemaining() {
+      return changes.creates().size() + changes.updates().size() + changes.deletes().size()
+          - done.cardinality();
+    }
+
+    /**
+     * Checks whether the progress is written to the journal, so the remaining items are resumed
+     * by the next run.
+     */
+    public boolean isTracked() {
+      return doneChannel != null;
+    }
+
+    public synchronized boolean isDone(int index) {
+      return done.get(index);
+    }
+
+    /**
+     * Marks an item as finished. If the mark can't be written, the item is repeated if the run is
+     * resumed.
+     *
+     * @param index the number of the item
+     */
+    public synchronized void markDone(int index) {
+      done.set(index);
+      if (doneChannel == null) {
+        return;
+      }
+      try {
+        doneChannel.write(ByteBuffer.wrap((index + "\n").getBytes(StandardCharsets.US_ASCII)));
+        if (++unforced >= FORCE_INTERVAL) {
+          doneChannel.force(false);
+          unforced = 0;
+        }
+      } catch (IOException e) {
+        log.warn("Couldn't write the journal mark of item {}: {}", index, e.getMessage());
+      }
+    }
+
+    @Override
+    public synchronized void close() {
+      if (doneChannel != null && doneChannel.isOpen()) {
+        try {
+          doneChannel.close();
+        } catch (IOException e) {
+          log.warn("Couldn't close the journal: {}", e.getMessage());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.conf.DavConf;
+import java.util.Locale;
+
+/**
+ * The strategy of the sync against a server, none of its parts is {@code AUTO}.
+ *
+ * @param calendarListing How the birthday events of the calendar are listed.
+ * @param contactFetch    How the vCards are fetched.
+ * @param eventWrite      How an outdated event is replaced.
+ */
+public record SyncPlan(DavConf.CalendarListing calendarListing,
+                       DavConf.ContactFetch contactFetch, DavConf.EventWrite eventWrite) {
+
+  @Override
+  public String toString() {
+    return "calendar listing: " + name(calendarListing) + ", contact fetch: " + name(contactFetch)
+        + ", event write: " + name(eventWrite);
+  }
+
+  private static String name(Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT).replace('_', '-');
+  }
+}
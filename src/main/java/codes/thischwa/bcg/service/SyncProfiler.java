@@ -0,0 +1,124 @@
+package codes.thischwa.bcg.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records sync runs with the Java Flight Recorder, if the command-line option
+ * {@code --profile[=<directory>]} is given. Each run is recorded with the JDK settings
+ * {@code profile} and the {@link SyncFlightEvents} and written to its own file
+ * {@code bcg-sync-<timestamp>.jfr} in the directory, by default the working directory.
+ */
+@Component
+@Slf4j
+public class SyncProfiler {
+
+  static final String OPTION = "profile";
+
+  private static final DateTimeFormatter FILE_TIMESTAMP =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+  @Nullable
+  private final Path directory;
+
+  /**
+   * Creates the profiler.
+   *
+   * @param args the command-line arguments, which may contain the option {@code --profile}
+   */
+  @Autowired
+  public SyncProfiler(ApplicationArguments args) {
+    this(getDirectory(args));
+  }
+
+  SyncProfiler(@Nullable Path directory) {
+    this.directory = directory;
+  }
+
+  private static @Nullable Path getDirectory(ApplicationArguments args) {
+    if (!args.containsOption(OPTION)) {
+      return null;
+    }
+    List<String> values = args.getOptionValues(OPTION);
+    return values.isEmpty() || values.get(0).isBlank() ? Path.of(".") : Path.of(values.get(0));
+  }
+
+  public boolean isEnabled() {
+    return directory != null;
+  }
+
+  /**
+   * Starts the recording of a run, if profiling is enabled. A recording which can't be started
+   * doesn't prevent the run.
+   *
+   * @return the recording, which writes its file when it's closed
+   */
+  Session start() {
+    if (directory == null) {
+      return Session.NONE;
+    }
+    Path file = directory.resolve(
+        "bcg-sync-" + LocalDateTime.now().format(FILE_TIMESTAMP) + ".jfr");
+    try {
+      Files.createDirectories(directory);
+      Recording recording = new Recording(Configuration.getConfiguration("profile"));
+      recording.setName("bcg-sync");
+      recording.setToDisk(true);
+      recording.setDestination(file);
+      recording.start();
+      log.info("Recording the run with the flight recorder to {}", file);
+      return new Session(recording, file);
+    } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+      log.warn("Couldn't start the flight recording of the run: {}", e.getMessage());
+      return Session.NONE;
+    }
+  }
+
+  /**
+   * The recording of a run.
+   */
+  static final class Session implements AutoCloseable {
+
+    private static final Session NONE = new Session(null, null);
+
+    @Nullable
+    private final Recording recording;
+    @Nullable
+    private final Path file;
+
+    private Session(@Nullable Recording recording, @Nullable Path file) {
+      this.recording = recording;
+      this.file = file;
+    }
+
+    /**
+     * Stops the recording and writes its file.
+     */
+    @Override
+    public void close() {
+      if (recording == null) {
+        return;
+      }
+      try {
+        recording.stop();
+        log.info("Wrote the flight recording of the run to {}", file);
+      } catch (IllegalStateException e) {
+        log.warn("Couldn't write the flight recording of the run: {}", e.getMessage());
+      } finally {
+        recording.close();
+      }
+    }
+  }
+}
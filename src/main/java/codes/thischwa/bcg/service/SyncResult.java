@@ -0,0 +1,37 @@
+package codes.thischwa.bcg.service;
+
+/**
+ * The result of a sync run.
+ *
+ * @param applied      The number of changes applied to the calendar, including the retried ones.
+ * @param recovered    The number of changes applied only after a retry.
+ * @param deadLettered The number of changes which failed permanently and were moved to the
+ *                     dead-letter list, to be retried by the next run.
+ * @param unchanged    The number of events which were up to date.
+ * @param carriedOver  The number of changes which weren't started because the time budget of the
+ *                     run was exhausted, they're carried over to the next run.
+ */
+public record SyncResult(int applied, int recovered, int deadLettered, int unchanged,
+                         int carriedOver) {
+
+  /**
+   * Checks whether all changes were applied. Otherwise, the run succeeded only partially.
+   */
+  public boolean isComplete() {
+    return deadLettered == 0 && carriedOver == 0;
+  }
+
+  /**
+   * Returns the number of changes left for the next run: the dead-lettered and the carried over
+   * ones.
+   */
+  public int getBacklog() {
+    return deadLettered + carriedOver;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d changes applied (%d after retry), %d failed, %d carried over, "
+        + "%d unchanged", applied, recovered, deadLettered, carriedOver, unchanged);
+  }
+}
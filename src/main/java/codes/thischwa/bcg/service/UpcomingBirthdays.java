@@ -0,0 +1,255 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.SyncConf;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.MonthDay;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory day-of-year index of the contacts of the last sync run, which answers the question
+ * "who has a birthday in the next days" without any request to the dav server. The index is
+ * replaced after the contacts of a run have been read, and it's kept in the state directory, so
+ * it's available right after a restart.
+ *
+ * <p>The contacts are sorted by the day of the year of their birthday, counted in a leap year,
+ * and the position of the first contact of each day is kept. So a query looks up each day of the
+ * range directly. A birthday on February 29 is on February 28 in other years.
+ *
+ * <p>The fingerprint of the source the contacts were read from is kept with the index, so a
+ * resumed run can tell whether the index is still up-to-date without reading the contacts.
+ */
+@Component
+@Slf4j
+public class UpcomingBirthdays {
+
+  static final String INDEX_FILE = "upcoming-birthdays";
+
+  /**
+   * The maximum number of days of a query.
+   */
+  public static final int MAX_DAYS = 366;
+
+  private static final String HEADER = "# bcg upcoming birthdays v2";
+  private static final String HEADER_V1 = "# bcg upcoming birthdays v1";
+  private static final int DAYS_OF_LEAP_YEAR = 366;
+  private static final int LEAP_YEAR = 2000;
+  private static final int LEAP_DAY = MonthDay.of(Month.FEBRUARY, 29).atYear(LEAP_YEAR)
+      .getDayOfYear() - 1;
+
+  private final Path stateDir;
+  private volatile Index index;
+  @Nullable
+  private volatile String sourceFingerprint;
+
+  /**
+   * Creates the index and loads the contacts of the last run from the state directory.
+   *
+   * @param syncConf the configuration containing the state directory
+   * @param shard    the shard of this instance, each shard has its own index
+   */
+  @Autowired
+  public UpcomingBirthdays(SyncConf syncConf, Shard shard) {
+    this(shard.resolveStateDir(syncConf.getStateDirPath()));
+  }
+
+  UpcomingBirthdays(Path stateDir) {
+    this.stateDir = stateDir;
+    this.index = Index.of(load());
+  }
+
+  /**
+   * Replaces the index with the specified contacts and saves it to the state directory. Contacts
+   * without birthday are ignored.
+   *
+   * @param contacts          the contacts read by a sync run
+   * @param sourceFingerprint the fingerprint of the source the contacts were read from, null if
+   *                          changes of the source can't be detected
+   */
+  public void update(List<Contact> contacts, @Nullable String sourceFingerprint) {
+    List<Contact> withBirthday = contacts.stream().filter(c -> c.birthday() != null).toList();
+    index = Index.of(withBirthday);
+    this.sourceFingerprint = sourceFingerprint;
+    save(withBirthday, sourceFingerprint);
+  }
+
+  /**
+   * Returns the fingerprint of the source the contacts of the index were read from, null if it's
+   * unknown.
+   */
+  @Nullable
+  public String getSourceFingerprint() {
+    return sourceFingerprint;
+  }
+
+  /**
+   * Returns the number of contacts in the index.
+   */
+  public int size() {
+    return index.contacts().length;
+  }
+
+  /**
+   * Queries the birthdays from the specified day on, ordered by date.
+   *
+   * @param from the first day of the range, usually today
+   * @param days the number of days after the first day, 0 for the first day only
+   * @return the birthdays of the range
+   * @throws IllegalArgumentException if the number of days is negative or greater than
+   *                                  {@value #MAX_DAYS}
+   */
+  public List<UpcomingBirthday> query(LocalDate from, int days) throws IllegalArgumentException {
+    if (days < 0 || days > MAX_DAYS) {
+      throw new IllegalArgumentException("The number of days must be between 0 and " + MAX_DAYS
+          + ": " + days);
+    }
+    Index current = index;
+    List<UpcomingBirthday> result = new ArrayList<>();
+    for (int i = 0; i <= days; i++) {
+      LocalDate date = from.plusDays(i);
+      current.collect(slotOf(date.getMonthValue(), date.getDayOfMonth()), date, result);
+      if (!date.isLeapYear() && date.getMonth() == Month.FEBRUARY
+          && date.getDayOfMonth() == 28) {
+        current.collect(LEAP_DAY, date, result);
+      }
+    }
+    return result;
+  }
+
+  private static int slotOf(int month, int dayOfMonth) {
+    return LocalDate.of(LEAP_YEAR, month, dayOfMonth).getDayOfYear() - 1;
+  }
+
+  private List<Contact> load() {
+    Path indexFile = stateDir.resolve(INDEX_FILE);
+    if (!Files.exists(indexFile)) {
+      return List.of();
+    }
+    try (BufferedReader in = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+      String header = in.readLine();
+      String fingerprint = null;
+      if (HEADER.equals(header)) {
+        String fingerprintLine = in.readLine();
+        if (fingerprintLine == null) {
+          throw new IllegalArgumentException("Missing source fingerprint.");
+        }
+        fingerprint = SyncJournal.unescape(fingerprintLine);
+      } else if (!HEADER_V1.equals(header)) {
+        throw new IllegalArgumentException("Unknown index format.");
+      }
+      List<Contact> contacts = new ArrayList<>();
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+          throw new IllegalArgumentException("Invalid index line: " + line);
+        }
+        for (int i = 0; i < fields.length; i++) {
+          fields[i] = SyncJournal.unescape(fields[i]);
+        }
+        contacts.add(new Contact(fields[1], fields[2], fields[3], LocalDate.parse(fields[4]),
+            fields[0]));
+      }
+      log.debug("Loaded the upcoming birthdays of {} contacts.", contacts.size());
+      sourceFingerprint = fingerprint;
+      return contacts;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Ignored the unreadable index of the upcoming birthdays: {}", e.getMessage());
+      return List.of();
+    }
+  }
+
+  private void save(List<Contact> contacts, @Nullable String sourceFingerprint) {
+    Path tmpFile = stateDir.resolve(INDEX_FILE + ".tmp");
+    try {
+      Files.createDirectories(stateDir);
+      try (BufferedWriter out = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+        out.write(HEADER);
+        out.newLine();
+        out.write(SyncJournal.escape(sourceFingerprint));
+        out.newLine();
+        for (Contact contact : contacts) {
+          out.write(String.join("\t", SyncJournal.escape(contact.identifier()),
+              SyncJournal.escape(contact.firstName()), SyncJournal.escape(contact.lastName()),
+              SyncJournal.escape(contact.displayName()),
+              SyncJournal.escape(String.valueOf(contact.birthday()))));
+          out.newLine();
+        }
+      }
+      try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(tmpFile, stateDir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Couldn't write the index of the upcoming birthdays to {}: {}", stateDir,
+          e.getMessage());
+    }
+  }
+
+  /**
+   * A birthday of a query.
+   *
+   * @param date    the date of the birthday
+   * @param contact the contact
+   */
+  public record UpcomingBirthday(LocalDate date, Contact contact) {
+
+    /**
+     * Returns the age the contact turns on the birthday.
+     */
+    public int getAge() {
+      assert contact.birthday() != null;
+      return date.getYear() - contact.birthday().getYear();
+    }
+  }
+
+  /**
+   * The contacts sorted by the day of the year of their birthday, and the position of the first
+   * contact of each day, the last position is the number of contacts.
+   */
+  private record Index(Contact[] contacts, int[] dayStart) {
+
+    static Index of(List<Contact> contacts) {
+      Contact[] sorted = contacts.toArray(new Contact[0]);
+      Arrays.sort(sorted, Comparator.comparingInt(Index::slotOfBirthday));
+      int[] dayStart = new int[DAYS_OF_LEAP_YEAR + 1];
+      int position = 0;
+      for (int slot = 0; slot <= DAYS_OF_LEAP_YEAR; slot++) {
+        while (position < sorted.length && slotOfBirthday(sorted[position]) < slot) {
+          position++;
+        }
+        dayStart[slot] = position;
+      }
+      return new Index(sorted, dayStart);
+    }
+
+    private static int slotOfBirthday(Contact contact) {
+      assert contact.birthday() != null;
+      return slotOf(contact.birthday().getMonthValue(), contact.birthday().getDayOfMonth());
+    }
+
+    void collect(int slot, LocalDate date, List<UpcomingBirthday> result) {
+      for (int i = dayStart[slot]; i < dayStart[slot + 1]; i++) {
+        result.add(new UpcomingBirthday(date, contacts[i]));
+      }
+    }
+  }
+}
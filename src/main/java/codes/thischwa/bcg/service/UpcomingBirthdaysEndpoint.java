@@ -0,0 +1,140 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.conf.UpcomingConf;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * The optional HTTP endpoint of the {@link UpcomingBirthdays}. A {@code GET /upcoming?days=<n>}
+ * answers the birthdays of today and the next n days as JSON array, ordered by date, from the
+ * in-memory index only. The endpoint is started if {@link UpcomingConf#httpPort()} isn't -1, the
+ * application itself stays a non-web application.
+ */
+@Component
+@Slf4j
+public class UpcomingBirthdaysEndpoint {
+
+  static final String PATH = "/upcoming";
+
+  private final UpcomingConf conf;
+  private final UpcomingBirthdays upcomingBirthdays;
+  private final ObjectMapper objectMapper;
+  @Nullable
+  private HttpServer server;
+
+  /**
+   * Creates the endpoint.
+   *
+   * @param conf              the configuration of the endpoint
+   * @param upcomingBirthdays the index of the birthdays
+   * @param objectMapper      the mapper writing the JSON responses
+   */
+  public UpcomingBirthdaysEndpoint(UpcomingConf conf, UpcomingBirthdays upcomingBirthdays,
+                                   ObjectMapper objectMapper) {
+    this.conf = conf;
+    this.upcomingBirthdays = upcomingBirthdays;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Starts the endpoint, if it's enabled.
+   *
+   * @throws IOException if the server can't be bound
+   */
+  @PostConstruct
+  public synchronized void start() throws IOException {
+    if (!conf.isHttpEnabled() || server != null) {
+      return;
+    }
+    server = HttpServer.create(new InetSocketAddress(conf.httpAddress(), conf.httpPort()), 0);
+    server.createContext(PATH, this::handle);
+    server.start();
+    log.info("Serving the upcoming birthdays at http://{}:{}{}", conf.httpAddress(),
+        getPort(), PATH);
+  }
+
+  /**
+   * Returns the port the endpoint is bound to, or -1 if it isn't started.
+   */
+  public synchronized int getPort() {
+    return server == null ? -1 : server.getAddress().getPort();
+  }
+
+  @PreDestroy
+  public synchronized void close() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().add("Allow", "GET");
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      if (!PATH.equals(exchange.getRequestURI().getPath())) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      List<UpcomingBirthdays.UpcomingBirthday> birthdays;
+      try {
+        birthdays = upcomingBirthdays.query(LocalDate.now(),
+            getDays(exchange.getRequestURI().getRawQuery()));
+      } catch (IllegalArgumentException e) {
+        send(exchange, 400, "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      List<Birthday> body = birthdays.stream()
+          .map(b -> new Birthday(b.date().toString(), b.getAge(), b.contact().getFullName(),
+              b.contact().displayName(), b.contact().identifier()))
+          .toList();
+      send(exchange, 200, "application/json", objectMapper.writeValueAsBytes(body));
+    }
+  }
+
+  private int getDays(@Nullable String query) throws IllegalArgumentException {
+    if (query != null) {
+      for (String parameter : query.split("&")) {
+        if (parameter.startsWith("days=")) {
+          try {
+            return Integer.parseInt(parameter.substring("days=".length()));
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number of days: " + parameter);
+          }
+        }
+      }
+    }
+    return conf.defaultDays();
+  }
+
+  private static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+      throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", contentType + "; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /**
+   * A birthday of the JSON response.
+   */
+  record Birthday(String date, int age, String name, String displayName,
+                  @Nullable String identifier) {
+  }
+}
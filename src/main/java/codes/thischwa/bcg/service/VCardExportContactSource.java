@@ -0,0 +1,270 @@
+package codes.thischwa.bcg.service;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.PipelineConf;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.PropertyList;
+import net.fortuna.ical4j.vcard.VCard;
+import org.springframework.lang.Nullable;
+
+/**
+ * A {@link ContactSource} which reads a single vCard file containing all contacts, e.g. the
+ * export of an address book with thousands of {@code BEGIN:VCARD} blocks.
+ *
+ * <p>The file is memory-mapped and split into chunks of {@value #CHUNK_SIZE} bytes. Each chunk is
+ * scanned for the vCards starting in it and they're parsed by the parse stage of the pipeline, so
+ * the chunks are split and parsed in parallel. A vCard which crosses the end of its chunk is read
+ * by the chunk it starts in. The content isn't loaded into the heap, only each vCard is copied
+ * while it's parsed.
+ *
+ * <p>A contact is identified by the UID of its vCard. A vCard without UID is identified by a hash
+ * of its name and birthday, so its identifier is stable as long as they're unchanged. The
+ * fingerprint is built from the size and the modification time of the file.
+ */
+@Slf4j
+final class VCardExportContactSource implements ContactSource {
+
+  /**
+   * The number of bytes of a chunk.
+   */
+  static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * The maximum number of bytes of a vCard. A vCard starting in a chunk must end within this
+   * number of bytes after the end of the chunk.
+   */
+  static final int MAX_VCARD_SIZE = 64 * 1024 * 1024;
+
+  private static final byte[] BEGIN_VCARD = "BEGIN:VCARD".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] END_VCARD = "END:VCARD".getBytes(StandardCharsets.US_ASCII);
+  private static final String UID_URN_PREFIX = "urn:uuid:";
+
+  private final Path file;
+  private final int chunkSize;
+  private final Shard shard;
+  private final PipelineConf pipelineConf;
+  private final ObservationRegistry observationRegistry;
+
+  /**
+   * Creates a source of the contacts of a vCard file.
+   *
+   * @param file                the vCard file
+   * @param shard               the shard of this instance, only its contacts are read
+   * @param pipelineConf        the configuration of the stages reading the contacts
+   * @param observationRegistry the registry used to observe the reading of the contacts
+   */
+  VCardExportContactSource(Path file, Shard shard, PipelineConf pipelineConf,
+                           ObservationRegistry observationRegistry) {
+    this(file, CHUNK_SIZE, shard, pipelineConf, observationRegistry);
+  }
+
+  VCardExportContactSource(Path file, int chunkSize, Shard shard, PipelineConf pipelineConf,
+                           ObservationRegistry observationRegistry) {
+    this.file = file;
+    this.chunkSize = chunkSize;
+    this.shard = shard;
+    this.pipelineConf = pipelineConf;
+    this.observationRegistry = observationRegistry;
+  }
+
+  @Override
+  public Supplier<List<Contact>> readContactsWithBirthday(Pipeline pipeline,
+                                                          SourceFingerprint fingerprint)
+      throws IllegalArgumentException {
+    String version = fileVersion();
+    fingerprint.add(file.getFileName().toString(), version);
+    Observation observation = Observation.createNotStarted("bcg.card.read", observationRegistry)
+        .contextualName("readContactsWithBirthday")
+        .start();
+    AtomicInteger vcardCount = new AtomicInteger();
+    List<Contact> contacts = new ArrayList<>();
+    pipeline.<Chunk>source("card-map", observation, emitter -> {
+          try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long start = 0; start < size; start += chunkSize) {
+              // the mapping starts a byte early, so a vCard at the start of the chunk is found
+              long base = Math.max(0, start - 1);
+              long end = Math.min(size, start + chunkSize);
+              long limit = Math.min(size, end + MAX_VCARD_SIZE);
+              emitter.accept(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, base,
+                  limit - base), base, start, end));
+            }
+          }
+        })
+        .map("card-parse", pipelineConf.parseThreads(), chunk -> parseChunk(chunk, vcardCount))
+        .sink("card-collect", new Pipeline.Sink<>() {
+          @Override
+          public void accept(List<Contact> batch) {
+            contacts.addAll(batch);
+          }
+
+          @Override
+          public void complete() {
+            log.info("Contacts found in {}: {}, with birthday: {}", file, vcardCount.get(),
+                contacts.size());
+            observation.highCardinalityKeyValue("bcg.contacts.found",
+                String.valueOf(vcardCount.get()));
+            observation.highCardinalityKeyValue("bcg.contacts.with-birthday",
+                String.valueOf(contacts.size()));
+            observation.stop();
+          }
+
+          @Override
+          public void fail(Throwable cause) {
+            observation.error(cause);
+            observation.stop();
+          }
+        });
+    return () -> contacts;
+  }
+
+  @Override
+  @Nullable
+  public String fingerprintContacts() throws IllegalArgumentException {
+    SourceFingerprint fingerprint = new SourceFingerprint();
+    fingerprint.add(file.getFileName().toString(), fileVersion());
+    return fingerprint.value();
+  }
+
+  private String fileVersion() {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      if (!attributes.isRegularFile()) {
+        throw new IllegalArgumentException("The contact file isn't a regular file: " + file);
+      }
+      return attributes.size() + "-" + attributes.lastModifiedTime().toMillis();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("The contact file can't be read: " + file, e);
+    }
+  }
+
+  /**
+   * Parses the vCards starting in a chunk, in the order of the file.
+   */
+  private List<Contact> parseChunk(Chunk chunk, AtomicInteger vcardCount) {
+    List<Contact> contacts = new ArrayList<>();
+    long position = chunk.start();
+    long begin;
+    while ((begin = indexOfLine(chunk, BEGIN_VCARD, position, chunk.end())) >= 0) {
+      long endLine = indexOfLine(chunk, END_VCARD, begin + BEGIN_VCARD.length, chunk.limit());
+      if (endLine < 0) {
+        throw new IllegalArgumentException("The vCard at offset " + begin + " of " + file
+            + " isn't terminated or exceeds " + MAX_VCARD_SIZE + " bytes.");
+      }
+      long next = endOfLine(chunk, endLine + END_VCARD.length);
+      byte[] content = new byte[(int) (next - begin)];
+      chunk.buffer().get((int) (begin - chunk.base()), content);
+      vcardCount.incrementAndGet();
+      Contact contact = CardHandler.parseContact(file + "#" + begin, content,
+          VCardExportContactSource::identify);
+      if (contact != null && shard.owns(contact.identifier())) {
+        contacts.add(contact);
+      }
+      position = next;
+    }
+    return contacts;
+  }
+
+  /**
+   * Searches a line starting with the specified token, case-insensitive.
+   *
+   * @return the position of the line, or -1 if there's none starting before the end
+   */
+  private static long indexOfLine(Chunk chunk, byte[] token, long from, long end) {
+    MappedByteBuffer buffer = chunk.buffer();
+    long base = chunk.base();
+    long last = Math.min(end, chunk.limit() - token.length + 1);
+    for (long position = from; position < last; position++) {
+      if (position > 0 && buffer.get((int) (position - base - 1)) != '\n') {
+        continue;
+      }
+      if (matches(buffer, (int) (position - base), token)) {
+        long after = position + token.length;
+        if (after == chunk.limit() || isLineBreak(buffer.get((int) (after - base)))) {
+          return position;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static boolean matches(MappedByteBuffer buffer, int index, byte[] token) {
+    for (int i = 0; i < token.length; i++) {
+      byte b = buffer.get(index + i);
+      if (b >= 'a' && b <= 'z') {
+        b -= 'a' - 'A';
+      }
+      if (b != token[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isLineBreak(byte b) {
+    return b == '\r' || b == '\n';
+  }
+
+  /**
+   * Returns the position after the line break following the specified position.
+   */
+  private static long endOfLine(Chunk chunk, long from) {
+    for (long position = from; position < chunk.limit(); position++) {
+      if (chunk.buffer().get((int) (position - chunk.base())) == '\n') {
+        return position + 1;
+      }
+    }
+    return chunk.limit();
+  }
+
+  /**
+   * Determines the identifier of a contact: the UID of its vCard, otherwise a hash of its name and
+   * birthday. The identifier is used as the file name of the event, so characters which aren't
+   * safe in a URL path are replaced.
+   */
+  static String identify(VCard card) {
+    PropertyList properties = card.getEntities().get(0).getPropertyList();
+    String uid = properties.getFirst("UID").map(Property::getValue).orElse(null);
+    if (uid == null || uid.isBlank()) {
+      long hash = BirthdayDiff.hash(BirthdayDiff.hash(BirthdayDiff.FNV_OFFSET_BASIS,
+          properties.getFirst("N").map(Property::getValue).orElse(null)),
+          properties.getFirst("BDAY").map(Property::getValue).orElse(null));
+      return String.format("vcard-%016x", hash);
+    }
+    if (uid.regionMatches(true, 0, UID_URN_PREFIX, 0, UID_URN_PREFIX.length())) {
+      uid = uid.substring(UID_URN_PREFIX.length());
+    }
+    return uid.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  /**
+   * A chunk of the file.
+   *
+   * @param buffer the mapping of the chunk, including the byte before it and the bytes a vCard
+   *               starting in the chunk may extend beyond its end
+   * @param base   the position of the mapping in the file
+   * @param start  the position of the chunk in the file
+   * @param end    the position after the chunk
+   */
+  private record Chunk(MappedByteBuffer buffer, long base, long start, long end) {
+
+    long limit() {
+      return base + buffer.capacity();
+    }
+  }
+}
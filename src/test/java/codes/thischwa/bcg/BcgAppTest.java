@@ -0,0 +1,24 @@
+package codes.thischwa.bcg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import codes.thischwa.bcg.service.UpcomingBirthdays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BcgAppTest {
+
+  @Test
+  void testParseUpcomingDays() {
+    assertEquals(7, BcgApp.parseUpcomingDays(List.of(), 7));
+    assertEquals(7, BcgApp.parseUpcomingDays(List.of(""), 7));
+    assertEquals(14, BcgApp.parseUpcomingDays(List.of("14"), 7));
+    assertEquals(UpcomingBirthdays.MAX_DAYS,
+        BcgApp.parseUpcomingDays(List.of(String.valueOf(UpcomingBirthdays.MAX_DAYS)), 7));
+    assertNull(BcgApp.parseUpcomingDays(List.of("abc"), 7));
+    assertNull(BcgApp.parseUpcomingDays(List.of("400"), 7));
+    assertNull(BcgApp.parseUpcomingDays(List.of("-1"), 7));
+    assertNull(BcgApp.parseUpcomingDays(List.of(), 400), "The default days are checked, too.");
+  }
+}
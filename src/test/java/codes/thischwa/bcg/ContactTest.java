@@ -0,0 +1,30 @@
+package codes.thischwa.bcg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+class ContactTest {
+
+  @Test
+  void testDaysUntilBirthday() {
+    LocalDate today = LocalDate.of(2025, 6, 15);
+    assertEquals(0, contact(LocalDate.of(1990, 6, 15)).daysUntilBirthday(today));
+    assertEquals(1, contact(LocalDate.of(1990, 6, 16)).daysUntilBirthday(today));
+    assertEquals(364, contact(LocalDate.of(1990, 6, 14)).daysUntilBirthday(today));
+    assertEquals(Integer.MAX_VALUE, contact(null).daysUntilBirthday(today));
+  }
+
+  @Test
+  void testDaysUntilBirthdayOnLeapDay() {
+    Contact leapling = contact(LocalDate.of(2000, 2, 29));
+    assertEquals(0, leapling.daysUntilBirthday(LocalDate.of(2025, 2, 28)));
+    assertEquals(365, leapling.daysUntilBirthday(LocalDate.of(2027, 3, 1)));
+    assertEquals(0, leapling.daysUntilBirthday(LocalDate.of(2028, 2, 29)));
+  }
+
+  private static Contact contact(LocalDate birthday) {
+    return new Contact("Jane", "Doe", "Jane Doe", birthday, "jane");
+  }
+}
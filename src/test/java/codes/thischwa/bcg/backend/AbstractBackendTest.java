@@ -10,20 +10,21 @@ import codes.thischwa.bcg.Contact;
 import codes.thischwa.bcg.TestBcgApp;
 import codes.thischwa.bcg.conf.BcgConf;
 import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.service.BcgSardine;
 import codes.thischwa.bcg.service.BirthdayCalGenerator;
 import codes.thischwa.bcg.service.CalUtil;
+import codes.thischwa.bcg.service.DavTransport;
 import codes.thischwa.bcg.service.SardineInitializer;
 import com.github.sardine.DavResource;
 import com.github.sardine.Sardine;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
@@ -57,12 +58,12 @@ public abstract class AbstractBackendTest {
   private final Contact richard = new Contact("Richard", "Smith", "R. Smith", null, "rich0000-0000-0000-0000-000000000000");
 
   void syncAndVerify() throws Exception {
-    Sardine sardine = sardineInitializer.getSardine();
+    BcgSardine sardine = sardineInitializer.getSardine();
 
     // 4) Run sync and verify 2 events
     log.info("Step 4: Running BirthdayCalGenerator.processBirthdayEvents 1st time and verifying 2 events");
     generator.processBirthdayEvents();
-    List<VEvent> eventsAfterFirstSync = listBirthdayEvents(sardine);
+    List<VEvent> eventsAfterFirstSync = listBirthdayEvents();
     assertEquals(2, eventsAfterFirstSync.size(), "Expected exactly 2 birthday events");
     // Test birthdays
     log.info("Verifying birthdays for Jane Doe and John Smith");
@@ -84,7 +85,7 @@ public abstract class AbstractBackendTest {
         janeWithBirthDay.displayName(), janeNewBday, janeWithBirthDay.identifier());
     putVCard(davConf.cardUrl() + janeWithBirthDay.identifier(), buildVCard(janeUpdated));
     generator.processBirthdayEvents();
-    List<VEvent> eventsAfterChange = listBirthdayEvents(sardine);
+    List<VEvent> eventsAfterChange = listBirthdayEvents();
     assertEquals(2, eventsAfterChange.size(), "Expected exactly 2 birthday events");
 
     // Check updated BDay
@@ -97,7 +98,7 @@ public abstract class AbstractBackendTest {
     sardine.delete(davConf.cardUrl() + johnWithBirthday.identifier() + ".vcf");
     generator.processBirthdayEvents();
 
-    List<VEvent> eventsAfterDeletion = listBirthdayEvents(sardine);
+    List<VEvent> eventsAfterDeletion = listBirthdayEvents();
     assertEquals(1, eventsAfterDeletion.size(), "Expected exactly 1 birthday event");
     boolean johnEventStillExists =
         eventsAfterDeletion.stream().anyMatch(e -> e.getSummary().getValue().contains("John"));
@@ -220,9 +221,23 @@ public abstract class AbstractBackendTest {
     }
   }
 
-  private List<VEvent> listBirthdayEvents(Sardine sardine) throws IOException {
-    Map<VEvent, URL> eventUrls = CalUtil.collectBirthdayEvents(sardine, davConf.calUrl());
-    log.debug("Found {} birthday events.", eventUrls.size());
-    return new ArrayList<>(eventUrls.keySet());
+  private List<VEvent> listBirthdayEvents() throws IOException {
+    DavTransport transport = sardineInitializer.getTransport();
+    List<String> paths = new ArrayList<>();
+    transport.list(davConf.calUrl(), davEntry -> {
+      if (!davEntry.directory() && davEntry.hasContentType(CALENDAR_CONTENT_TYPE)) {
+        paths.add(davEntry.href().getPath());
+      }
+    });
+    List<VEvent> events = new ArrayList<>();
+    for (String path : paths) {
+      byte[] content = DavTransport.await(transport.get(davConf.getBaseUrl() + path));
+      VEvent event = CalUtil.parseEvent(new ByteArrayInputStream(content), path);
+      if (event != null) {
+        events.add(event);
+      }
+    }
+    log.debug("Found {} birthday events.", events.size());
+    return events;
   }
 }
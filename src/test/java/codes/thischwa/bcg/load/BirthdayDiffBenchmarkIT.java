@@ -0,0 +1,89 @@
+package codes.thischwa.bcg.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.service.BirthdayDiff;
+import codes.thischwa.bcg.service.ChangeSet;
+import codes.thischwa.bcg.service.EventIndex;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Benchmark of the memory footprint of the {@link EventIndex} and of the time of
+ * {@link BirthdayDiff#diff} for 100k contacts.
+ */
+@Slf4j
+class BirthdayDiffBenchmarkIT {
+
+  private static final int CONTACT_COUNT = 100_000;
+  private static final int ITERATIONS = 10;
+  private static final String CAL_PATH = "/dav/load-user/calendar/";
+  private static final ToLongFunction<Contact> HASHER = contact -> BirthdayDiff.contentHash(
+      BirthdayDiff.toEpochDay(contact.birthday()), contact.displayName(), contact.firstName());
+
+  @Test
+  void benchmark() {
+    List<Contact> contacts = new ContactGenerator(4711L, 0).generate(CONTACT_COUNT);
+
+    long before = usedHeapAfterGc();
+    EventIndex index = buildIndex(contacts);
+    long indexBytes = usedHeapAfterGc() - before;
+
+    // 1% of the contacts have changed, 1% are new and 1% were removed
+    List<Contact> current = new ArrayList<>(contacts.subList(CONTACT_COUNT / 100, CONTACT_COUNT));
+    for (int i = 0; i < CONTACT_COUNT / 100; i++) {
+      Contact contact = current.get(i * 50);
+      LocalDate birthday = contact.birthday();
+      current.set(i * 50, new Contact(contact.firstName(), contact.lastName(),
+          contact.displayName(), birthday == null ? null : birthday.plusDays(1),
+          contact.identifier()));
+    }
+    current.addAll(new ContactGenerator(815L, 0).generate(CONTACT_COUNT + CONTACT_COUNT / 100)
+        .subList(CONTACT_COUNT, CONTACT_COUNT + CONTACT_COUNT / 100));
+
+    long[] times = new long[ITERATIONS];
+    ChangeSet changes = null;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      changes = BirthdayDiff.diff(index, current, HASHER);
+      times[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(times);
+
+    assertEquals(CONTACT_COUNT / 100, changes.creates().size());
+    assertEquals(CONTACT_COUNT / 100, changes.updates().size());
+    assertEquals(CONTACT_COUNT / 100, changes.deletes().size());
+    log.info("*** Diff benchmark: index of {} events retains {} KiB ({} bytes per event), "
+            + "diff median {} ms, min {} ms: {}", index.size(), indexBytes >> 10,
+        indexBytes / index.size(), times[ITERATIONS / 2] / 1_000_000, times[0] / 1_000_000,
+        changes);
+    assertTrue(indexBytes / index.size() < 512,
+        "The index should only retain the identifier and a few primitives per event.");
+  }
+
+  private static EventIndex buildIndex(List<Contact> contacts) {
+    EventIndex.Builder builder = EventIndex.builder(CAL_PATH);
+    for (Contact contact : contacts) {
+      // the identifiers are copied, so the index doesn't share them with the contacts
+      String identifier = new String(contact.identifier().toCharArray());
+      builder.add(identifier, CAL_PATH + identifier + ".ics",
+          BirthdayDiff.toEpochDay(contact.birthday()), HASHER.applyAsLong(contact));
+    }
+    return builder.build();
+  }
+
+  private static long usedHeapAfterGc() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
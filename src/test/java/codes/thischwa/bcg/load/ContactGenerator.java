@@ -0,0 +1,74 @@
+package codes.thischwa.bcg.load;
+
+import codes.thischwa.bcg.Contact;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates reproducible synthetic contacts and their vCards. The same seed always produces the
+ * same contacts, so runs of a load test can be compared with each other.
+ */
+public class ContactGenerator {
+
+  private static final String[] FIRST_NAMES = {"Jane", "John", "Richard", "Anna", "Lena", "Paul",
+      "Sophie", "Max", "Emma", "Noah", "Mia", "Ben", "Lea", "Jonas", "Clara", "Felix"};
+  private static final String[] LAST_NAMES = {"Doe", "Smith", "Miller", "Schmidt", "Meyer",
+      "Fischer", "Weber", "Wagner", "Becker", "Hoffmann", "Schulz", "Koch", "Richter", "Wolf"};
+  private static final LocalDate EARLIEST_BIRTHDAY = LocalDate.of(1930, 1, 1);
+  private static final int BIRTHDAY_RANGE_DAYS = 80 * 365;
+
+  private final Random random;
+  private final double withoutBirthdayRatio;
+
+  /**
+   * Creates a new generator.
+   *
+   * @param seed                 the seed of the random generator
+   * @param withoutBirthdayRatio the ratio of contacts without a birthday, between 0 and 1
+   */
+  public ContactGenerator(long seed, double withoutBirthdayRatio) {
+    this.random = new Random(seed);
+    this.withoutBirthdayRatio = withoutBirthdayRatio;
+  }
+
+  /**
+   * Generates the specified number of contacts. Their identifiers are name based UUIDs of the
+   * running number, so they are stable across generators with different seeds.
+   */
+  public List<Contact> generate(int count) {
+    List<Contact> contacts = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+      String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)] + "-" + i;
+      LocalDate birthday = random.nextDouble() < withoutBirthdayRatio ? null
+          : EARLIEST_BIRTHDAY.plusDays(random.nextInt(BIRTHDAY_RANGE_DAYS));
+      String identifier = UUID.nameUUIDFromBytes(("contact-" + i).getBytes()).toString();
+      contacts.add(new Contact(firstName, lastName, firstName.charAt(0) + ". " + lastName,
+          birthday, identifier));
+    }
+    return contacts;
+  }
+
+  /**
+   * Builds the vCard 4.0 representation of a contact.
+   */
+  public static String toVCard(Contact contact) {
+    StringBuilder sb = new StringBuilder(256);
+    sb.append("BEGIN:VCARD\r\n");
+    sb.append("VERSION:4.0\r\n");
+    sb.append("UID:").append(contact.identifier()).append("\r\n");
+    sb.append("N:").append(contact.lastName()).append(';').append(contact.firstName())
+        .append(";;;\r\n");
+    sb.append("FN:").append(contact.displayName()).append("\r\n");
+    LocalDate bday = contact.birthday();
+    if (bday != null) {
+      sb.append("BDAY:").append(String.format("%04d%02d%02d", bday.getYear(),
+          bday.getMonthValue(), bday.getDayOfMonth())).append("\r\n");
+    }
+    sb.append("END:VCARD\r\n");
+    return sb.toString();
+  }
+}
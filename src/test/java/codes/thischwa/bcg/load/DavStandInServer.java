@@ -0,0 +1,581 @@
+package codes.thischwa.bcg.load;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * A minimal in-process CardDAV/CalDAV server which stands in for a real backend in tests.
+ *
+ * <p>It keeps all resources in memory and implements the requests BCG issues: OPTIONS, HEAD, GET,
+ * PUT, DELETE, PROPFIND (depth 0 and 1), the REPORTs {@code calendar-query} and
+ * {@code addressbook-multiget}, and exclusive LOCKs with timeout. A collection advertises itself
+ * as calendar and address book at once. Authentication isn't checked. Each request is counted per method,
+ * so tests can verify the request volume of a sync run. Error responses can be injected to
+ * simulate an overloaded server.
+ */
+@Slf4j
+public class DavStandInServer implements AutoCloseable {
+
+  private static final Pattern HREF_PATTERN = Pattern.compile("<(?:\\w+:)?href>([^<]+)</(?:\\w+:)?href>");
+  private static final Pattern TEXT_MATCH_PATTERN =
+      Pattern.compile("<(?:\\w+:)?text-match[^>]*>([^<]+)</(?:\\w+:)?text-match>");
+
+  static {
+    // without TCP_NODELAY, Nagle's algorithm and delayed ACKs add ~40 ms to each response
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Set<String> collections = ConcurrentHashMap.newKeySet();
+  private final NavigableMap<String, Resource> resources = new ConcurrentSkipListMap<>();
+  private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+  private final AtomicLong etagSequence = new AtomicLong();
+  private final Map<String, Lock> locks = new ConcurrentHashMap<>();
+  private final Queue<Fault> faults = new ConcurrentLinkedQueue<>();
+  private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+  private volatile boolean reportsSupported = true;
+  private volatile long listingStall;
+
+  /**
+   * Starts the server on a free port of the loopback interface.
+   *
+   * @param threads the number of threads which handle requests
+   * @throws IOException if the server can't be bound
+   */
+  public DavStandInServer(int threads) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+    log.info("DAV stand-in server started: {}", getBaseUrl());
+  }
+
+  public String getBaseUrl() {
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+  }
+
+  /**
+   * Creates an empty collection.
+   *
+   * @param path the path of the collection, must end with a slash
+   * @return the URL of the collection
+   */
+  public String createCollection(String path) {
+    collections.add(path);
+    return getBaseUrl() + path;
+  }
+
+  /**
+   * Stores a resource directly, without a request.
+   */
+  public void putResource(String path, byte[] data, String contentType) {
+    putResource(path, data, contentType, Instant.now());
+  }
+
+  /**
+   * Stores a resource directly, without a request, with the specified modification time.
+   */
+  public void putResource(String path, byte[] data, String contentType, Instant lastModified) {
+    resources.put(path, new Resource(data, contentType, nextEtag(),
+        lastModified.truncatedTo(ChronoUnit.SECONDS)));
+  }
+
+  /**
+   * Answers the next requests of the specified method with an error status instead of handling
+   * them.
+   *
+   * @param method     the HTTP method of the requests to fail
+   * @param count      the number of requests to fail
+   * @param status     the status of the responses, e.g. 503
+   * @param retryAfter the value of the {@code Retry-After} header, or null to omit it
+   */
+  public void injectFaults(String method, int count, int status, @Nullable String retryAfter) {
+    for (int i = 0; i < count; i++) {
+      faults.add(new Fault(method, status, retryAfter));
+    }
+  }
+
+  /**
+   * Delays the responses to the requests of the specified method.
+   *
+   * @param method the HTTP method of the requests to delay
+   * @param millis the delay in milliseconds, 0 to answer immediately
+   */
+  public void setLatency(String method, long millis) {
+    latencies.put(method, millis);
+  }
+
+  /**
+   * Stalls the responses to the listings of a collection, a PROPFIND with depth 1, once their
+   * headers and first entry have been sent.
+   *
+   * @param millis the stall in milliseconds, 0 to answer without a stall
+   */
+  public void setListingStall(long millis) {
+    listingStall = millis;
+  }
+
+  /**
+   * Turns the support of REPORTs on or off, to stand in for a plain WebDAV server. Without, the
+   * REPORTs are answered with 501 and neither advertised by OPTIONS nor by the
+   * {@code supported-report-set}.
+   */
+  public void setReportsSupported(boolean reportsSupported) {
+    this.reportsSupported = reportsSupported;
+  }
+
+  /**
+   * Removes all resources, locks, pending faults, latencies and stalls, supports REPORTs again
+   * and resets the request counters. Collections are kept.
+   */
+  public void reset() {
+    resources.clear();
+    faults.clear();
+    locks.clear();
+    latencies.clear();
+    listingStall = 0;
+    reportsSupported = true;
+    resetRequestCounts();
+  }
+
+  public boolean containsResource(String path) {
+    return resources.containsKey(path);
+  }
+
+  /**
+   * Returns the content of a resource, or null if it doesn't exist.
+   */
+  @Nullable
+  public byte[] getResource(String path) {
+    Resource resource = resources.get(path);
+    return resource == null ? null : resource.data();
+  }
+
+  /**
+   * Removes a resource directly, without a request.
+   */
+  public void deleteResource(String path) {
+    resources.remove(path);
+  }
+
+  /**
+   * Checks whether a collection exists.
+   */
+  public boolean containsCollection(String path) {
+    return collections.contains(path);
+  }
+
+  /**
+   * Removes a collection and its members.
+   */
+  public void deleteCollection(String path) {
+    collections.remove(path);
+    members(path).clear();
+  }
+
+  public void resetRequestCounts() {
+    requestCounts.clear();
+  }
+
+  /**
+   * Returns the number of requests per HTTP method since the last reset, sorted by method.
+   */
+  public Map<String, Long> getRequestCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    requestCounts.forEach((method, count) -> counts.put(method, count.sum()));
+    return counts;
+  }
+
+  public long getRequestCount(String method) {
+    LongAdder count = requestCounts.get(method);
+    return count == null ? 0 : count.sum();
+  }
+
+  /**
+   * Returns the number of resources inside the specified collection.
+   */
+  public int countMembers(String collectionPath) {
+    return members(collectionPath).size();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private String nextEtag() {
+    return "\"" + etagSequence.incrementAndGet() + "\"";
+  }
+
+  private NavigableMap<String, Resource> members(String collectionPath) {
+    // all members are direct children because there are no nested collections
+    return resources.subMap(collectionPath, false, collectionPath + Character.MAX_VALUE, false);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    requestCounts.computeIfAbsent(method, m -> new LongAdder()).increment();
+    try {
+      String path = URI.create(exchange.getRequestURI().getRawPath()).getPath();
+      if (injectFault(exchange, method)) {
+        return;
+      }
+      long latency = latencies.getOrDefault(method, 0L);
+      if (latency > 0) {
+        Thread.sleep(latency);
+      }
+      switch (method) {
+        case "OPTIONS" -> handleOptions(exchange);
+        case "HEAD" -> handleHead(exchange, path);
+        case "GET" -> handleGet(exchange, path);
+        case "PUT" -> handlePut(exchange, path);
+        case "DELETE" -> handleDelete(exchange, path);
+        case "PROPFIND" -> handlePropfind(exchange, path);
+        case "REPORT" -> handleReport(exchange, path);
+        case "LOCK" -> handleLock(exchange, path);
+        case "UNLOCK" -> handleUnlock(exchange, path);
+        case "MKCALENDAR" -> handleMkcalendar(exchange, path);
+        default -> exchange.sendResponseHeaders(405, -1);
+      }
+    } catch (RuntimeException e) {
+      log.error("Error while handling {} {}", method, exchange.getRequestURI(), e);
+      throw e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private boolean injectFault(HttpExchange exchange, String method) throws IOException {
+    for (Fault fault : faults) {
+      if (fault.method().equals(method) && faults.remove(fault)) {
+        readBody(exchange);
+        if (fault.retryAfter() != null) {
+          exchange.getResponseHeaders().add("Retry-After", fault.retryAfter());
+        }
+        exchange.sendResponseHeaders(fault.status(), -1);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void handleOptions(HttpExchange exchange) throws IOException {
+    readBody(exchange);
+    exchange.getResponseHeaders().add("DAV",
+        reportsSupported ? "1, 2, calendar-access, addressbook" : "1, 2");
+    exchange.getResponseHeaders().add("Allow", "OPTIONS, HEAD, GET, PUT, DELETE, PROPFIND, "
+        + (reportsSupported ? "REPORT, " : "") + "LOCK, UNLOCK");
+    exchange.sendResponseHeaders(200, -1);
+  }
+
+  private void handleHead(HttpExchange exchange, String path) throws IOException {
+    Resource resource = resources.get(path);
+    if (resource != null) {
+      exchange.getResponseHeaders().add("ETag", resource.etag());
+    }
+    boolean exists = resource != null || collections.contains(path) || "/".equals(path);
+    // the JDK server drops the connection after a HEAD response, so don't let the client reuse it
+    exchange.getResponseHeaders().add("Connection", "close");
+    exchange.sendResponseHeaders(exists ? 200 : 404, -1);
+  }
+
+  private void handleGet(HttpExchange exchange, String path) throws IOException {
+    Resource resource = resources.get(path);
+    if (resource == null) {
+      exchange.sendResponseHeaders(collections.contains(path) || "/".equals(path) ? 200 : 404, -1);
+      return;
+    }
+    exchange.getResponseHeaders().add("ETag", resource.etag());
+    exchange.getResponseHeaders().add("Content-Type", resource.contentType());
+    exchange.sendResponseHeaders(200, resource.data().length);
+    exchange.getResponseBody().write(resource.data());
+  }
+
+  private void handlePut(HttpExchange exchange, String path) throws IOException {
+    byte[] data = readBody(exchange);
+    String parent = path.substring(0, path.lastIndexOf('/') + 1);
+    if (!collections.contains(parent) && !"/".equals(parent)) {
+      exchange.sendResponseHeaders(409, -1);
+      return;
+    }
+    Resource existing = resources.get(path);
+    String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+    if (("*".equals(ifNoneMatch) && existing != null)
+        || (ifMatch != null && (existing == null || !ifMatch.equals(existing.etag())))) {
+      exchange.sendResponseHeaders(412, -1);
+      return;
+    }
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    Resource resource = new Resource(data,
+        contentType == null ? "application/octet-stream" : contentType, nextEtag(),
+        Instant.now().truncatedTo(ChronoUnit.SECONDS));
+    resources.put(path, resource);
+    exchange.getResponseHeaders().add("ETag", resource.etag());
+    exchange.sendResponseHeaders(existing == null ? 201 : 204, -1);
+  }
+
+  private void handleMkcalendar(HttpExchange exchange, String path) throws IOException {
+    readBody(exchange);
+    if (!path.endsWith("/") || collections.contains(path) || resources.containsKey(path)) {
+      exchange.sendResponseHeaders(405, -1);
+      return;
+    }
+    collections.add(path);
+    exchange.sendResponseHeaders(201, -1);
+  }
+
+  private void handleDelete(HttpExchange exchange, String path) throws IOException {
+    exchange.sendResponseHeaders(resources.remove(path) != null ? 204 : 404, -1);
+  }
+
+  private void handlePropfind(HttpExchange exchange, String path) throws IOException {
+    readBody(exchange);
+    String depth = exchange.getRequestHeaders().getFirst("Depth");
+    Resource resource = resources.get(path);
+    if (resource == null && !collections.contains(path)) {
+      exchange.sendResponseHeaders(404, -1);
+      return;
+    }
+    try (Writer out = startMultistatus(exchange)) {
+      if (resource != null) {
+        writePropResponse(out, path, resource);
+      } else if ("0".equals(depth)) {
+        writeCollectionCapabilities(out, path);
+      } else {
+        writeCollectionResponse(out, path);
+        stallListing(out);
+        for (Map.Entry<String, Resource> member : members(path).entrySet()) {
+          writePropResponse(out, member.getKey(), member.getValue());
+        }
+      }
+      out.write("</d:multistatus>\n");
+    }
+  }
+
+  private void handleReport(HttpExchange exchange, String path) throws IOException {
+    String body = new String(readBody(exchange), StandardCharsets.UTF_8);
+    if (!collections.contains(path)) {
+      exchange.sendResponseHeaders(404, -1);
+      return;
+    }
+    boolean calendarQuery = body.contains("calendar-query");
+    boolean multiget = body.contains("addressbook-multiget") || body.contains("calendar-multiget");
+    if (!reportsSupported) {
+      exchange.sendResponseHeaders(501, -1);
+      return;
+    }
+    if (!calendarQuery && !multiget) {
+      exchange.sendResponseHeaders(403, -1);
+      return;
+    }
+    String dataElement = body.contains("addressbook-multiget") ? "card:address-data"
+        : "cal:calendar-data";
+    try (Writer out = startMultistatus(exchange)) {
+      if (calendarQuery) {
+        Matcher textMatch = TEXT_MATCH_PATTERN.matcher(body);
+        String filter = textMatch.find() ? textMatch.group(1) : null;
+        for (Map.Entry<String, Resource> member : members(path).entrySet()) {
+          if (filter == null || member.getValue().asText().contains(filter)) {
+            writeDataResponse(out, member.getKey(), member.getValue(), dataElement);
+          }
+        }
+      } else {
+        Matcher hrefs = HREF_PATTERN.matcher(body);
+        while (hrefs.find()) {
+          String href = URI.create(hrefs.group(1).trim()).getPath();
+          Resource resource = resources.get(href);
+          if (resource == null) {
+            out.write("<d:response><d:href>" + escape(href)
+                + "</d:href><d:status>HTTP/1.1 404 Not Found</d:status></d:response>\n");
+          } else {
+            writeDataResponse(out, href, resource, dataElement);
+          }
+        }
+      }
+      out.write("</d:multistatus>\n");
+    }
+  }
+
+  private void handleLock(HttpExchange exchange, String path) throws IOException {
+    byte[] body = readBody(exchange);
+    String timeout = exchange.getRequestHeaders().getFirst("Timeout");
+    long seconds = timeout != null && timeout.startsWith("Second-")
+        ? Long.parseLong(timeout.substring("Second-".length())) : 3600;
+    long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    String ifHeader = exchange.getRequestHeaders().getFirst("If");
+    int status;
+    Lock lock;
+    synchronized (locks) {
+      Lock existing = locks.get(path);
+      boolean active = existing != null && existing.expiresAt() - System.nanoTime() > 0;
+      if (body.length == 0) {
+        // refresh, the lock must be active and its token submitted
+        if (!active || ifHeader == null || !ifHeader.contains(existing.token())) {
+          exchange.sendResponseHeaders(412, -1);
+          return;
+        }
+        lock = new Lock(existing.token(), expiresAt);
+        status = 200;
+      } else {
+        if (active) {
+          exchange.sendResponseHeaders(423, -1);
+          return;
+        }
+        lock = new Lock("opaquelocktoken:" + UUID.randomUUID(), expiresAt);
+        status = resources.putIfAbsent(path,
+            new Resource(new byte[0], "application/octet-stream", nextEtag(),
+                Instant.now().truncatedTo(ChronoUnit.SECONDS))) == null ? 201 : 200;
+      }
+      locks.put(path, lock);
+    }
+    byte[] response = ("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+        + "<d:prop xmlns:d=\"DAV:\"><d:lockdiscovery><d:activelock>"
+        + "<d:locktype><d:write/></d:locktype><d:lockscope><d:exclusive/></d:lockscope>"
+        + "<d:depth>0</d:depth><d:timeout>Second-" + seconds + "</d:timeout>"
+        + "<d:locktoken><d:href>" + lock.token() + "</d:href></d:locktoken>"
+        + "</d:activelock></d:lockdiscovery></d:prop>\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/xml; charset=utf-8");
+    exchange.getResponseHeaders().add("Lock-Token", "<" + lock.token() + ">");
+    exchange.sendResponseHeaders(status, response.length);
+    exchange.getResponseBody().write(response);
+  }
+
+  private void handleUnlock(HttpExchange exchange, String path) throws IOException {
+    String lockToken = exchange.getRequestHeaders().getFirst("Lock-Token");
+    Lock lock = locks.get(path);
+    if (lock == null || lockToken == null || !lockToken.contains(lock.token())) {
+      exchange.sendResponseHeaders(409, -1);
+      return;
+    }
+    locks.remove(path, lock);
+    // like HEAD, the JDK server drops the connection after an UNLOCK response
+    exchange.getResponseHeaders().add("Connection", "close");
+    exchange.sendResponseHeaders(204, -1);
+  }
+
+  private void stallListing(Writer out) throws IOException {
+    long stall = listingStall;
+    if (stall > 0) {
+      out.flush();
+      try {
+        Thread.sleep(stall);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private Writer startMultistatus(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", "application/xml; charset=utf-8");
+    exchange.sendResponseHeaders(207, 0);
+    OutputStream body = exchange.getResponseBody();
+    Writer out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8), 16384);
+    out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+    out.write("<d:multistatus xmlns:d=\"DAV:\" xmlns:cal=\"urn:ietf:params:xml:ns:caldav\""
+        + " xmlns:card=\"urn:ietf:params:xml:ns:carddav\">\n");
+    return out;
+  }
+
+  private void writeCollectionResponse(Writer out, String path) throws IOException {
+    out.write("<d:response><d:href>" + escape(path) + "</d:href><d:propstat><d:prop>"
+        + "<d:resourcetype><d:collection/></d:resourcetype></d:prop>"
+        + "<d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>\n");
+  }
+
+  private void writeCollectionCapabilities(Writer out, String path) throws IOException {
+    String reports = reportsSupported
+        ? "<d:supported-report><d:report><cal:calendar-query/></d:report></d:supported-report>"
+        + "<d:supported-report><d:report><cal:calendar-multiget/></d:report></d:supported-report>"
+        + "<d:supported-report><d:report><card:addressbook-multiget/></d:report>"
+        + "</d:supported-report>"
+        : "";
+    int ctag = members(path).values().stream().map(Resource::etag).toList().hashCode();
+    out.write("<d:response><d:href>" + escape(path) + "</d:href><d:propstat><d:prop>"
+        + "<d:resourcetype><d:collection/></d:resourcetype>"
+        + "<d:supported-report-set>" + reports + "</d:supported-report-set>"
+        + "<cs:getctag xmlns:cs=\"http://calendarserver.org/ns/\">" + ctag + "</cs:getctag>"
+        + "</d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat>"
+        + "<d:propstat><d:prop><d:sync-token/></d:prop>"
+        + "<d:status>HTTP/1.1 404 Not Found</d:status></d:propstat></d:response>\n");
+  }
+
+  private void writePropResponse(Writer out, String path, Resource resource) throws IOException {
+    out.write("<d:response><d:href>" + escape(path) + "</d:href><d:propstat><d:prop>"
+        + "<d:getetag>" + escape(resource.etag()) + "</d:getetag>"
+        + "<d:getcontenttype>" + escape(resource.contentType()) + "</d:getcontenttype>"
+        + "<d:getcontentlength>" + resource.data().length + "</d:getcontentlength>"
+        + "<d:getlastmodified>" + DateTimeFormatter.RFC_1123_DATE_TIME.format(
+            resource.lastModified().atOffset(ZoneOffset.UTC)) + "</d:getlastmodified>"
+        + "<d:resourcetype/></d:prop>"
+        + "<d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>\n");
+  }
+
+  private void writeDataResponse(Writer out, String path, Resource resource, String dataElement)
+      throws IOException {
+    out.write("<d:response><d:href>" + escape(path) + "</d:href><d:propstat><d:prop>"
+        + "<d:getetag>" + escape(resource.etag()) + "</d:getetag>"
+        + "<" + dataElement + ">" + escape(resource.asText()) + "</" + dataElement + ">"
+        + "</d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>\n");
+  }
+
+  private static byte[] readBody(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      return in.readAllBytes();
+    }
+  }
+
+  private static String escape(String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+
+  private record Lock(String token, long expiresAt) {
+  }
+
+  private record Fault(String method, int status, @Nullable String retryAfter) {
+  }
+
+  private record Resource(byte[] data, String contentType, String etag, Instant lastModified) {
+
+    String asText() {
+      return new String(data, StandardCharsets.UTF_8);
+    }
+  }
+}
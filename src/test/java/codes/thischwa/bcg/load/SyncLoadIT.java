@@ -0,0 +1,132 @@
+package codes.thischwa.bcg.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.TestBcgApp;
+import codes.thischwa.bcg.service.BirthdayCalGenerator;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * End-to-end load tests of {@link BirthdayCalGenerator#processBirthdayEvents()} against the
+ * {@link DavStandInServer}. No container is required, so the tests can run offline.
+ *
+ * <p>Each run reports the throughput, the number of requests per method and the peak heap usage,
+ * so regressions of the sync path become visible.
+ */
+@SpringBootTest(classes = TestBcgApp.class)
+@ActiveProfiles("test")
+@Slf4j
+class SyncLoadIT {
+
+  private static final long SEED = 4711L;
+  private static final String CARD_PATH = "/dav/load-user/contacts/";
+  private static final String CAL_PATH = "/dav/load-user/calendar/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  @Autowired
+  private BirthdayCalGenerator generator;
+
+  private static DavStandInServer startServer() {
+    try {
+      DavStandInServer server = new DavStandInServer(16);
+      server.createCollection(CARD_PATH);
+      server.createCollection(CAL_PATH);
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @DynamicPropertySource
+  static void registerProperties(DynamicPropertyRegistry registry) {
+    registry.add("dav.user", () -> "load-user");
+    registry.add("dav.password", () -> "load");
+    registry.add("dav.card-url", () -> SERVER.getBaseUrl() + CARD_PATH);
+    registry.add("dav.cal-url", () -> SERVER.getBaseUrl() + CAL_PATH);
+    registry.add("dav.max-retries", () -> 1);
+    registry.add("dav.retry-delay-in-seconds", () -> 0);
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @ParameterizedTest(name = "{0} contacts")
+  @ValueSource(ints = {1_000, 10_000, 100_000})
+  void syncContacts(int contactCount) throws IOException {
+    SERVER.reset();
+    List<Contact> contacts = new ContactGenerator(SEED, 0.1).generate(contactCount);
+    for (Contact contact : contacts) {
+      SERVER.putResource(CARD_PATH + contact.identifier() + ".vcf",
+          ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8), "text/vcard");
+    }
+    long withBirthday = contacts.stream().filter(c -> c.birthday() != null).count();
+
+    RunReport initial = measure("initial", contactCount);
+    assertEquals(withBirthday, SERVER.countMembers(CAL_PATH),
+        "Each contact with a birthday should have exactly one event.");
+    assertEquals(withBirthday, initial.requests().getOrDefault("PUT", 0L));
+
+    RunReport unchanged = measure("unchanged", contactCount);
+    assertEquals(withBirthday, SERVER.countMembers(CAL_PATH));
+    assertEquals(0L, unchanged.requests().getOrDefault("PUT", 0L),
+        "A run without changes must not upload anything.");
+    assertEquals(0L, unchanged.requests().getOrDefault("DELETE", 0L),
+        "A run without changes must not delete anything.");
+  }
+
+  private RunReport measure(String label, int contactCount) throws IOException {
+    System.gc();
+    long baseline = usedHeap();
+    List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(pool -> pool.getType() == MemoryType.HEAP)
+        .toList();
+    heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+    SERVER.resetRequestCounts();
+
+    long start = System.nanoTime();
+    generator.processBirthdayEvents();
+    long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+    long peak = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+    RunReport report = new RunReport(label, contactCount, elapsedMillis,
+        SERVER.getRequestCounts(), baseline, peak);
+    log.info("*** Load report: {}", report);
+    return report;
+  }
+
+  private static long usedHeap() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  private record RunReport(String label, int contacts, long elapsedMillis,
+                           Map<String, Long> requests, long baselineHeap, long peakHeap) {
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s run with %d contacts: %d ms, %.1f contacts/s, requests %s, "
+              + "heap baseline %d MiB, peak %d MiB (+%d MiB)",
+          label, contacts, elapsedMillis, contacts * 1000.0 / elapsedMillis, requests,
+          baselineHeap >> 20, peakHeap >> 20, Math.max(0, peakHeap - baselineHeap) >> 20);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.conf.LimiterConf;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link AdaptiveConcurrencyLimiter} and the overload detection of
+ * {@link BcgSardine}.
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+  private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(5);
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private AdaptiveConcurrencyLimiter newLimiter(int initialLimit, int maxRetryAfterInSeconds) {
+    return new AdaptiveConcurrencyLimiter(
+        new LimiterConf(initialLimit, 1, 16, 0.5, 3.0, maxRetryAfterInSeconds), registry);
+  }
+
+  @Test
+  void testAdditiveIncrease() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(2, 0);
+    for (int i = 0; i < 20; i++) {
+      limiter.acquire();
+      limiter.onSuccess(LATENCY);
+    }
+    assertTrue(limiter.getLimit() > 2, "limit should grow while the server answers fast");
+    assertTrue(limiter.getLimit() <= 16);
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(limiter.getLimit(), registry.get("bcg.dav.concurrency.limit").gauge().value());
+  }
+
+  @Test
+  void testMultiplicativeDecrease() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(8, 0);
+    limiter.acquire();
+    limiter.onOverload(null);
+    assertEquals(4, limiter.getLimit());
+    assertEquals(1.0, registry.get("bcg.dav.concurrency.overloads").counter().count());
+
+    // without latency samples, each overload decreases the limit, but not below the minimum
+    for (int i = 0; i < 5; i++) {
+      limiter.acquire();
+      limiter.onOverload(Duration.ZERO);
+    }
+    assertEquals(1, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  void testRetryAfterPausesRequests() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(4, 1);
+    limiter.acquire();
+    long start = System.nanoTime();
+    limiter.onOverload(Duration.ofMinutes(5));
+    limiter.acquire();
+    long waited = System.nanoTime() - start;
+    limiter.onFailure();
+    assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(900),
+        "acquire should wait for the pause, which is capped to one second");
+    assertTrue(waited < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  @Test
+  void testAsyncAcquireWaitsWithoutAThread() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(1, 1);
+    CompletableFuture<Void> first = limiter.acquireAsync();
+    CompletableFuture<Void> second = limiter.acquireAsync();
+    CompletableFuture<Void> cancelled = limiter.acquireAsync();
+    CompletableFuture<Void> third = limiter.acquireAsync();
+    assertTrue(first.isDone());
+    assertFalse(second.isDone(), "the slot is taken");
+
+    cancelled.cancel(false);
+    // a failure doesn't raise the limit
+    limiter.onFailure();
+    assertTrue(second.isDone(), "the released slot is granted in order");
+    assertFalse(third.isDone());
+
+    long start = System.nanoTime();
+    limiter.onOverload(Duration.ofMinutes(5));
+    assertFalse(third.isDone(), "the requests are paused");
+    third.get(5, TimeUnit.SECONDS);
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900),
+        "the slot is granted at the end of the pause, which is capped to one second");
+    limiter.onFailure();
+    assertEquals(0, limiter.getInFlight(), "the cancelled request got no slot");
+  }
+
+  @Test
+  void testLatencySpike() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(4, 0);
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.onSuccess(LATENCY);
+    }
+    int limit = limiter.getLimit();
+    // the limit is decreased at most once per smoothed latency
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(LATENCY) * 2);
+    limiter.acquire();
+    limiter.onSuccess(LATENCY * 10);
+    assertEquals(limit / 2, limiter.getLimit());
+    assertEquals(1.0, registry.get("bcg.dav.concurrency.latency-spikes").counter().count());
+  }
+
+  @Test
+  void testParseRetryAfter() {
+    BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Unavailable");
+    assertNull(BcgSardine.parseRetryAfter(response));
+
+    response.setHeader("Retry-After", "42");
+    assertEquals(Duration.ofSeconds(42), BcgSardine.parseRetryAfter(response));
+
+    response.setHeader("Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT");
+    assertEquals(Duration.ZERO, BcgSardine.parseRetryAfter(response));
+
+    response.setHeader("Retry-After", "soon");
+    assertNull(BcgSardine.parseRetryAfter(response));
+
+    assertTrue(BcgSardine.isOverloaded(429));
+    assertTrue(BcgSardine.isOverloaded(503));
+    assertFalse(BcgSardine.isOverloaded(500));
+  }
+}
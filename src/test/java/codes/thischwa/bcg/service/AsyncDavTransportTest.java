@@ -0,0 +1,178 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.IncrementalConf;
+import codes.thischwa.bcg.conf.LimiterConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.RequestConf;
+import codes.thischwa.bcg.conf.ShardConf;
+import codes.thischwa.bcg.load.ContactGenerator;
+import codes.thischwa.bcg.load.DavStandInServer;
+import com.github.sardine.impl.SardineException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link AsyncDavTransport} against the {@link DavStandInServer}.
+ */
+class AsyncDavTransportTest {
+
+  private static final String CARD_PATH = "/dav/user/contacts/";
+  private static final String CAL_PATH = "/dav/user/calendar/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  private static DavStandInServer startServer() {
+    try {
+      DavStandInServer server = new DavStandInServer(4);
+      server.createCollection(CARD_PATH);
+      server.createCollection(CAL_PATH);
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+  }
+
+  @Test
+  void testRequests() throws IOException {
+    DavTransport transport = transport();
+    String url = SERVER.getBaseUrl() + CAL_PATH + "event.ics";
+    byte[] data = "BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n".getBytes(StandardCharsets.UTF_8);
+
+    assertFalse(transport.exists(url));
+    DavTransport.await(transport.put(url, data, "text/calendar"));
+    assertTrue(transport.exists(url));
+    assertArrayEquals(data, DavTransport.await(transport.get(url)));
+
+    List<DavEntry> entries = new ArrayList<>();
+    assertEquals(2, transport.list(SERVER.getBaseUrl() + CAL_PATH, entries::add));
+    assertTrue(entries.stream().anyMatch(davEntry -> !davEntry.directory()
+        && davEntry.href().getPath().equals(CAL_PATH + "event.ics")));
+
+    DavTransport.await(transport.delete(url));
+    assertFalse(SERVER.containsResource(CAL_PATH + "event.ics"));
+  }
+
+  @Test
+  void testAddressbookMultiget() throws IOException {
+    List<Contact> contacts = new ContactGenerator(11L, 0).generate(3);
+    List<String> hrefs = new ArrayList<>();
+    for (Contact contact : contacts) {
+      String path = CARD_PATH + contact.identifier() + ".vcf";
+      SERVER.putResource(path, ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8),
+          "text/vcard");
+      hrefs.add(path);
+    }
+
+    List<DavEntry> entries = DavTransport.await(
+        transport().addressbookMultiget(SERVER.getBaseUrl() + CARD_PATH, hrefs));
+
+    assertEquals(3, entries.size());
+    entries.forEach(davEntry -> assertNotNull(davEntry.data()));
+  }
+
+  @Test
+  void testDiscover() throws IOException {
+    DavCapabilities capabilities = transport().discover(SERVER.getBaseUrl() + CAL_PATH);
+
+    assertTrue(capabilities.davClasses().contains("calendar-access"));
+    assertTrue(capabilities.supportsReport(DavCapabilities.CALENDAR_QUERY));
+    assertTrue(capabilities.ctag());
+  }
+
+  @Test
+  void testOverloadIsRetried() throws IOException {
+    String path = CAL_PATH + "event.ics";
+    SERVER.putResource(path, new byte[] {1, 2, 3}, "text/calendar");
+    SERVER.injectFaults("GET", 2, 503, "0");
+
+    assertArrayEquals(new byte[] {1, 2, 3},
+        DavTransport.await(transport().get(SERVER.getBaseUrl() + path)));
+    assertEquals(3, SERVER.getRequestCount("GET"));
+  }
+
+  @Test
+  void testErrorStatus() {
+    SardineException e = assertThrows(SardineException.class, () ->
+        DavTransport.await(transport().get(SERVER.getBaseUrl() + CAL_PATH + "missing.ics")));
+    assertEquals(404, e.getStatusCode());
+  }
+
+  @Test
+  void testContactsAreReadWithTheAsyncTransport() throws IOException {
+    List<Contact> contacts = new ContactGenerator(13L, 0).generate(20);
+    for (Contact contact : contacts) {
+      SERVER.putResource(CARD_PATH + contact.identifier() + ".vcf",
+          ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8), "text/vcard");
+    }
+    DavConf davConf = davConf(new DavConf.Strategy(null, DavConf.ContactFetch.GET, null));
+    SardineInitializer sardineInitializer = sardineInitializer(davConf);
+    // a single fetch thread, the GETs are in flight concurrently anyway
+    CardHandler cardHandler = new CardHandler(davConf, sardineInitializer,
+        ObservationRegistry.NOOP, new Shard(new ShardConf(1, 0)), new PipelineConf(8, 1, 2, 2),
+        new CapabilityDiscovery(davConf, sardineInitializer),
+        new ContactCache(new IncrementalConf(false, 24), Path.of("state"), davConf.cardUrl(),
+            Clock.systemUTC()));
+
+    List<Contact> read = cardHandler.readContactsWithBirthday();
+
+    assertEquals(sorted(contacts), sorted(read));
+    assertEquals(20, SERVER.getRequestCount("GET"));
+  }
+
+  private static List<Contact> sorted(List<Contact> contacts) {
+    return contacts.stream().sorted(Comparator.comparing(Contact::identifier)).toList();
+  }
+
+  private static DavTransport transport() {
+    return new AsyncDavTransport("user", "password", new AdaptiveConcurrencyLimiter(
+        new LimiterConf(4, 1, 16, 0.5, 3.0, 5), new SimpleMeterRegistry()),
+        deadlines(), ObservationRegistry.NOOP, 3, Duration.ZERO);
+  }
+
+  private static DavConf davConf(DavConf.Strategy strategy) {
+    return new DavConf("user", "password", SERVER.getBaseUrl() + CAL_PATH,
+        SERVER.getBaseUrl() + CARD_PATH, 0, 1, strategy, DavConf.Transport.ASYNC);
+  }
+
+  private static SardineInitializer sardineInitializer(DavConf davConf) {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    return new SardineInitializer(davConf, new AdaptiveConcurrencyLimiter(
+        new LimiterConf(4, 1, 16, 0.5, 3.0, 5), meterRegistry), ObservationRegistry.NOOP,
+        new HttpWireMetrics(meterRegistry), deadlines(), new PipelineConf(8, 2, 2, 2));
+  }
+
+  private static RequestDeadlines deadlines() {
+    return new RequestDeadlines(new RequestConf(10, 30, 120, false, 50, 5),
+        new SimpleMeterRegistry());
+  }
+}
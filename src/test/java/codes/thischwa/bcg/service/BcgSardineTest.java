@@ -0,0 +1,127 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import codes.thischwa.bcg.conf.LimiterConf;
+import codes.thischwa.bcg.conf.RequestConf;
+import codes.thischwa.bcg.load.DavStandInServer;
+import com.github.sardine.impl.SardineException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link BcgSardine} against the {@link DavStandInServer}.
+ */
+class BcgSardineTest {
+
+  private static final String CAL_PATH = "/dav/user/calendar/";
+  private static final byte[] EVENT = "BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n"
+      .getBytes(StandardCharsets.UTF_8);
+
+  private static final DavStandInServer SERVER = startServer();
+
+  private final List<Observation.Context> observations = new CopyOnWriteArrayList<>();
+  private BcgSardine sardine;
+
+  private static DavStandInServer startServer() {
+    try {
+      DavStandInServer server = new DavStandInServer(2);
+      server.createCollection(CAL_PATH);
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+    ObservationRegistry observationRegistry = ObservationRegistry.create();
+    observationRegistry.observationConfig().observationHandler(
+        new ObservationHandler<>() {
+          @Override
+          public void onStop(Observation.Context context) {
+            observations.add(context);
+          }
+
+          @Override
+          public boolean supportsContext(Observation.Context context) {
+            return true;
+          }
+        });
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+        new LimiterConf(4, 1, 16, 0.5, 3.0, 5), new SimpleMeterRegistry());
+    sardine = new BcgSardine(HttpClientBuilder.create(), "user", "password", limiter,
+        new RequestDeadlines(new RequestConf(10, 30, 120, false, 50, 5),
+        new SimpleMeterRegistry()), observationRegistry, 3, Duration.ZERO);
+  }
+
+  private String lowValue(Observation.Context context, String key) {
+    return context.getLowCardinalityKeyValue(key).getValue();
+  }
+
+  private String highValue(Observation.Context context, String key) {
+    return context.getHighCardinalityKeyValue(key).getValue();
+  }
+
+  @Test
+  void testObservation() throws IOException {
+    sardine.put(SERVER.getBaseUrl() + CAL_PATH + "jane.ics", EVENT, "text/calendar");
+    try (InputStream in = sardine.get(SERVER.getBaseUrl() + CAL_PATH + "jane.ics")) {
+      assertArrayEquals(EVENT, in.readAllBytes());
+    }
+
+    assertEquals(2, observations.size());
+    Observation.Context put = observations.get(0);
+    assertEquals(BcgSardine.OBSERVATION_NAME, put.getName());
+    assertEquals("PUT", lowValue(put, "http.request.method"));
+    assertEquals("201", lowValue(put, "http.response.status_code"));
+    assertEquals(CAL_PATH + "jane.ics", highValue(put, "dav.href"));
+    assertEquals(String.valueOf(EVENT.length), highValue(put, "http.request.body.size"));
+    assertEquals("0", highValue(put, "dav.retry.count"));
+    Observation.Context get = observations.get(1);
+    assertEquals("GET", lowValue(get, "http.request.method"));
+    assertEquals("200", lowValue(get, "http.response.status_code"));
+    assertEquals(String.valueOf(EVENT.length), highValue(get, "http.response.body.size"));
+  }
+
+  @Test
+  void testRetryAfterOverload() throws IOException {
+    SERVER.injectFaults("PUT", 2, 503, "0");
+    sardine.put(SERVER.getBaseUrl() + CAL_PATH + "john.ics", EVENT, "text/calendar");
+
+    assertEquals(3, SERVER.getRequestCount("PUT"));
+    assertEquals(1, SERVER.countMembers(CAL_PATH));
+    assertEquals("2", highValue(observations.get(0), "dav.retry.count"));
+    assertEquals("201", lowValue(observations.get(0), "http.response.status_code"));
+  }
+
+  @Test
+  void testOverloadExhaustsAttempts() {
+    SERVER.injectFaults("DELETE", 3, 429, null);
+    SardineException e = assertThrows(SardineException.class,
+        () -> sardine.delete(SERVER.getBaseUrl() + CAL_PATH + "unknown.ics"));
+    assertEquals(429, e.getStatusCode());
+    assertEquals(3, SERVER.getRequestCount("DELETE"));
+    assertEquals("2", highValue(observations.get(0), "dav.retry.count"));
+  }
+}
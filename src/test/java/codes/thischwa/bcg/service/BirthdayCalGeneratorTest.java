@@ -0,0 +1,266 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.TestBcgApp;
+import codes.thischwa.bcg.load.ContactGenerator;
+import codes.thischwa.bcg.load.DavStandInServer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Tests of the failure handling of {@link BirthdayCalGenerator} against the
+ * {@link DavStandInServer}: resuming an interrupted run, retrying failed changes and the
+ * dead-letter list.
+ */
+@SpringBootTest(classes = TestBcgApp.class)
+@ActiveProfiles("test")
+class BirthdayCalGeneratorTest {
+
+  private static final String CARD_PATH = "/dav/user/contacts/";
+  private static final String CAL_PATH = "/dav/user/calendar/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  @Autowired
+  private BirthdayCalGenerator generator;
+
+  @Autowired
+  private CardHandler cardHandler;
+
+  @Autowired
+  private SyncJournal journal;
+
+  @Autowired
+  private UpcomingBirthdays upcomingBirthdays;
+
+  private List<Contact> contacts;
+
+  private static DavStandInServer startServer() {
+    try {
+      return new DavStandInServer(4);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @DynamicPropertySource
+  static void registerProperties(DynamicPropertyRegistry registry) {
+    registry.add("dav.card-url", () -> SERVER.getBaseUrl() + CARD_PATH);
+    registry.add("dav.cal-url", () -> SERVER.getBaseUrl() + CAL_PATH);
+    registry.add("dav.max-retries", () -> 1);
+    registry.add("dav.retry-delay-in-seconds", () -> 0);
+    registry.add("sync.state-dir", () -> "target/bcg-state/generator-test");
+    // the request counts of the tests assume the vCards are fetched each
+    registry.add("dav.strategy.contact-fetch", () -> "get");
+    // a single slot and short queues: a listing which held its slot while its consumer waits for
+    // the fetches would deadlock
+    registry.add("limiter.initial-limit", () -> 1);
+    registry.add("limiter.max-limit", () -> 1);
+    registry.add("pipeline.queue-capacity", () -> 2);
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+    SERVER.createCollection(CARD_PATH);
+    SERVER.createCollection(CAL_PATH);
+    journal.discard();
+    journal.saveDeadLetters(new ChangeSet(List.of(), List.of(), List.of(), 0));
+    contacts = new ContactGenerator(42L, 0).generate(3);
+    for (Contact contact : contacts) {
+      SERVER.putResource(CARD_PATH + contact.identifier() + ".vcf",
+          ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8), "text/vcard");
+    }
+  }
+
+  @Test
+  void testFailedChangesAreRetried() throws IOException {
+    SERVER.injectFaults("PUT", 3, 500, null);
+    SyncResult result = generator.processBirthdayEvents();
+
+    assertTrue(result.isComplete());
+    assertEquals(3, result.applied());
+    assertEquals(3, result.recovered());
+    assertEquals(3, SERVER.countMembers(CAL_PATH));
+  }
+
+  @Test
+  void testDeadLettersAreRetriedByTheNextRun() throws IOException {
+    // each PUT fails initially and on both retries
+    SERVER.injectFaults("PUT", 9, 500, null);
+    SyncResult partial = generator.processBirthdayEvents();
+
+    assertFalse(partial.isComplete());
+    assertEquals(3, partial.deadLettered());
+    assertEquals(0, SERVER.countMembers(CAL_PATH));
+    assertEquals(3, journal.loadDeadLetters().creates().size());
+    assertTrue(journal.loadPending().isEmpty(), "Dead-lettered changes finish the journal.");
+
+    SERVER.resetRequestCounts();
+    SyncResult next = generator.processBirthdayEvents();
+    assertTrue(next.isComplete());
+    assertEquals(3, next.applied());
+    assertEquals(3, next.unchanged(), "The dead letters are applied before the diff.");
+    assertEquals(3, SERVER.getRequestCount("PUT"));
+    assertTrue(journal.loadDeadLetters().isEmpty());
+  }
+
+  @Test
+  void testResumeInterruptedRun() throws IOException {
+    // an interrupted run, which has read the contacts and uploaded the first event only
+    String fingerprint = cardHandler.fingerprintContacts();
+    upcomingBirthdays.update(contacts, fingerprint);
+    try (SyncJournal.Checkpoint checkpoint = journal.begin(fingerprint,
+        new ChangeSet(contacts, List.of(), List.of(), 0))) {
+      checkpoint.markDone(0);
+    }
+
+    SERVER.resetRequestCounts();
+    SyncResult result = generator.processBirthdayEvents();
+
+    assertEquals(2, result.applied());
+    assertEquals(2, SERVER.getRequestCount("PUT"));
+    assertEquals(0, SERVER.getRequestCount("GET"), "The vCards aren't read on resume.");
+    assertEquals(2, SERVER.countMembers(CAL_PATH));
+    assertTrue(journal.loadPending().isEmpty());
+  }
+
+  @Test
+  void testResumedRunUpdatesOutdatedUpcomingBirthdays() throws IOException {
+    String fingerprint = cardHandler.fingerprintContacts();
+    upcomingBirthdays.update(List.of(), "outdated");
+    try (SyncJournal.Checkpoint checkpoint = journal.begin(fingerprint,
+        new ChangeSet(contacts, List.of(), List.of(), 0))) {
+      checkpoint.markDone(0);
+    }
+
+    SERVER.resetRequestCounts();
+    SyncResult result = generator.processBirthdayEvents();
+
+    assertEquals(2, result.applied());
+    assertEquals(3, SERVER.getRequestCount("GET"), "The vCards are read for the index only.");
+    assertEquals(0, SERVER.getRequestCount("REPORT"), "The calendar isn't indexed on resume.");
+    assertEquals(3, upcomingBirthdays.size());
+    assertEquals(fingerprint, upcomingBirthdays.getSourceFingerprint());
+    assertTrue(journal.loadPending().isEmpty());
+  }
+
+  @Test
+  void testOnlyEventsOfTheCategoryAreRead() throws IOException {
+    putForeignEvent();
+    generator.processBirthdayEvents();
+
+    SERVER.resetRequestCounts();
+    SyncResult result = generator.processBirthdayEvents();
+
+    assertEquals(3, result.unchanged());
+    assertEquals(1, SERVER.getRequestCount("REPORT"));
+    assertEquals(3, SERVER.getRequestCount("GET"), "Only the vCards are fetched.");
+    assertEquals(4, SERVER.countMembers(CAL_PATH), "The foreign event is left alone.");
+  }
+
+  @Test
+  void testCategoryIsFilteredIfTheQueryIsUnsupported() throws IOException {
+    putForeignEvent();
+    generator.processBirthdayEvents();
+
+    SERVER.injectFaults("REPORT", 1, 501, null);
+    SERVER.resetRequestCounts();
+    SyncResult result = generator.processBirthdayEvents();
+
+    assertTrue(result.isComplete());
+    assertEquals(3, result.unchanged());
+    assertEquals(0, SERVER.getRequestCount("DELETE"));
+    assertEquals(4, SERVER.countMembers(CAL_PATH), "The foreign event is left alone.");
+  }
+
+  @Test
+  void testEmptyCalendarIsImportedInBulk() throws IOException {
+    // a resource at the path of an event, which isn't a birthday event
+    String occupied = CAL_PATH + contacts.get(0).identifier() + ".ics";
+    byte[] foreign = "BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n".getBytes(StandardCharsets.UTF_8);
+    SERVER.putResource(occupied, foreign, "text/calendar");
+
+    SyncResult result = generator.processBirthdayEvents();
+
+    assertTrue(result.isComplete());
+    assertEquals(1, SERVER.getRequestCount("REPORT"), "The calendar is probed by one query.");
+    assertEquals(3, SERVER.getRequestCount("GET"), "Only the vCards are fetched.");
+    assertEquals(3, SERVER.getRequestCount("PUT"));
+    assertEquals(3, SERVER.countMembers(CAL_PATH));
+    assertArrayEquals(foreign, SERVER.getResource(occupied),
+        "The conditional PUT doesn't overwrite an existing resource.");
+    assertTrue(journal.loadPending().isEmpty());
+  }
+
+  @Test
+  void testCalendarIsIndexedWithASingleSlot() throws IOException {
+    // the first contacts are the ones of the set-up
+    for (Contact contact : new ContactGenerator(42L, 0).generate(40)) {
+      SERVER.putResource(CARD_PATH + contact.identifier() + ".vcf",
+          ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8), "text/vcard");
+    }
+    assertEquals(40, generator.processBirthdayEvents().applied());
+    // without the calendar-query, the events are listed and fetched one by one
+    SERVER.setReportsSupported(false);
+    SERVER.resetRequestCounts();
+
+    SyncResult result = assertTimeoutPreemptively(Duration.ofSeconds(30),
+        () -> generator.processBirthdayEvents());
+
+    assertEquals(40, result.unchanged());
+    assertEquals(80, SERVER.getRequestCount("GET"), "The vCards and the events are fetched.");
+  }
+
+  @Test
+  void testJournalOfChangedContactsIsDiscarded() throws IOException {
+    try (SyncJournal.Checkpoint checkpoint = journal.begin("outdated",
+        new ChangeSet(contacts.subList(0, 1), List.of(), List.of(), 0))) {
+      checkpoint.markDone(0);
+    }
+
+    SyncResult result = generator.processBirthdayEvents();
+
+    assertEquals(3, result.applied());
+    assertEquals(3, SERVER.countMembers(CAL_PATH));
+  }
+
+  private static void putForeignEvent() {
+    String event = """
+        BEGIN:VCALENDAR\r
+        VERSION:2.0\r
+        PRODID:-//other//EN\r
+        BEGIN:VEVENT\r
+        UID:dentist\r
+        DTSTAMP:20240101T000000Z\r
+        DTSTART;VALUE=DATE:20240301\r
+        SUMMARY:Dentist\r
+        CATEGORIES:Appointment\r
+        END:VEVENT\r
+        END:VCALENDAR\r
+        """;
+    SERVER.putResource(CAL_PATH + "dentist.ics", event.getBytes(StandardCharsets.UTF_8),
+        "text/calendar");
+  }
+}
@@ -0,0 +1,103 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link BirthdayDiff} and {@link EventIndex}.
+ */
+class BirthdayDiffTest {
+
+  private static final String CAL_PATH = "/dav/user/calendar/";
+  private static final ToLongFunction<Contact> HASHER = contact -> BirthdayDiff.contentHash(
+      BirthdayDiff.toEpochDay(contact.birthday()), contact.displayName(), null);
+
+  private final Contact jane = contact("jane", "J. Doe", LocalDate.of(1990, 5, 12));
+  private final Contact john = contact("john", "J. Smith", LocalDate.of(1985, 11, 3));
+  private final Contact anna = contact("anna", "A. Miller", LocalDate.of(2001, 2, 28));
+
+  private static Contact contact(String identifier, String displayName, LocalDate birthday) {
+    return new Contact("first", "last", displayName, birthday, identifier);
+  }
+
+  private static void addEvent(EventIndex.Builder builder, Contact contact, String path) {
+    builder.add(contact.identifier(), path, BirthdayDiff.toEpochDay(contact.birthday()),
+        HASHER.applyAsLong(contact));
+  }
+
+  @Test
+  void testIndex() {
+    EventIndex.Builder builder = EventIndex.builder(CAL_PATH);
+    for (int i = 99; i >= 0; i--) {
+      builder.add(String.format("id-%03d", i), CAL_PATH + "foreign-" + i + ".ics", i, i);
+    }
+    builder.add("id-050", CAL_PATH + "id-050.ics", 50, 50);
+    EventIndex index = builder.build();
+
+    assertEquals(101, index.size());
+    for (int i = 1; i < index.size(); i++) {
+      assertTrue(index.getIdentifier(i - 1).compareTo(index.getIdentifier(i)) <= 0);
+    }
+    int pos = index.indexOf("id-050");
+    assertEquals("id-050", index.getIdentifier(pos));
+    assertEquals(CAL_PATH + "foreign-50.ics", index.getPath(pos), "the order must be stable");
+    assertEquals(CAL_PATH + "id-050.ics", index.getPath(pos + 1));
+    assertEquals(-1, index.indexOf("unknown"));
+  }
+
+  @Test
+  void testDiff() {
+    Contact janeRenamed = contact("jane", "Jane Doe", jane.birthday());
+    Contact johnMoved = contact("john", "J. Smith", john.birthday().plusDays(1));
+    EventIndex.Builder builder = EventIndex.builder(CAL_PATH);
+    addEvent(builder, jane, CAL_PATH + "jane.ics");
+    addEvent(builder, john, CAL_PATH + "john.ics");
+    addEvent(builder, anna, CAL_PATH + "anna.ics");
+    addEvent(builder, anna, CAL_PATH + "anna-copy.ics");
+    addEvent(builder, contact("gone", "Gone", LocalDate.of(1970, 1, 1)), "/other/gone.ics");
+
+    Contact newOne = contact("new", "New", LocalDate.of(2000, 1, 1));
+    ChangeSet changes = BirthdayDiff.diff(builder.build(),
+        List.of(newOne, janeRenamed, anna, johnMoved), HASHER);
+
+    assertEquals(List.of(newOne), changes.creates());
+    assertEquals(List.of(new ChangeSet.Update(janeRenamed, CAL_PATH + "jane.ics"),
+        new ChangeSet.Update(johnMoved, CAL_PATH + "john.ics")), changes.updates());
+    assertEquals(List.of(CAL_PATH + "anna-copy.ics", "/other/gone.ics"), changes.deletes());
+    assertEquals(1, changes.unchanged());
+  }
+
+  @Test
+  void testDiffUnchanged() {
+    EventIndex.Builder builder = EventIndex.builder(CAL_PATH);
+    addEvent(builder, jane, CAL_PATH + "jane.ics");
+    addEvent(builder, john, CAL_PATH + "john.ics");
+    ChangeSet changes = BirthdayDiff.diff(builder.build(), List.of(john, jane, jane), HASHER);
+    assertTrue(changes.isEmpty());
+    assertEquals(2, changes.unchanged());
+  }
+
+  @Test
+  void testDiffInvalidContact() {
+    EventIndex index = EventIndex.builder(CAL_PATH).build();
+    List<Contact> contacts = List.of(new Contact("first", "last", "display", null, "id"));
+    assertThrows(IllegalArgumentException.class,
+        () -> BirthdayDiff.diff(index, contacts, HASHER));
+  }
+
+  @Test
+  void testContentHash() {
+    assertEquals(BirthdayDiff.contentHash(1, "a", "b"), BirthdayDiff.contentHash(1, "a", "b"));
+    assertNotEquals(BirthdayDiff.contentHash(1, "a", "b"), BirthdayDiff.contentHash(2, "a", "b"));
+    assertNotEquals(BirthdayDiff.contentHash(1, "ab", "c"), BirthdayDiff.contentHash(1, "a", "bc"));
+    assertNotEquals(BirthdayDiff.contentHash(1, "a", null), BirthdayDiff.contentHash(1, "a", ""));
+  }
+}
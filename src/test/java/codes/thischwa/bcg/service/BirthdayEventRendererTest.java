@@ -0,0 +1,90 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.BcgConf;
+import codes.thischwa.bcg.conf.EventConf;
+import codes.thischwa.bcg.conf.RenderCacheConf;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the cache of the rendered events of the {@link BirthdayEventRenderer}.
+ */
+class BirthdayEventRendererTest {
+
+  private static final Contact JANE =
+      new Contact("Jane", "Doe", "Jane Doe", LocalDate.of(1980, 1, 2), "jane");
+  private static final Contact JOHN =
+      new Contact("John", "Doe", "John Doe", LocalDate.of(1975, 3, 4), "john");
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  void testRenderedEventsAreCached() {
+    BirthdayEventRenderer renderer = renderer(64);
+    BirthdayEventRenderer.RenderedEvent rendered = renderer.renderEvent(JANE);
+    assertTrue(new String(rendered.content(), StandardCharsets.UTF_8).contains("SUMMARY:Jane Doe"));
+    assertEquals(renderer.contentHash(JANE), rendered.contentHash());
+
+    assertSame(rendered, renderer.renderEvent(JANE));
+    assertNotSame(rendered, renderer.renderEvent(new Contact("Jane", "Roe", "Jane Roe",
+        JANE.birthday(), JANE.identifier())), "A changed contact is rendered again.");
+    assertEquals(1, requests("hit"));
+    assertEquals(2, requests("miss"));
+  }
+
+  @Test
+  void testCachedEventIsStampedWhenItsContentIsTaken() {
+    BirthdayEventRenderer renderer = renderer(64);
+    BirthdayEventRenderer.RenderedEvent rendered = renderer.renderEvent(JANE);
+    assertSame(rendered, renderer.renderEvent(JANE));
+
+    String content = new String(rendered.content(Instant.parse("2030-01-02T03:04:05Z")),
+        StandardCharsets.UTF_8);
+    assertTrue(content.contains("\r\nDTSTAMP:20300102T030405Z\r\n"), content);
+    assertEquals(content.indexOf("DTSTAMP:"), content.lastIndexOf("DTSTAMP:"));
+    String rendering = renderer.render(JANE).toString();
+    assertEquals(rendering.replaceAll("DTSTAMP:\\w+", ""),
+        content.replaceAll("DTSTAMP:\\w+", ""), "Only the stamp differs from a new rendering.");
+  }
+
+  @Test
+  void testLeastRecentlyUsedEventIsEvicted() {
+    // an event has about 400 bytes, so the cache holds two of them
+    BirthdayEventRenderer renderer = renderer(1);
+    BirthdayEventRenderer.RenderedEvent jane = renderer.renderEvent(JANE);
+    BirthdayEventRenderer.RenderedEvent john = renderer.renderEvent(JOHN);
+    renderer.renderEvent(JANE);
+    renderer.renderEvent(new Contact("Max", "Roe", "Max Roe", LocalDate.of(1990, 5, 6), "max"));
+
+    assertTrue(renderer.getCacheBytes() <= 1024);
+    assertSame(jane, renderer.renderEvent(JANE));
+    assertNotSame(john, renderer.renderEvent(JOHN), "The least recently used event is evicted.");
+  }
+
+  @Test
+  void testDisabledCache() {
+    BirthdayEventRenderer renderer = renderer(0);
+    assertNotSame(renderer.renderEvent(JANE), renderer.renderEvent(JANE));
+    assertEquals(0, renderer.getCacheBytes());
+    assertEquals(2, requests("miss"));
+  }
+
+  private BirthdayEventRenderer renderer(int maxSizeInKb) {
+    return new BirthdayEventRenderer(new BcgConf("BCG", "Birthday", "0 30 4 * * *", false),
+        new EventConf("~first-name~ ~last-name~", "Birthday: ~birthday~", "yyyy-MM-dd", "1d"),
+        new RenderCacheConf(maxSizeInKb), meterRegistry);
+  }
+
+  private double requests(String result) {
+    return meterRegistry.get("bcg.render.cache.requests").tag("result", result).counter().count();
+  }
+}
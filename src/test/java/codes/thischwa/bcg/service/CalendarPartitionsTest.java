@@ -0,0 +1,136 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.TestBcgApp;
+import codes.thischwa.bcg.load.ContactGenerator;
+import codes.thischwa.bcg.load.DavStandInServer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Tests of the birthday events spread across a calendar collection per month, against the
+ * {@link DavStandInServer}.
+ */
+@SpringBootTest(classes = TestBcgApp.class)
+@ActiveProfiles("test")
+class CalendarPartitionsTest {
+
+  private static final String CARD_PATH = "/dav/user/contacts/";
+  private static final String CAL_PATH = "/dav/user/calendar/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  @Autowired
+  private BirthdayCalGenerator generator;
+
+  @Autowired
+  private SyncJournal journal;
+
+  @Autowired
+  private BirthdayEventRenderer renderer;
+
+  private final List<Contact> contacts = new ArrayList<>();
+
+  private static DavStandInServer startServer() {
+    try {
+      return new DavStandInServer(4);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @DynamicPropertySource
+  static void registerProperties(DynamicPropertyRegistry registry) {
+    registry.add("dav.card-url", () -> SERVER.getBaseUrl() + CARD_PATH);
+    registry.add("dav.cal-url", () -> SERVER.getBaseUrl() + CAL_PATH);
+    registry.add("sync.state-dir", () -> "target/bcg-state/partition-test");
+    registry.add("partition.scheme", () -> "month");
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+    SERVER.createCollection(CARD_PATH);
+    SERVER.createCollection(CAL_PATH);
+    for (int month = 1; month <= 12; month++) {
+      SERVER.deleteCollection(partitionPath(month));
+    }
+    journal.discard();
+    journal.saveDeadLetters(new ChangeSet(List.of(), List.of(), List.of(), 0));
+    contacts.addAll(new ContactGenerator(21L, 0).generate(24));
+    contacts.forEach(CalendarPartitionsTest::putVCard);
+  }
+
+  @Test
+  void testEventsAreSpreadByMonth() throws IOException {
+    assertTrue(generator.processBirthdayEvents().isComplete());
+
+    long months = contacts.stream().map(contact -> contact.birthday().getMonthValue())
+        .distinct().count();
+    assertEquals(months, SERVER.getRequestCount("MKCALENDAR"),
+        "Only the collections of the months with birthdays are created.");
+    for (Contact contact : contacts) {
+      assertTrue(SERVER.containsResource(eventPath(contact)));
+    }
+    assertEquals(0, SERVER.countMembers(CAL_PATH));
+
+    SERVER.resetRequestCounts();
+    SyncResult unchanged = generator.processBirthdayEvents();
+    assertEquals(0, unchanged.applied());
+    assertEquals(0, SERVER.getRequestCount("MKCALENDAR"));
+
+    // a corrected birthday moves the event to the collection of the other month
+    Contact moved = contacts.get(0);
+    Contact corrected = new Contact(moved.firstName(), moved.lastName(), moved.displayName(),
+        moved.birthday().plusMonths(6), moved.identifier());
+    putVCard(corrected);
+    generator.processBirthdayEvents();
+    assertFalse(SERVER.containsResource(eventPath(moved)));
+    assertTrue(SERVER.containsResource(eventPath(corrected)));
+  }
+
+  @Test
+  void testEventsOfTheCalendarAreMoved() throws IOException {
+    Contact contact = contacts.get(0);
+    SERVER.putResource(CAL_PATH + contact.identifier() + ".ics",
+        renderer.renderEvent(contact).content(), CalHandler.CALENDAR_CONTENT_TYPE);
+
+    assertTrue(generator.processBirthdayEvents().isComplete());
+
+    assertFalse(SERVER.containsResource(CAL_PATH + contact.identifier() + ".ics"));
+    assertTrue(SERVER.containsResource(eventPath(contact)));
+    assertTrue(SERVER.containsCollection(partitionPath(contact.birthday().getMonthValue())));
+  }
+
+  private static void putVCard(Contact contact) {
+    SERVER.putResource(CARD_PATH + contact.identifier() + ".vcf",
+        ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8), "text/vcard");
+  }
+
+  private static String partitionPath(int month) {
+    return String.format("/dav/user/calendar-%02d/", month);
+  }
+
+  private static String eventPath(Contact contact) {
+    return partitionPath(contact.birthday().getMonthValue()) + contact.identifier() + ".ics";
+  }
+}
@@ -0,0 +1,140 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.IncrementalConf;
+import codes.thischwa.bcg.conf.LimiterConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.RequestConf;
+import codes.thischwa.bcg.conf.ShardConf;
+import codes.thischwa.bcg.load.ContactGenerator;
+import codes.thischwa.bcg.load.DavStandInServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link CapabilityDiscovery} against the {@link DavStandInServer}.
+ */
+class CapabilityDiscoveryTest {
+
+  private static final String CARD_PATH = "/dav/user/contacts/";
+  private static final String CAL_PATH = "/dav/user/calendar/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  private static DavStandInServer startServer() {
+    try {
+      DavStandInServer server = new DavStandInServer(2);
+      server.createCollection(CARD_PATH);
+      server.createCollection(CAL_PATH);
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+  }
+
+  @Test
+  void testPlanIsDiscoveredOnce() {
+    CapabilityDiscovery discovery = new CapabilityDiscovery(davConf(null), sardineInitializer());
+
+    SyncPlan plan = discovery.getPlan();
+    assertEquals(new SyncPlan(DavConf.CalendarListing.CALENDAR_QUERY,
+        DavConf.ContactFetch.MULTIGET, DavConf.EventWrite.OVERWRITE), plan);
+    assertEquals(plan, discovery.getPlan());
+    assertEquals(2, SERVER.getRequestCount("OPTIONS"), "The result is cached.");
+    assertEquals(2, SERVER.getRequestCount("PROPFIND"));
+  }
+
+  @Test
+  void testPlanOfAServerWithoutReports() {
+    SERVER.setReportsSupported(false);
+    CapabilityDiscovery discovery = new CapabilityDiscovery(davConf(null), sardineInitializer());
+
+    assertEquals(new SyncPlan(DavConf.CalendarListing.PROPFIND, DavConf.ContactFetch.GET,
+        DavConf.EventWrite.DELETE_AND_PUT), discovery.getPlan());
+  }
+
+  @Test
+  void testOverride() {
+    DavConf.Strategy partial = new DavConf.Strategy(DavConf.CalendarListing.AUTO,
+        DavConf.ContactFetch.GET, null);
+    assertEquals(new SyncPlan(DavConf.CalendarListing.CALENDAR_QUERY, DavConf.ContactFetch.GET,
+            DavConf.EventWrite.OVERWRITE),
+        new CapabilityDiscovery(davConf(partial), sardineInitializer()).getPlan());
+
+    SERVER.resetRequestCounts();
+    DavConf.Strategy forced = new DavConf.Strategy(DavConf.CalendarListing.PROPFIND,
+        DavConf.ContactFetch.MULTIGET, DavConf.EventWrite.DELETE_AND_PUT);
+    assertEquals(new SyncPlan(DavConf.CalendarListing.PROPFIND, DavConf.ContactFetch.MULTIGET,
+            DavConf.EventWrite.DELETE_AND_PUT),
+        new CapabilityDiscovery(davConf(forced), sardineInitializer()).getPlan());
+    assertTrue(SERVER.getRequestCounts().isEmpty(), "A forced plan needs no discovery.");
+  }
+
+  @Test
+  void testPlanOfAnUnknownServer() {
+    assertEquals(new SyncPlan(DavConf.CalendarListing.CALENDAR_QUERY, DavConf.ContactFetch.GET,
+        DavConf.EventWrite.DELETE_AND_PUT), CapabilityDiscovery.plan(null, null, null));
+  }
+
+  @Test
+  void testContactsAreFetchedByMultiget() throws IOException {
+    List<Contact> contacts = new ContactGenerator(7L, 0)
+        .generate(CardHandler.MULTIGET_BATCH_SIZE + 3);
+    for (Contact contact : contacts) {
+      SERVER.putResource(CARD_PATH + contact.identifier() + ".vcf",
+          ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8), "text/vcard");
+    }
+    DavConf davConf = davConf(null);
+    CardHandler cardHandler = new CardHandler(davConf, sardineInitializer(),
+        ObservationRegistry.NOOP, new Shard(new ShardConf(1, 0)), new PipelineConf(4, 2, 2, 2),
+        new CapabilityDiscovery(davConf, sardineInitializer()),
+        new ContactCache(new IncrementalConf(false, 24), Path.of("state"), davConf.cardUrl(),
+            Clock.systemUTC()));
+
+    List<Contact> read = cardHandler.readContactsWithBirthday();
+
+    assertEquals(sorted(contacts), sorted(read));
+    assertEquals(2, SERVER.getRequestCount("REPORT"));
+    assertEquals(0, SERVER.getRequestCount("GET"));
+  }
+
+  private static List<Contact> sorted(List<Contact> contacts) {
+    return contacts.stream().sorted(Comparator.comparing(Contact::identifier)).toList();
+  }
+
+  private static DavConf davConf(DavConf.Strategy strategy) {
+    return new DavConf("user", "password", SERVER.getBaseUrl() + CAL_PATH,
+        SERVER.getBaseUrl() + CARD_PATH, 0, 1, strategy, null);
+  }
+
+  private static SardineInitializer sardineInitializer() {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    return new SardineInitializer(davConf(null), new AdaptiveConcurrencyLimiter(
+        new LimiterConf(4, 1, 16, 0.5, 3.0, 5), meterRegistry), ObservationRegistry.NOOP,
+        new HttpWireMetrics(meterRegistry), new RequestDeadlines(
+        new RequestConf(10, 30, 120, false, 50, 5), meterRegistry), new PipelineConf(8, 2, 2, 2));
+  }
+}
@@ -0,0 +1,146 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.IncrementalConf;
+import codes.thischwa.bcg.conf.LimiterConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.RequestConf;
+import codes.thischwa.bcg.conf.ShardConf;
+import codes.thischwa.bcg.load.ContactGenerator;
+import codes.thischwa.bcg.load.DavStandInServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the incremental read of the address book with the {@link ContactCache}, against the
+ * {@link DavStandInServer}.
+ */
+class ContactCacheTest {
+
+  private static final String CARD_PATH = "/dav/user/contacts/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  private static DavStandInServer startServer() {
+    try {
+      DavStandInServer server = new DavStandInServer(2);
+      server.createCollection(CARD_PATH);
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @TempDir
+  private Path stateDir;
+
+  private Instant modified;
+  private List<Contact> contacts;
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+    modified = Instant.now().minus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS);
+    contacts = new ArrayList<>(new ContactGenerator(11L, 0).generate(10));
+    for (int i = 0; i < contacts.size(); i++) {
+      putVCard(contacts.get(i), modified.plusSeconds(i));
+    }
+  }
+
+  @Test
+  void testUnchangedVCardsAreSkipped() {
+    Clock clock = Clock.fixed(Instant.now(), ZoneOffset.UTC);
+    assertEquals(sorted(contacts), sorted(read(clock)));
+    assertEquals(10, SERVER.getRequestCount("GET"), "The first read is a full one.");
+
+    SERVER.resetRequestCounts();
+    assertEquals(sorted(contacts), sorted(read(clock)));
+    assertEquals(1, SERVER.getRequestCount("GET"),
+        "Only the vCard modified in the second of the high-water mark is fetched.");
+
+    SERVER.resetRequestCounts();
+    Contact renamed = contacts.get(3);
+    contacts.set(3, new Contact(renamed.firstName(), "Renamed", renamed.displayName(),
+        renamed.birthday(), renamed.identifier()));
+    putVCard(contacts.get(3), modified.plusSeconds(20));
+    SERVER.deleteResource(CARD_PATH + contacts.remove(5).identifier() + ".vcf");
+    assertEquals(sorted(contacts), sorted(read(clock)));
+    assertEquals(2, SERVER.getRequestCount("GET"));
+  }
+
+  @Test
+  void testFullReconciliation() {
+    Clock clock = Clock.fixed(Instant.now(), ZoneOffset.UTC);
+    read(clock);
+    SERVER.resetRequestCounts();
+
+    assertEquals(sorted(contacts), sorted(read(Clock.offset(clock, Duration.ofHours(24)))));
+    assertEquals(10, SERVER.getRequestCount("GET"));
+  }
+
+  @Test
+  void testRevision() {
+    assertEquals("2025-06-03T10:15:30Z", ContactCache.revision("""
+        BEGIN:VCARD\r
+        VERSION:4.0\r
+        NOTE:REV:not a revision\r
+        rev;VALUE=timestamp:2025-06-03T10:15:30Z\r
+        END:VCARD\r
+        """.getBytes(StandardCharsets.UTF_8)));
+    assertNull(ContactCache.revision("""
+        BEGIN:VCARD
+        REVISION:1
+        END:VCARD""".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private List<Contact> read(Clock clock) {
+    DavConf davConf = new DavConf("user", "password", SERVER.getBaseUrl() + "/dav/user/calendar/",
+        SERVER.getBaseUrl() + CARD_PATH, 0, 1,
+        new DavConf.Strategy(null, DavConf.ContactFetch.GET, null), null);
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    SardineInitializer sardineInitializer = new SardineInitializer(davConf,
+        new AdaptiveConcurrencyLimiter(new LimiterConf(4, 1, 16, 0.5, 3.0, 5), meterRegistry),
+        ObservationRegistry.NOOP, new HttpWireMetrics(meterRegistry), new RequestDeadlines(
+        new RequestConf(10, 30, 120, false, 50, 5), meterRegistry), new PipelineConf(8, 2, 2, 2));
+    ContactCache contactCache = new ContactCache(new IncrementalConf(true, 24), stateDir,
+        davConf.cardUrl(), clock);
+    CardHandler cardHandler = new CardHandler(davConf, sardineInitializer,
+        ObservationRegistry.NOOP, new Shard(new ShardConf(1, 0)), new PipelineConf(8, 2, 2, 2),
+        new CapabilityDiscovery(davConf, sardineInitializer), contactCache);
+    return cardHandler.readContactsWithBirthday();
+  }
+
+  private static void putVCard(Contact contact, Instant lastModified) {
+    SERVER.putResource(CARD_PATH + contact.identifier() + ".vcf",
+        ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8), "text/vcard",
+        lastModified);
+  }
+
+  private static List<Contact> sorted(List<Contact> contacts) {
+    return contacts.stream().sorted(Comparator.comparing(Contact::identifier)).toList();
+  }
+}
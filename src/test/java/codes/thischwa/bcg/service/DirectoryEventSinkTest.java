@@ -0,0 +1,130 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.BcgConf;
+import codes.thischwa.bcg.conf.EventConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.RenderCacheConf;
+import codes.thischwa.bcg.conf.ShardConf;
+import codes.thischwa.bcg.load.ContactGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the {@link DirectoryContactSource} and the {@link DirectoryEventSink}: a directory of
+ * vCard files synced to a directory of iCalendar files, without a DAV server.
+ */
+class DirectoryEventSinkTest {
+
+  @TempDir
+  private Path tempDir;
+
+  private Path contactDir;
+  private Path eventDir;
+  private List<Contact> contacts;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    contactDir = Files.createDirectory(tempDir.resolve("contacts"));
+    eventDir = tempDir.resolve("events");
+    contacts = new ContactGenerator(7L, 0).generate(10);
+    for (Contact contact : contacts) {
+      writeVCard(contact);
+    }
+  }
+
+  @Test
+  void testSync() throws IOException {
+    SyncResult result = sync();
+    assertEquals(10, result.applied());
+    assertEquals(10, countEventFiles());
+
+    result = sync();
+    assertEquals(0, result.applied());
+    assertEquals(10, result.unchanged());
+  }
+
+  @Test
+  void testChangedContactsAreSynced() throws IOException {
+    sync();
+    Path foreignEvent = eventDir.resolve("foreign.ics");
+    Files.writeString(foreignEvent, """
+        BEGIN:VCALENDAR\r
+        VERSION:2.0\r
+        PRODID:-//test//EN\r
+        BEGIN:VEVENT\r
+        UID:foreign\r
+        DTSTAMP:20250101T000000Z\r
+        DTSTART;VALUE=DATE:20250101\r
+        CATEGORIES:Holiday\r
+        SUMMARY:New Year\r
+        END:VEVENT\r
+        END:VCALENDAR\r
+        """);
+    Files.delete(contactDir.resolve(contacts.get(0).identifier() + ".vcf"));
+    Contact renamed = contacts.get(1);
+    writeVCard(new Contact(renamed.firstName(), "Renamed", renamed.displayName(),
+        renamed.birthday(), renamed.identifier()));
+
+    SyncResult result = sync();
+
+    assertEquals(2, result.applied(), "One event is deleted and one is updated.");
+    assertEquals(8, result.unchanged());
+    assertEquals(10, countEventFiles(), "The foreign event is left alone.");
+    assertTrue(Files.exists(foreignEvent));
+    assertTrue(Files.readString(eventDir.resolve(renamed.identifier() + ".ics"))
+        .contains("Renamed"));
+  }
+
+  @Test
+  void testFingerprintChangesWithTheFiles() throws IOException {
+    DirectoryContactSource source = contactSource();
+    String fingerprint = source.fingerprintContacts();
+    assertEquals(fingerprint, source.fingerprintContacts());
+
+    Files.delete(contactDir.resolve(contacts.get(0).identifier() + ".vcf"));
+    assertNotEquals(fingerprint, source.fingerprintContacts());
+  }
+
+  private SyncResult sync() throws IOException {
+    DirectoryContactSource source = contactSource();
+    BirthdayEventRenderer renderer = new BirthdayEventRenderer(
+        new BcgConf("BCG", "Birthday", "0 30 4 * * *", false),
+        new EventConf("~first-name~ ~last-name~", "Birthday: ~birthday~", "yyyy-MM-dd", "1d"),
+        new RenderCacheConf(64), new SimpleMeterRegistry());
+    DirectoryEventSink sink = new DirectoryEventSink(eventDir, renderer,
+        new Shard(new ShardConf(1, 0)), new PipelineConf(8, 2, 2, 2), ObservationRegistry.NOOP);
+    SourceFingerprint fingerprint = new SourceFingerprint();
+    return sink.syncEventsWithBirthdayChanges(
+        pipeline -> source.readContactsWithBirthday(pipeline, fingerprint), fingerprint::value);
+  }
+
+  private DirectoryContactSource contactSource() {
+    return new DirectoryContactSource(contactDir, new Shard(new ShardConf(1, 0)),
+        new PipelineConf(8, 2, 2, 2), ObservationRegistry.NOOP);
+  }
+
+  private void writeVCard(Contact contact) throws IOException {
+    Files.write(contactDir.resolve(contact.identifier() + ".vcf"),
+        ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private long countEventFiles() throws IOException {
+    try (Stream<Path> files = Files.list(eventDir)) {
+      return files.filter(path -> path.toString().endsWith(".ics")).count();
+    }
+  }
+}
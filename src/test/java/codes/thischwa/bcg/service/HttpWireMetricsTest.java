@@ -0,0 +1,92 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.LimiterConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.RequestConf;
+import codes.thischwa.bcg.load.DavStandInServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link HttpWireMetrics} with a {@link SardineInitializer} against the
+ * {@link DavStandInServer}.
+ */
+class HttpWireMetricsTest {
+
+  private static final String CARD_PATH = "/dav/user/contacts/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  private static DavStandInServer startServer() {
+    try {
+      DavStandInServer server = new DavStandInServer(2);
+      server.createCollection(CARD_PATH);
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @Test
+  void testMetrics() throws IOException {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    HttpWireMetrics wireMetrics = new HttpWireMetrics(meterRegistry);
+    String cardUrl = SERVER.getBaseUrl() + CARD_PATH;
+    DavConf davConf = new DavConf("user", "password", cardUrl, cardUrl, 0, 1, null, null);
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+        new LimiterConf(4, 1, 16, 0.5, 3.0, 5), meterRegistry);
+    BcgSardine sardine = new SardineInitializer(davConf, limiter, ObservationRegistry.NOOP,
+        wireMetrics, new RequestDeadlines(new RequestConf(10, 30, 120, false, 50, 5),
+        meterRegistry), new PipelineConf(8, 2, 2, 2)).getSardine();
+
+    for (int i = 0; i < 12; i++) {
+      byte[] data = ("card " + i).repeat(i + 1).getBytes(StandardCharsets.UTF_8);
+      sardine.put(cardUrl + "card-" + i + ".vcf", data, "text/vcard");
+      try (InputStream in = sardine.get(cardUrl + "card-" + i + ".vcf")) {
+        in.readAllBytes();
+      }
+    }
+    assertEquals(13, sardine.list(cardUrl, entry -> { }), "12 vCards and the collection");
+
+    assertEquals(12, meterRegistry.get("bcg.http.client.requests")
+        .tags("method", "PUT", "status", "2xx").timer().count());
+    assertEquals(12, meterRegistry.get("bcg.http.client.requests")
+        .tags("method", "GET", "status", "2xx").timer().count());
+    assertEquals(1, meterRegistry.get("bcg.http.client.requests")
+        .tags("method", "PROPFIND", "status", "2xx").timer().count());
+    long expectedBytes = 0;
+    for (int i = 0; i < 12; i++) {
+      expectedBytes += ("card " + i).repeat(i + 1).length();
+    }
+    assertEquals(expectedBytes, meterRegistry.get("bcg.http.client.request.size")
+        .tags("method", "PUT").summary().totalAmount());
+    assertEquals(expectedBytes, meterRegistry.get("bcg.http.client.response.size")
+        .tags("method", "GET").summary().totalAmount());
+    assertTrue(meterRegistry.get("bcg.http.client.connections")
+        .tags("reused", "true").counters().stream().mapToDouble(c -> c.count()).sum() > 0,
+        "keep-alive connections should be reused");
+
+    List<HttpWireMetrics.ResourceTiming> slowest = wireMetrics.getSlowestResources();
+    assertEquals(HttpWireMetrics.SLOWEST_RESOURCES_SIZE, slowest.size());
+    for (int i = 1; i < slowest.size(); i++) {
+      assertTrue(slowest.get(i - 1).nanos() >= slowest.get(i).nanos());
+    }
+    wireMetrics.reportSlowestResources();
+    assertTrue(wireMetrics.getSlowestResources().isEmpty());
+  }
+}
@@ -0,0 +1,138 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.conf.LimiterConf;
+import codes.thischwa.bcg.conf.RequestConf;
+import codes.thischwa.bcg.load.DavStandInServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link LeaderElection} with the {@link DavLeaderLock} against the
+ * {@link DavStandInServer} and with the {@link FileLeaderLock}.
+ */
+class LeaderElectionTest {
+
+  private static final String CAL_PATH = "/dav/user/calendar/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  @TempDir
+  Path stateDir;
+
+  private static DavStandInServer startServer() {
+    try {
+      DavStandInServer server = new DavStandInServer(2);
+      server.createCollection(CAL_PATH);
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+  }
+
+  private static DavLeaderLock newDavLock(int timeoutInSeconds) {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+        new LimiterConf(4, 1, 16, 0.5, 3.0, 5), new SimpleMeterRegistry());
+    BcgSardine sardine = new BcgSardine(HttpClientBuilder.create(), "user", "password", limiter,
+        new RequestDeadlines(new RequestConf(10, 30, 120, false, 50, 5),
+        new SimpleMeterRegistry()), ObservationRegistry.NOOP, 1, Duration.ZERO);
+    return new DavLeaderLock(sardine, SERVER.getBaseUrl() + CAL_PATH + "bcg-leader.lock",
+        timeoutInSeconds);
+  }
+
+  @Test
+  void testDavLockIsExclusive() throws IOException {
+    DavLeaderLock first = newDavLock(60);
+    DavLeaderLock second = newDavLock(60);
+
+    assertTrue(first.acquire());
+    assertFalse(second.acquire());
+    // the holder refreshes its lock
+    assertTrue(first.acquire());
+    assertFalse(second.acquire());
+
+    first.release();
+    assertTrue(second.acquire());
+    assertFalse(first.acquire());
+  }
+
+  @Test
+  void testFailoverAfterExpiry() throws Exception {
+    DavLeaderLock first = newDavLock(1);
+    DavLeaderLock second = newDavLock(1);
+
+    assertTrue(first.acquire());
+    assertFalse(second.acquire());
+    // the holder died and doesn't refresh
+    Thread.sleep(1_200);
+    assertTrue(second.acquire());
+    assertFalse(first.acquire(), "The expired holder must not refresh the lock of another.");
+  }
+
+  @Test
+  void testTermRefreshesTheLock() throws Exception {
+    LeaderElection leader = new LeaderElection(newDavLock(1), Duration.ofMillis(300));
+    LeaderElection standby = new LeaderElection(newDavLock(1), Duration.ofMillis(300));
+    try {
+      LeaderElection.Term term = leader.tryLead();
+      assertNotNull(term);
+      try (term) {
+        // longer than the timeout, but the lock is refreshed during the run
+        Thread.sleep(1_500);
+        assertNull(standby.tryLead());
+      }
+      Thread.sleep(1_200);
+      LeaderElection.Term takeOver = standby.tryLead();
+      assertNotNull(takeOver);
+      takeOver.close();
+    } finally {
+      leader.close();
+      standby.close();
+    }
+  }
+
+  @Test
+  void testFileLock() throws IOException {
+    Path lockFile = stateDir.resolve("bcg-leader.lock");
+    FileLeaderLock first = new FileLeaderLock(lockFile);
+    FileLeaderLock second = new FileLeaderLock(lockFile);
+
+    assertTrue(first.acquire());
+    assertTrue(first.acquire());
+    assertFalse(second.acquire());
+
+    first.release();
+    assertTrue(second.acquire());
+    second.release();
+  }
+
+  @Test
+  void testWithoutCoordination() {
+    LeaderElection election = new LeaderElection(null, Duration.ofSeconds(1));
+    LeaderElection.Term term = election.tryLead();
+    assertNotNull(term);
+    term.close();
+  }
+}
@@ -0,0 +1,177 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link MultistatusParser}.
+ */
+class MultistatusParserTest {
+
+  private static final String MULTISTATUS = """
+      <?xml version="1.0" encoding="utf-8"?>
+      <d:multistatus xmlns:d="DAV:" xmlns:cs="http://calendarserver.org/ns/">
+        <d:response>
+          <d:href>/dav/user/calendar/</d:href>
+          <d:propstat>
+            <d:prop>
+              <d:resourcetype><d:collection/><cal:calendar xmlns:cal="urn:ietf:params:xml:ns:caldav"/></d:resourcetype>
+            </d:prop>
+            <d:status>HTTP/1.1 200 OK</d:status>
+          </d:propstat>
+          <d:propstat>
+            <d:prop><d:getetag/><d:getcontenttype/></d:prop>
+            <d:status>HTTP/1.1 404 Not Found</d:status>
+          </d:propstat>
+        </d:response>
+        <d:response>
+          <d:href>/dav/user/calendar/jane.ics</d:href>
+          <d:propstat>
+            <d:prop>
+              <d:getetag>"abc-1"</d:getetag>
+              <d:getcontenttype>text/calendar; charset=utf-8</d:getcontenttype>
+              <d:getlastmodified>Tue, 03 Jun 2025 10:15:30 GMT</d:getlastmodified>
+              <d:resourcetype/>
+            </d:prop>
+            <d:status>HTTP/1.1 200 OK</d:status>
+          </d:propstat>
+        </d:response>
+        <d:response>
+          <d:href>/dav/user/calendar/john doe.ics</d:href>
+          <d:propstat>
+            <d:prop>
+              <d:getetag>"abc-2"</d:getetag>
+              <d:getcontenttype>text/calendar</d:getcontenttype>
+              <d:getlastmodified>yesterday</d:getlastmodified>
+            </d:prop>
+            <d:status>HTTP/1.1 200</d:status>
+          </d:propstat>
+        </d:response>
+      </d:multistatus>
+      """;
+
+  @Test
+  void testParse() {
+    List<DavEntry> entries = new ArrayList<>();
+    int count = MultistatusParser.parse(
+        new ByteArrayInputStream(MULTISTATUS.getBytes(StandardCharsets.UTF_8)), entries::add);
+
+    assertEquals(3, count);
+    assertEquals(3, entries.size());
+
+    DavEntry collection = entries.get(0);
+    assertTrue(collection.directory());
+    assertNull(collection.etag(), "Properties of a 404 propstat must be ignored.");
+    assertNull(collection.contentType());
+
+    DavEntry jane = entries.get(1);
+    assertFalse(jane.directory());
+    assertEquals("/dav/user/calendar/jane.ics", jane.href().getPath());
+    assertEquals("\"abc-1\"", jane.etag());
+    assertTrue(jane.hasContentType(CalHandler.CALENDAR_CONTENT_TYPE));
+
+    DavEntry john = entries.get(2);
+    assertEquals("/dav/user/calendar/john doe.ics", john.href().getPath(),
+        "An unescaped href should be accepted.");
+    assertEquals("\"abc-2\"", john.etag());
+
+    assertEquals(Instant.parse("2025-06-03T10:15:30Z"), jane.lastModified());
+    assertNull(john.lastModified(), "A malformed date should be ignored.");
+  }
+
+  @Test
+  void testParseCalendarData() {
+    String multistatus = """
+        <?xml version="1.0" encoding="utf-8"?>
+        <d:multistatus xmlns:d="DAV:" xmlns:cal="urn:ietf:params:xml:ns:caldav">
+          <d:response>
+            <d:href>/dav/user/calendar/jane.ics</d:href>
+            <d:propstat>
+              <d:prop>
+                <d:getetag>"abc-1"</d:getetag>
+                <cal:calendar-data>BEGIN:VCALENDAR&#13;
+        BEGIN:VEVENT&#13;
+        UID:jane&#13;
+        END:VEVENT&#13;
+        END:VCALENDAR&#13;
+        </cal:calendar-data>
+              </d:prop>
+              <d:status>HTTP/1.1 200 OK</d:status>
+            </d:propstat>
+          </d:response>
+          <d:response>
+            <d:href>/dav/user/calendar/john.ics</d:href>
+            <d:propstat>
+              <d:prop><cal:calendar-data/></d:prop>
+              <d:status>HTTP/1.1 404 Not Found</d:status>
+            </d:propstat>
+          </d:response>
+        </d:multistatus>
+        """;
+    List<DavEntry> entries = new ArrayList<>();
+    MultistatusParser.parse(
+        new ByteArrayInputStream(multistatus.getBytes(StandardCharsets.UTF_8)), entries::add);
+
+    assertEquals(2, entries.size());
+    assertEquals("\"abc-1\"", entries.get(0).etag());
+    assertEquals("BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\nUID:jane\r\nEND:VEVENT\r\nEND:VCALENDAR",
+        entries.get(0).data());
+    assertNull(entries.get(1).data(), "Properties of a 404 propstat must be ignored.");
+  }
+
+  @Test
+  void testParseCapabilities() {
+    String multistatus = """
+        <?xml version="1.0" encoding="utf-8"?>
+        <d:multistatus xmlns:d="DAV:" xmlns:cal="urn:ietf:params:xml:ns:caldav"
+            xmlns:cs="http://calendarserver.org/ns/">
+          <d:response>
+            <d:href>/dav/user/calendar/</d:href>
+            <d:propstat>
+              <d:prop>
+                <d:supported-report-set>
+                  <d:supported-report><d:report><cal:calendar-query/></d:report></d:supported-report>
+                  <d:supported-report><d:report><d:sync-collection/></d:report></d:supported-report>
+                </d:supported-report-set>
+                <cs:getctag>42</cs:getctag>
+              </d:prop>
+              <d:status>HTTP/1.1 200 OK</d:status>
+            </d:propstat>
+            <d:propstat>
+              <d:prop><d:sync-token/></d:prop>
+              <d:status>HTTP/1.1 404 Not Found</d:status>
+            </d:propstat>
+          </d:response>
+        </d:multistatus>
+        """;
+    DavCapabilities capabilities = MultistatusParser.parseCapabilities(
+        new ByteArrayInputStream(multistatus.getBytes(StandardCharsets.UTF_8)),
+        Set.of("1", "calendar-access"), Set.of());
+
+    assertEquals(Set.of("calendar-query", "sync-collection"), capabilities.reports());
+    assertTrue(capabilities.ctag());
+    assertFalse(capabilities.syncToken(), "Properties of a 404 propstat must be ignored.");
+    assertTrue(capabilities.supportsReport(DavCapabilities.CALENDAR_QUERY));
+    assertFalse(capabilities.supportsReport("calendar-multiget"),
+        "The supported-report-set overrules the compliance class.");
+    assertTrue(capabilities.supportsSyncCollection());
+  }
+
+  @Test
+  void testParseInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> MultistatusParser.parse(
+        new ByteArrayInputStream("<d:multistatus xmlns:d=\"DAV:\">".getBytes(StandardCharsets.UTF_8)),
+        e -> { }));
+  }
+}
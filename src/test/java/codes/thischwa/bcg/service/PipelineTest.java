@@ -0,0 +1,155 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.jupiter.api.Test;
+
+class PipelineTest {
+
+  @Test
+  void testSinkReceivesTheItemsInTheOrderOfTheSource() throws IOException {
+    Pipeline pipeline = new Pipeline("test", 4);
+    List<Integer> result = new ArrayList<>();
+    pipeline.<Integer>source("count", null, emitter -> {
+          for (int i = 0; i < 200; i++) {
+            emitter.accept(i);
+          }
+        })
+        .map("slow", 8, i -> {
+          // lets the items overtake each other
+          LockSupport.parkNanos(ThreadLocalRandom.current().nextInt(2_000_000));
+          return i;
+        })
+        // the odd numbers are dropped
+        .map("filter", 3, i -> i % 2 == 0 ? i * 10 : null)
+        .sink("collect", result::add);
+    pipeline.run();
+
+    assertEquals(100, result.size());
+    for (int i = 0; i < result.size(); i++) {
+      assertEquals(i * 20, result.get(i));
+    }
+  }
+
+  @Test
+  void testBranchesRunConcurrently() throws IOException {
+    // each branch waits for the other one, so the pipeline would hang if they ran one after another
+    Pipeline pipeline = new Pipeline("test", 1);
+    AtomicInteger started = new AtomicInteger();
+    for (String branch : List.of("a", "b")) {
+      pipeline.<String>source(branch, null, emitter -> {
+            started.incrementAndGet();
+            while (started.get() < 2) {
+              Thread.onSpinWait();
+            }
+            emitter.accept(branch);
+          })
+          .sink(branch + "-collect", item -> {
+          });
+    }
+    pipeline.run();
+    assertEquals(2, started.get());
+  }
+
+  @Test
+  void testBackpressureBoundsTheItemsInFlight() throws IOException {
+    int capacity = 2;
+    Pipeline pipeline = new Pipeline("test", capacity);
+    AtomicInteger emitted = new AtomicInteger();
+    AtomicInteger consumed = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    pipeline.<Integer>source("count", null, emitter -> {
+          for (int i = 0; i < 50; i++) {
+            emitter.accept(i);
+            int inFlight = emitted.incrementAndGet() - consumed.get();
+            maxInFlight.accumulateAndGet(inFlight, Math::max);
+          }
+        })
+        .map("copy", 1, i -> i)
+        .sink("slow", i -> {
+          consumed.incrementAndGet();
+          LockSupport.parkNanos(2_000_000);
+        });
+    pipeline.run();
+
+    assertEquals(50, consumed.get());
+    // two queues and the item held by each of the two downstream threads
+    assertTrue(maxInFlight.get() <= 2 * capacity + 2 + 1, "in flight: " + maxInFlight.get());
+  }
+
+  @Test
+  void testSlowItemDoesNotLetTheReorderBufferGrow() throws IOException {
+    int capacity = 2;
+    int parallelism = 4;
+    Pipeline pipeline = new Pipeline("test", capacity);
+    AtomicInteger emitted = new AtomicInteger();
+    AtomicInteger consumed = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    List<Integer> result = new ArrayList<>();
+    pipeline.<Integer>source("count", null, emitter -> {
+          for (int i = 0; i < 500; i++) {
+            emitter.accept(i);
+            int inFlight = emitted.incrementAndGet() - consumed.get();
+            maxInFlight.accumulateAndGet(inFlight, Math::max);
+          }
+        })
+        .map("fetch", parallelism, i -> {
+          // the other items overtake the stalled first one
+          if (i == 0) {
+            LockSupport.parkNanos(200_000_000);
+          }
+          return i;
+        })
+        .sink("collect", i -> {
+          consumed.incrementAndGet();
+          result.add(i);
+        });
+    pipeline.run();
+
+    assertEquals(500, result.size());
+    assertEquals(0, result.get(0));
+    assertEquals(499, result.get(499));
+    // the queues of the source and the stage and the items held by the threads of the stage
+    assertTrue(maxInFlight.get() <= 2 * capacity + parallelism, "in flight: " + maxInFlight.get());
+  }
+
+  @Test
+  void testFailureStopsAllStages() {
+    Pipeline pipeline = new Pipeline("test", 2);
+    AtomicReference<Throwable> failed = new AtomicReference<>();
+    pipeline.<Integer>source("endless", null, emitter -> {
+          for (int i = 0; ; i++) {
+            emitter.accept(i);
+          }
+        })
+        .map("fetch", 2, i -> {
+          if (i == 10) {
+            throw new IOException("fetch failed");
+          }
+          return i;
+        })
+        .sink("collect", new Pipeline.Sink<>() {
+          @Override
+          public void accept(Integer item) {
+          }
+
+          @Override
+          public void fail(Throwable cause) {
+            failed.set(cause);
+          }
+        });
+
+    IOException e = assertThrows(IOException.class, pipeline::run);
+    assertEquals("fetch failed", e.getMessage());
+    assertEquals(e, failed.get());
+  }
+}
@@ -0,0 +1,288 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.LimiterConf;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.RequestConf;
+import codes.thischwa.bcg.load.DavStandInServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link RequestDeadlines}: the deadlines of the requests and of a run against the
+ * {@link DavStandInServer} and the hedging of the {@link HedgingTransport}.
+ */
+class RequestDeadlinesTest {
+
+  private static final String CAL_PATH = "/dav/user/calendar/";
+
+  private static final DavStandInServer SERVER = startServer();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private static DavStandInServer startServer() {
+    try {
+      DavStandInServer server = new DavStandInServer(4);
+      server.createCollection(CAL_PATH);
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+  }
+
+  @Test
+  void testStalledRequestIsAborted() {
+    SERVER.putResource(CAL_PATH + "event.ics", new byte[] {1}, "text/calendar");
+    SERVER.setLatency("GET", 5_000);
+    RequestDeadlines deadlines = deadlines(false);
+    for (DavConf.Transport transport : DavConf.Transport.values()) {
+      DavTransport davTransport = sardineInitializer(transport, deadlines).getTransport();
+      long start = System.nanoTime();
+
+      assertThrows(HttpTimeoutException.class, () ->
+          DavTransport.await(davTransport.get(SERVER.getBaseUrl() + CAL_PATH + "event.ics")));
+      assertTrue(System.nanoTime() - start < Duration.ofSeconds(4).toNanos(),
+          "The " + transport + " request is aborted at its deadline.");
+    }
+    assertEquals(2, meterRegistry.get("bcg.dav.deadline.exceeded").tag("scope", "request")
+        .counter().count());
+  }
+
+  @Test
+  void testStreamedListingOutlivesTheRequestDeadline() throws IOException {
+    for (int i = 0; i < 200; i++) {
+      SERVER.putResource(CAL_PATH + "event-" + i + ".ics", new byte[] {1}, "text/calendar");
+    }
+    RequestDeadlines deadlines = deadlines(false);
+    // the consumer pushes back like the bounded queues of the pipeline
+    Consumer<DavEntry> slowConsumer = entry -> sleep(10);
+    for (DavConf.Transport transport : DavConf.Transport.values()) {
+      DavTransport davTransport = sardineInitializer(transport, deadlines).getTransport();
+      long start = System.nanoTime();
+
+      assertEquals(201, davTransport.list(SERVER.getBaseUrl() + CAL_PATH, slowConsumer));
+      assertTrue(System.nanoTime() - start > Duration.ofSeconds(1).toNanos(),
+          "The " + transport + " listing is read beyond the deadline of the request.");
+    }
+
+    DavTransport transport = sardineInitializer(DavConf.Transport.SARDINE, deadlines)
+        .getTransport();
+    try (RequestDeadlines.Run ignored = deadlines.startRun(
+        RunBudget.start(Duration.ZERO, Duration.ofSeconds(1)))) {
+      assertThrows(HttpTimeoutException.class,
+          () -> transport.list(SERVER.getBaseUrl() + CAL_PATH, slowConsumer),
+          "The listing is still aborted at the deadline of the run.");
+    }
+    assertEquals(0, meterRegistry.get("bcg.dav.deadline.exceeded").tag("scope", "request")
+        .counter().count());
+  }
+
+  @Test
+  void testStalledListingBodyIsAborted() {
+    for (int i = 0; i < 200; i++) {
+      SERVER.putResource(CAL_PATH + "event-" + i + ".ics", new byte[] {1}, "text/calendar");
+    }
+    SERVER.setListingStall(3_000);
+    DavTransport async = sardineInitializer(DavConf.Transport.ASYNC, deadlines(false))
+        .getTransport();
+    long start = System.nanoTime();
+
+    HttpTimeoutException e = assertThrows(HttpTimeoutException.class,
+        () -> async.list(SERVER.getBaseUrl() + CAL_PATH, entry -> { }));
+    assertTrue(e.getMessage().contains("read timeout"), e.getMessage());
+    assertTrue(System.nanoTime() - start < Duration.ofMillis(2_500).toNanos(),
+        "The stalled body is aborted at the read timeout.");
+
+    // without a read timeout, the body is still aborted at the deadline of the run
+    RequestDeadlines deadlines = new RequestDeadlines(new RequestConf(1, 0, 1, false, 50, 5),
+        meterRegistry);
+    for (DavConf.Transport transport : DavConf.Transport.values()) {
+      DavTransport davTransport = sardineInitializer(transport, deadlines).getTransport();
+      start = System.nanoTime();
+      try (RequestDeadlines.Run ignored = deadlines.startRun(
+          RunBudget.start(Duration.ZERO, Duration.ofSeconds(1)))) {
+        assertThrows(HttpTimeoutException.class,
+            () -> davTransport.list(SERVER.getBaseUrl() + CAL_PATH, entry -> { }));
+      }
+      assertTrue(System.nanoTime() - start < Duration.ofMillis(2_500).toNanos(),
+          "The stalled " + transport + " body is aborted at the deadline of the run.");
+    }
+    assertEquals(2, meterRegistry.get("bcg.dav.deadline.exceeded").tag("scope", "run")
+        .counter().count());
+  }
+
+  @Test
+  void testNoRequestIsSentAfterTheRunDeadline() throws IOException {
+    RequestDeadlines deadlines = deadlines(false);
+    DavTransport transport = sardineInitializer(DavConf.Transport.SARDINE, deadlines)
+        .getTransport();
+    String url = SERVER.getBaseUrl() + CAL_PATH;
+
+    try (RequestDeadlines.Run ignored =
+             deadlines.startRun(RunBudget.start(Duration.ZERO, Duration.ofNanos(1)))) {
+      assertThrows(HttpTimeoutException.class, () -> transport.exists(url));
+    }
+    assertEquals(0, SERVER.getRequestCount("HEAD"));
+    assertEquals(1, meterRegistry.get("bcg.dav.deadline.exceeded").tag("scope", "run")
+        .counter().count());
+
+    assertTrue(transport.exists(url), "The deadline ends with the run.");
+  }
+
+  @Test
+  void testSlowRequestIsHedged() throws IOException {
+    RequestDeadlines deadlines = deadlines(true);
+    assertNull(deadlines.hedgeDelay("GET"), "Too few latencies are known.");
+    for (int i = 0; i < RequestDeadlines.MIN_LATENCY_SAMPLES; i++) {
+      deadlines.recordLatency("GET", Duration.ofMillis(10).toNanos());
+    }
+    assertEquals(Duration.ofMillis(50), deadlines.hedgeDelay("GET"),
+        "The delay is at least the minimum.");
+    StallingTransport stalling = new StallingTransport();
+    DavTransport transport = new HedgingTransport(stalling, deadlines, false, 2);
+
+    assertArrayEquals(new byte[] {2}, DavTransport.await(transport.get("http://dav/x.ics")));
+    assertEquals(2, stalling.gets.get());
+    assertEquals(1, meterRegistry.get("bcg.dav.hedge.sent").tag("method", "GET")
+        .counter().count());
+    assertEquals(1, meterRegistry.get("bcg.dav.hedge.won").tag("method", "GET")
+        .counter().count());
+  }
+
+  @Test
+  void testHedgingTransportBoundsTheBlockingRequests() throws IOException {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    DavTransport blocking = new StallingTransport() {
+      @Override
+      public CompletableFuture<byte[]> get(String url) {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        sleep(50);
+        running.decrementAndGet();
+        return CompletableFuture.completedFuture(new byte[] {3});
+      }
+    };
+    DavTransport transport = new HedgingTransport(blocking, deadlines(true), true, 2);
+
+    List<CompletableFuture<byte[]>> gets = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      gets.add(transport.get("http://dav/" + i + ".ics"));
+    }
+    for (CompletableFuture<byte[]> get : gets) {
+      assertArrayEquals(new byte[] {3}, DavTransport.await(get));
+    }
+    assertEquals(2, maxRunning.get(), "The requests wait for a free thread.");
+
+    transport.close();
+    assertThrows(RejectedExecutionException.class, () -> transport.get("http://dav/x.ics"),
+        "The threads are shut down.");
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private RequestDeadlines deadlines(boolean hedging) {
+    return new RequestDeadlines(new RequestConf(1, 1, 1, hedging, 50, 5), meterRegistry);
+  }
+
+  private SardineInitializer sardineInitializer(DavConf.Transport transport,
+                                                RequestDeadlines deadlines) {
+    DavConf davConf = new DavConf("user", "password", SERVER.getBaseUrl() + CAL_PATH,
+        SERVER.getBaseUrl() + CAL_PATH, 0, 1, null, transport);
+    return new SardineInitializer(davConf, new AdaptiveConcurrencyLimiter(
+        new LimiterConf(4, 1, 16, 0.5, 3.0, 5), meterRegistry), ObservationRegistry.NOOP,
+        new HttpWireMetrics(meterRegistry), deadlines, new PipelineConf(8, 2, 2, 2));
+  }
+
+  /**
+   * A transport whose first GET never responds, the further ones respond at once.
+   */
+  private static class StallingTransport implements DavTransport {
+
+    private final AtomicInteger gets = new AtomicInteger();
+
+    @Override
+    public CompletableFuture<byte[]> get(String url) {
+      return gets.getAndIncrement() == 0 ? new CompletableFuture<>()
+          : CompletableFuture.completedFuture(new byte[] {2});
+    }
+
+    @Override
+    public int list(String url, Consumer<DavEntry> consumer) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int calendarQuery(String url, String category, Consumer<DavEntry> consumer) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<List<DavEntry>> addressbookMultiget(String url, List<String> hrefs) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String url, byte[] data, String contentType) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Void> create(String url, byte[] data, String contentType) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String url) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean exists(String url) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void makeCalendar(String url, String displayName) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DavCapabilities discover(String url) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RetryQueueTest {
+
+  @Test
+  void testOnlyIoFailuresAreRetried() throws IOException {
+    RetryQueue retryQueue = new RetryQueue(2, Duration.ofMillis(1));
+    List<String> applied = new ArrayList<>();
+    List<String> deadLetters = new ArrayList<>();
+    AtomicInteger unparsableAttempts = new AtomicInteger();
+    AtomicInteger transientAttempts = new AtomicInteger();
+
+    retryQueue.apply("unparsable", () -> {
+      unparsableAttempts.incrementAndGet();
+      throw new IllegalArgumentException("Unable to parse multistatus response.");
+    }, () -> applied.add("unparsable"), () -> deadLetters.add("unparsable"));
+    retryQueue.apply("transient", () -> {
+      if (transientAttempts.incrementAndGet() == 1) {
+        throw new CompletionException(new IOException("Connection reset"));
+      }
+    }, () -> applied.add("transient"), () -> deadLetters.add("transient"));
+    assertEquals(List.of("unparsable"), deadLetters, "A non-I/O failure is dead-lettered at once.");
+
+    retryQueue.retryFailed();
+
+    assertEquals(1, unparsableAttempts.get());
+    assertEquals(2, transientAttempts.get());
+    assertEquals(List.of("transient"), applied);
+    assertEquals(new SyncResult(1, 1, 1, 0, 0), retryQueue.getResult(0));
+  }
+}
@@ -0,0 +1,129 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.TestBcgApp;
+import codes.thischwa.bcg.load.ContactGenerator;
+import codes.thischwa.bcg.load.DavStandInServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Tests of the time budget of a run against the {@link DavStandInServer}: the upcoming birthdays
+ * are written first and the changes left are carried over to the next run.
+ */
+@SpringBootTest(classes = TestBcgApp.class)
+@ActiveProfiles("test")
+class RunBudgetTest {
+
+  private static final String CARD_PATH = "/dav/user/contacts/";
+  private static final String CAL_PATH = "/dav/user/calendar/";
+
+  /**
+   * The days until the birthdays of the contacts, in the order of the address book.
+   */
+  private static final int[] DAYS_UNTIL_BIRTHDAY = {200, 3, 90, 1, 30, 7};
+
+  private static final DavStandInServer SERVER = startServer();
+
+  @Autowired
+  private BirthdayCalGenerator generator;
+
+  @Autowired
+  private SyncJournal journal;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private final List<Contact> contacts = new ArrayList<>();
+
+  private static DavStandInServer startServer() {
+    try {
+      return new DavStandInServer(4);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @DynamicPropertySource
+  static void registerProperties(DynamicPropertyRegistry registry) {
+    registry.add("dav.card-url", () -> SERVER.getBaseUrl() + CARD_PATH);
+    registry.add("dav.cal-url", () -> SERVER.getBaseUrl() + CAL_PATH);
+    registry.add("sync.state-dir", () -> "target/bcg-state/budget-test");
+    registry.add("sync.run-budget-in-seconds", () -> 1);
+    registry.add("pipeline.write-threads", () -> 1);
+    registry.add("bulk-import.concurrency", () -> 1);
+  }
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    SERVER.reset();
+    SERVER.createCollection(CARD_PATH);
+    SERVER.createCollection(CAL_PATH);
+    journal.discard();
+    journal.saveDeadLetters(new ChangeSet(List.of(), List.of(), List.of(), 0));
+    LocalDate today = LocalDate.now();
+    for (int i = 0; i < DAYS_UNTIL_BIRTHDAY.length; i++) {
+      LocalDate birthday = today.plusDays(DAYS_UNTIL_BIRTHDAY[i]).withYear(1990);
+      Contact contact = new Contact("First" + i, "Last" + i, "First" + i + " Last" + i, birthday,
+          "contact-" + i);
+      contacts.add(contact);
+      SERVER.putResource(CARD_PATH + contact.identifier() + ".vcf",
+          ContactGenerator.toVCard(contact).getBytes(StandardCharsets.UTF_8), "text/vcard");
+    }
+  }
+
+  @Test
+  void testChangesLeftAreCarriedOver() throws IOException {
+    SERVER.setLatency("PUT", 400);
+    SyncResult first = generator.processBirthdayEvents();
+
+    assertFalse(first.isComplete());
+    assertTrue(first.carriedOver() > 0, "The budget doesn't last for all uploads.");
+    assertEquals(contacts.size(), first.applied() + first.carriedOver());
+    assertEquals(first.carriedOver(), backlog());
+    List<Contact> upcomingFirst = contacts.stream()
+        .sorted((a, b) -> Integer.compare(a.daysUntilBirthday(LocalDate.now()),
+            b.daysUntilBirthday(LocalDate.now())))
+        .toList();
+    for (int i = 0; i < upcomingFirst.size(); i++) {
+      assertEquals(i < first.applied(), SERVER.containsResource(
+          CAL_PATH + upcomingFirst.get(i).identifier() + ".ics"),
+          "The upcoming birthdays are written first.");
+    }
+
+    SERVER.setLatency("PUT", 0);
+    SERVER.resetRequestCounts();
+    SyncResult next = generator.processBirthdayEvents();
+
+    assertTrue(next.isComplete());
+    assertEquals(first.carriedOver(), next.applied());
+    assertEquals(0, SERVER.getRequestCount("GET"), "The next run resumes the journal.");
+    assertEquals(contacts.size(), SERVER.countMembers(CAL_PATH));
+    assertEquals(0, backlog());
+  }
+
+  private double backlog() {
+    return meterRegistry.get("bcg.sync.backlog").gauge().value();
+  }
+}
@@ -0,0 +1,67 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.conf.ShardConf;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link Shard}.
+ */
+class ShardTest {
+
+  private static final int COUNT = 4;
+  private static final int IDENTIFIERS = 40_000;
+
+  @Test
+  void testEachIdentifierHasExactlyOneOwner() {
+    Shard[] shards = new Shard[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      shards[i] = new Shard(new ShardConf(COUNT, i));
+    }
+    int[] owned = new int[COUNT];
+    for (int n = 0; n < IDENTIFIERS; n++) {
+      String identifier = UUID.nameUUIDFromBytes(("contact-" + n).getBytes()).toString();
+      int owners = 0;
+      for (int i = 0; i < COUNT; i++) {
+        if (shards[i].owns(identifier)) {
+          owners++;
+          owned[i]++;
+        }
+      }
+      assertEquals(1, owners, identifier);
+    }
+    // the shards are roughly balanced
+    for (int i = 0; i < COUNT; i++) {
+      assertTrue(Math.abs(owned[i] - IDENTIFIERS / COUNT) < IDENTIFIERS / COUNT / 10,
+          "shard " + i + " owns " + owned[i]);
+    }
+  }
+
+  @Test
+  void testOwnsPath() {
+    Shard shard = new Shard(new ShardConf(COUNT, 1));
+    String identifier = UUID.nameUUIDFromBytes("contact".getBytes()).toString();
+    boolean owns = shard.owns(identifier);
+    assertEquals(owns, shard.ownsPath("/dav/user/calendar/" + identifier + ".ics"));
+    assertEquals(owns, shard.ownsPath("/dav/user/contacts/" + identifier + ".vcf"));
+  }
+
+  @Test
+  void testUnsharded() {
+    Shard shard = new Shard(new ShardConf(1, 0));
+    assertFalse(shard.isSharded());
+    assertTrue(shard.owns("any"));
+  }
+
+  @Test
+  void testInvalidConf() {
+    assertThrows(IllegalArgumentException.class, () -> new Shard(new ShardConf(0, 0)));
+    assertThrows(IllegalArgumentException.class, () -> new Shard(new ShardConf(2, 2)));
+    assertThrows(IllegalArgumentException.class, () -> new Shard(new ShardConf(2, -1)));
+  }
+}
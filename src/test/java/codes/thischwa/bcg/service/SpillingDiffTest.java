@@ -0,0 +1,99 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.load.ContactGenerator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the {@link SpillingDiff}: its changes must be the ones of the {@link BirthdayDiff},
+ * regardless of the number of spilled runs.
+ */
+class SpillingDiffTest {
+
+  private static final String CAL_PATH = "/dav/user/calendar/";
+  private static final ToLongFunction<Contact> HASHER = contact -> BirthdayDiff.contentHash(
+      BirthdayDiff.toEpochDay(contact.birthday()), contact.displayName(), null);
+
+  @TempDir
+  private Path stateDir;
+
+  @Test
+  void testChangesAreTheOnesOfTheInMemoryDiff() throws IOException {
+    Random random = new Random(7L);
+    List<Contact> contacts = new ArrayList<>(new ContactGenerator(3L, 0).generate(500));
+    // duplicates of contacts, the first one wins
+    contacts.add(contacts.get(10));
+    contacts.add(new Contact("Other", "Name", "Other Name", LocalDate.of(1970, 1, 1),
+        contacts.get(20).identifier()));
+    EventIndex.Builder builder = EventIndex.builder(CAL_PATH);
+    List<String[]> events = new ArrayList<>();
+    for (Contact contact : contacts.subList(0, 400)) {
+      int epochDay = BirthdayDiff.toEpochDay(contact.birthday());
+      long hash = HASHER.applyAsLong(contact);
+      int kind = random.nextInt(10);
+      if (kind == 0) {
+        epochDay++;
+      } else if (kind == 1) {
+        hash++;
+      }
+      String path = kind == 2 ? CAL_PATH + "foreign-" + contact.identifier() + ".ics"
+          : CAL_PATH + contact.identifier() + ".ics";
+      events.add(new String[] {contact.identifier(), path, String.valueOf(epochDay),
+          String.valueOf(hash)});
+      if (kind == 3) {
+        // a surplus event of the same contact
+        events.add(new String[] {contact.identifier(), CAL_PATH + "copy-" + contact.identifier()
+            + ".ics", String.valueOf(epochDay), String.valueOf(hash)});
+      }
+    }
+    for (int i = 0; i < 50; i++) {
+      events.add(new String[] {"orphan-" + i, CAL_PATH + "orphan-" + i + ".ics", "0", "0"});
+    }
+    for (String[] event : events) {
+      builder.add(event[0], event[1], Integer.parseInt(event[2]), Long.parseLong(event[3]));
+    }
+    ChangeSet expected = BirthdayDiff.diff(builder.build(), contacts, HASHER);
+
+    // an in-memory diff, a few runs and more runs than are merged at once
+    for (int spillThreshold : new int[] {10_000, 100, 3}) {
+      try (SpillingDiff diff = new SpillingDiff(CAL_PATH, stateDir, spillThreshold, HASHER)) {
+        for (String[] event : events) {
+          diff.addEvent(event[0], event[1], Integer.parseInt(event[2]),
+              Long.parseLong(event[3]));
+        }
+        for (Contact contact : contacts) {
+          diff.addContact(contact);
+        }
+        assertEquals(events.size(), diff.getEventCount());
+        ChangeSet changes = diff.diff();
+        assertEquals(expected.creates(), changes.creates(), "threshold " + spillThreshold);
+        assertEquals(expected.updates(), changes.updates(), "threshold " + spillThreshold);
+        assertEquals(expected.deletes(), changes.deletes(), "threshold " + spillThreshold);
+        assertEquals(expected.unchanged(), changes.unchanged(), "threshold " + spillThreshold);
+      }
+      try (Stream<Path> files = Files.list(stateDir)) {
+        assertEquals(0, files.count(), "The runs are deleted.");
+      }
+    }
+  }
+
+  @Test
+  void testContactWithoutBirthday() {
+    SpillingDiff diff = new SpillingDiff(CAL_PATH, stateDir, 10, HASHER);
+    assertThrows(IllegalArgumentException.class,
+        () -> diff.addContact(new Contact("first", "last", "name", null, "id")));
+  }
+}
@@ -0,0 +1,134 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.DavConf;
+import codes.thischwa.bcg.conf.ShardConf;
+import codes.thischwa.bcg.conf.SyncConf;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for {@link SyncJournal} and {@link SourceFingerprint}.
+ */
+class SyncJournalTest {
+
+  private static final String CAL_URL = "https://dav.example.org/dav/user/calendar/";
+  private static final String CARD_URL = "https://dav.example.org/dav/user/contacts/";
+
+  @TempDir
+  Path stateDir;
+
+  private SyncJournal newJournal(String calUrl) {
+    return new SyncJournal(new SyncConf(stateDir.toString(), 0, 0, 0, 0),
+        new DavConf("user", "password", calUrl, CARD_URL, 1, 1, null, null),
+        new Shard(new ShardConf(1, 0)));
+  }
+
+  private static ChangeSet changes() {
+    Contact tabbed = new Contact("Jane\tMary", "Doe\\Smith", "Jane\nDoe",
+        LocalDate.of(1980, 2, 29), "jane");
+    Contact partial = new Contact(null, "Doe", null, LocalDate.of(1975, 12, 31), "john");
+    return new ChangeSet(List.of(partial), List.of(new ChangeSet.Update(tabbed, "/cal/jane.ics")),
+        List.of("/cal/gone.ics"), 3);
+  }
+
+  @Test
+  void testRoundTrip() {
+    SyncJournal journal = newJournal(CAL_URL);
+    ChangeSet changes = changes();
+    journal.begin("fp", changes).close();
+
+    SyncJournal.Checkpoint checkpoint = journal.loadPending().orElseThrow();
+    checkpoint.close();
+    assertEquals("fp", checkpoint.getSourceFingerprint());
+    assertEquals(changes.deletes(), checkpoint.getChanges().deletes());
+    assertEquals(changes.updates(), checkpoint.getChanges().updates());
+    assertEquals(changes.creates(), checkpoint.getChanges().creates());
+    assertEquals(3, checkpoint.getRemaining());
+  }
+
+  @Test
+  void testResumeWithRemainingItems() throws IOException {
+    SyncJournal journal = newJournal(CAL_URL);
+    try (SyncJournal.Checkpoint checkpoint = journal.begin("fp", changes())) {
+      checkpoint.markDone(0);
+      checkpoint.markDone(2);
+    }
+    // a torn mark of a crash is ignored
+    Files.writeString(stateDir.resolve(SyncJournal.DONE_FILE), "1",
+        StandardCharsets.US_ASCII, StandardOpenOption.APPEND);
+
+    try (SyncJournal.Checkpoint checkpoint = journal.loadPending().orElseThrow()) {
+      assertTrue(checkpoint.isDone(0));
+      assertFalse(checkpoint.isDone(1));
+      assertTrue(checkpoint.isDone(2));
+      assertEquals(1, checkpoint.getRemaining());
+    }
+
+    journal.discard();
+    assertTrue(journal.loadPending().isEmpty());
+  }
+
+  @Test
+  void testUntracked() {
+    SyncJournal journal = newJournal(CAL_URL);
+    try (SyncJournal.Checkpoint checkpoint = journal.begin(null, changes())) {
+      checkpoint.markDone(0);
+      assertEquals(2, checkpoint.getRemaining());
+    }
+    assertTrue(journal.loadPending().isEmpty());
+    assertFalse(Files.exists(stateDir.resolve(SyncJournal.PLAN_FILE)));
+  }
+
+  @Test
+  void testOtherCollectionsAndCorruptJournal() throws IOException {
+    newJournal(CAL_URL).begin("fp", changes()).close();
+    Optional<SyncJournal.Checkpoint> pending = newJournal(CAL_URL + "other/").loadPending();
+    assertTrue(pending.isEmpty());
+    assertFalse(Files.exists(stateDir.resolve(SyncJournal.PLAN_FILE)));
+
+    Files.writeString(stateDir.resolve(SyncJournal.PLAN_FILE), "garbage");
+    assertTrue(newJournal(CAL_URL).loadPending().isEmpty());
+    assertFalse(Files.exists(stateDir.resolve(SyncJournal.PLAN_FILE)));
+  }
+
+  @Test
+  void testEscape() {
+    assertEquals("\\0", SyncJournal.escape(null));
+    assertNull(SyncJournal.unescape("\\0"));
+    String value = "a\tb\\c\r\nd\\0";
+    assertEquals(value, SyncJournal.unescape(SyncJournal.escape(value)));
+  }
+
+  @Test
+  void testFingerprint() {
+    SourceFingerprint first = new SourceFingerprint();
+    first.add("/card/a.vcf", "\"1\"");
+    first.add("/card/b.vcf", "\"2\"");
+    SourceFingerprint second = new SourceFingerprint();
+    second.add("/card/b.vcf", "\"2\"");
+    second.add("/card/a.vcf", "\"1\"");
+    assertEquals(first.value(), second.value());
+
+    SourceFingerprint changed = new SourceFingerprint();
+    changed.add("/card/a.vcf", "\"1\"");
+    changed.add("/card/b.vcf", "\"3\"");
+    assertFalse(first.value().equals(changed.value()));
+
+    changed.add("/card/c.vcf", null);
+    assertNull(changed.value());
+  }
+}
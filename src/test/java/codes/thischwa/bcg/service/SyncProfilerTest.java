@@ -0,0 +1,71 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.DefaultApplicationArguments;
+
+class SyncProfilerTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testOption() {
+    assertFalse(new SyncProfiler(new DefaultApplicationArguments("--run-once")).isEnabled());
+    assertTrue(new SyncProfiler(new DefaultApplicationArguments("--profile")).isEnabled());
+    assertTrue(new SyncProfiler(new DefaultApplicationArguments("--profile=/tmp")).isEnabled());
+  }
+
+  @Test
+  void testRecordingContainsTheEventsOfTheRun() throws IOException {
+    Path directory = tempDir.resolve("profiles");
+    SyncProfiler profiler = new SyncProfiler(directory);
+    try (SyncProfiler.Session ignored = profiler.start()) {
+      SyncFlightEvents.ContactFetch fetch = new SyncFlightEvents.ContactFetch();
+      fetch.begin();
+      fetch.href = "/dav/contacts/4711.vcf";
+      fetch.bytes = 123;
+      fetch.outcome = SyncFlightEvents.OUTCOME_OK;
+      fetch.commit();
+      SyncFlightEvents.SyncPhase phase = new SyncFlightEvents.SyncPhase("diff");
+      phase.begin();
+      phase.items = 3;
+      phase.commit();
+    }
+
+    List<Path> files;
+    try (Stream<Path> list = Files.list(directory)) {
+      files = list.toList();
+    }
+    assertEquals(1, files.size());
+    assertTrue(files.get(0).getFileName().toString().matches("bcg-sync-\\d{8}-\\d{6}\\.jfr"));
+    List<RecordedEvent> events = RecordingFile.readAllEvents(files.get(0)).stream()
+        .filter(event -> event.getEventType().getName().startsWith("bcg."))
+        .toList();
+    assertEquals(2, events.size());
+    RecordedEvent fetch = events.stream()
+        .filter(event -> event.getEventType().getName().equals("bcg.ContactFetch"))
+        .findFirst().orElseThrow();
+    assertEquals("/dav/contacts/4711.vcf", fetch.getString("href"));
+    assertEquals(123, fetch.getLong("bytes"));
+  }
+
+  @Test
+  void testDisabled() {
+    SyncProfiler profiler = new SyncProfiler((Path) null);
+    try (SyncProfiler.Session session = profiler.start()) {
+      assertFalse(profiler.isEnabled());
+    }
+  }
+}
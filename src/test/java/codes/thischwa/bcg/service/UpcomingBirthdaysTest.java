@@ -0,0 +1,111 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.UpcomingConf;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UpcomingBirthdaysTest {
+
+  private static final List<Contact> CONTACTS = List.of(
+      contact("jane", LocalDate.of(1990, 1, 2)),
+      contact("john", LocalDate.of(1985, 12, 30)),
+      contact("leap", LocalDate.of(2000, 2, 29)),
+      contact("max", LocalDate.of(1970, 12, 30)),
+      contact("unknown", null));
+
+  @TempDir
+  Path stateDir;
+
+  @Test
+  void testQueryAcrossTheTurnOfTheYear() {
+    UpcomingBirthdays upcoming = new UpcomingBirthdays(stateDir);
+    upcoming.update(CONTACTS, null);
+    assertEquals(4, upcoming.size());
+
+    List<UpcomingBirthdays.UpcomingBirthday> result =
+        upcoming.query(LocalDate.of(2024, 12, 29), 4);
+    assertEquals(List.of("john", "max", "jane"), identifiers(result));
+    assertEquals(LocalDate.of(2025, 1, 2), result.get(2).date());
+    assertEquals(35, result.get(2).getAge());
+
+    assertTrue(upcoming.query(LocalDate.of(2024, 12, 31), 1).isEmpty());
+    assertEquals(List.of("john", "max"), identifiers(upcoming.query(LocalDate.of(2024, 12, 30), 0)));
+  }
+
+  @Test
+  void testQueryOfLeapDay() {
+    UpcomingBirthdays upcoming = new UpcomingBirthdays(stateDir);
+    upcoming.update(CONTACTS, null);
+
+    List<UpcomingBirthdays.UpcomingBirthday> result =
+        upcoming.query(LocalDate.of(2025, 2, 27), 2);
+    assertEquals(List.of("leap"), identifiers(result));
+    assertEquals(LocalDate.of(2025, 2, 28), result.get(0).date());
+    assertEquals(LocalDate.of(2028, 2, 29), upcoming.query(LocalDate.of(2028, 2, 28), 1).get(0)
+        .date());
+    assertThrows(IllegalArgumentException.class,
+        () -> upcoming.query(LocalDate.of(2025, 1, 1), UpcomingBirthdays.MAX_DAYS + 1));
+  }
+
+  @Test
+  void testIndexIsLoadedFromTheStateDirectory() {
+    new UpcomingBirthdays(stateDir).update(CONTACTS, "5-fingerprint");
+
+    UpcomingBirthdays loaded = new UpcomingBirthdays(stateDir);
+    assertEquals(4, loaded.size());
+    assertEquals("5-fingerprint", loaded.getSourceFingerprint());
+    UpcomingBirthdays.UpcomingBirthday jane = loaded.query(LocalDate.of(2025, 1, 2), 0).get(0);
+    assertEquals(CONTACTS.get(0), jane.contact());
+  }
+
+  @Test
+  void testEndpoint() throws IOException, InterruptedException {
+    UpcomingBirthdays upcoming = new UpcomingBirthdays(stateDir);
+    LocalDate today = LocalDate.now();
+    upcoming.update(List.of(contact("jane", today.plusDays(1).minusYears(30))), null);
+    UpcomingBirthdaysEndpoint endpoint = new UpcomingBirthdaysEndpoint(
+        new UpcomingConf("localhost", 0, 30), upcoming, new ObjectMapper());
+    endpoint.start();
+    try {
+      HttpClient client = HttpClient.newHttpClient();
+      String url = "http://localhost:" + endpoint.getPort() + UpcomingBirthdaysEndpoint.PATH;
+      HttpResponse<String> response = client.send(
+          HttpRequest.newBuilder(URI.create(url + "?days=7")).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      JsonNode birthdays = new ObjectMapper().readTree(response.body());
+      assertEquals(1, birthdays.size());
+      assertEquals(today.plusDays(1).toString(), birthdays.get(0).get("date").asText());
+      assertEquals("jane", birthdays.get(0).get("identifier").asText());
+
+      assertEquals(400, client.send(HttpRequest.newBuilder(URI.create(url + "?days=x")).build(),
+          HttpResponse.BodyHandlers.discarding()).statusCode());
+    } finally {
+      endpoint.close();
+    }
+  }
+
+  private static List<String> identifiers(List<UpcomingBirthdays.UpcomingBirthday> birthdays) {
+    return birthdays.stream().map(b -> b.contact().identifier()).toList();
+  }
+
+  private static Contact contact(String identifier, LocalDate birthday) {
+    return new Contact("First " + identifier, "Last", "First " + identifier + " Last", birthday,
+        identifier);
+  }
+}
@@ -0,0 +1,112 @@
+package codes.thischwa.bcg.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import codes.thischwa.bcg.Contact;
+import codes.thischwa.bcg.conf.PipelineConf;
+import codes.thischwa.bcg.conf.ShardConf;
+import codes.thischwa.bcg.load.ContactGenerator;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the {@link VCardExportContactSource}: the vCards of a single file are split at the
+ * chunk boundaries and parsed in parallel.
+ */
+class VCardExportContactSourceTest {
+
+  @TempDir
+  private Path tempDir;
+
+  @Test
+  void testContactsAreReadAcrossChunks() throws IOException {
+    List<Contact> contacts = new ContactGenerator(5L, 0.2).generate(200);
+    StringBuilder export = new StringBuilder();
+    for (Contact contact : contacts) {
+      export.append(ContactGenerator.toVCard(contact));
+    }
+    Path file = Files.writeString(tempDir.resolve("export.vcf"), export);
+
+    // chunks smaller than a vCard, so most vCards cross a chunk boundary
+    List<Contact> read = read(new VCardExportContactSource(file, 100,
+        new Shard(new ShardConf(1, 0)), new PipelineConf(4, 1, 4, 1), ObservationRegistry.NOOP));
+
+    List<Contact> withBirthday = contacts.stream()
+        .filter(contact -> contact.birthday() != null).toList();
+    assertEquals(sorted(withBirthday), sorted(read));
+  }
+
+  @Test
+  void testBoundariesAndIdentifiers() throws IOException {
+    Path file = Files.writeString(tempDir.resolve("export.vcf"), """
+        begin:vcard
+        VERSION:3.0
+        UID:urn:uuid:4a1f-b2
+        N:Doe;Jane;;;
+        FN:Jane Doe
+        BDAY:19800102
+        end:vcard
+        NOTE:BEGIN:VCARD within a line isn't a boundary
+        BEGIN:VCARD
+        VERSION:3.0
+        N:Roe;Richard;;;
+        FN:Richard Roe
+        BDAY:19750304
+        END:VCARD""");
+
+    List<Contact> read = read(new VCardExportContactSource(file, 16,
+        new Shard(new ShardConf(1, 0)), new PipelineConf(4, 1, 2, 1), ObservationRegistry.NOOP));
+
+    assertEquals(2, read.size());
+    assertEquals("4a1f-b2", read.get(0).identifier());
+    assertTrue(read.get(1).identifier().startsWith("vcard-"),
+        "A vCard without UID is identified by its name and birthday.");
+  }
+
+  @Test
+  void testUnterminatedVCard() throws IOException {
+    Path file = Files.writeString(tempDir.resolve("export.vcf"), """
+        BEGIN:VCARD
+        N:Doe;Jane;;;
+        BDAY:19800102
+        """);
+    VCardExportContactSource source = new VCardExportContactSource(file,
+        new Shard(new ShardConf(1, 0)), new PipelineConf(4, 1, 1, 1), ObservationRegistry.NOOP);
+
+    assertThrows(IllegalArgumentException.class, () -> read(source));
+  }
+
+  @Test
+  void testFingerprintChangesWithTheFile() throws IOException {
+    Path file = Files.writeString(tempDir.resolve("export.vcf"), "");
+    VCardExportContactSource source = new VCardExportContactSource(file,
+        new Shard(new ShardConf(1, 0)), new PipelineConf(4, 1, 1, 1), ObservationRegistry.NOOP);
+    String fingerprint = source.fingerprintContacts();
+
+    Files.writeString(file, ContactGenerator.toVCard(new ContactGenerator(1L, 0).generate(1)
+        .get(0)));
+    assertNotEquals(fingerprint, source.fingerprintContacts());
+  }
+
+  private static List<Contact> read(VCardExportContactSource source) throws IOException {
+    Pipeline pipeline = new Pipeline("bcg-card", 4);
+    Supplier<List<Contact>> contacts =
+        source.readContactsWithBirthday(pipeline, new SourceFingerprint());
+    pipeline.run();
+    return contacts.get();
+  }
+
+  private static List<Contact> sorted(List<Contact> contacts) {
+    return contacts.stream().sorted(Comparator.comparing(Contact::identifier)).toList();
+  }
+}